@@ -130,9 +130,7 @@ public class Accelerometer extends Aware_Sensor implements SensorEventListener {
         data_values.add(rowData);
         LAST_TS = TS;
 
-        Intent accelData = new Intent(ACTION_AWARE_ACCELEROMETER);
-        accelData.putExtra(EXTRA_DATA, rowData);
-        sendBroadcast(accelData);
+        broadcastSample(rowData);
 
         if (Aware.DEBUG) Log.d(TAG, "Accelerometer: " + rowData.toString());
 
@@ -275,6 +273,10 @@ public class Accelerometer extends Aware_Sensor implements SensorEventListener {
                     Aware.setSetting(this, Aware_Preferences.THRESHOLD_ACCELEROMETER, 0.0);
                 }
 
+                setBroadcastPolicy(ACTION_AWARE_ACCELEROMETER, EXTRA_DATA,
+                        Aware.getSetting(this, Aware_Preferences.BROADCAST_ACCELEROMETER),
+                        Aware.getSetting(this, Aware_Preferences.BROADCAST_RATE_ACCELEROMETER));
+
                 int new_frequency = Integer.parseInt(Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_ACCELEROMETER));
                 double new_threshold = Double.parseDouble(Aware.getSetting(getApplicationContext(), Aware_Preferences.THRESHOLD_ACCELEROMETER));
                 boolean new_enforce_frequency = (Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_ACCELEROMETER_ENFORCE).equals("true")
@@ -10,25 +10,35 @@ import android.app.IntentService;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.OperationApplicationException;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteException;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.RemoteException;
 import android.provider.Settings;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.WakefulBroadcastReceiver;
+import android.support.v4.util.LruCache;
 import android.support.v4.view.accessibility.AccessibilityEventCompat;
 import android.support.v4.view.accessibility.AccessibilityManagerCompat;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityManager;
@@ -38,15 +48,20 @@ import com.aware.providers.Applications_Provider.Applications_Crashes;
 import com.aware.providers.Applications_Provider.Applications_Foreground;
 import com.aware.providers.Applications_Provider.Applications_History;
 import com.aware.providers.Applications_Provider.Applications_Notifications;
+import com.aware.providers.Aware_Provider;
 import com.aware.providers.Keyboard_Provider;
+import com.aware.utils.ContextBus;
 import com.aware.utils.Encrypter;
 import com.aware.utils.Scheduler;
 import com.aware.utils.WebserviceHelper;
 
 import org.json.JSONException;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Service that logs application usage on the device.
@@ -91,25 +106,170 @@ public class Applications extends AccessibilityService {
 
     private static final String SCHEDULER_APPLICATIONS_BACKGROUND = "SCHEDULER_APPLICATIONS_BACKGROUND";
 
+    private static final int PACKAGE_CACHE_SIZE = 128;
+
     /**
-     * Given a package name, get application label in the default language of the device
+     * Recently seen packages' metadata, so repeated events don't go through PackageManager.
+     * Entries are dropped by {@link Aware.AndroidPackageMonitor} when a package is installed, updated or removed.
+     */
+    private static final LruCache<String, PackageMetadata> packageCache = new LruCache<>(PACKAGE_CACHE_SIZE);
+
+    /**
+     * Keyboard edits of the same field closer than this, in milliseconds, are stored as a single row
+     */
+    private static final long KEYBOARD_BURST = 2000;
+
+    /**
+     * Notifications are stored in batches, at most Aware_Preferences.NOTIFICATIONS_BUFFER after they are posted
+     */
+    private static final int NOTIFICATIONS_BATCH = 25;
+
+    /**
+     * Notifications and keyboard edits are stored from this thread, keeping the accessibility callbacks short
+     */
+    private HandlerThread ingestionThread = null;
+    private Handler ingestionHandler = null;
+
+    //Buffered on the ingestion thread
+    private final ArrayList<ContentValues> notifications = new ArrayList<>();
+    private ContentValues typing = null;
+    private String typing_field = null;
+    private String typing_text = null;
+
+    private final Runnable flushNotifications = new Runnable() {
+        @Override
+        public void run() {
+            saveNotifications();
+        }
+    };
+
+    private final Runnable flushKeyboard = new Runnable() {
+        @Override
+        public void run() {
+            saveKeyboard();
+        }
+    };
+
+    /**
+     * Package currently on the foreground, restored from the database on the first event
+     */
+    private static String foreground_package = null;
+
+    /**
+     * Settings used for every accessibility event, reloaded when the settings change
+     */
+    private static boolean status_applications = false;
+    private static boolean status_notifications = false;
+    private static boolean status_crashes = false;
+    private static boolean status_keyboard = false;
+    private static long notifications_buffer = 5000;
+    private static String device_id = "";
+
+    private final ContentObserver settingsObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            loadSettings();
+        }
+    };
+
+    private void loadSettings() {
+        status_applications = Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_APPLICATIONS).equals("true");
+        status_notifications = Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_NOTIFICATIONS).equals("true");
+        status_crashes = Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_CRASHES).equals("true");
+        status_keyboard = Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_KEYBOARD).equals("true");
+        try {
+            notifications_buffer = Math.max(0, Long.parseLong(Aware.getSetting(getApplicationContext(), Aware_Preferences.NOTIFICATIONS_BUFFER))) * 1000;
+        } catch (NumberFormatException e) {
+            notifications_buffer = 5000;
+        }
+        device_id = Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID);
+    }
+
+    /**
+     * Label, system flag and version of a package
+     */
+    public static final class PackageMetadata {
+        public final String package_name;
+        public final boolean installed;
+        public final String label;
+        public final boolean is_system;
+        public final int version_code;
+
+        private PackageMetadata(String package_name, boolean installed, String label, boolean is_system, int version_code) {
+            this.package_name = package_name;
+            this.installed = installed;
+            this.label = label;
+            this.is_system = is_system;
+            this.version_code = version_code;
+        }
+    }
+
+    /**
+     * Get a package's label in the default language of the device, system flag and version.
+     * Results are cached until the package changes.
      *
+     * @param context
      * @param package_name
-     * @return appName
+     * @return metadata, with installed = false if the package is not found
      */
-    private String getApplicationName(String package_name) {
-        PackageManager packageManager = getPackageManager();
-        ApplicationInfo appInfo;
+    public static PackageMetadata getPackageMetadata(Context context, String package_name) {
+        PackageMetadata metadata = packageCache.get(package_name);
+        if (metadata != null) return metadata;
+
+        PackageManager packageManager = context.getPackageManager();
+        PackageInfo pkgInfo;
         try {
-            appInfo = packageManager.getApplicationInfo(package_name, PackageManager.GET_META_DATA);
-        } catch (final NameNotFoundException e) {
-            appInfo = null;
+            pkgInfo = packageManager.getPackageInfo(package_name, PackageManager.GET_META_DATA);
+        } catch (NameNotFoundException | NullPointerException | Resources.NotFoundException e) {
+            pkgInfo = null;
         }
+
         String appName = "";
-        if (appInfo != null && packageManager.getApplicationLabel(appInfo) != null) {
-            appName = (String) packageManager.getApplicationLabel(appInfo);
+        try {
+            if (pkgInfo != null && pkgInfo.applicationInfo != null && packageManager.getApplicationLabel(pkgInfo.applicationInfo) != null) {
+                appName = packageManager.getApplicationLabel(pkgInfo.applicationInfo).toString();
+            }
+        } catch (Resources.NotFoundException | NullPointerException e) {
+            appName = "";
         }
-        return appName;
+
+        metadata = new PackageMetadata(package_name, pkgInfo != null, appName, isSystemPackage(pkgInfo), (pkgInfo != null) ? pkgInfo.versionCode : -1);
+        packageCache.put(package_name, metadata);
+        return metadata;
+    }
+
+    /**
+     * Forget the cached metadata of a package, e.g., when it is installed, updated or removed
+     *
+     * @param package_name
+     */
+    public static void invalidatePackage(String package_name) {
+        packageCache.remove(package_name);
+    }
+
+    /**
+     * Given a package name, get application label in the default language of the device
+     *
+     * @param package_name
+     * @return appName
+     */
+    private String getApplicationName(String package_name) {
+        return getPackageMetadata(getApplicationContext(), package_name).label;
+    }
+
+    /**
+     * Package name of the last foreground application stored in the database
+     *
+     * @return package name, or an empty string
+     */
+    private String getLastForeground() {
+        String last = "";
+        Cursor last_foreground = getContentResolver().query(Applications_Foreground.CONTENT_URI, new String[]{Applications_Foreground.PACKAGE_NAME}, null, null, Applications_Foreground.TIMESTAMP + " DESC LIMIT 1");
+        if (last_foreground != null && last_foreground.moveToFirst()) {
+            last = last_foreground.getString(last_foreground.getColumnIndex(Applications_Foreground.PACKAGE_NAME));
+        }
+        if (last_foreground != null && !last_foreground.isClosed()) last_foreground.close();
+        return last;
     }
 
     /**
@@ -126,72 +286,46 @@ public class Applications extends AccessibilityService {
             startService(aware);
         }
 
-        if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_NOTIFICATIONS).equals("true") && event.getEventType() == AccessibilityEvent.TYPE_NOTIFICATION_STATE_CHANGED) {
+        if (status_notifications && event.getEventType() == AccessibilityEvent.TYPE_NOTIFICATION_STATE_CHANGED) {
             Notification notificationDetails = (Notification) event.getParcelableData();
             if (notificationDetails != null) {
-                ContentValues rowData = new ContentValues();
-                rowData.put(Applications_Notifications.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
+                //the label and hash are done on the ingestion thread
+                final ContentValues rowData = new ContentValues();
+                rowData.put(Applications_Notifications.DEVICE_ID, device_id);
                 rowData.put(Applications_Notifications.TIMESTAMP, System.currentTimeMillis());
                 rowData.put(Applications_Notifications.PACKAGE_NAME, event.getPackageName().toString());
-                rowData.put(Applications_Notifications.APPLICATION_NAME, getApplicationName(event.getPackageName().toString()));
-                rowData.put(Applications_Notifications.TEXT, Encrypter.hash(getApplicationContext(), event.getText().toString()));
+                rowData.put(Applications_Notifications.TEXT, event.getText().toString());
                 rowData.put(Applications_Notifications.SOUND, ((notificationDetails.sound != null) ? notificationDetails.sound.toString() : ""));
                 rowData.put(Applications_Notifications.VIBRATE, ((notificationDetails.vibrate != null) ? notificationDetails.vibrate.toString() : ""));
                 rowData.put(Applications_Notifications.DEFAULTS, notificationDetails.defaults);
                 rowData.put(Applications_Notifications.FLAGS, notificationDetails.flags);
 
-                if (DEBUG) Log.d(TAG, "New notification:" + rowData.toString());
-
-                getContentResolver().insert(Applications_Notifications.CONTENT_URI, rowData);
-                Intent notification = new Intent(ACTION_AWARE_APPLICATIONS_NOTIFICATIONS);
-                notification.putExtra(EXTRA_DATA, rowData);
-                sendBroadcast(notification);
+                ingestionHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        queueNotification(rowData);
+                    }
+                });
             }
         }
 
-        if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_APPLICATIONS).equals("true") && event.getEventType() == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED) {
-            PackageManager packageManager = getPackageManager();
+        if (status_applications && event.getEventType() == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED) {
+            String package_name = event.getPackageName().toString();
 
             //Fixed: Window State Changed from the same application (showing keyboard within an app) should be ignored
-            boolean same_app = false;
-            Cursor last_foreground = getContentResolver().query(Applications_Foreground.CONTENT_URI, null, null, null, Applications_Foreground.TIMESTAMP + " DESC LIMIT 1");
-            if (last_foreground != null && last_foreground.moveToFirst()) {
-                if (last_foreground.getString(last_foreground.getColumnIndex(Applications_Foreground.PACKAGE_NAME)).equals(event.getPackageName())) {
-                    same_app = true;
-                }
-            }
-            if (last_foreground != null && !last_foreground.isClosed()) last_foreground.close();
+            if (foreground_package == null) foreground_package = getLastForeground();
 
-            if (!same_app) {
-                ApplicationInfo appInfo;
-                try {
-                    appInfo = packageManager.getApplicationInfo(event.getPackageName().toString(), PackageManager.GET_META_DATA);
-                } catch (NameNotFoundException | NullPointerException | Resources.NotFoundException e) {
-                    appInfo = null;
-                }
+            if (!foreground_package.equals(package_name)) {
+                foreground_package = package_name;
 
-                PackageInfo pkgInfo;
-                try {
-                    pkgInfo = packageManager.getPackageInfo(event.getPackageName().toString(), PackageManager.GET_META_DATA);
-                } catch (NameNotFoundException | NullPointerException | Resources.NotFoundException e) {
-                    pkgInfo = null;
-                }
-
-                String appName = "";
-                try {
-                    if (appInfo != null) {
-                        appName = packageManager.getApplicationLabel(appInfo).toString();
-                    }
-                } catch (Resources.NotFoundException | NullPointerException e) {
-                    appName = "";
-                }
+                PackageMetadata metadata = getPackageMetadata(getApplicationContext(), package_name);
 
                 ContentValues rowData = new ContentValues();
                 rowData.put(Applications_Foreground.TIMESTAMP, System.currentTimeMillis());
-                rowData.put(Applications_Foreground.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
-                rowData.put(Applications_Foreground.PACKAGE_NAME, event.getPackageName().toString());
-                rowData.put(Applications_Foreground.APPLICATION_NAME, appName);
-                rowData.put(Applications_Foreground.IS_SYSTEM_APP, pkgInfo != null && isSystemPackage(pkgInfo));
+                rowData.put(Applications_Foreground.DEVICE_ID, device_id);
+                rowData.put(Applications_Foreground.PACKAGE_NAME, package_name);
+                rowData.put(Applications_Foreground.APPLICATION_NAME, metadata.label);
+                rowData.put(Applications_Foreground.IS_SYSTEM_APP, metadata.is_system);
 
                 if (DEBUG) Log.d(TAG, "FOREGROUND: " + rowData.toString());
 
@@ -203,10 +337,10 @@ public class Applications extends AccessibilityService {
 
                 Intent newForeground = new Intent(ACTION_AWARE_APPLICATIONS_FOREGROUND);
                 newForeground.putExtra(EXTRA_DATA, rowData);
-                sendBroadcast(newForeground);
+                ContextBus.post(getApplicationContext(), newForeground);
             }
 
-            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_CRASHES).equals("true")) {
+            if (status_crashes) {
                 //Check if there is a crashed application
                 ActivityManager activityMng = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
                 List<ProcessErrorStateInfo> errors = activityMng.getProcessesInErrorState();
@@ -217,17 +351,14 @@ public class Applications extends AccessibilityService {
 
                         ActivityManager.ProcessErrorStateInfo error = iter.next();
 
-                        try {
-                            PackageInfo pkgInfo = packageManager.getPackageInfo(error.processName, PackageManager.GET_META_DATA);
-                            ApplicationInfo appInfo = packageManager.getApplicationInfo(event.getPackageName().toString(), PackageManager.GET_META_DATA);
-                            String appName = (appInfo != null) ? (String) packageManager.getApplicationLabel(appInfo) : "";
-
+                        PackageMetadata metadata = getPackageMetadata(getApplicationContext(), error.processName);
+                        if (metadata.installed) {
                             ContentValues crashData = new ContentValues();
                             crashData.put(Applications_Crashes.TIMESTAMP, System.currentTimeMillis());
-                            crashData.put(Applications_Crashes.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
+                            crashData.put(Applications_Crashes.DEVICE_ID, device_id);
                             crashData.put(Applications_Crashes.PACKAGE_NAME, error.processName);
-                            crashData.put(Applications_Crashes.APPLICATION_NAME, appName);
-                            crashData.put(Applications_Crashes.APPLICATION_VERSION, (pkgInfo != null) ? pkgInfo.versionCode : -1); //some prepackages don't have version codes...
+                            crashData.put(Applications_Crashes.APPLICATION_NAME, metadata.label);
+                            crashData.put(Applications_Crashes.APPLICATION_VERSION, metadata.version_code); //some prepackages don't have version codes...
                             crashData.put(Applications_Crashes.ERROR_SHORT, error.shortMsg);
 
                             String error_long = "";
@@ -236,7 +367,7 @@ public class Applications extends AccessibilityService {
 
                             crashData.put(Applications_Crashes.ERROR_LONG, error_long);
                             crashData.put(Applications_Crashes.ERROR_CONDITION, error.condition);
-                            crashData.put(Applications_Crashes.IS_SYSTEM_APP, pkgInfo != null && isSystemPackage(pkgInfo));
+                            crashData.put(Applications_Crashes.IS_SYSTEM_APP, metadata.is_system);
 
                             getContentResolver().insert(Applications_Crashes.CONTENT_URI, crashData);
 
@@ -245,29 +376,30 @@ public class Applications extends AccessibilityService {
                             Intent crashed = new Intent(ACTION_AWARE_APPLICATIONS_CRASHES);
                             crashed.putExtra(EXTRA_DATA, crashData);
                             sendBroadcast(crashed);
-                        } catch (NameNotFoundException e) {
-                            e.printStackTrace();
                         }
                     }
                 }
             }
         }
 
-        if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_KEYBOARD).equals("true") && event.getEventType() == AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED) {
-            ContentValues keyboard = new ContentValues();
+        if (status_keyboard && event.getEventType() == AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED) {
+            final ContentValues keyboard = new ContentValues();
             keyboard.put(Keyboard_Provider.Keyboard_Data.TIMESTAMP, System.currentTimeMillis());
-            keyboard.put(Keyboard_Provider.Keyboard_Data.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
-            keyboard.put(Keyboard_Provider.Keyboard_Data.PACKAGE_NAME, (String) event.getPackageName());
-            keyboard.put(Keyboard_Provider.Keyboard_Data.BEFORE_TEXT, (String) event.getBeforeText());
+            keyboard.put(Keyboard_Provider.Keyboard_Data.DEVICE_ID, device_id);
+            keyboard.put(Keyboard_Provider.Keyboard_Data.PACKAGE_NAME, event.getPackageName().toString());
+            keyboard.put(Keyboard_Provider.Keyboard_Data.BEFORE_TEXT, (event.getBeforeText() != null) ? event.getBeforeText().toString() : null);
             keyboard.put(Keyboard_Provider.Keyboard_Data.CURRENT_TEXT, event.getText().toString());
             keyboard.put(Keyboard_Provider.Keyboard_Data.IS_PASSWORD, event.isPassword());
 
-            getContentResolver().insert(Keyboard_Provider.Keyboard_Data.CONTENT_URI, keyboard);
-
-            if (DEBUG) Log.d(TAG, "Keyboard: " + keyboard.toString());
+            final String field = event.getPackageName() + "/" + event.getClassName();
+            final String text = TextUtils.join("", event.getText());
 
-            Intent keyboard_data = new Intent(Keyboard.ACTION_AWARE_KEYBOARD);
-            sendBroadcast(keyboard_data);
+            ingestionHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    queueKeyboard(field, text, keyboard);
+                }
+            });
         }
     }
 
@@ -288,6 +420,9 @@ public class Applications extends AccessibilityService {
         //This makes sure that plugins and apps can check if the accessibility service is active
         Aware.setSetting(this, Applications.STATUS_AWARE_ACCESSIBILITY, true);
 
+        loadSettings();
+        getContentResolver().registerContentObserver(Aware_Provider.Aware_Settings.CONTENT_URI, true, settingsObserver);
+
         IntentFilter webservices = new IntentFilter();
         webservices.addAction(Aware.ACTION_AWARE_SYNC_DATA);
         webservices.addAction(Aware.ACTION_AWARE_CLEAR_DATA);
@@ -369,6 +504,8 @@ public class Applications extends AccessibilityService {
 
         Aware.setSetting(this, Applications.STATUS_AWARE_ACCESSIBILITY, false);
 
+        getContentResolver().unregisterContentObserver(settingsObserver);
+
         Scheduler.removeSchedule(this, SCHEDULER_APPLICATIONS_BACKGROUND);
 
         Log.d(TAG, "Accessibility Service has been unbound...");
@@ -384,13 +521,123 @@ public class Applications extends AccessibilityService {
         return START_STICKY;
     }
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        ingestionThread = new HandlerThread(TAG + " ingestion");
+        ingestionThread.start();
+        ingestionHandler = new Handler(ingestionThread.getLooper());
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
 
+        //store what is still buffered, then stop
+        ingestionHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                saveKeyboard();
+                saveNotifications();
+                ingestionThread.quit();
+            }
+        });
+
         Aware.debug(this, "destroyed: " + getClass().getName() + " package: " + getPackageName());
     }
 
+    /**
+     * Buffer a notification, stored within the notifications buffer time or once NOTIFICATIONS_BATCH are buffered.
+     * Stored right away if something in this app is waiting for it. Runs on the ingestion thread.
+     *
+     * @param rowData notification, with the plain text
+     */
+    private void queueNotification(ContentValues rowData) {
+        String package_name = rowData.getAsString(Applications_Notifications.PACKAGE_NAME);
+        rowData.put(Applications_Notifications.APPLICATION_NAME, getApplicationName(package_name));
+        rowData.put(Applications_Notifications.TEXT, Encrypter.hash(getApplicationContext(), rowData.getAsString(Applications_Notifications.TEXT)));
+
+        if (DEBUG) Log.d(TAG, "New notification:" + rowData.toString());
+
+        notifications.add(rowData);
+        if (notifications.size() >= NOTIFICATIONS_BATCH || notifications_buffer == 0
+                || ContextBus.hasSubscribers(ACTION_AWARE_APPLICATIONS_NOTIFICATIONS) || Scheduler.hasConditions(Applications_Notifications.CONTENT_URI)) {
+            saveNotifications();
+        } else if (notifications.size() == 1) {
+            ingestionHandler.postDelayed(flushNotifications, notifications_buffer);
+        }
+    }
+
+    private void saveNotifications() {
+        ingestionHandler.removeCallbacks(flushNotifications);
+        if (notifications.size() == 0) return;
+
+        ContentValues[] rows = new ContentValues[notifications.size()];
+        notifications.toArray(rows);
+        notifications.clear();
+
+        try {
+            getContentResolver().bulkInsert(Applications_Notifications.CONTENT_URI, rows);
+        } catch (SQLException | IllegalArgumentException e) {
+            if (DEBUG) Log.d(TAG, e.getMessage());
+        }
+
+        for (ContentValues rowData : rows) {
+            Intent notification = new Intent(ACTION_AWARE_APPLICATIONS_NOTIFICATIONS);
+            notification.putExtra(EXTRA_DATA, rowData);
+            ContextBus.post(getApplicationContext(), notification);
+        }
+    }
+
+    /**
+     * Merge a keyboard edit into the current typing burst, or start a new one. Edits continue a burst when they are
+     * in the same field, start from the text the burst ended with and come within KEYBOARD_BURST of each other.
+     * Runs on the ingestion thread.
+     *
+     * @param field   package and view class of the edited field
+     * @param text    text after the edit
+     * @param keyboard edit
+     */
+    private void queueKeyboard(String field, String text, ContentValues keyboard) {
+        String before = keyboard.getAsString(Keyboard_Provider.Keyboard_Data.BEFORE_TEXT);
+        if (typing != null && field.equals(typing_field) && typing_text.equals(before)
+                && typing.getAsBoolean(Keyboard_Provider.Keyboard_Data.IS_PASSWORD).equals(keyboard.getAsBoolean(Keyboard_Provider.Keyboard_Data.IS_PASSWORD))
+                && keyboard.getAsLong(Keyboard_Provider.Keyboard_Data.TIMESTAMP) - typing.getAsLong(Keyboard_Provider.Keyboard_Data.TIMESTAMP) < KEYBOARD_BURST) {
+            typing.put(Keyboard_Provider.Keyboard_Data.TIMESTAMP, keyboard.getAsLong(Keyboard_Provider.Keyboard_Data.TIMESTAMP));
+            typing.put(Keyboard_Provider.Keyboard_Data.CURRENT_TEXT, keyboard.getAsString(Keyboard_Provider.Keyboard_Data.CURRENT_TEXT));
+        } else {
+            saveKeyboard();
+            typing = keyboard;
+            typing_field = field;
+        }
+        typing_text = text;
+
+        ingestionHandler.removeCallbacks(flushKeyboard);
+        ingestionHandler.postDelayed(flushKeyboard, KEYBOARD_BURST);
+    }
+
+    private void saveKeyboard() {
+        ingestionHandler.removeCallbacks(flushKeyboard);
+        if (typing == null) return;
+
+        ContentValues keyboard = typing;
+        typing = null;
+        typing_field = null;
+        typing_text = null;
+
+        try {
+            getContentResolver().insert(Keyboard_Provider.Keyboard_Data.CONTENT_URI, keyboard);
+        } catch (SQLException | IllegalArgumentException e) {
+            if (DEBUG) Log.d(TAG, e.getMessage());
+        }
+
+        if (DEBUG) Log.d(TAG, "Keyboard: " + keyboard.toString());
+
+        Intent keyboard_data = new Intent(Keyboard.ACTION_AWARE_KEYBOARD);
+        ContextBus.post(getApplicationContext(), keyboard_data);
+    }
+
     private synchronized static boolean isAccessibilityEnabled(Context context) {
         boolean enabled = false;
 
@@ -530,6 +777,13 @@ public class Applications extends AccessibilityService {
             super(TAG + " background service");
         }
 
+        /**
+         * Processes seen on the last poll and their open history row: "pid:importance:process" -> row _id.
+         * Processes that are not packages are kept with row _id -1 so they are only looked up once.
+         * Restored from the open rows in the database on the first poll.
+         */
+        private static HashMap<String, Long> running = null;
+
         @Override
         protected void onHandleIntent(Intent intent) {
 
@@ -543,98 +797,77 @@ public class Applications extends AccessibilityService {
             if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_APPLICATIONS).equals("true") && intent.getAction().equals(ACTION_AWARE_APPLICATIONS_HISTORY)) {
 
                 ActivityManager activityManager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
-                PackageManager packageManager = getPackageManager();
                 List<RunningAppProcessInfo> runningApps = activityManager.getRunningAppProcesses();
 
                 if (runningApps == null) return;
 
                 if (DEBUG) Log.d(TAG, "Running " + runningApps.size() + " applications");
 
+                if (running == null) running = getOpenProcesses();
+
+                HashMap<String, RunningAppProcessInfo> current = new HashMap<>();
                 for (RunningAppProcessInfo app : runningApps) {
+                    current.put(processKey(app.pid, app.importance, app.processName), app);
+                }
+
+                long now = System.currentTimeMillis();
+                ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+
+                //Close applications that are not running anymore, or changed importance
+                Iterator<Map.Entry<String, Long>> previous = running.entrySet().iterator();
+                while (previous.hasNext()) {
+                    Map.Entry<String, Long> process = previous.next();
+                    if (current.containsKey(process.getKey())) continue;
+                    if (process.getValue() > 0) {
+                        operations.add(ContentProviderOperation.newUpdate(Applications_History.CONTENT_URI)
+                                .withValue(Applications_History.END_TIMESTAMP, now)
+                                .withSelection(Applications_History._ID + "=" + process.getValue(), null)
+                                .build());
+                    }
+                    previous.remove();
+                }
+                int closed = operations.size();
+
+                //Open applications that just started, or changed importance
+                String device_id = Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID);
+                ArrayList<String> started = new ArrayList<>();
+                for (Map.Entry<String, RunningAppProcessInfo> process : current.entrySet()) {
+                    if (running.containsKey(process.getKey())) continue;
+
+                    RunningAppProcessInfo app = process.getValue();
+                    PackageMetadata metadata = getPackageMetadata(getApplicationContext(), app.processName);
+                    if (!metadata.installed) {
+                        running.put(process.getKey(), -1L);
+                        continue;
+                    }
+
+                    ContentValues rowData = new ContentValues();
+                    rowData.put(Applications_History.TIMESTAMP, now);
+                    rowData.put(Applications_History.DEVICE_ID, device_id);
+                    rowData.put(Applications_History.PACKAGE_NAME, app.processName);
+                    rowData.put(Applications_History.APPLICATION_NAME, metadata.label);
+                    rowData.put(Applications_History.PROCESS_IMPORTANCE, app.importance);
+                    rowData.put(Applications_History.PROCESS_ID, app.pid);
+                    rowData.put(Applications_History.END_TIMESTAMP, 0);
+                    rowData.put(Applications_History.IS_SYSTEM_APP, metadata.is_system);
+                    operations.add(ContentProviderOperation.newInsert(Applications_History.CONTENT_URI).withValues(rowData).build());
+                    started.add(process.getKey());
+                }
+
+                if (operations.size() > 0) {
                     try {
-                        PackageInfo appPkg = packageManager.getPackageInfo(app.processName, PackageManager.GET_META_DATA);
-                        ApplicationInfo appInfo = packageManager.getApplicationInfo(app.processName, PackageManager.GET_META_DATA);
-
-                        String appName = (appInfo != null) ? (String) packageManager.getApplicationLabel(appInfo) : "";
-
-                        Cursor appUnclosed = getContentResolver().query(Applications_History.CONTENT_URI, null, Applications_History.PACKAGE_NAME + " LIKE '%" + app.processName + "%' AND " + Applications_History.PROCESS_ID + "=" + app.pid + " AND " + Applications_History.END_TIMESTAMP + "=0", null, null);
-                        if (appUnclosed == null || !appUnclosed.moveToFirst()) {
-                            ContentValues rowData = new ContentValues();
-                            rowData.put(Applications_History.TIMESTAMP, System.currentTimeMillis());
-                            rowData.put(Applications_History.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
-                            rowData.put(Applications_History.PACKAGE_NAME, app.processName);
-                            rowData.put(Applications_History.APPLICATION_NAME, appName);
-                            rowData.put(Applications_History.PROCESS_IMPORTANCE, app.importance);
-                            rowData.put(Applications_History.PROCESS_ID, app.pid);
-                            rowData.put(Applications_History.END_TIMESTAMP, 0);
-                            rowData.put(Applications_History.IS_SYSTEM_APP, isSystemPackage(appPkg));
-                            try {
-                                getContentResolver().insert(Applications_History.CONTENT_URI, rowData);
-                            } catch (SQLiteException e) {
-                                if (DEBUG) Log.d(TAG, e.getMessage());
-                            } catch (SQLException e) {
-                                if (DEBUG) Log.d(TAG, e.getMessage());
-                            }
-                        } else if (appUnclosed.getInt(appUnclosed.getColumnIndex(Applications_History.PROCESS_IMPORTANCE)) != app.importance) {
-                            //Close last importance
-                            ContentValues rowData = new ContentValues();
-                            rowData.put(Applications_History.END_TIMESTAMP, System.currentTimeMillis());
-                            try {
-                                getContentResolver().update(Applications_History.CONTENT_URI, rowData, Applications_History._ID + "=" + appUnclosed.getInt(appUnclosed.getColumnIndex(Applications_History._ID)), null);
-                            } catch (SQLiteException e) {
-                                if (DEBUG) Log.d(TAG, e.getMessage());
-                            } catch (SQLException e) {
-                                if (DEBUG) Log.d(TAG, e.getMessage());
-                            }
-
-                            if (!appUnclosed.isClosed()) appUnclosed.close();
-
-                            //Insert new importance
-                            rowData = new ContentValues();
-                            rowData.put(Applications_History.TIMESTAMP, System.currentTimeMillis());
-                            rowData.put(Applications_History.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
-                            rowData.put(Applications_History.PACKAGE_NAME, app.processName);
-                            rowData.put(Applications_History.APPLICATION_NAME, appName);
-                            rowData.put(Applications_History.PROCESS_IMPORTANCE, app.importance);
-                            rowData.put(Applications_History.PROCESS_ID, app.pid);
-                            rowData.put(Applications_History.END_TIMESTAMP, 0);
-                            rowData.put(Applications_History.IS_SYSTEM_APP, isSystemPackage(appPkg));
-                            try {
-                                getContentResolver().insert(Applications_History.CONTENT_URI, rowData);
-                            } catch (SQLiteException e) {
-                                if (DEBUG) Log.d(TAG, e.getMessage());
-                            } catch (SQLException e) {
-                                if (DEBUG) Log.d(TAG, e.getMessage());
-                            }
+                        ContentProviderResult[] results = getContentResolver().applyBatch(Applications_Provider.AUTHORITY, operations);
+                        for (int i = 0; i < started.size(); i++) {
+                            running.put(started.get(i), ContentUris.parseId(results[closed + i].uri));
                         }
-                        if (appUnclosed != null && !appUnclosed.isClosed()) appUnclosed.close();
-                    } catch (PackageManager.NameNotFoundException | IllegalStateException | SQLiteException e) {
+                    } catch (RemoteException | OperationApplicationException | SQLException | IllegalStateException e) {
                         if (DEBUG) Log.e(TAG, e.toString());
+                        //start over from what made it to the database
+                        running = null;
                     }
                 }
 
-                //Close open applications that are not running anymore
-                try {
-                    Cursor appsOpened = getContentResolver().query(Applications_History.CONTENT_URI, null, Applications_History.END_TIMESTAMP + "=0", null, null);
-                    if (appsOpened != null && appsOpened.moveToFirst()) {
-                        do {
-                            if (!exists(runningApps, appsOpened)) {
-                                ContentValues rowData = new ContentValues();
-                                rowData.put(Applications_History.END_TIMESTAMP, System.currentTimeMillis());
-                                try {
-                                    getContentResolver().update(Applications_History.CONTENT_URI, rowData, Applications_History._ID + "=" + appsOpened.getInt(appsOpened.getColumnIndex(Applications_History._ID)), null);
-                                } catch (SQLiteException e) {
-                                    if (DEBUG) Log.d(TAG, e.getMessage());
-                                } catch (SQLException e) {
-                                    if (DEBUG) Log.d(TAG, e.getMessage());
-                                }
-                            }
-                        } while (appsOpened.moveToNext());
-                    }
-                    if (appsOpened != null && !appsOpened.isClosed()) appsOpened.close();
-                } catch (IllegalStateException | SQLiteException e) {
-                    if (DEBUG) Log.e(TAG, e.toString());
-                }
+                if (DEBUG) Log.d(TAG, "Applications started: " + started.size() + " stopped: " + closed);
 
                 Intent statsUpdated = new Intent(ACTION_AWARE_APPLICATIONS_HISTORY);
                 sendBroadcast(statsUpdated);
@@ -642,21 +875,31 @@ public class Applications extends AccessibilityService {
         }
 
         /**
-         * Check if the application on the database, exists on the running applications
+         * Open rows of the applications history, by process
          *
-         * @param {@link List}<RunningAppProcessInfo> runningApps
-         * @param {@link Cursor} row
-         * @return boolean
+         * @return "pid:importance:process" -> row _id
          */
-        private boolean exists(List<RunningAppProcessInfo> running, Cursor dbApp) {
-            for (RunningAppProcessInfo app : running) {
-                if (dbApp.getString(dbApp.getColumnIndexOrThrow(Applications_History.PACKAGE_NAME)).equals(app.processName) &&
-                        dbApp.getInt(dbApp.getColumnIndexOrThrow(Applications_History.PROCESS_IMPORTANCE)) == app.importance &&
-                        dbApp.getInt(dbApp.getColumnIndexOrThrow(Applications_History.PROCESS_ID)) == app.pid) {
-                    return true;
+        private HashMap<String, Long> getOpenProcesses() {
+            HashMap<String, Long> open = new HashMap<>();
+            try {
+                Cursor appsOpened = getContentResolver().query(Applications_History.CONTENT_URI, new String[]{Applications_History._ID, Applications_History.PACKAGE_NAME, Applications_History.PROCESS_ID, Applications_History.PROCESS_IMPORTANCE}, Applications_History.END_TIMESTAMP + "=0", null, null);
+                if (appsOpened != null && appsOpened.moveToFirst()) {
+                    do {
+                        open.put(processKey(appsOpened.getInt(appsOpened.getColumnIndex(Applications_History.PROCESS_ID)),
+                                appsOpened.getInt(appsOpened.getColumnIndex(Applications_History.PROCESS_IMPORTANCE)),
+                                appsOpened.getString(appsOpened.getColumnIndex(Applications_History.PACKAGE_NAME))),
+                                appsOpened.getLong(appsOpened.getColumnIndex(Applications_History._ID)));
+                    } while (appsOpened.moveToNext());
                 }
+                if (appsOpened != null && !appsOpened.isClosed()) appsOpened.close();
+            } catch (IllegalStateException | SQLiteException e) {
+                if (DEBUG) Log.e(TAG, e.toString());
             }
-            return false;
+            return open;
+        }
+
+        private static String processKey(int pid, int importance, String process) {
+            return pid + ":" + importance + ":" + process;
         }
     }
 
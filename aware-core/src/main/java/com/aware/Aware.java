@@ -3,7 +3,6 @@ package com.aware;
 
 import android.Manifest;
 import android.app.ActivityManager;
-import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
@@ -11,10 +10,12 @@ import android.app.Service;
 import android.app.UiModeManager;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
@@ -39,6 +40,7 @@ import android.os.Bundle;
 import android.os.Environment;
 import android.os.IBinder;
 import android.os.PowerManager;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.support.v4.app.NotificationCompat;
@@ -60,7 +62,9 @@ import com.aware.providers.Aware_Provider.Aware_Settings;
 import com.aware.providers.Battery_Provider;
 import com.aware.providers.Scheduler_Provider;
 import com.aware.utils.Aware_Plugin;
+import com.aware.utils.ContextBus;
 import com.aware.utils.DownloadPluginService;
+import com.aware.utils.Encrypter;
 import com.aware.utils.Http;
 import com.aware.utils.Https;
 import com.aware.utils.PluginsManager;
@@ -77,13 +81,20 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import dalvik.system.DexFile;
 
@@ -184,33 +195,17 @@ public class Aware extends Service {
     public static final String SCHEDULE_STUDY_COMPLIANCE = "schedule_aware_study_compliance";
     public static final String SCHEDULE_KEEP_ALIVE = "schedule_aware_keep_alive";
 
-    private static Intent accelerometerSrv = null;
-    private static Intent locationsSrv = null;
-    private static Intent bluetoothSrv = null;
-    private static Intent screenSrv = null;
-    private static Intent batterySrv = null;
-    private static Intent networkSrv = null;
-    private static Intent trafficSrv = null;
-    private static Intent communicationSrv = null;
-    private static Intent processorSrv = null;
-    private static Intent mqttSrv = null;
-    private static Intent gyroSrv = null;
-    private static Intent wifiSrv = null;
-    private static Intent telephonySrv = null;
-    private static Intent timeZoneSrv = null;
-    private static Intent rotationSrv = null;
-    private static Intent lightSrv = null;
-    private static Intent proximitySrv = null;
-    private static Intent magnetoSrv = null;
-    private static Intent barometerSrv = null;
-    private static Intent gravitySrv = null;
-    private static Intent linear_accelSrv = null;
-    private static Intent temperatureSrv = null;
-    private static Intent esmSrv = null;
-    private static Intent installationsSrv = null;
-    private static Intent keyboard = null;
     private static Intent scheduler = null;
-    private static Intent significantSrv = null;
+
+    /**
+     * Core sensors started by {@link #startAWARE(Context)}, with the settings they were started with
+     */
+    private static final HashMap<String, String> sensorSettings = new HashMap<>();
+
+    /**
+     * How long the last start-up phases took, in milliseconds
+     */
+    private static final LinkedHashMap<String, Long> phaseTimings = new LinkedHashMap<>();
 
     private static AsyncStudyCheck studyCheck = null;
 
@@ -249,14 +244,11 @@ public class Aware extends Service {
         foreground.addAction(Aware.ACTION_AWARE_PRIORITY_BACKGROUND);
         registerReceiver(foregroundMgr, foreground);
 
-        AlarmManager am = (AlarmManager) getSystemService(ALARM_SERVICE);
-        Intent scheduler = new Intent(this, Scheduler.class);
-        PendingIntent repeating = PendingIntent.getService(getApplicationContext(), 0, scheduler, PendingIntent.FLAG_UPDATE_CURRENT);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            am.setAlarmClock(new AlarmManager.AlarmClockInfo(System.currentTimeMillis() + (60000), repeating), repeating); //every minute
-        } else {
-            am.setRepeating(AlarmManager.RTC_WAKEUP, System.currentTimeMillis() + 60000, 60000, repeating);
-        }
+        //other apps may ask for context broadcasts before anything is posted here
+        ContextBus.init(this);
+
+        //The scheduler arms its own alarm for the next scheduled task
+        startScheduler(this);
 
         if (!Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)) {
             stopSelf();
@@ -385,49 +377,9 @@ public class Aware extends Service {
 
         @Override
         protected Boolean doInBackground(Void... params) {
-
-            //Ping AWARE's server with awareContext device's information for framework's statistics log
-            Hashtable<String, String> studyCheck = new Hashtable<>();
-            studyCheck.put(Aware_Preferences.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
-            studyCheck.put("study_check", "1");
-
             try {
-                String webserver = Aware.getSetting(getApplicationContext(), Aware_Preferences.WEBSERVICE_SERVER);
-                String protocol = webserver.substring(0, webserver.indexOf(":"));
-
-                String study_status;
-                if (protocol.equalsIgnoreCase("https")) {
-                    study_status = new Https(SSLManager.getHTTPS(getApplicationContext(), Aware.getSetting(getApplicationContext(), Aware_Preferences.WEBSERVICE_SERVER))).dataPOST(Aware.getSetting(getApplicationContext(), Aware_Preferences.WEBSERVICE_SERVER), studyCheck, true);
-                } else {
-                    study_status = new Http().dataPOST(Aware.getSetting(getApplicationContext(), Aware_Preferences.WEBSERVICE_SERVER), studyCheck, true);
-                }
-
-                if (study_status == null)
-                    return true; //unable to connect to server, timeout, etc. We do nothing.
-
-                if (DEBUG)
-                    Log.d(Aware.TAG, "Study_status: \n" + study_status);
-
-                try {
-                    JSONArray status = new JSONArray(study_status);
-
-                    JSONObject study = status.getJSONObject(0);
-                    if (!study.getBoolean("status")) {
-                        return false; //study no longer active, make clients quit the study and reset.
-                    }
-
-                    //Ignored by standalone apps. They handle their own sensors, so server settings do not apply.
-                    if (!getResources().getBoolean(R.bool.standalone)) {
-                        if (study.getString("config").equalsIgnoreCase("[]")) {
-                            Aware.tweakSettings(getApplicationContext(), new JSONArray(study.getString("config")));
-                        } else if (!study.getString("config").equalsIgnoreCase("[]")) {
-                            JSONObject configJSON = new JSONObject(study.getString("config"));
-                            Aware.tweakSettings(getApplicationContext(), new JSONArray().put(configJSON));
-                        }
-                    }
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
+                //study no longer active, make clients quit the study and reset.
+                return checkStudy(getApplicationContext(), Aware.getSetting(getApplicationContext(), Aware_Preferences.WEBSERVICE_SERVER)) != STUDY_CHECK_ENDED;
             } catch (FileNotFoundException e) {
                 e.printStackTrace();
             }
@@ -535,6 +487,129 @@ public class Aware extends Service {
         c.getContentResolver().insert(Aware_Provider.Aware_Log.CONTENT_URI, log);
     }
 
+    /**
+     * Results of {@link #checkStudy(Context, String)}
+     */
+    public static final int STUDY_CHECK_OFFLINE = -1;
+    public static final int STUDY_CHECK_NOT_MODIFIED = 0;
+    public static final int STUDY_CHECK_APPLIED = 1;
+    public static final int STUDY_CHECK_ENDED = 2;
+
+    /**
+     * Checks the study on the server and applies its configuration if it changed since the last check.
+     * The last applied reply is cached: the server can answer 304 (If-None-Match), and a 200 reply identical to the
+     * cached one is not parsed or applied either.
+     *
+     * @param c
+     * @param webserver study URL
+     * @return STUDY_CHECK_OFFLINE, STUDY_CHECK_NOT_MODIFIED, STUDY_CHECK_APPLIED or STUDY_CHECK_ENDED
+     * @throws FileNotFoundException if the server certificate is missing
+     */
+    public static int checkStudy(Context c, String webserver) throws FileNotFoundException {
+
+        //Ping AWARE's server with awareContext device's information for framework's statistics log
+        Hashtable<String, String> studyCheck = new Hashtable<>();
+        studyCheck.put(Aware_Preferences.DEVICE_ID, Aware.getSetting(c, Aware_Preferences.DEVICE_ID));
+        studyCheck.put("study_check", "1");
+
+        String protocol = webserver.substring(0, webserver.indexOf(":"));
+
+        //Last reply we applied. The server can answer 304 if the configuration is still the same.
+        SharedPreferences cache = getStudyCheckCache(c);
+        if (!webserver.equals(cache.getString(STUDY_CHECK_SERVER, ""))) {
+            cache.edit().clear().putString(STUDY_CHECK_SERVER, webserver).apply();
+        }
+        String last_etag = cache.getString(STUDY_CHECK_ETAG, "");
+        String last_hash = cache.getString(STUDY_CHECK_HASH, "");
+        String if_none_match = (last_etag.length() > 0) ? last_etag : (last_hash.length() > 0) ? "\"" + last_hash + "\"" : "";
+
+        String study_status;
+        int response_code;
+        String etag;
+        if (protocol.equalsIgnoreCase("https")) {
+            Https https = new Https(SSLManager.getHTTPS(c, webserver));
+            if (if_none_match.length() > 0) https.setHeader("If-None-Match", if_none_match);
+            study_status = https.dataPOST(webserver, studyCheck, true);
+            response_code = https.getResponseCode();
+            etag = https.getResponseHeader("ETag");
+        } else {
+            Http http = new Http();
+            if (if_none_match.length() > 0) http.setHeader("If-None-Match", if_none_match);
+            study_status = http.dataPOST(webserver, studyCheck, true);
+            response_code = http.getResponseCode();
+            etag = http.getResponseHeader("ETag");
+        }
+
+        if (response_code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            if (DEBUG) Log.d(Aware.TAG, "Study configuration not modified");
+            return STUDY_CHECK_NOT_MODIFIED;
+        }
+
+        if (study_status == null)
+            return STUDY_CHECK_OFFLINE; //unable to connect to server, timeout, etc. We do nothing.
+
+        //Servers without ETag support: same reply as last time, nothing to parse or apply
+        String hash = Encrypter.hashSHA1(study_status);
+        if (hash.equals(last_hash)) {
+            if (DEBUG) Log.d(Aware.TAG, "Study configuration unchanged");
+            if (etag != null && !etag.equals(last_etag))
+                cache.edit().putString(STUDY_CHECK_ETAG, etag).apply();
+            return STUDY_CHECK_NOT_MODIFIED;
+        }
+
+        if (DEBUG)
+            Log.d(Aware.TAG, "Study_status: \n" + study_status);
+
+        try {
+            JSONArray status = new JSONArray(study_status);
+
+            JSONObject study = status.getJSONObject(0);
+            if (!study.getBoolean("status")) {
+                return STUDY_CHECK_ENDED;
+            }
+
+            //Ignored by standalone apps. They handle their own sensors, so server settings do not apply.
+            if (!c.getResources().getBoolean(R.bool.standalone)) {
+                if (study.getString("config").equalsIgnoreCase("[]")) {
+                    Aware.tweakSettings(c, new JSONArray(study.getString("config")));
+                } else if (!study.getString("config").equalsIgnoreCase("[]")) {
+                    JSONObject configJSON = new JSONObject(study.getString("config"));
+                    Aware.tweakSettings(c, new JSONArray().put(configJSON));
+                }
+            }
+
+            cache.edit()
+                    .putString(STUDY_CHECK_ETAG, (etag != null) ? etag : "")
+                    .putString(STUDY_CHECK_HASH, hash)
+                    .apply();
+
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return STUDY_CHECK_APPLIED;
+    }
+
+    /**
+     * Last study check reply, kept to skip unchanged configurations
+     */
+    private static final String STUDY_CHECK_SERVER = "server";
+    private static final String STUDY_CHECK_ETAG = "etag";
+    private static final String STUDY_CHECK_HASH = "hash";
+
+    private static SharedPreferences getStudyCheckCache(Context c) {
+        return c.getSharedPreferences(c.getPackageName() + ".study_check", Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Forget the last study check reply, so the next check parses and applies the configuration again.
+     * Needed whenever the local configuration changes outside the study check (joining, reset).
+     *
+     * @param c
+     */
+    public static void clearStudyCheck(Context c) {
+        getStudyCheckCache(c).edit().clear().apply();
+    }
+
     /**
      * Fetch the cursor for a study, given the study URL, that is still enrolled
      *
@@ -558,75 +633,30 @@ public class Aware extends Service {
 
             if (Aware.DEBUG) Log.d(TAG, "AWARE framework is active...");
 
-            //this sets the default settings to all plugins too
-            SharedPreferences prefs = getSharedPreferences("com.aware.phone", Context.MODE_PRIVATE);
-            if (prefs.getAll().isEmpty() && Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID).length() == 0) {
-                PreferenceManager.setDefaultValues(getApplicationContext(), "com.aware.phone", Context.MODE_PRIVATE, R.xml.aware_preferences, true);
-                prefs.edit().commit(); //commit changes
-            } else {
-                PreferenceManager.setDefaultValues(getApplicationContext(), "com.aware.phone", Context.MODE_PRIVATE, R.xml.aware_preferences, false);
-            }
-
-            //this sets the default settings to all plugins too
-            Map<String, ?> defaults = prefs.getAll();
-            for (Map.Entry<String, ?> entry : defaults.entrySet()) {
-                if (Aware.getSetting(getApplicationContext(), entry.getKey(), "com.aware.phone").length() == 0) {
-                    Aware.setSetting(getApplicationContext(), entry.getKey(), entry.getValue(), "com.aware.phone"); //default AWARE settings
-                }
-            }
-
-            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID).length() == 0) {
-                UUID uuid = UUID.randomUUID();
-                Aware.setSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID, uuid.toString(), "com.aware.phone");
-            }
+            //Cold start: settings first, then sensors. Bookkeeping sensors don't depend on runs in the background.
+            long phase = System.currentTimeMillis();
 
-            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.WEBSERVICE_SERVER).length() == 0) {
-                Aware.setSetting(getApplicationContext(), Aware_Preferences.WEBSERVICE_SERVER, "https://api.awareframework.com/index.php");
-            }
+            seedDefaults(getApplicationContext());
+            phase = logPhase("defaults", phase);
 
-            DEBUG = Aware.getSetting(this, Aware_Preferences.DEBUG_FLAG).equals("true");
-            TAG = Aware.getSetting(this, Aware_Preferences.DEBUG_TAG).length() > 0 ? Aware.getSetting(this, Aware_Preferences.DEBUG_TAG) : TAG;
+            final TreeMap<String, String> settings = getSettings(getApplicationContext());
+            DEBUG = "true".equals(settings.get(Aware_Preferences.DEBUG_FLAG));
+            TAG = (settings.get(Aware_Preferences.DEBUG_TAG) != null && settings.get(Aware_Preferences.DEBUG_TAG).length() > 0) ? settings.get(Aware_Preferences.DEBUG_TAG) : TAG;
 
-            get_device_info();
+            getStartupExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    long phase = System.currentTimeMillis();
+                    get_device_info();
+                    phase = logPhase("device_info", phase);
 
-            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.AWARE_DONATE_USAGE).equals("true")) {
-                new AsyncPing().execute();
-            }
-
-            //only the client and self-contained apps need to run the keep alive. Plugins are handled by them.
-            if (getApplicationContext().getPackageName().equals("com.aware.phone") || getResources().getBoolean(R.bool.standalone)) {
-                try {
-                    Scheduler.Schedule watchdog = Scheduler.getSchedule(this, SCHEDULE_KEEP_ALIVE);
-                    if (watchdog == null) {
-                        watchdog = new Scheduler.Schedule(SCHEDULE_KEEP_ALIVE);
-                        watchdog.setInterval(getApplicationContext().getResources().getInteger(R.integer.keep_alive_interval_min))
-                                .setActionType(Scheduler.ACTION_TYPE_SERVICE)
-                                .setActionIntentAction(ACTION_AWARE_KEEP_ALIVE)
-                                .setActionClass(getPackageName() + "/" + getClass().getName());
-
-                        Scheduler.saveSchedule(this, watchdog);
-                    }
-                } catch (JSONException e) {
-                    e.printStackTrace();
+                    setFrameworkSchedules(settings);
+                    logPhase("schedules", phase);
                 }
-            }
+            });
 
-            //Set compliance checks if on a study
-            if ((getPackageName().equals("com.aware.phone") || getResources().getBoolean(R.bool.standalone)) && isStudy(getApplicationContext())) {
-                try {
-                    Scheduler.Schedule compliance = Scheduler.getSchedule(this, Aware.SCHEDULE_STUDY_COMPLIANCE);
-                    if (compliance == null) {
-                        compliance = new Scheduler.Schedule(Aware.SCHEDULE_STUDY_COMPLIANCE);
-                        compliance.setInterval(getResources().getInteger(R.integer.study_check_interval_min))
-                                .setActionType(Scheduler.ACTION_TYPE_SERVICE)
-                                .setActionIntentAction(Aware.ACTION_AWARE_STUDY_COMPLIANCE)
-                                .setActionClass(getPackageName() + "/" + getClass().getName());
-
-                        Scheduler.saveSchedule(this, compliance);
-                    }
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
+            if ("true".equals(settings.get(Aware_Preferences.AWARE_DONATE_USAGE))) {
+                new AsyncPing().execute();
             }
 
             if (intent != null && intent.getAction() != null) {
@@ -642,52 +672,174 @@ public class Aware extends Service {
 
                 if (intent.getAction().equalsIgnoreCase(ACTION_AWARE_KEEP_ALIVE)) {
                     startAWARE(getApplicationContext());
+                    phase = System.currentTimeMillis();
                     startPlugins(getApplicationContext());
+                    logPhase("plugins", phase);
                 }
 
             } else {
                 startAWARE(getApplicationContext());
+                phase = System.currentTimeMillis();
                 startPlugins(getApplicationContext());
+                logPhase("plugins", phase);
             }
 
-            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_WEBSERVICE).equals("true")) {
-                int frequency_webservice = Integer.parseInt(Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_WEBSERVICE));
-                if (frequency_webservice == 0) {
-                    if (DEBUG)
-                        Log.d(TAG, "Data sync is disabled.");
+        } else { //storage is not available, stop plugins and sensors
+            stopAWARE(getApplicationContext());
+            stopPlugins(getApplicationContext());
+        }
+
+        return START_STICKY;
+    }
 
-                    Scheduler.removeSchedule(getApplicationContext(), SCHEDULE_SYNC_DATA);
+    /**
+     * Keep-alive, study compliance and data sync schedules
+     *
+     * @param settings snapshot from {@link #getSettings(Context)}
+     */
+    private void setFrameworkSchedules(TreeMap<String, String> settings) {
+        //only the client and self-contained apps need to run the keep alive. Plugins are handled by them.
+        if (getApplicationContext().getPackageName().equals("com.aware.phone") || getResources().getBoolean(R.bool.standalone)) {
+            try {
+                Scheduler.Schedule watchdog = Scheduler.getSchedule(this, SCHEDULE_KEEP_ALIVE);
+                if (watchdog == null) {
+                    watchdog = new Scheduler.Schedule(SCHEDULE_KEEP_ALIVE);
+                    watchdog.setInterval(getApplicationContext().getResources().getInteger(R.integer.keep_alive_interval_min))
+                            .setActionType(Scheduler.ACTION_TYPE_SERVICE)
+                            .setActionIntentAction(ACTION_AWARE_KEEP_ALIVE)
+                            .setActionClass(getPackageName() + "/" + getClass().getName());
+
+                    Scheduler.saveSchedule(this, watchdog);
+                }
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
 
-                } else {
-                    try {
-                        Scheduler.Schedule sync = Scheduler.getSchedule(this, SCHEDULE_SYNC_DATA);
-                        if (sync == null || sync.getInterval() != frequency_webservice) { //Set the sync schedule for the first time or if changed
-                            Scheduler.Schedule schedule = new Scheduler.Schedule(SCHEDULE_SYNC_DATA)
-                                    .setActionType(Scheduler.ACTION_TYPE_BROADCAST)
-                                    .setActionIntentAction(Aware.ACTION_AWARE_SYNC_DATA)
-                                    .setInterval(frequency_webservice);
-
-                            Scheduler.saveSchedule(getApplicationContext(), schedule);
-                            Aware.startScheduler(this);
-
-                            if (DEBUG) {
-                                Log.d(TAG, "Data sync every " + schedule.getInterval() + " minute(s)");
-                            }
+        //Set compliance checks if on a study
+        if ((getPackageName().equals("com.aware.phone") || getResources().getBoolean(R.bool.standalone)) && isStudy(getApplicationContext())) {
+            try {
+                Scheduler.Schedule compliance = Scheduler.getSchedule(this, Aware.SCHEDULE_STUDY_COMPLIANCE);
+                if (compliance == null) {
+                    compliance = new Scheduler.Schedule(Aware.SCHEDULE_STUDY_COMPLIANCE);
+                    compliance.setInterval(getResources().getInteger(R.integer.study_check_interval_min))
+                            .setActionType(Scheduler.ACTION_TYPE_SERVICE)
+                            .setActionIntentAction(Aware.ACTION_AWARE_STUDY_COMPLIANCE)
+                            .setActionClass(getPackageName() + "/" + getClass().getName());
+
+                    Scheduler.saveSchedule(this, compliance);
+                }
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if ("true".equals(settings.get(Aware_Preferences.STATUS_WEBSERVICE))) {
+            int frequency_webservice;
+            try {
+                frequency_webservice = Integer.parseInt(settings.get(Aware_Preferences.FREQUENCY_WEBSERVICE));
+            } catch (NumberFormatException e) {
+                if (DEBUG) Log.e(TAG, "Invalid sync frequency: " + settings.get(Aware_Preferences.FREQUENCY_WEBSERVICE));
+                return;
+            }
+            if (frequency_webservice == 0) {
+                if (DEBUG)
+                    Log.d(TAG, "Data sync is disabled.");
+
+                Scheduler.removeSchedule(getApplicationContext(), SCHEDULE_SYNC_DATA);
+
+            } else {
+                try {
+                    Scheduler.Schedule sync = Scheduler.getSchedule(this, SCHEDULE_SYNC_DATA);
+                    if (sync == null || sync.getInterval() != frequency_webservice) { //Set the sync schedule for the first time or if changed
+                        Scheduler.Schedule schedule = new Scheduler.Schedule(SCHEDULE_SYNC_DATA)
+                                .setActionType(Scheduler.ACTION_TYPE_BROADCAST)
+                                .setActionIntentAction(Aware.ACTION_AWARE_SYNC_DATA)
+                                .setInterval(frequency_webservice);
+
+                        Scheduler.saveSchedule(getApplicationContext(), schedule);
+                        Aware.startScheduler(this);
+
+                        if (DEBUG) {
+                            Log.d(TAG, "Data sync every " + schedule.getInterval() + " minute(s)");
                         }
-                    } catch (JSONException e) {
-                        e.printStackTrace();
                     }
+                } catch (JSONException e) {
+                    e.printStackTrace();
                 }
             }
+        }
+    }
 
-        } else { //storage is not available, stop plugins and sensors
-            stopAWARE(getApplicationContext());
-            stopPlugins(getApplicationContext());
+    private static ExecutorService startupExecutor = null;
+
+    /**
+     * Background thread for the start-up work sensors don't wait on
+     */
+    private static synchronized ExecutorService getStartupExecutor() {
+        if (startupExecutor == null) startupExecutor = Executors.newSingleThreadExecutor();
+        return startupExecutor;
+    }
+
+    /**
+     * Seeds the default settings, the device ID and the default server in a single transaction.
+     * Only needed on the first run and after an update, which may bring new defaults.
+     *
+     * @param context
+     */
+    private static void seedDefaults(Context context) {
+        if (defaultsSeeded) return;
+
+        int version = 0;
+        try {
+            version = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionCode;
+        } catch (NameNotFoundException e) {
+            e.printStackTrace();
         }
 
-        return START_STICKY;
+        SharedPreferences startup = context.getSharedPreferences(context.getPackageName() + ".startup", Context.MODE_PRIVATE);
+        if (startup.getInt("defaults_version", -1) == version && Aware.getSetting(context, Aware_Preferences.DEVICE_ID).length() > 0) {
+            defaultsSeeded = true;
+            return;
+        }
+
+        //this sets the default settings to all plugins too
+        SharedPreferences prefs = context.getSharedPreferences("com.aware.phone", Context.MODE_PRIVATE);
+        TreeMap<String, String> current = getSettings(context, "com.aware.phone");
+        String device_id = current.get(Aware_Preferences.DEVICE_ID);
+        if (prefs.getAll().isEmpty() && (device_id == null || device_id.length() == 0)) {
+            PreferenceManager.setDefaultValues(context.getApplicationContext(), "com.aware.phone", Context.MODE_PRIVATE, R.xml.aware_preferences, true);
+            prefs.edit().commit(); //commit changes
+        } else {
+            PreferenceManager.setDefaultValues(context.getApplicationContext(), "com.aware.phone", Context.MODE_PRIVATE, R.xml.aware_preferences, false);
+        }
+
+        HashMap<String, Object> missing = new HashMap<>();
+        Map<String, ?> defaults = prefs.getAll();
+        for (Map.Entry<String, ?> entry : defaults.entrySet()) {
+            String value = current.get(entry.getKey());
+            if (value == null || value.length() == 0) missing.put(entry.getKey(), entry.getValue()); //default AWARE settings
+        }
+
+        if (device_id == null || device_id.length() == 0) {
+            missing.put(Aware_Preferences.DEVICE_ID, UUID.randomUUID().toString());
+        }
+
+        String server = current.get(Aware_Preferences.WEBSERVICE_SERVER);
+        if (server == null || server.length() == 0) {
+            missing.put(Aware_Preferences.WEBSERVICE_SERVER, "https://api.awareframework.com/index.php");
+        }
+
+        HashMap<String, HashMap<String, Object>> batch = new HashMap<>();
+        batch.put("com.aware.phone", missing);
+        Aware.setSettings(context, batch, false);
+
+        startup.edit().putInt("defaults_version", version).apply();
+        defaultsSeeded = true;
     }
 
+    private static boolean defaultsSeeded = false;
+
     public static void checkBatteryLeft(Context context, boolean dismiss) {
 
         if (Aware.getSetting(context, Aware_Preferences.REMIND_TO_CHARGE).equals("true")) {
@@ -930,54 +1082,89 @@ public class Aware extends Service {
     }
 
     /**
-     * Retrieve setting value given key.
+     * Package under which a framework setting is kept: the global settings are shared under com.aware.phone, the others
+     * under the client's package. Standalone apps keep everything under their own package.
      *
+     * @param context
      * @param key
-     * @return value
+     * @return package name
      */
-    public static String getSetting(Context context, String key) {
-
-        boolean is_global;
-
-        ArrayList<String> global_settings = new ArrayList<>();
-        global_settings.add(Aware_Preferences.DEBUG_FLAG);
-        global_settings.add(Aware_Preferences.DEBUG_TAG);
-        global_settings.add(Aware_Preferences.DEVICE_ID);
-        global_settings.add(Aware_Preferences.DEVICE_LABEL);
-        global_settings.add(Aware_Preferences.STATUS_WEBSERVICE);
-        global_settings.add(Aware_Preferences.FREQUENCY_WEBSERVICE);
-        global_settings.add(Aware_Preferences.WEBSERVICE_WIFI_ONLY);
-        global_settings.add(Aware_Preferences.WEBSERVICE_SERVER);
-        global_settings.add(Aware_Preferences.WEBSERVICE_SIMPLE);
-        global_settings.add(Aware_Preferences.WEBSERVICE_REMOVE_DATA);
-        global_settings.add(Aware_Preferences.WEBSERVICE_SILENT);
-        global_settings.add(Aware_Preferences.STATUS_APPLICATIONS);
-        global_settings.add(Applications.STATUS_AWARE_ACCESSIBILITY);
-
-        if (context.getResources().getBoolean(R.bool.standalone)) {
-            global_settings.add(Aware_Preferences.STATUS_MQTT);
-            global_settings.add(Aware_Preferences.MQTT_USERNAME);
-            global_settings.add(Aware_Preferences.MQTT_PASSWORD);
-            global_settings.add(Aware_Preferences.MQTT_SERVER);
-            global_settings.add(Aware_Preferences.MQTT_PORT);
-            global_settings.add(Aware_Preferences.MQTT_KEEP_ALIVE);
-            global_settings.add(Aware_Preferences.MQTT_QOS);
+    public static String getSettingPackage(Context context, String key) {
+        if (context.getResources().getBoolean(R.bool.standalone))
+            return context.getPackageName();
+        return (GLOBAL_SETTINGS.contains(key)) ? "com.aware.phone" : context.getPackageName();
+    }
+
+    private static final HashSet<String> GLOBAL_SETTINGS = new HashSet<>(Arrays.asList(
+            Aware_Preferences.DEBUG_FLAG,
+            Aware_Preferences.DEBUG_TAG,
+            Aware_Preferences.DEVICE_ID,
+            Aware_Preferences.DEVICE_LABEL,
+            Aware_Preferences.STATUS_WEBSERVICE,
+            Aware_Preferences.FREQUENCY_WEBSERVICE,
+            Aware_Preferences.WEBSERVICE_WIFI_ONLY,
+            Aware_Preferences.WEBSERVICE_SERVER,
+            Aware_Preferences.WEBSERVICE_SIMPLE,
+            Aware_Preferences.WEBSERVICE_REMOVE_DATA,
+            Aware_Preferences.WEBSERVICE_SILENT,
+            Aware_Preferences.STATUS_APPLICATIONS,
+            Applications.STATUS_AWARE_ACCESSIBILITY
+    ));
+
+    /**
+     * Retrieve all the framework settings with a single query, resolved as {@link #getSetting(Context, String)} would
+     *
+     * @param context
+     * @return key -> value
+     */
+    public static TreeMap<String, String> getSettings(Context context) {
+        TreeMap<String, String> settings = new TreeMap<>();
+        Cursor qry = context.getContentResolver().query(Aware_Settings.CONTENT_URI, new String[]{Aware_Settings.SETTING_KEY, Aware_Settings.SETTING_VALUE, Aware_Settings.SETTING_PACKAGE_NAME},
+                Aware_Settings.SETTING_PACKAGE_NAME + " LIKE 'com.aware.phone' OR " + Aware_Settings.SETTING_PACKAGE_NAME + " LIKE '" + context.getPackageName() + "'", null, null);
+        if (qry != null && qry.moveToFirst()) {
+            do {
+                String key = qry.getString(0);
+                if (key == null || settings.containsKey(key)) continue;
+                if (getSettingPackage(context, key).equalsIgnoreCase(qry.getString(2)))
+                    settings.put(key, qry.getString(1));
+            } while (qry.moveToNext());
         }
+        if (qry != null && !qry.isClosed()) qry.close();
+        return settings;
+    }
 
-        is_global = global_settings.contains(key);
-
+    /**
+     * Retrieve all the settings of a package with a single query
+     *
+     * @param context
+     * @param package_name
+     * @return key -> value
+     */
+    public static TreeMap<String, String> getSettings(Context context, String package_name) {
         if (context.getResources().getBoolean(R.bool.standalone))
-            is_global = false;
+            package_name = context.getPackageName(); //use the package name from the context
 
-        String value = "";
-        Cursor qry = context.getContentResolver().query(Aware_Settings.CONTENT_URI, null,
-                Aware_Settings.SETTING_KEY + " LIKE '" + key + "' AND " + Aware_Settings.SETTING_PACKAGE_NAME + " LIKE " + ((is_global) ? "'com.aware.phone'" : "'" + context.getPackageName() + "'"),
-                null, null);
+        TreeMap<String, String> settings = new TreeMap<>();
+        Cursor qry = context.getContentResolver().query(Aware_Settings.CONTENT_URI, new String[]{Aware_Settings.SETTING_KEY, Aware_Settings.SETTING_VALUE},
+                Aware_Settings.SETTING_PACKAGE_NAME + " LIKE '" + package_name + "'", null, null);
         if (qry != null && qry.moveToFirst()) {
-            value = qry.getString(qry.getColumnIndex(Aware_Settings.SETTING_VALUE));
+            do {
+                String key = qry.getString(0);
+                if (key != null && !settings.containsKey(key)) settings.put(key, qry.getString(1));
+            } while (qry.moveToNext());
         }
         if (qry != null && !qry.isClosed()) qry.close();
-        return value;
+        return settings;
+    }
+
+    /**
+     * Retrieve setting value given key.
+     *
+     * @param key
+     * @return value
+     */
+    public static String getSetting(Context context, String key) {
+        return getSetting(context, key, getSettingPackage(context, key));
     }
 
     /**
@@ -1010,85 +1197,7 @@ public class Aware extends Service {
      * @param value
      */
     public static void setSetting(Context context, String key, Object value) {
-        boolean is_global;
-
-        ArrayList<String> global_settings = new ArrayList<String>();
-        global_settings.add(Aware_Preferences.DEBUG_FLAG);
-        global_settings.add(Aware_Preferences.DEBUG_TAG);
-        global_settings.add(Aware_Preferences.DEVICE_ID);
-        global_settings.add(Aware_Preferences.DEVICE_LABEL);
-        global_settings.add(Aware_Preferences.STATUS_WEBSERVICE);
-        global_settings.add(Aware_Preferences.FREQUENCY_WEBSERVICE);
-        global_settings.add(Aware_Preferences.WEBSERVICE_WIFI_ONLY);
-        global_settings.add(Aware_Preferences.WEBSERVICE_SERVER);
-        global_settings.add(Aware_Preferences.WEBSERVICE_SIMPLE);
-        global_settings.add(Aware_Preferences.WEBSERVICE_REMOVE_DATA);
-        global_settings.add(Aware_Preferences.WEBSERVICE_SILENT);
-        global_settings.add(Aware_Preferences.STATUS_APPLICATIONS);
-        global_settings.add(Applications.STATUS_AWARE_ACCESSIBILITY);
-
-        //allow standalone apps to react to MQTT
-        if (context.getResources().getBoolean(R.bool.standalone)) {
-            global_settings.add(Aware_Preferences.STATUS_MQTT);
-            global_settings.add(Aware_Preferences.MQTT_USERNAME);
-            global_settings.add(Aware_Preferences.MQTT_PASSWORD);
-            global_settings.add(Aware_Preferences.MQTT_SERVER);
-            global_settings.add(Aware_Preferences.MQTT_PORT);
-            global_settings.add(Aware_Preferences.MQTT_KEEP_ALIVE);
-            global_settings.add(Aware_Preferences.MQTT_QOS);
-        }
-
-        is_global = global_settings.contains(key);
-
-        if (context.getResources().getBoolean(R.bool.standalone))
-            is_global = false;
-
-        //We already have a Device ID, do nothing!
-        if (key.equals(Aware_Preferences.DEVICE_ID) && Aware.getSetting(context, Aware_Preferences.DEVICE_ID).length() > 0) {
-            Log.d(Aware.TAG, "AWARE UUID: " + Aware.getSetting(context, Aware_Preferences.DEVICE_ID) + " in " + context.getPackageName());
-            return;
-        }
-
-        if (key.equals(Aware_Preferences.DEVICE_LABEL) && ((String) value).length() > 0) {
-            ContentValues newLabel = new ContentValues();
-            newLabel.put(Aware_Provider.Aware_Device.LABEL, (String) value);
-            context.getContentResolver().update(Aware_Provider.Aware_Device.CONTENT_URI, newLabel, Aware_Provider.Aware_Device.DEVICE_ID + " LIKE '" + Aware.getSetting(context, Aware_Preferences.DEVICE_ID) + "'", null);
-        }
-
-        ContentValues setting = new ContentValues();
-        setting.put(Aware_Settings.SETTING_KEY, key);
-        setting.put(Aware_Settings.SETTING_VALUE, value.toString());
-        if (is_global) {
-            setting.put(Aware_Settings.SETTING_PACKAGE_NAME, "com.aware.phone");
-        } else {
-            setting.put(Aware_Settings.SETTING_PACKAGE_NAME, context.getPackageName());
-        }
-
-        Cursor qry = context.getContentResolver().query(Aware_Settings.CONTENT_URI, null, Aware_Settings.SETTING_KEY + " LIKE '" + key + "' AND " + Aware_Settings.SETTING_PACKAGE_NAME + " LIKE " + ((is_global) ? "'com.aware.phone'" : "'" + context.getPackageName() + "'"), null, null);
-        //update
-        if (qry != null && qry.moveToFirst()) {
-            try {
-                if (!qry.getString(qry.getColumnIndex(Aware_Settings.SETTING_VALUE)).equals(value.toString())) {
-                    context.getContentResolver().update(Aware_Settings.CONTENT_URI, setting, Aware_Settings.SETTING_ID + "=" + qry.getInt(qry.getColumnIndex(Aware_Settings.SETTING_ID)), null);
-                    if (Aware.DEBUG) Log.d(Aware.TAG, "Updated: " + key + "=" + value);
-                }
-            } catch (SQLiteException e) {
-                if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-            } catch (SQLException e) {
-                if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-            }
-            //insert
-        } else {
-            try {
-                context.getContentResolver().insert(Aware_Settings.CONTENT_URI, setting);
-                if (Aware.DEBUG) Log.d(Aware.TAG, "Added: " + key + "=" + value);
-            } catch (SQLiteException e) {
-                if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-            } catch (SQLException e) {
-                if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-            }
-        }
-        if (qry != null && !qry.isClosed()) qry.close();
+        setSetting(context, key, value, getSettingPackage(context, key));
     }
 
     /**
@@ -1148,6 +1257,118 @@ public class Aware extends Service {
         if (qry != null && !qry.isClosed()) qry.close();
     }
 
+    /**
+     * Insert / Update many settings at once. The current settings are read with a single query and only the values that
+     * differ are written, in a single transaction. As with {@link #setSetting(Context, String, Object, String)}, an
+     * existing device ID is never replaced.
+     *
+     * @param context
+     * @param settings values by package name and setting key. Use a LinkedHashMap if later packages should win when
+     *                 standalone apps keep everything under their own package.
+     * @param replace  also remove the settings that are not listed, as {@link #reset(Context)} would
+     * @return keys added, updated or removed, by package name
+     */
+    public static HashMap<String, HashSet<String>> setSettings(Context context, HashMap<String, HashMap<String, Object>> settings, boolean replace) {
+        boolean standalone = context.getResources().getBoolean(R.bool.standalone);
+
+        HashMap<String, HashSet<String>> changed = new HashMap<>();
+
+        //package/key -> {_id, value, package, key}
+        HashMap<String, String[]> current = new HashMap<>();
+        Cursor qry = context.getContentResolver().query(Aware_Settings.CONTENT_URI, new String[]{Aware_Settings.SETTING_ID, Aware_Settings.SETTING_KEY, Aware_Settings.SETTING_VALUE, Aware_Settings.SETTING_PACKAGE_NAME}, null, null, null);
+        if (qry != null && qry.moveToFirst()) {
+            do {
+                String id = (qry.getString(3) + "/" + qry.getString(1)).toLowerCase();
+                if (!current.containsKey(id))
+                    current.put(id, new String[]{qry.getString(0), qry.getString(2), qry.getString(3), qry.getString(1)});
+            } while (qry.moveToNext());
+        }
+        if (qry != null && !qry.isClosed()) qry.close();
+
+        //package/key -> {package, key, value}, later values win
+        LinkedHashMap<String, String[]> target = new LinkedHashMap<>();
+        for (Map.Entry<String, HashMap<String, Object>> package_settings : settings.entrySet()) {
+            String package_name = (standalone) ? context.getPackageName() : package_settings.getKey();
+            for (Map.Entry<String, Object> setting : package_settings.getValue().entrySet()) {
+                String id = (package_name + "/" + setting.getKey()).toLowerCase();
+                target.remove(id);
+                target.put(id, new String[]{package_name, setting.getKey(), String.valueOf(setting.getValue())});
+            }
+        }
+
+        String[] device_id = current.get((getSettingPackage(context, Aware_Preferences.DEVICE_ID) + "/" + Aware_Preferences.DEVICE_ID).toLowerCase());
+        String new_label = null;
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (Map.Entry<String, String[]> entry : target.entrySet()) {
+            String package_name = entry.getValue()[0];
+            String key = entry.getValue()[1];
+            String value = entry.getValue()[2];
+
+            //We already have a device ID, leave it alone!
+            if (key.equals(Aware_Preferences.DEVICE_ID) && device_id != null && device_id[1] != null && device_id[1].length() > 0)
+                continue;
+
+            String[] local = current.get(entry.getKey());
+            if (local != null && value.equals(local[1])) continue;
+
+            if (local != null) {
+                operations.add(ContentProviderOperation.newUpdate(Aware_Settings.CONTENT_URI)
+                        .withSelection(Aware_Settings.SETTING_ID + "=" + local[0], null)
+                        .withValue(Aware_Settings.SETTING_VALUE, value)
+                        .build());
+            } else {
+                operations.add(ContentProviderOperation.newInsert(Aware_Settings.CONTENT_URI)
+                        .withValue(Aware_Settings.SETTING_KEY, key)
+                        .withValue(Aware_Settings.SETTING_VALUE, value)
+                        .withValue(Aware_Settings.SETTING_PACKAGE_NAME, package_name)
+                        .build());
+            }
+
+            if (key.equals(Aware_Preferences.DEVICE_LABEL) && value.length() > 0) new_label = value;
+
+            if (!changed.containsKey(package_name)) changed.put(package_name, new HashSet<String>());
+            changed.get(package_name).add(key);
+        }
+
+        if (replace) {
+            StringBuilder removed = new StringBuilder();
+            for (Map.Entry<String, String[]> entry : current.entrySet()) {
+                if (target.containsKey(entry.getKey())) continue;
+                if (removed.length() > 0) removed.append(",");
+                removed.append(entry.getValue()[0]);
+
+                String package_name = entry.getValue()[2];
+                if (!changed.containsKey(package_name)) changed.put(package_name, new HashSet<String>());
+                changed.get(package_name).add(entry.getValue()[3]);
+            }
+            if (removed.length() > 0) {
+                operations.add(ContentProviderOperation.newDelete(Aware_Settings.CONTENT_URI)
+                        .withSelection(Aware_Settings.SETTING_ID + " IN (" + removed.toString() + ")", null)
+                        .build());
+            }
+        }
+
+        if (operations.size() == 0) return changed;
+
+        try {
+            context.getContentResolver().applyBatch(Aware_Provider.AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException | SQLException e) {
+            if (Aware.DEBUG) Log.e(TAG, "Settings not saved: " + e.toString());
+            return new HashMap<>();
+        }
+
+        if (new_label != null) {
+            ContentValues newLabel = new ContentValues();
+            newLabel.put(Aware_Provider.Aware_Device.LABEL, new_label);
+            context.getContentResolver().update(Aware_Provider.Aware_Device.CONTENT_URI, newLabel, Aware_Provider.Aware_Device.DEVICE_ID + " LIKE '" + Aware.getSetting(context, Aware_Preferences.DEVICE_ID) + "'", null);
+        }
+
+        if (Aware.DEBUG) Log.d(TAG, "Settings changed: " + changed.toString());
+
+        return changed;
+    }
+
     /**
      * Allows self-contained apps to join a study
      *
@@ -1164,6 +1385,7 @@ public class Aware extends Service {
      * Allows the dashboard to modify unitary settings for tweaking a configuration for devices.
      * NOTE: serverConfig only has active settings. It also does not contain credentials or server info.
      * This function parses the server config and adjusts the local settings to replicate the server latest settings.
+     * Only the settings that differ are written, in a single transaction, and only what they affect is restarted.
      *
      * @param c
      * @param serverConfig
@@ -1205,216 +1427,274 @@ public class Aware extends Service {
         }
         if (study != null && !study.isClosed()) study.close();
 
+        if (localConfig.length() == 0) return;
+
         JSONArray localSensors = new JSONArray();
         JSONArray localPlugins = new JSONArray();
-        JSONArray localSchedulers = new JSONArray();
-        if (localConfig.length() > 0) {
-            for (int i = 0; i < localConfig.length(); i++) {
-                try {
-                    JSONObject element = localConfig.getJSONObject(i);
-                    if (element.has("sensors"))
-                        localSensors = element.getJSONArray("sensors");
-                    if (element.has("plugins"))
-                        localPlugins = element.getJSONArray("plugins");
-                    if (element.has("schedulers"))
-                        localSchedulers = element.getJSONArray("schedulers");
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-            }
-
+        for (int i = 0; i < localConfig.length(); i++) {
             try {
-                ArrayList<JSONArray> sensorSync = sensorDiff(c, sensors, localSensors); //check sensors first
-                if (sensorSync.get(0).length() > 0 || sensorSync.get(1).length() > 0) {
-                    JSONArray enabled = sensorSync.get(0);
-                    for (int i = 0; i < enabled.length(); i++) {
-                        try {
-                            JSONObject sensor_config = enabled.getJSONObject(i);
-                            if (sensor_config.getString("setting").contains("status")) {
-                                Aware.setSetting(c, sensor_config.getString("setting"), true, "com.aware.phone");
-                            } else
-                                Aware.setSetting(c, sensor_config.getString("setting"), sensor_config.getString("value"), "com.aware.phone");
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
-                    }
+                JSONObject element = localConfig.getJSONObject(i);
+                if (element.has("sensors"))
+                    localSensors = element.getJSONArray("sensors");
+                if (element.has("plugins"))
+                    localPlugins = element.getJSONArray("plugins");
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
 
-                    JSONArray disabled = sensorSync.get(1);
-                    for (int i = 0; i < disabled.length(); i++) {
-                        try {
-                            JSONObject sensor_config = disabled.getJSONObject(i);
-                            if (sensor_config.getString("setting").contains("status")) {
-                                Aware.setSetting(c, sensor_config.getString("setting"), false, "com.aware.phone");
-                            } else
-                                Aware.setSetting(c, sensor_config.getString("setting"), sensor_config.getString("value"), "com.aware.phone");
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
-                    }
+        HashMap<String, HashMap<String, Object>> settings = new HashMap<>();
+        HashMap<String, Object> core_settings = new HashMap<>();
+        settings.put("com.aware.phone", core_settings);
 
-                    if (enabled.length() > 0 || disabled.length() > 0) config_changed = true;
+        JSONArray enabled_plugins = new JSONArray();
+        JSONArray disabled_plugins = new JSONArray();
+        JSONArray changed_plugins = new JSONArray();
 
-                    if (config_changed) {
-                        //Update local study configuration
-                        for (int i = 0; i < enabled.length(); i++) {
-                            localConfig.getJSONObject(0).getJSONArray("sensors").put(enabled.getJSONObject(i));
-                        }
+        try {
+            ArrayList<JSONArray> sensorSync = sensorDiff(c, sensors, localSensors); //check sensors first
+            JSONArray enabled = sensorSync.get(0);
+            JSONArray disabled = sensorSync.get(1);
+            JSONArray changed = sensorSync.get(2);
+
+            HashMap<String, JSONObject> updated = new HashMap<>();
+            for (int i = 0; i < enabled.length(); i++) {
+                JSONObject sensor_config = enabled.getJSONObject(i);
+                if (sensor_config.getString("setting").contains("status")) {
+                    core_settings.put(sensor_config.getString("setting"), true);
+                } else
+                    core_settings.put(sensor_config.getString("setting"), sensor_config.getString("value"));
+            }
+            for (int i = 0; i < changed.length(); i++) {
+                JSONObject sensor_config = changed.getJSONObject(i);
+                core_settings.put(sensor_config.getString("setting"), sensor_config.getString("value"));
+                updated.put(sensor_config.getString("setting").toLowerCase(), sensor_config);
+            }
+            for (int i = 0; i < disabled.length(); i++) {
+                JSONObject sensor_config = disabled.getJSONObject(i);
+                if (sensor_config.getString("setting").contains("status")) {
+                    core_settings.put(sensor_config.getString("setting"), false);
+                } else
+                    core_settings.put(sensor_config.getString("setting"), sensor_config.getString("value"));
+                updated.put(sensor_config.getString("setting").toLowerCase(), null);
+            }
 
-                        for (int i = 0; i < disabled.length(); i++) {
-                            JSONObject removed = disabled.getJSONObject(i);
-                            for (int j = 0; j < localConfig.getJSONObject(0).getJSONArray("sensors").length(); j++) {
-                                JSONObject local = localConfig.getJSONObject(0).getJSONArray("sensors").getJSONObject(j);
-                                if (removed.getString("setting").equalsIgnoreCase(local.getString("setting")))
-                                    localConfig.getJSONObject(0).getJSONArray("sensors").remove(j);
-                            }
-                        }
+            if (enabled.length() > 0 || disabled.length() > 0 || changed.length() > 0) {
+                config_changed = true;
+
+                //Update local study configuration
+                JSONArray newSensors = new JSONArray();
+                for (int i = 0; i < localSensors.length(); i++) {
+                    JSONObject local = localSensors.getJSONObject(i);
+                    String setting = local.getString("setting").toLowerCase();
+                    if (!updated.containsKey(setting)) {
+                        newSensors.put(local);
+                    } else if (updated.get(setting) != null) {
+                        newSensors.put(updated.get(setting));
                     }
                 }
-            } catch (JSONException e) {
-                e.printStackTrace();
+                for (int i = 0; i < enabled.length(); i++) {
+                    newSensors.put(enabled.getJSONObject(i));
+                }
+                localConfig.getJSONObject(0).put("sensors", newSensors);
             }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
 
-            try {
-                ArrayList<JSONArray> pluginSync = pluginDiff(plugins, localPlugins);
-                if (pluginSync.get(0).length() > 0 || pluginSync.get(1).length() > 0) {
-                    JSONArray enabled = pluginSync.get(0);
-                    for (int i = 0; i < enabled.length(); i++) {
-                        try {
-                            JSONObject plugin_config = enabled.getJSONObject(i);
-                            String package_name = plugin_config.getString("plugin");
-                            JSONArray plugin_settings = plugin_config.getJSONArray("settings");
-                            for (int j = 0; j < plugin_settings.length(); j++) {
-                                JSONObject plugin_set = plugin_settings.getJSONObject(j);
-                                if (plugin_set.getString("setting").contains("status")) {
-                                    Aware.setSetting(c, plugin_set.getString("setting"), true, package_name);
-                                } else
-                                    Aware.setSetting(c, plugin_set.getString("setting"), plugin_set.getString("value"), package_name);
-                            }
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
-                    }
+        try {
+            ArrayList<JSONArray> pluginSync = pluginDiff(plugins, localPlugins);
+            enabled_plugins = pluginSync.get(0);
+            disabled_plugins = pluginSync.get(1);
+            changed_plugins = pluginSync.get(2);
+
+            HashMap<String, JSONObject> updated = new HashMap<>();
+            for (int i = 0; i < enabled_plugins.length(); i++) {
+                JSONObject plugin_config = enabled_plugins.getJSONObject(i);
+                HashMap<String, Object> plugin_settings = getPluginSettings(settings, plugin_config.getString("plugin"));
+                JSONArray config_settings = plugin_config.getJSONArray("settings");
+                for (int j = 0; j < config_settings.length(); j++) {
+                    JSONObject plugin_set = config_settings.getJSONObject(j);
+                    if (plugin_set.getString("setting").contains("status")) {
+                        plugin_settings.put(plugin_set.getString("setting"), true);
+                    } else
+                        plugin_settings.put(plugin_set.getString("setting"), plugin_set.getString("value"));
+                }
+            }
+            for (int i = 0; i < changed_plugins.length(); i++) {
+                JSONObject plugin_config = changed_plugins.getJSONObject(i);
+                HashMap<String, Object> plugin_settings = getPluginSettings(settings, plugin_config.getString("plugin"));
+                JSONArray config_settings = plugin_config.getJSONArray("settings");
+                for (int j = 0; j < config_settings.length(); j++) {
+                    JSONObject plugin_set = config_settings.getJSONObject(j);
+                    plugin_settings.put(plugin_set.getString("setting"), plugin_set.getString("value"));
+                }
+                updated.put(plugin_config.getString("plugin").toLowerCase(), plugin_config);
+            }
+            for (int i = 0; i < disabled_plugins.length(); i++) {
+                JSONObject plugin_config = disabled_plugins.getJSONObject(i);
+                HashMap<String, Object> plugin_settings = getPluginSettings(settings, plugin_config.getString("plugin"));
+                JSONArray config_settings = plugin_config.getJSONArray("settings");
+                for (int j = 0; j < config_settings.length(); j++) {
+                    JSONObject plugin_set = config_settings.getJSONObject(j);
+                    if (plugin_set.getString("setting").contains("status")) {
+                        plugin_settings.put(plugin_set.getString("setting"), false);
+                    } else
+                        plugin_settings.put(plugin_set.getString("setting"), plugin_set.getString("value"));
+                }
+                updated.put(plugin_config.getString("plugin").toLowerCase(), null);
+            }
 
-                    JSONArray disabled = pluginSync.get(1);
-                    for (int i = 0; i < disabled.length(); i++) {
-                        try {
-                            JSONObject plugin_config = disabled.getJSONObject(i);
-                            String package_name = plugin_config.getString("plugin");
-                            JSONArray plugin_settings = plugin_config.getJSONArray("settings");
-                            for (int j = 0; j < plugin_settings.length(); j++) {
-                                JSONObject plugin_set = plugin_settings.getJSONObject(j);
-                                if (plugin_set.getString("setting").contains("status")) {
-                                    Aware.setSetting(c, plugin_set.getString("setting"), false, package_name);
-                                } else
-                                    Aware.setSetting(c, plugin_set.getString("setting"), plugin_set.getString("value"), package_name);
-                            }
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
+            if (enabled_plugins.length() > 0 || disabled_plugins.length() > 0 || changed_plugins.length() > 0) {
+                config_changed = true;
+
+                //Update local study configuration
+                JSONArray newPlugins = new JSONArray();
+                for (int i = 0; i < localPlugins.length(); i++) {
+                    JSONObject local = localPlugins.getJSONObject(i);
+                    String package_name = local.getString("plugin").toLowerCase();
+                    if (!updated.containsKey(package_name)) {
+                        newPlugins.put(local);
+                    } else if (updated.get(package_name) != null) {
+                        newPlugins.put(updated.get(package_name));
                     }
+                }
+                for (int i = 0; i < enabled_plugins.length(); i++) {
+                    newPlugins.put(enabled_plugins.getJSONObject(i));
+                }
+                localConfig.getJSONObject(0).put("plugins", newPlugins);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
 
-                    if (enabled.length() > 0 || disabled.length() > 0) config_changed = true;
-
-                    if (config_changed) {
-                        if (enabled.length() > 0 && !localConfig.getJSONObject(0).has("plugins")) {
-                            localConfig.getJSONObject(0).put("plugins", new JSONArray());
-                        }
+        if (!config_changed) {
+            if (Aware.DEBUG) Log.d(TAG, "Study configuration is up-to-date");
+            return;
+        }
 
-                        //Update local study configuration
-                        for (int i = 0; i < enabled.length(); i++) {
-                            JSONObject plugin = enabled.getJSONObject(i);
-                            localConfig.getJSONObject(0).getJSONArray("plugins").put(plugin);
-                            if (PluginsManager.isInstalled(c, enabled.getJSONObject(i).getString("plugin")) != null) {
-                                Aware.startPlugin(c, enabled.getJSONObject(i).getString("plugin"));
-                            } else
-                                Aware.downloadPlugin(c, enabled.getJSONObject(i).getString("plugin"), null, false);
-                        }
+        HashMap<String, HashSet<String>> changes = Aware.setSettings(c, settings, false);
+        boolean standalone = c.getResources().getBoolean(R.bool.standalone);
 
-                        for (int i = 0; i < disabled.length(); i++) {
-                            JSONObject removed = disabled.getJSONObject(i);
-                            for (int j = 0; j < localConfig.getJSONObject(0).getJSONArray("plugins").length(); j++) {
-                                JSONObject local = localConfig.getJSONObject(0).getJSONArray("plugins").getJSONObject(j);
-                                if (removed.getString("plugin").equalsIgnoreCase(local.getString("plugin"))) {
-                                    localConfig.getJSONObject(0).getJSONArray("plugins").remove(j);
-                                    Aware.stopPlugin(c, removed.getString("plugin"));
-                                }
-                            }
-                        }
-                    }
+        try {
+            for (int i = 0; i < disabled_plugins.length(); i++) {
+                Aware.stopPlugin(c, disabled_plugins.getJSONObject(i).getString("plugin"));
+            }
+            for (int i = 0; i < enabled_plugins.length(); i++) {
+                String package_name = enabled_plugins.getJSONObject(i).getString("plugin");
+                if (PluginsManager.isInstalled(c, package_name) != null) {
+                    Aware.startPlugin(c, package_name);
+                } else
+                    Aware.downloadPlugin(c, package_name, null, false);
+            }
+            //restart the plugins whose settings changed, so they pick them up
+            for (int i = 0; i < changed_plugins.length(); i++) {
+                String package_name = changed_plugins.getJSONObject(i).getString("plugin");
+                if ((standalone && !changes.isEmpty()) || changes.containsKey(package_name)) {
+                    if (PluginsManager.isInstalled(c, package_name) != null)
+                        Aware.startPlugin(c, package_name);
                 }
-            } catch (JSONException e) {
-                e.printStackTrace();
             }
+        } catch (JSONException e) {
+            e.printStackTrace();
         }
 
-        if (config_changed) {
-            ContentValues newCfg = new ContentValues();
-            newCfg.put(Aware_Provider.Aware_Studies.STUDY_CONFIG, localConfig.toString());
-            c.getContentResolver().update(Aware_Provider.Aware_Studies.CONTENT_URI, newCfg, Aware_Provider.Aware_Studies._ID + "=" + study_id, null);
+        ContentValues newCfg = new ContentValues();
+        newCfg.put(Aware_Provider.Aware_Studies.STUDY_CONFIG, localConfig.toString());
+        c.getContentResolver().update(Aware_Provider.Aware_Studies.CONTENT_URI, newCfg, Aware_Provider.Aware_Studies._ID + "=" + study_id, null);
 
-            //Set schedulers
-            if (schedulers.length() > 0)
-                Scheduler.setSchedules(c, schedulers);
+        //Set schedulers
+        if (schedulers.length() > 0)
+            Scheduler.setSchedules(c, schedulers);
 
+        //Core sensors only need to be re-evaluated if their settings changed
+        if (changes.containsKey((standalone) ? c.getPackageName() : "com.aware.phone")) {
             Intent aware = new Intent(c, Aware.class);
             c.startService(aware);
         }
     }
 
     /**
-     * This function returns a list of plugins to enable and one to disable because of server side configuration changes
+     * Settings of a plugin in a batch for {@link #setSettings(Context, HashMap, boolean)}
+     */
+    private static HashMap<String, Object> getPluginSettings(HashMap<String, HashMap<String, Object>> settings, String package_name) {
+        HashMap<String, Object> plugin_settings = settings.get(package_name);
+        if (plugin_settings == null) {
+            plugin_settings = new HashMap<>();
+            settings.put(package_name, plugin_settings);
+        }
+        return plugin_settings;
+    }
+
+    /**
+     * This function returns the plugins to enable, to disable and those whose settings changed because of server side configuration changes
      *
      * @param server
      * @param local
-     * @return
+     * @return enabled, disabled, changed
      * @throws JSONException
      */
     private static ArrayList<JSONArray> pluginDiff(JSONArray server, JSONArray local) throws JSONException {
         JSONArray to_enable = new JSONArray();
         JSONArray to_disable = new JSONArray();
+        JSONArray to_change = new JSONArray();
 
-        //enable new plugins from the server
+        HashMap<String, JSONObject> local_plugins = new HashMap<>();
+        for (int j = 0; j < local.length(); j++) {
+            JSONObject local_plugin = local.getJSONObject(j);
+            local_plugins.put(local_plugin.getString("plugin").toLowerCase(), local_plugin);
+        }
+
+        //enable new plugins from the server, update those with different settings
+        HashSet<String> server_plugins = new HashSet<>();
         for (int i = 0; i < server.length(); i++) {
             JSONObject server_plugin = server.getJSONObject(i);
-            boolean is_present = false;
-            for (int j = 0; j < local.length(); j++) {
-                JSONObject local_plugin = local.getJSONObject(j);
-                if (local_plugin.getString("plugin").equalsIgnoreCase(server_plugin.getString("plugin"))) {
-                    is_present = true;
-                    break;
-                }
+            String package_name = server_plugin.getString("plugin").toLowerCase();
+            server_plugins.add(package_name);
+
+            JSONObject local_plugin = local_plugins.get(package_name);
+            if (local_plugin == null) {
+                to_enable.put(server_plugin);
+            } else if (!getConfigValues(server_plugin.optJSONArray("settings")).equals(getConfigValues(local_plugin.optJSONArray("settings")))) {
+                to_change.put(server_plugin);
             }
-            if (!is_present) to_enable.put(server_plugin);
         }
 
-        //disable local sensors that are no longer in the server
+        //disable local plugins that are no longer in the server
         for (int j = 0; j < local.length(); j++) {
             JSONObject local_plugin = local.getJSONObject(j);
-
-            boolean remove = true;
-            for (int i = 0; i < server.length(); i++) {
-                JSONObject server_plugin = server.getJSONObject(i);
-                if (local_plugin.getString("plugin").equalsIgnoreCase(server_plugin.getString("plugin"))) {
-                    remove = false;
-                    break;
-                }
-            }
-            if (remove) to_disable.put(local_plugin);
+            if (!server_plugins.contains(local_plugin.getString("plugin").toLowerCase()))
+                to_disable.put(local_plugin);
         }
 
         ArrayList<JSONArray> output = new ArrayList<>();
         output.add(to_enable);
         output.add(to_disable);
+        output.add(to_change);
 
         return output;
     }
 
     /**
-     * This function returns a list of sensors to enable and one to disable because of server side configuration changes
+     * Settings of a study configuration, by setting name
+     */
+    private static HashMap<String, String> getConfigValues(JSONArray settings) {
+        HashMap<String, String> values = new HashMap<>();
+        if (settings == null) return values;
+        for (int i = 0; i < settings.length(); i++) {
+            JSONObject setting = settings.optJSONObject(i);
+            if (setting == null) continue;
+            values.put(setting.optString("setting").toLowerCase(), String.valueOf(setting.opt("value")));
+        }
+        return values;
+    }
+
+    /**
+     * This function returns the sensors to enable, to disable and those whose value changed because of server side configuration changes
      *
      * @param server
      * @param local
-     * @return
+     * @return enabled, disabled, changed
      * @throws JSONException
      */
     private static ArrayList<JSONArray> sensorDiff(Context context, JSONArray server, JSONArray local) throws JSONException {
@@ -1439,75 +1719,64 @@ public class Aware extends Service {
         optionalSensors.put(Aware_Preferences.STATUS_ROTATION, Sensor.TYPE_ROTATION_VECTOR);
         optionalSensors.put(Aware_Preferences.STATUS_TEMPERATURE, Sensor.TYPE_AMBIENT_TEMPERATURE);
 
-        Set<String> keys = optionalSensors.keySet();
+        //sensors this device does not have are left alone
+        HashSet<String> skip = new HashSet<>();
+        for (String optionalSensor : optionalSensors.keySet()) {
+            if (!listSensorType.containsKey(optionalSensors.get(optionalSensor)))
+                skip.add(optionalSensor.toLowerCase());
+        }
+
+        skip.add("status_mqtt");
+        skip.add("mqtt_server");
+        skip.add("mqtt_port");
+        skip.add("mqtt_keep_alive");
+        skip.add("mqtt_qos");
+        skip.add("mqtt_username");
+        skip.add("mqtt_password");
+        skip.add("status_esm");
+        skip.add("study_id");
+        skip.add("study_start");
+        skip.add("webservice_server");
+        skip.add("status_webservice");
 
         JSONArray to_enable = new JSONArray();
         JSONArray to_disable = new JSONArray();
+        JSONArray to_change = new JSONArray();
+
+        HashMap<String, JSONObject> local_sensors = new HashMap<>();
+        for (int j = 0; j < local.length(); j++) {
+            JSONObject local_sensor = local.getJSONObject(j);
+            local_sensors.put(local_sensor.getString("setting").toLowerCase(), local_sensor);
+        }
 
-        ArrayList<String> immutable_settings = new ArrayList<>();
-        immutable_settings.add("status_mqtt");
-        immutable_settings.add("mqtt_server");
-        immutable_settings.add("mqtt_port");
-        immutable_settings.add("mqtt_keep_alive");
-        immutable_settings.add("mqtt_qos");
-        immutable_settings.add("mqtt_username");
-        immutable_settings.add("mqtt_password");
-        immutable_settings.add("status_esm");
-        immutable_settings.add("study_id");
-        immutable_settings.add("study_start");
-        immutable_settings.add("webservice_server");
-        immutable_settings.add("status_webservice");
-
-        //enable new sensors from the server
+        //enable new sensors from the server, update those with a different value
+        HashSet<String> server_sensors = new HashSet<>();
         for (int i = 0; i < server.length(); i++) {
             JSONObject server_sensor = server.getJSONObject(i);
-
-            for (String optionalSensor : keys) {
-                if (server_sensor.getString("setting").equalsIgnoreCase(optionalSensor) && !listSensorType.containsKey(optionalSensors.get(optionalSensor)))
-                    continue;
+            String setting = server_sensor.getString("setting").toLowerCase();
+            if (skip.contains(setting)) continue; //don't do anything
+            server_sensors.add(setting);
+
+            JSONObject local_sensor = local_sensors.get(setting);
+            if (local_sensor == null) {
+                to_enable.put(server_sensor);
+            } else if (!String.valueOf(server_sensor.opt("value")).equals(String.valueOf(local_sensor.opt("value")))) {
+                to_change.put(server_sensor);
             }
-
-            boolean is_present = false;
-            for (int j = 0; j < local.length(); j++) {
-                JSONObject local_sensor = local.getJSONObject(j);
-                if (immutable_settings.contains(local_sensor.getString("setting"))) {
-                    continue; //don't do anything
-                }
-
-                if (local_sensor.getString("setting").equalsIgnoreCase(server_sensor.getString("setting"))) {
-                    is_present = true;
-                    break;
-                }
-            }
-            if (!is_present) to_enable.put(server_sensor);
         }
 
         //disable local sensors that are no longer in the server
         for (int j = 0; j < local.length(); j++) {
             JSONObject local_sensor = local.getJSONObject(j);
-            if (immutable_settings.contains(local_sensor.getString("setting"))) {
-                continue; //don't do anything
-            }
-
-            for (String optionalSensor : keys) {
-                if (local_sensor.getString("setting").equalsIgnoreCase(optionalSensor) && !listSensorType.containsKey(optionalSensors.get(optionalSensor)))
-                    continue;
-            }
-
-            boolean remove = true;
-            for (int i = 0; i < server.length(); i++) {
-                JSONObject server_sensor = server.getJSONObject(i);
-                if (local_sensor.getString("setting").equalsIgnoreCase(server_sensor.getString("setting"))) {
-                    remove = false;
-                    break;
-                }
-            }
-            if (remove) to_disable.put(local_sensor);
+            String setting = local_sensor.getString("setting").toLowerCase();
+            if (skip.contains(setting)) continue; //don't do anything
+            if (!server_sensors.contains(setting)) to_disable.put(local_sensor);
         }
 
         ArrayList<JSONArray> output = new ArrayList<>();
         output.add(to_enable);
         output.add(to_disable);
+        output.add(to_change);
 
         return output;
     }
@@ -1727,6 +1996,8 @@ public class Aware extends Service {
     }
 
     public static void reset(Context context) {
+        clearStudyCheck(context);
+
         String device_id = Aware.getSetting(context, Aware_Preferences.DEVICE_ID);
         String device_label = Aware.getSetting(context, Aware_Preferences.DEVICE_LABEL);
 
@@ -1796,6 +2067,13 @@ public class Aware extends Service {
             String packageName = packageUri.getSchemeSpecificPart();
             if (packageName == null) return;
 
+            //Installed, updated or removed: cached application labels and versions are stale
+            Applications.invalidatePackage(packageName);
+            //...and so are the receivers other apps declared for context events
+            ContextBus.invalidateReceivers();
+            if (intent.getAction().equals(Intent.ACTION_PACKAGE_REMOVED) && (extras == null || !extras.getBoolean(Intent.EXTRA_REPLACING)))
+                ContextBus.removeRequests(context, packageName);
+
             if (!packageName.matches("com.aware.plugin.*")) return;
 
             if (intent.getAction().equals(Intent.ACTION_PACKAGE_ADDED)) {
@@ -2248,117 +2526,190 @@ public class Aware extends Service {
     }
 
     /**
-     * Start core and active services
+     * Core sensors: the service, the settings that turn it on (any of them) and the setting keys that configure it
      */
-    public static void startAWARE(Context context) {
-
-        startScheduler(context);
-
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_SIGNIFICANT_MOTION).equals("true")) {
-            startSignificant(context);
-        } else stopSignificant(context);
-
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_ESM).equals("true")) {
-            startESM(context);
-        } else stopESM(context);
-
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_ACCELEROMETER).equals("true")) {
-            startAccelerometer(context);
-        } else stopAccelerometer(context);
-
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_INSTALLATIONS).equals("true")) {
-            startInstallations(context);
-        } else stopInstallations(context);
+    private static final class CoreSensor {
+        final Class<?> service;
+        final String[] status;
+        final String[] settings;
 
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_LOCATION_GPS).equals("true")
-                || Aware.getSetting(context, Aware_Preferences.STATUS_LOCATION_NETWORK).equals("true")
-                || Aware.getSetting(context, Aware_Preferences.STATUS_LOCATION_PASSIVE).equals("true")) {
-            startLocations(context);
-        } else stopLocations(context);
-
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_BLUETOOTH).equals("true")) {
-            startBluetooth(context);
-        } else stopBluetooth(context);
-
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_SCREEN).equals("true")) {
-            startScreen(context);
-        } else stopScreen(context);
-
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_BATTERY).equals("true")) {
-            startBattery(context);
-        } else stopBattery(context);
-
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_NETWORK_EVENTS).equals("true")) {
-            startNetwork(context);
-        } else stopNetwork(context);
-
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_NETWORK_TRAFFIC).equals("true")) {
-            startTraffic(context);
-        } else stopTraffic(context);
-
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_COMMUNICATION_EVENTS).equals("true") || Aware.getSetting(context, Aware_Preferences.STATUS_CALLS).equals("true") || Aware.getSetting(context, Aware_Preferences.STATUS_MESSAGES).equals("true")) {
-            startCommunication(context);
-        } else stopCommunication(context);
-
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_PROCESSOR).equals("true")) {
-            startProcessor(context);
-        } else stopProcessor(context);
-
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_TIMEZONE).equals("true")) {
-            startTimeZone(context);
-        } else stopTimeZone(context);
-
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_MQTT).equals("true")) {
-            startMQTT(context);
-        } else stopMQTT(context);
-
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_GYROSCOPE).equals("true")) {
-            startGyroscope(context);
-        } else stopGyroscope(context);
+        CoreSensor(Class<?> service, String[] status, String... settings) {
+            this.service = service;
+            this.status = status;
+            this.settings = settings;
+        }
 
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_WIFI).equals("true")) {
-            startWiFi(context);
-        } else stopWiFi(context);
+        boolean isEnabled(TreeMap<String, String> snapshot) {
+            for (String key : status) {
+                if ("true".equals(snapshot.get(key))) return true;
+            }
+            return false;
+        }
 
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_TELEPHONY).equals("true")) {
-            startTelephony(context);
-        } else stopTelephony(context);
+        /**
+         * Values of the settings this sensor reads when it starts. A running sensor is restarted only if they change.
+         */
+        String getSignature(TreeMap<String, String> snapshot) {
+            StringBuilder signature = new StringBuilder();
+            append(signature, snapshot, Aware_Preferences.DEBUG_FLAG);
+            append(signature, snapshot, Aware_Preferences.ENFORCE_FREQUENCY_ALL);
+            for (String key : status) append(signature, snapshot, key);
+            for (String key : settings) append(signature, snapshot, key);
+            return signature.toString();
+        }
 
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_ROTATION).equals("true")) {
-            startRotation(context);
-        } else stopRotation(context);
+        private static void append(StringBuilder signature, TreeMap<String, String> snapshot, String key) {
+            signature.append(key).append('=').append(snapshot.get(key)).append(';');
+        }
+    }
 
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_LIGHT).equals("true")) {
-            startLight(context);
-        } else stopLight(context);
+    private static final CoreSensor[] CORE_SENSORS = {
+            new CoreSensor(SignificantMotion.class, new String[]{Aware_Preferences.STATUS_SIGNIFICANT_MOTION}),
+            new CoreSensor(ESM.class, new String[]{Aware_Preferences.STATUS_ESM}),
+            new CoreSensor(Accelerometer.class, new String[]{Aware_Preferences.STATUS_ACCELEROMETER},
+                    Aware_Preferences.FREQUENCY_ACCELEROMETER, Aware_Preferences.FREQUENCY_ACCELEROMETER_ENFORCE, Aware_Preferences.THRESHOLD_ACCELEROMETER,
+                    Aware_Preferences.BROADCAST_ACCELEROMETER, Aware_Preferences.BROADCAST_RATE_ACCELEROMETER),
+            new CoreSensor(Installations.class, new String[]{Aware_Preferences.STATUS_INSTALLATIONS}),
+            new CoreSensor(Locations.class, new String[]{Aware_Preferences.STATUS_LOCATION_GPS, Aware_Preferences.STATUS_LOCATION_NETWORK, Aware_Preferences.STATUS_LOCATION_PASSIVE},
+                    Aware_Preferences.FREQUENCY_LOCATION_GPS, Aware_Preferences.MIN_LOCATION_GPS_ACCURACY, Aware_Preferences.FREQUENCY_LOCATION_NETWORK,
+                    Aware_Preferences.MIN_LOCATION_NETWORK_ACCURACY, Aware_Preferences.LOCATION_EXPIRATION_TIME, Aware_Preferences.LOCATION_GEOFENCE,
+                    Aware_Preferences.LOCATION_SAVE_ALL, Aware_Preferences.LOCATION_COMPRESSION_TOLERANCE, Aware_Preferences.STATUS_LOCATION_VISITS,
+                    Aware_Preferences.LOCATION_VISIT_RADIUS, Aware_Preferences.LOCATION_VISIT_DURATION),
+            new CoreSensor(Bluetooth.class, new String[]{Aware_Preferences.STATUS_BLUETOOTH},
+                    Aware_Preferences.FREQUENCY_BLUETOOTH),
+            new CoreSensor(Screen.class, new String[]{Aware_Preferences.STATUS_SCREEN}),
+            new CoreSensor(Battery.class, new String[]{Aware_Preferences.STATUS_BATTERY},
+                    Aware_Preferences.REMIND_TO_CHARGE),
+            new CoreSensor(Network.class, new String[]{Aware_Preferences.STATUS_NETWORK_EVENTS}),
+            new CoreSensor(Traffic.class, new String[]{Aware_Preferences.STATUS_NETWORK_TRAFFIC},
+                    Aware_Preferences.FREQUENCY_NETWORK_TRAFFIC),
+            new CoreSensor(Communication.class, new String[]{Aware_Preferences.STATUS_COMMUNICATION_EVENTS, Aware_Preferences.STATUS_CALLS, Aware_Preferences.STATUS_MESSAGES}),
+            new CoreSensor(Processor.class, new String[]{Aware_Preferences.STATUS_PROCESSOR},
+                    Aware_Preferences.FREQUENCY_PROCESSOR),
+            new CoreSensor(Timezone.class, new String[]{Aware_Preferences.STATUS_TIMEZONE},
+                    Aware_Preferences.FREQUENCY_TIMEZONE),
+            new CoreSensor(Mqtt.class, new String[]{Aware_Preferences.STATUS_MQTT},
+                    Aware_Preferences.MQTT_SERVER, Aware_Preferences.MQTT_PORT, Aware_Preferences.MQTT_USERNAME,
+                    Aware_Preferences.MQTT_PASSWORD, Aware_Preferences.MQTT_KEEP_ALIVE, Aware_Preferences.MQTT_QOS),
+            new CoreSensor(Gyroscope.class, new String[]{Aware_Preferences.STATUS_GYROSCOPE},
+                    Aware_Preferences.FREQUENCY_GYROSCOPE, Aware_Preferences.FREQUENCY_GYROSCOPE_ENFORCE, Aware_Preferences.THRESHOLD_GYROSCOPE,
+                    Aware_Preferences.BROADCAST_GYROSCOPE, Aware_Preferences.BROADCAST_RATE_GYROSCOPE),
+            new CoreSensor(WiFi.class, new String[]{Aware_Preferences.STATUS_WIFI},
+                    Aware_Preferences.FREQUENCY_WIFI, Aware_Preferences.WIFI_COMPACT_STORAGE),
+            new CoreSensor(Telephony.class, new String[]{Aware_Preferences.STATUS_TELEPHONY}),
+            new CoreSensor(Rotation.class, new String[]{Aware_Preferences.STATUS_ROTATION},
+                    Aware_Preferences.FREQUENCY_ROTATION, Aware_Preferences.FREQUENCY_ROTATION_ENFORCE, Aware_Preferences.THRESHOLD_ROTATION,
+                    Aware_Preferences.BROADCAST_ROTATION, Aware_Preferences.BROADCAST_RATE_ROTATION),
+            new CoreSensor(Light.class, new String[]{Aware_Preferences.STATUS_LIGHT},
+                    Aware_Preferences.FREQUENCY_LIGHT, Aware_Preferences.FREQUENCY_LIGHT_ENFORCE, Aware_Preferences.THRESHOLD_LIGHT),
+            new CoreSensor(Proximity.class, new String[]{Aware_Preferences.STATUS_PROXIMITY},
+                    Aware_Preferences.FREQUENCY_PROXIMITY, Aware_Preferences.FREQUENCY_PROXIMITY_ENFORCE, Aware_Preferences.THRESHOLD_PROXIMITY),
+            new CoreSensor(Magnetometer.class, new String[]{Aware_Preferences.STATUS_MAGNETOMETER},
+                    Aware_Preferences.FREQUENCY_MAGNETOMETER, Aware_Preferences.FREQUENCY_MAGNETOMETER_ENFORCE, Aware_Preferences.THRESHOLD_MAGNETOMETER,
+                    Aware_Preferences.BROADCAST_MAGNETOMETER, Aware_Preferences.BROADCAST_RATE_MAGNETOMETER),
+            new CoreSensor(Barometer.class, new String[]{Aware_Preferences.STATUS_BAROMETER},
+                    Aware_Preferences.FREQUENCY_BAROMETER, Aware_Preferences.FREQUENCY_BAROMETER_ENFORCE, Aware_Preferences.THRESHOLD_BAROMETER),
+            new CoreSensor(Gravity.class, new String[]{Aware_Preferences.STATUS_GRAVITY},
+                    Aware_Preferences.FREQUENCY_GRAVITY, Aware_Preferences.FREQUENCY_GRAVITY_ENFORCE, Aware_Preferences.THRESHOLD_GRAVITY,
+                    Aware_Preferences.BROADCAST_GRAVITY, Aware_Preferences.BROADCAST_RATE_GRAVITY),
+            new CoreSensor(LinearAccelerometer.class, new String[]{Aware_Preferences.STATUS_LINEAR_ACCELEROMETER},
+                    Aware_Preferences.FREQUENCY_LINEAR_ACCELEROMETER, Aware_Preferences.FREQUENCY_LINEAR_ACCELEROMETER_ENFORCE, Aware_Preferences.THRESHOLD_LINEAR_ACCELEROMETER,
+                    Aware_Preferences.BROADCAST_LINEAR_ACCELEROMETER, Aware_Preferences.BROADCAST_RATE_LINEAR_ACCELEROMETER),
+            new CoreSensor(Temperature.class, new String[]{Aware_Preferences.STATUS_TEMPERATURE},
+                    Aware_Preferences.FREQUENCY_TEMPERATURE, Aware_Preferences.FREQUENCY_TEMPERATURE_ENFORCE, Aware_Preferences.THRESHOLD_TEMPERATURE),
+            new CoreSensor(Keyboard.class, new String[]{Aware_Preferences.STATUS_KEYBOARD})
+    };
+
+    /**
+     * Start core and active services.
+     * The settings are read once, and only the sensors that should start, stop or whose settings changed are touched.
+     */
+    public static void startAWARE(Context context) {
+        long phase = System.currentTimeMillis();
 
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_PROXIMITY).equals("true")) {
-            startProximity(context);
-        } else stopProximity(context);
+        startScheduler(context);
+        phase = logPhase("scheduler", phase);
+
+        TreeMap<String, String> settings = getSettings(context);
+        HashSet<String> running = getRunningServices(context);
+        phase = logPhase("settings", phase);
+
+        int started = 0;
+        int stopped = 0;
+        for (CoreSensor sensor : CORE_SENSORS) {
+            boolean is_running = running.contains(sensor.service.getName());
+            if (sensor.isEnabled(settings)) {
+                String signature = sensor.getSignature(settings);
+                String last;
+                synchronized (sensorSettings) {
+                    last = sensorSettings.get(sensor.service.getName());
+                }
+                if (!is_running || !signature.equals(last)) {
+                    startSensor(context, sensor.service);
+                    synchronized (sensorSettings) {
+                        sensorSettings.put(sensor.service.getName(), signature);
+                    }
+                    started++;
+                }
+            } else if (is_running) {
+                stopSensor(context, sensor.service);
+                stopped++;
+            }
+        }
+        logPhase("sensors", phase);
 
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_MAGNETOMETER).equals("true")) {
-            startMagnetometer(context);
-        } else stopMagnetometer(context);
+        if (Aware.DEBUG) Log.d(TAG, "Core sensors started: " + started + " stopped: " + stopped);
+    }
 
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_BAROMETER).equals("true")) {
-            startBarometer(context);
-        } else stopBarometer(context);
+    private static void startSensor(Context context, Class<?> sensor) {
+        context.startService(new Intent(context, sensor));
+    }
 
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_GRAVITY).equals("true")) {
-            startGravity(context);
-        } else stopGravity(context);
+    private static void stopSensor(Context context, Class<?> sensor) {
+        context.stopService(new Intent(context, sensor));
+        synchronized (sensorSettings) {
+            sensorSettings.remove(sensor.getName());
+        }
+    }
 
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_LINEAR_ACCELEROMETER).equals("true")) {
-            startLinearAccelerometer(context);
-        } else stopLinearAccelerometer(context);
+    /**
+     * Services of this app that are running right now, by class name
+     */
+    private static HashSet<String> getRunningServices(Context context) {
+        HashSet<String> running = new HashSet<>();
+        ActivityManager manager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        for (ActivityManager.RunningServiceInfo service : manager.getRunningServices(Integer.MAX_VALUE)) {
+            if (context.getPackageName().equals(service.service.getPackageName()))
+                running.add(service.service.getClassName());
+        }
+        return running;
+    }
 
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_TEMPERATURE).equals("true")) {
-            startTemperature(context);
-        } else stopTemperature(context);
+    /**
+     * Records how long a start-up phase took
+     *
+     * @param phase   name
+     * @param started when the phase started
+     * @return now, when the next phase starts
+     */
+    private static long logPhase(String phase, long started) {
+        long now = System.currentTimeMillis();
+        synchronized (phaseTimings) {
+            phaseTimings.put(phase, now - started);
+        }
+        if (Aware.DEBUG) Log.d(TAG, "Phase " + phase + ": " + (now - started) + " ms");
+        return now;
+    }
 
-        if (Aware.getSetting(context, Aware_Preferences.STATUS_KEYBOARD).equals("true")) {
-            startKeyboard(context);
-        } else stopKeyboard(context);
+    /**
+     * How long each start-up phase took the last time it ran
+     *
+     * @return phase -> milliseconds
+     */
+    public static LinkedHashMap<String, Long> getPhaseTimings() {
+        synchronized (phaseTimings) {
+            return new LinkedHashMap<>(phaseTimings);
+        }
     }
 
     public static void startPlugins(Context context) {
@@ -2450,8 +2801,7 @@ public class Aware extends Service {
      */
     public static void startSignificant(Context context) {
         if (context == null) return;
-        if (significantSrv == null) significantSrv = new Intent(context, SignificantMotion.class);
-        context.startService(significantSrv);
+        startSensor(context, SignificantMotion.class);
     }
 
     /**
@@ -2461,7 +2811,7 @@ public class Aware extends Service {
      */
     public static void stopSignificant(Context context) {
         if (context == null) return;
-        if (significantSrv != null) context.stopService(significantSrv);
+        stopSensor(context, SignificantMotion.class);
     }
 
     /**
@@ -2490,8 +2840,7 @@ public class Aware extends Service {
      */
     public static void startKeyboard(Context context) {
         if (context == null) return;
-        if (keyboard == null) keyboard = new Intent(context, Keyboard.class);
-        context.startService(keyboard);
+        startSensor(context, Keyboard.class);
     }
 
     /**
@@ -2499,7 +2848,7 @@ public class Aware extends Service {
      */
     public static void stopKeyboard(Context context) {
         if (context == null) return;
-        if (keyboard != null) context.stopService(keyboard);
+        stopSensor(context, Keyboard.class);
     }
 
     /**
@@ -2507,8 +2856,7 @@ public class Aware extends Service {
      */
     public static void startInstallations(Context context) {
         if (context == null) return;
-        if (installationsSrv == null) installationsSrv = new Intent(context, Installations.class);
-        context.startService(installationsSrv);
+        startSensor(context, Installations.class);
     }
 
     /**
@@ -2516,7 +2864,7 @@ public class Aware extends Service {
      */
     public static void stopInstallations(Context context) {
         if (context == null) return;
-        if (installationsSrv != null) context.stopService(installationsSrv);
+        stopSensor(context, Installations.class);
     }
 
     /**
@@ -2524,8 +2872,7 @@ public class Aware extends Service {
      */
     public static void startESM(Context context) {
         if (context == null) return;
-        if (esmSrv == null) esmSrv = new Intent(context, ESM.class);
-        context.startService(esmSrv);
+        startSensor(context, ESM.class);
     }
 
     /**
@@ -2533,7 +2880,7 @@ public class Aware extends Service {
      */
     public static void stopESM(Context context) {
         if (context == null) return;
-        if (esmSrv != null) context.stopService(esmSrv);
+        stopSensor(context, ESM.class);
     }
 
     /**
@@ -2541,8 +2888,7 @@ public class Aware extends Service {
      */
     public static void startTemperature(Context context) {
         if (context == null) return;
-        if (temperatureSrv == null) temperatureSrv = new Intent(context, Temperature.class);
-        context.startService(temperatureSrv);
+        startSensor(context, Temperature.class);
     }
 
     /**
@@ -2550,7 +2896,7 @@ public class Aware extends Service {
      */
     public static void stopTemperature(Context context) {
         if (context == null) return;
-        if (temperatureSrv != null) context.stopService(temperatureSrv);
+        stopSensor(context, Temperature.class);
     }
 
     /**
@@ -2558,9 +2904,7 @@ public class Aware extends Service {
      */
     public static void startLinearAccelerometer(Context context) {
         if (context == null) return;
-        if (linear_accelSrv == null)
-            linear_accelSrv = new Intent(context, LinearAccelerometer.class);
-        context.startService(linear_accelSrv);
+        startSensor(context, LinearAccelerometer.class);
     }
 
     /**
@@ -2568,7 +2912,7 @@ public class Aware extends Service {
      */
     public static void stopLinearAccelerometer(Context context) {
         if (context == null) return;
-        if (linear_accelSrv != null) context.stopService(linear_accelSrv);
+        stopSensor(context, LinearAccelerometer.class);
     }
 
     /**
@@ -2576,8 +2920,7 @@ public class Aware extends Service {
      */
     public static void startGravity(Context context) {
         if (context == null) return;
-        if (gravitySrv == null) gravitySrv = new Intent(context, Gravity.class);
-        context.startService(gravitySrv);
+        startSensor(context, Gravity.class);
     }
 
     /**
@@ -2585,7 +2928,7 @@ public class Aware extends Service {
      */
     public static void stopGravity(Context context) {
         if (context == null) return;
-        if (gravitySrv != null) context.stopService(gravitySrv);
+        stopSensor(context, Gravity.class);
     }
 
     /**
@@ -2593,8 +2936,7 @@ public class Aware extends Service {
      */
     public static void startBarometer(Context context) {
         if (context == null) return;
-        if (barometerSrv == null) barometerSrv = new Intent(context, Barometer.class);
-        context.startService(barometerSrv);
+        startSensor(context, Barometer.class);
     }
 
     /**
@@ -2602,7 +2944,7 @@ public class Aware extends Service {
      */
     public static void stopBarometer(Context context) {
         if (context == null) return;
-        if (barometerSrv != null) context.stopService(barometerSrv);
+        stopSensor(context, Barometer.class);
     }
 
     /**
@@ -2610,8 +2952,7 @@ public class Aware extends Service {
      */
     public static void startMagnetometer(Context context) {
         if (context == null) return;
-        if (magnetoSrv == null) magnetoSrv = new Intent(context, Magnetometer.class);
-        context.startService(magnetoSrv);
+        startSensor(context, Magnetometer.class);
     }
 
     /**
@@ -2619,7 +2960,7 @@ public class Aware extends Service {
      */
     public static void stopMagnetometer(Context context) {
         if (context == null) return;
-        if (magnetoSrv != null) context.stopService(magnetoSrv);
+        stopSensor(context, Magnetometer.class);
     }
 
     /**
@@ -2627,8 +2968,7 @@ public class Aware extends Service {
      */
     public static void startProximity(Context context) {
         if (context == null) return;
-        if (proximitySrv == null) proximitySrv = new Intent(context, Proximity.class);
-        context.startService(proximitySrv);
+        startSensor(context, Proximity.class);
     }
 
     /**
@@ -2636,7 +2976,7 @@ public class Aware extends Service {
      */
     public static void stopProximity(Context context) {
         if (context == null) return;
-        if (proximitySrv != null) context.stopService(proximitySrv);
+        stopSensor(context, Proximity.class);
     }
 
     /**
@@ -2644,8 +2984,7 @@ public class Aware extends Service {
      */
     public static void startLight(Context context) {
         if (context == null) return;
-        if (lightSrv == null) lightSrv = new Intent(context, Light.class);
-        context.startService(lightSrv);
+        startSensor(context, Light.class);
     }
 
     /**
@@ -2653,7 +2992,7 @@ public class Aware extends Service {
      */
     public static void stopLight(Context context) {
         if (context == null) return;
-        if (lightSrv != null) context.stopService(lightSrv);
+        stopSensor(context, Light.class);
     }
 
     /**
@@ -2661,8 +3000,7 @@ public class Aware extends Service {
      */
     public static void startRotation(Context context) {
         if (context == null) return;
-        if (rotationSrv == null) rotationSrv = new Intent(context, Rotation.class);
-        context.startService(rotationSrv);
+        startSensor(context, Rotation.class);
     }
 
     /**
@@ -2670,7 +3008,7 @@ public class Aware extends Service {
      */
     public static void stopRotation(Context context) {
         if (context == null) return;
-        if (rotationSrv != null) context.stopService(rotationSrv);
+        stopSensor(context, Rotation.class);
     }
 
     /**
@@ -2678,8 +3016,7 @@ public class Aware extends Service {
      */
     public static void startTelephony(Context context) {
         if (context == null) return;
-        if (telephonySrv == null) telephonySrv = new Intent(context, Telephony.class);
-        context.startService(telephonySrv);
+        startSensor(context, Telephony.class);
     }
 
     /**
@@ -2687,7 +3024,7 @@ public class Aware extends Service {
      */
     public static void stopTelephony(Context context) {
         if (context == null) return;
-        if (telephonySrv != null) context.stopService(telephonySrv);
+        stopSensor(context, Telephony.class);
     }
 
     /**
@@ -2695,13 +3032,12 @@ public class Aware extends Service {
      */
     public static void startWiFi(Context context) {
         if (context == null) return;
-        if (wifiSrv == null) wifiSrv = new Intent(context, WiFi.class);
-        context.startService(wifiSrv);
+        startSensor(context, WiFi.class);
     }
 
     public static void stopWiFi(Context context) {
         if (context == null) return;
-        if (wifiSrv != null) context.stopService(wifiSrv);
+        stopSensor(context, WiFi.class);
     }
 
     /**
@@ -2709,8 +3045,7 @@ public class Aware extends Service {
      */
     public static void startGyroscope(Context context) {
         if (context == null) return;
-        if (gyroSrv == null) gyroSrv = new Intent(context, Gyroscope.class);
-        context.startService(gyroSrv);
+        startSensor(context, Gyroscope.class);
     }
 
     /**
@@ -2718,7 +3053,7 @@ public class Aware extends Service {
      */
     public static void stopGyroscope(Context context) {
         if (context == null) return;
-        if (gyroSrv != null) context.stopService(gyroSrv);
+        stopSensor(context, Gyroscope.class);
     }
 
     /**
@@ -2726,8 +3061,7 @@ public class Aware extends Service {
      */
     public static void startAccelerometer(Context context) {
         if (context == null) return;
-        if (accelerometerSrv == null) accelerometerSrv = new Intent(context, Accelerometer.class);
-        context.startService(accelerometerSrv);
+        startSensor(context, Accelerometer.class);
     }
 
     /**
@@ -2735,7 +3069,7 @@ public class Aware extends Service {
      */
     public static void stopAccelerometer(Context context) {
         if (context == null) return;
-        if (accelerometerSrv != null) context.stopService(accelerometerSrv);
+        stopSensor(context, Accelerometer.class);
     }
 
     /**
@@ -2743,8 +3077,7 @@ public class Aware extends Service {
      */
     public static void startProcessor(Context context) {
         if (context == null) return;
-        if (processorSrv == null) processorSrv = new Intent(context, Processor.class);
-        context.startService(processorSrv);
+        startSensor(context, Processor.class);
     }
 
     /**
@@ -2752,7 +3085,7 @@ public class Aware extends Service {
      */
     public static void stopProcessor(Context context) {
         if (context == null) return;
-        if (processorSrv != null) context.stopService(processorSrv);
+        stopSensor(context, Processor.class);
     }
 
     /**
@@ -2760,8 +3093,7 @@ public class Aware extends Service {
      */
     public static void startLocations(Context context) {
         if (context == null) return;
-        if (locationsSrv == null) locationsSrv = new Intent(context, Locations.class);
-        context.startService(locationsSrv);
+        startSensor(context, Locations.class);
     }
 
     /**
@@ -2772,7 +3104,7 @@ public class Aware extends Service {
         if (!Aware.getSetting(context, Aware_Preferences.STATUS_LOCATION_GPS).equals("true")
                 && !Aware.getSetting(context, Aware_Preferences.STATUS_LOCATION_NETWORK).equals("true")
                 && !Aware.getSetting(context, Aware_Preferences.STATUS_LOCATION_PASSIVE).equals("true")) {
-            if (locationsSrv != null) context.stopService(locationsSrv);
+            stopSensor(context, Locations.class);
         }
     }
 
@@ -2781,8 +3113,7 @@ public class Aware extends Service {
      */
     public static void startBluetooth(Context context) {
         if (context == null) return;
-        if (bluetoothSrv == null) bluetoothSrv = new Intent(context, Bluetooth.class);
-        context.startService(bluetoothSrv);
+        startSensor(context, Bluetooth.class);
     }
 
     /**
@@ -2790,7 +3121,7 @@ public class Aware extends Service {
      */
     public static void stopBluetooth(Context context) {
         if (context == null) return;
-        if (bluetoothSrv != null) context.stopService(bluetoothSrv);
+        stopSensor(context, Bluetooth.class);
     }
 
     /**
@@ -2798,8 +3129,7 @@ public class Aware extends Service {
      */
     public static void startScreen(Context context) {
         if (context == null) return;
-        if (screenSrv == null) screenSrv = new Intent(context, Screen.class);
-        context.startService(screenSrv);
+        startSensor(context, Screen.class);
     }
 
     /**
@@ -2807,7 +3137,7 @@ public class Aware extends Service {
      */
     public static void stopScreen(Context context) {
         if (context == null) return;
-        if (screenSrv != null) context.stopService(screenSrv);
+        stopSensor(context, Screen.class);
     }
 
     /**
@@ -2815,8 +3145,7 @@ public class Aware extends Service {
      */
     public static void startBattery(Context context) {
         if (context == null) return;
-        if (batterySrv == null) batterySrv = new Intent(context, Battery.class);
-        context.startService(batterySrv);
+        startSensor(context, Battery.class);
     }
 
     /**
@@ -2824,7 +3153,7 @@ public class Aware extends Service {
      */
     public static void stopBattery(Context context) {
         if (context == null) return;
-        if (batterySrv != null) context.stopService(batterySrv);
+        stopSensor(context, Battery.class);
     }
 
     /**
@@ -2832,8 +3161,7 @@ public class Aware extends Service {
      */
     public static void startNetwork(Context context) {
         if (context == null) return;
-        if (networkSrv == null) networkSrv = new Intent(context, Network.class);
-        context.startService(networkSrv);
+        startSensor(context, Network.class);
     }
 
     /**
@@ -2841,7 +3169,7 @@ public class Aware extends Service {
      */
     public static void stopNetwork(Context context) {
         if (context == null) return;
-        if (networkSrv != null) context.stopService(networkSrv);
+        stopSensor(context, Network.class);
     }
 
     /**
@@ -2849,8 +3177,7 @@ public class Aware extends Service {
      */
     public static void startTraffic(Context context) {
         if (context == null) return;
-        if (trafficSrv == null) trafficSrv = new Intent(context, Traffic.class);
-        context.startService(trafficSrv);
+        startSensor(context, Traffic.class);
     }
 
     /**
@@ -2858,7 +3185,7 @@ public class Aware extends Service {
      */
     public static void stopTraffic(Context context) {
         if (context == null) return;
-        if (trafficSrv != null) context.stopService(trafficSrv);
+        stopSensor(context, Traffic.class);
     }
 
     /**
@@ -2866,8 +3193,7 @@ public class Aware extends Service {
      */
     public static void startTimeZone(Context context) {
         if (context == null) return;
-        if (timeZoneSrv == null) timeZoneSrv = new Intent(context, Timezone.class);
-        context.startService(timeZoneSrv);
+        startSensor(context, Timezone.class);
     }
 
     /**
@@ -2875,7 +3201,7 @@ public class Aware extends Service {
      */
     public static void stopTimeZone(Context context) {
         if (context == null) return;
-        if (timeZoneSrv != null) context.stopService(timeZoneSrv);
+        stopSensor(context, Timezone.class);
     }
 
     /**
@@ -2883,8 +3209,7 @@ public class Aware extends Service {
      */
     public static void startCommunication(Context context) {
         if (context == null) return;
-        if (communicationSrv == null) communicationSrv = new Intent(context, Communication.class);
-        context.startService(communicationSrv);
+        startSensor(context, Communication.class);
     }
 
     /**
@@ -2895,7 +3220,7 @@ public class Aware extends Service {
         if (!Aware.getSetting(context, Aware_Preferences.STATUS_COMMUNICATION_EVENTS).equals("true")
                 && !Aware.getSetting(context, Aware_Preferences.STATUS_CALLS).equals("true")
                 && !Aware.getSetting(context, Aware_Preferences.STATUS_MESSAGES).equals("true")) {
-            if (communicationSrv != null) context.stopService(communicationSrv);
+            stopSensor(context, Communication.class);
         }
     }
 
@@ -2904,8 +3229,7 @@ public class Aware extends Service {
      */
     public static void startMQTT(Context context) {
         if (context == null) return;
-        if (mqttSrv == null) mqttSrv = new Intent(context, Mqtt.class);
-        context.startService(mqttSrv);
+        startSensor(context, Mqtt.class);
     }
 
     /**
@@ -2913,6 +3237,6 @@ public class Aware extends Service {
      */
     public static void stopMQTT(Context context) {
         if (context == null) return;
-        if (mqttSrv != null) context.stopService(mqttSrv);
+        stopSensor(context, Mqtt.class);
     }
 }
@@ -74,6 +74,16 @@ public class Aware_Preferences {
      */
     public static final String THRESHOLD_ACCELEROMETER = "threshold_accelerometer";
 
+    /**
+     * How accelerometer samples are broadcast: all (default), off, latest or batch
+     */
+    public static final String BROADCAST_ACCELEROMETER = "broadcast_accelerometer";
+
+    /**
+     * With BROADCAST_ACCELEROMETER: broadcasts per second for latest, samples per broadcast for batch
+     */
+    public static final String BROADCAST_RATE_ACCELEROMETER = "broadcast_rate_accelerometer";
+
     /**
      * Activate/deactivate application usage log (boolean)
      */
@@ -94,6 +104,14 @@ public class Aware_Preferences {
      */
     public static final String STATUS_NOTIFICATIONS = "status_notifications";
 
+    /**
+     * Notifications buffer (default = 5), in seconds. Notifications are stored in batches at most this long after they
+     * are posted, so observers of the notifications table and ACTION_AWARE_APPLICATIONS_NOTIFICATIONS see them up to
+     * this late. 0 stores every notification right away. Notifications are never buffered while a scheduler trigger or
+     * a ContextBus subscriber in this app is waiting for them.
+     */
+    public static final String NOTIFICATIONS_BUFFER = "notifications_buffer";
+
     /**
      * Activate/deactivate application crashes (boolean)
      */
@@ -154,6 +172,16 @@ public class Aware_Preferences {
      */
     public static final String THRESHOLD_GRAVITY = "threshold_gravity";
 
+    /**
+     * How gravity samples are broadcast: all (default), off, latest or batch
+     */
+    public static final String BROADCAST_GRAVITY = "broadcast_gravity";
+
+    /**
+     * With BROADCAST_GRAVITY: broadcasts per second for latest, samples per broadcast for batch
+     */
+    public static final String BROADCAST_RATE_GRAVITY = "broadcast_rate_gravity";
+
     /**
      * Activate/deactivate gyroscope log (boolean)
      */
@@ -179,6 +207,16 @@ public class Aware_Preferences {
      */
     public static final String THRESHOLD_GYROSCOPE = "threshold_gyroscope";
 
+    /**
+     * How gyroscope samples are broadcast: all (default), off, latest or batch
+     */
+    public static final String BROADCAST_GYROSCOPE = "broadcast_gyroscope";
+
+    /**
+     * With BROADCAST_GYROSCOPE: broadcasts per second for latest, samples per broadcast for batch
+     */
+    public static final String BROADCAST_RATE_GYROSCOPE = "broadcast_rate_gyroscope";
+
     /**
      * Activate/deactivate GPS location log (boolean)
      */
@@ -231,6 +269,27 @@ public class Aware_Preferences {
      */
     public static final String LOCATION_SAVE_ALL = "location_save_all";
 
+    /**
+     * Location compression tolerance (default = 0), in meters. A fix is only stored when it is further than this from
+     * where the last stored fix of the same provider, moving at its speed and bearing, would be now. 0 stores every fix.
+     */
+    public static final String LOCATION_COMPRESSION_TOLERANCE = "location_compression_tolerance";
+
+    /**
+     * Activate/deactivate visit detection from the location fixes (default = false). Visits are stored in Locations_Visits.
+     */
+    public static final String STATUS_LOCATION_VISITS = "status_location_visits";
+
+    /**
+     * Visit radius (default = 100), in meters. Fixes within this distance of the first fix of a visit belong to it.
+     */
+    public static final String LOCATION_VISIT_RADIUS = "location_visit_radius";
+
+    /**
+     * Visit minimum duration (default = 600), in seconds. Shorter stays are not stored as visits.
+     */
+    public static final String LOCATION_VISIT_DURATION = "location_visit_duration";
+
 
     /**
      * Activate/deactivate passive location log (boolean).  This does not turn on GPS/network
@@ -289,6 +348,16 @@ public class Aware_Preferences {
      */
     public static final String THRESHOLD_LINEAR_ACCELEROMETER = "threshold_linear_accelerometer";
 
+    /**
+     * How linear accelerometer samples are broadcast: all (default), off, latest or batch
+     */
+    public static final String BROADCAST_LINEAR_ACCELEROMETER = "broadcast_linear_accelerometer";
+
+    /**
+     * With BROADCAST_LINEAR_ACCELEROMETER: broadcasts per second for latest, samples per broadcast for batch
+     */
+    public static final String BROADCAST_RATE_LINEAR_ACCELEROMETER = "broadcast_rate_linear_accelerometer";
+
     /**
      * Activate/deactivate network usage events (boolean)
      */
@@ -329,6 +398,16 @@ public class Aware_Preferences {
      */
     public static final String THRESHOLD_MAGNETOMETER = "threshold_magnetometer";
 
+    /**
+     * How magnetometer samples are broadcast: all (default), off, latest or batch
+     */
+    public static final String BROADCAST_MAGNETOMETER = "broadcast_magnetometer";
+
+    /**
+     * With BROADCAST_MAGNETOMETER: broadcasts per second for latest, samples per broadcast for batch
+     */
+    public static final String BROADCAST_RATE_MAGNETOMETER = "broadcast_rate_magnetometer";
+
     /**
      * Activate/deactivate barometer log (boolean)
      */
@@ -360,7 +439,7 @@ public class Aware_Preferences {
     public static final String STATUS_PROCESSOR = "status_processor";
 
     /**
-     * Processor frequency (default = 10), in seconds
+     * Processor frequency (default = 10), in seconds. Can be below one second (e.g., 0.5), down to 0.1
      */
     public static final String FREQUENCY_PROCESSOR = "frequency_processor";
 
@@ -424,6 +503,16 @@ public class Aware_Preferences {
      */
     public static final String THRESHOLD_ROTATION = "threshold_rotation";
 
+    /**
+     * How rotation samples are broadcast: all (default), off, latest or batch
+     */
+    public static final String BROADCAST_ROTATION = "broadcast_rotation";
+
+    /**
+     * With BROADCAST_ROTATION: broadcasts per second for latest, samples per broadcast for batch
+     */
+    public static final String BROADCAST_RATE_ROTATION = "broadcast_rate_rotation";
+
     /**
      * Activate/deactivate screen usage log (boolean)
      */
@@ -469,6 +558,12 @@ public class Aware_Preferences {
      */
     public static final String FREQUENCY_WIFI = "frequency_wifi";
 
+    /**
+     * Store WiFi scans as an AP dictionary and compact scan rows (boolean, default = false).
+     * Scans are still read and synced with the usual wifi schema.
+     */
+    public static final String WIFI_COMPACT_STORAGE = "wifi_compact_storage";
+
     /**
      * Activate/deactivate mobile ESM (boolean)
      */
@@ -29,6 +29,7 @@ import com.aware.providers.Barometer_Provider.Barometer_Data;
 import com.aware.providers.Barometer_Provider.Barometer_Sensor;
 import com.aware.ui.PermissionsHandler;
 import com.aware.utils.Aware_Sensor;
+import com.aware.utils.ContextBus;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -121,7 +122,7 @@ public class Barometer extends Aware_Sensor implements SensorEventListener {
 
         Intent pressureData = new Intent(ACTION_AWARE_BAROMETER);
         pressureData.putExtra(EXTRA_DATA, rowData);
-        sendBroadcast(pressureData);
+        ContextBus.post(getApplicationContext(), pressureData);
 
         if (Aware.DEBUG) Log.d(TAG, "Barometer:" + rowData.toString());
 
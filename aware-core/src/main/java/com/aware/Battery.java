@@ -24,6 +24,7 @@ import com.aware.providers.Battery_Provider.Battery_Data;
 import com.aware.providers.Battery_Provider.Battery_Discharges;
 import com.aware.ui.PermissionsHandler;
 import com.aware.utils.Aware_Sensor;
+import com.aware.utils.ContextBus;
 
 /**
  * Service that logs power related events (battery and shutdown/reboot)
@@ -167,7 +168,7 @@ public class Battery extends Aware_Sensor {
 
                 if (Aware.DEBUG) Log.d(TAG, ACTION_AWARE_BATTERY_CHANGED);
                 Intent battChanged = new Intent(ACTION_AWARE_BATTERY_CHANGED);
-                context.sendBroadcast(battChanged);
+                ContextBus.post(context, battChanged);
             }
 
             if (intent.getAction().equals(Intent.ACTION_POWER_CONNECTED)) {
@@ -38,8 +38,11 @@ import com.aware.providers.Bluetooth_Provider.Bluetooth_Data;
 import com.aware.providers.Bluetooth_Provider.Bluetooth_Sensor;
 import com.aware.ui.PermissionsHandler;
 import com.aware.utils.Aware_Sensor;
+import com.aware.utils.ContextBus;
 import com.aware.utils.Encrypter;
 
+import java.util.ArrayList;
+
 /**
  * Bluetooth Module. For now, scans and returns surrounding bluetooth devices and RSSI dB values.
  *
@@ -72,8 +75,10 @@ public class Bluetooth extends Aware_Sensor {
 
     /**
      * Broadcasted event: bluetooth scan ended
+     * Extra: {@link #EXTRA_SCAN}, ArrayList of ContentValues with all the devices found in this scan
      */
     public static final String ACTION_AWARE_BLUETOOTH_SCAN_ENDED = "ACTION_AWARE_BLUETOOTH_SCAN_ENDED";
+    public static final String EXTRA_SCAN = "scan";
 
     /**
      * Broadcast receiving event: request a bluetooth scan
@@ -192,6 +197,9 @@ public class Bluetooth extends Aware_Sensor {
         alarmManager.cancel(bluetoothScan);
         notificationManager.cancel(123);
 
+        //discovery interrupted, keep what we found so far
+        saveDiscovered(getApplicationContext());
+
         if (Aware.DEBUG) Log.d(TAG, "Bluetooth service terminated...");
     }
 
@@ -235,12 +243,9 @@ public class Bluetooth extends Aware_Sensor {
                 rowData.put(Bluetooth_Data.BT_RSSI, btDeviceRSSI);
                 rowData.put(Bluetooth_Data.BT_LABEL, scanTimestamp);
 
-                try {
-                    context.getContentResolver().insert(Bluetooth_Data.CONTENT_URI, rowData);
-                } catch (SQLiteException e) {
-                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                } catch (SQLException e) {
-                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
+                //saved with the rest of the scan once discovery finishes
+                synchronized (discovered) {
+                    discovered.add(rowData);
                 }
 
                 if (Aware.DEBUG)
@@ -248,12 +253,15 @@ public class Bluetooth extends Aware_Sensor {
 
                 Intent detectedBT = new Intent(ACTION_AWARE_BLUETOOTH_NEW_DEVICE);
                 detectedBT.putExtra(EXTRA_DEVICE, rowData);
-                context.sendBroadcast(detectedBT);
+                ContextBus.post(context, detectedBT);
             }
 
             if (intent.getAction().equals(BluetoothAdapter.ACTION_DISCOVERY_FINISHED)) {
+                ArrayList<ContentValues> scan = saveDiscovered(context);
+
                 if (Aware.DEBUG) Log.d(TAG, ACTION_AWARE_BLUETOOTH_SCAN_ENDED);
                 Intent scanEnd = new Intent(ACTION_AWARE_BLUETOOTH_SCAN_ENDED);
+                scanEnd.putParcelableArrayListExtra(EXTRA_SCAN, scan);
                 context.sendBroadcast(scanEnd);
             }
 
@@ -303,6 +311,35 @@ public class Bluetooth extends Aware_Sensor {
 
     private static final Bluetooth_Broadcaster bluetoothMonitor = new Bluetooth_Broadcaster();
 
+    /**
+     * Devices found during the current discovery
+     */
+    private static final ArrayList<ContentValues> discovered = new ArrayList<>();
+
+    /**
+     * Saves the devices found during the current discovery in one transaction
+     *
+     * @param context
+     * @return the devices that were saved
+     */
+    private static ArrayList<ContentValues> saveDiscovered(Context context) {
+        ArrayList<ContentValues> scan;
+        synchronized (discovered) {
+            scan = new ArrayList<>(discovered);
+            discovered.clear();
+        }
+        if (scan.size() == 0) return scan;
+
+        try {
+            context.getContentResolver().bulkInsert(Bluetooth_Data.CONTENT_URI, scan.toArray(new ContentValues[scan.size()]));
+        } catch (SQLiteException e) {
+            if (Aware.DEBUG) Log.d(TAG, e.getMessage());
+        } catch (SQLException e) {
+            if (Aware.DEBUG) Log.d(TAG, e.getMessage());
+        }
+        return scan;
+    }
+
     private void save_bluetooth_device(BluetoothAdapter btAdapter) {
         if (btAdapter == null) return;
 
@@ -14,11 +14,13 @@ import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
+import android.provider.BaseColumns;
 import android.provider.CallLog.Calls;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.content.PermissionChecker;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.aware.providers.Communication_Provider;
@@ -28,6 +30,9 @@ import com.aware.ui.PermissionsHandler;
 import com.aware.utils.Aware_Sensor;
 import com.aware.utils.Encrypter;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+
 /**
  * Capture users' communications (calls and messages) events
  *
@@ -87,6 +92,8 @@ public class Communication extends Aware_Sensor {
     private static final Uri MESSAGES_CONTENT_URI = Uri.parse("content://sms");
     private static final int MESSAGE_INBOX = 1;
     private static final int MESSAGE_SENT = 2;
+    private static final int MESSAGE_OUTBOX = 4;
+    private static final int MESSAGE_QUEUED = 6;
 
     private static TelephonyManager telephonyManager = null;
     private static CallsObserver callsObs = null;
@@ -95,173 +102,212 @@ public class Communication extends Aware_Sensor {
     /**
      * ContentObserver for internal call log of Android. When there is a change,
      * it logs up-to-date information of the calls received, made and missed.
+     * Only calls newer than the last one processed are read, all at once.
      *
      * @author df
      */
     private class CallsObserver extends ContentObserver {
+
+        //Highest call log _id already processed
+        private long last_call = -1;
+        private boolean registered = false;
+
         public CallsObserver(Handler handler) {
             super(handler);
         }
 
+        void register() {
+            if (registered) return;
+            last_call = getLastId(Calls.CONTENT_URI);
+            getContentResolver().registerContentObserver(Calls.CONTENT_URI, true, this);
+            registered = true;
+        }
+
+        void unregister() {
+            getContentResolver().unregisterContentObserver(this);
+            registered = false;
+        }
+
         @Override
         public void onChange(boolean selfChange) {
             super.onChange(selfChange);
 
-            Cursor lastCall = getContentResolver().query(Calls.CONTENT_URI, null, null, null, Calls.DATE + " DESC LIMIT 1");
-            if (lastCall != null && lastCall.moveToFirst()) {
-
-                Cursor exists = getContentResolver().query(Calls_Data.CONTENT_URI, null, Calls_Data.TIMESTAMP + "=" + lastCall.getLong(lastCall.getColumnIndex(Calls.DATE)), null, null);
-                if (exists == null || exists.moveToFirst() == false) {
-
-                    switch (lastCall.getInt(lastCall.getColumnIndex(Calls.TYPE))) {
-                        case Calls.INCOMING_TYPE:
-
-                            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_CALLS).equals("true")) {
-                                ContentValues received = new ContentValues();
-                                received.put(Calls_Data.TIMESTAMP, lastCall.getLong(lastCall.getColumnIndex(Calls.DATE)));
-                                received.put(Calls_Data.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
-                                received.put(Calls_Data.TYPE, Calls.INCOMING_TYPE);
-                                received.put(Calls_Data.DURATION, lastCall.getInt(lastCall.getColumnIndex(Calls.DURATION)));
-                                received.put(Calls_Data.TRACE, Encrypter.hashPhone(getApplicationContext(), lastCall.getString(lastCall.getColumnIndex(Calls.NUMBER))));
-
-                                try {
-                                    getContentResolver().insert(Calls_Data.CONTENT_URI, received);
-                                } catch (SQLiteException e) {
-                                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                                } catch (SQLException e) {
-                                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                                }
-                            }
-
-                            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_COMMUNICATION_EVENTS).equals("true")) {
-                                if (Aware.DEBUG) Log.d(TAG, ACTION_AWARE_CALL_ACCEPTED);
-                                Intent callAccepted = new Intent(ACTION_AWARE_CALL_ACCEPTED);
-                                sendBroadcast(callAccepted);
-                            }
-
-                            break;
-                        case Calls.MISSED_TYPE:
-                            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_CALLS).equals("true")) {
-                                ContentValues missed = new ContentValues();
-                                missed.put(Calls_Data.TIMESTAMP, lastCall.getLong(lastCall.getColumnIndex(Calls.DATE)));
-                                missed.put(Calls_Data.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
-                                missed.put(Calls_Data.TYPE, Calls.MISSED_TYPE);
-                                missed.put(Calls_Data.DURATION, lastCall.getInt(lastCall.getColumnIndex(Calls.DURATION)));
-                                missed.put(Calls_Data.TRACE, Encrypter.hashPhone(getApplicationContext(), lastCall.getString(lastCall.getColumnIndex(Calls.NUMBER))));
-                                try {
-                                    getContentResolver().insert(Calls_Data.CONTENT_URI, missed);
-                                } catch (SQLiteException e) {
-                                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                                } catch (SQLException e) {
-                                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                                }
-                            }
-
-                            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_COMMUNICATION_EVENTS).equals("true")) {
-                                if (Aware.DEBUG) Log.d(TAG, ACTION_AWARE_CALL_MISSED);
-                                Intent callMissed = new Intent(ACTION_AWARE_CALL_MISSED);
-                                sendBroadcast(callMissed);
-                            }
-                            break;
-                        case Calls.OUTGOING_TYPE:
-                            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_CALLS).equals("true")) {
-                                ContentValues outgoing = new ContentValues();
-                                outgoing.put(Calls_Data.TIMESTAMP, lastCall.getLong(lastCall.getColumnIndex(Calls.DATE)));
-                                outgoing.put(Calls_Data.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
-                                outgoing.put(Calls_Data.TYPE, Calls.OUTGOING_TYPE);
-                                outgoing.put(Calls_Data.DURATION, lastCall.getInt(lastCall.getColumnIndex(Calls.DURATION)));
-                                outgoing.put(Calls_Data.TRACE, Encrypter.hashPhone(getApplicationContext(), lastCall.getString(lastCall.getColumnIndex(Calls.NUMBER))));
-                                try {
-                                    getContentResolver().insert(Calls_Data.CONTENT_URI, outgoing);
-                                } catch (SQLiteException e) {
-                                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                                } catch (SQLException e) {
-                                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                                }
-                            }
-
-                            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_COMMUNICATION_EVENTS).equals("true")) {
-                                if (Aware.DEBUG) Log.d(TAG, ACTION_AWARE_CALL_MADE);
-                                Intent callOutgoing = new Intent(ACTION_AWARE_CALL_MADE);
-                                sendBroadcast(callOutgoing);
-                            }
-                            break;
-                    }
+            Cursor newCalls = getContentResolver().query(Calls.CONTENT_URI, new String[]{Calls._ID, Calls.DATE, Calls.TYPE, Calls.DURATION, Calls.NUMBER}, Calls._ID + ">" + last_call, null, Calls._ID + " ASC");
+            if (newCalls == null) return;
+
+            boolean store = Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_CALLS).equals("true");
+            boolean events = Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_COMMUNICATION_EVENTS).equals("true");
+            String device_id = Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID);
+            String hash_program = Aware.getSetting(getApplicationContext(), Aware_Preferences.HASH_FUNCTION_PHONE);
+
+            ArrayList<ContentValues> calls = new ArrayList<>();
+            ArrayList<String> actions = new ArrayList<>();
+            while (newCalls.moveToNext()) {
+                last_call = Math.max(last_call, newCalls.getLong(newCalls.getColumnIndex(Calls._ID)));
+
+                int type = newCalls.getInt(newCalls.getColumnIndex(Calls.TYPE));
+                String action;
+                switch (type) {
+                    case Calls.INCOMING_TYPE:
+                        action = ACTION_AWARE_CALL_ACCEPTED;
+                        break;
+                    case Calls.MISSED_TYPE:
+                        action = ACTION_AWARE_CALL_MISSED;
+                        break;
+                    case Calls.OUTGOING_TYPE:
+                        action = ACTION_AWARE_CALL_MADE;
+                        break;
+                    default:
+                        continue;
+                }
+
+                if (store) {
+                    ContentValues call = new ContentValues();
+                    call.put(Calls_Data.TIMESTAMP, newCalls.getLong(newCalls.getColumnIndex(Calls.DATE)));
+                    call.put(Calls_Data.DEVICE_ID, device_id);
+                    call.put(Calls_Data.TYPE, type);
+                    call.put(Calls_Data.DURATION, newCalls.getInt(newCalls.getColumnIndex(Calls.DURATION)));
+                    call.put(Calls_Data.TRACE, Encrypter._hashProgram(getApplicationContext(), newCalls.getString(newCalls.getColumnIndex(Calls.NUMBER)), hash_program));
+                    calls.add(call);
+                }
+                if (events) actions.add(action);
+            }
+            if (!newCalls.isClosed()) newCalls.close();
+
+            if (calls.size() > 0) {
+                try {
+                    getContentResolver().bulkInsert(Calls_Data.CONTENT_URI, calls.toArray(new ContentValues[calls.size()]));
+                } catch (SQLiteException e) {
+                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
+                } catch (SQLException e) {
+                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
                 }
-                if (exists != null && !exists.isClosed()) exists.close();
             }
-            if (lastCall != null && !lastCall.isClosed()) lastCall.close();
+
+            for (String action : actions) {
+                if (Aware.DEBUG) Log.d(TAG, action);
+                sendBroadcast(new Intent(action));
+            }
         }
     }
 
+    /**
+     * ContentObserver for the SMS provider. Only messages newer than the last one processed are read, all at once.
+     * Messages still in the outbox are checked again on the next change until they are sent.
+     */
     private class MessagesObserver extends ContentObserver {
+
+        //Highest message _id already processed
+        private long last_message = -1;
+        private boolean registered = false;
+
+        //Outgoing messages not sent yet
+        private HashSet<Long> pending = new HashSet<>();
+
         public MessagesObserver(Handler handler) {
             super(handler);
         }
 
+        void register() {
+            if (registered) return;
+            last_message = getLastId(MESSAGES_CONTENT_URI);
+            pending.clear();
+            getContentResolver().registerContentObserver(MESSAGES_CONTENT_URI, true, this);
+            registered = true;
+        }
+
+        void unregister() {
+            getContentResolver().unregisterContentObserver(this);
+            registered = false;
+        }
+
         @Override
         public void onChange(boolean selfChange) {
             super.onChange(selfChange);
 
-            Cursor lastMessage = getContentResolver().query(MESSAGES_CONTENT_URI, null, null, null, "date DESC LIMIT 1");
-            if (lastMessage != null && lastMessage.moveToFirst()) {
-
-                Cursor exists = getContentResolver().query(Messages_Data.CONTENT_URI, null, Messages_Data.TIMESTAMP + "=" + lastMessage.getLong(lastMessage.getColumnIndex("date")), null, null);
-                if (exists == null || !exists.moveToFirst()) {
-
-                    switch (lastMessage.getInt(lastMessage.getColumnIndex("type"))) {
-                        case MESSAGE_INBOX:
-                            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_MESSAGES).equals("true")) {
-                                ContentValues inbox = new ContentValues();
-                                inbox.put(Messages_Data.TIMESTAMP, lastMessage.getLong(lastMessage.getColumnIndex("date")));
-                                inbox.put(Messages_Data.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
-                                inbox.put(Messages_Data.TYPE, MESSAGE_INBOX);
-                                inbox.put(Messages_Data.TRACE, Encrypter.hashPhone(getApplicationContext(), lastMessage.getString(lastMessage.getColumnIndex("address"))));
-
-                                try {
-                                    getContentResolver().insert(Messages_Data.CONTENT_URI, inbox);
-                                } catch (SQLiteException e) {
-                                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                                } catch (SQLException e) {
-                                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                                }
-                            }
-
-                            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_COMMUNICATION_EVENTS).equals("true")) {
-                                if (Aware.DEBUG) Log.d(TAG, ACTION_AWARE_MESSAGE_RECEIVED);
-                                Intent messageReceived = new Intent(ACTION_AWARE_MESSAGE_RECEIVED);
-                                sendBroadcast(messageReceived);
-                            }
-                            break;
-                        case MESSAGE_SENT:
-                            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_MESSAGES).equals("true")) {
-                                ContentValues sent = new ContentValues();
-                                sent.put(Messages_Data.TIMESTAMP, lastMessage.getLong(lastMessage.getColumnIndex("date")));
-                                sent.put(Messages_Data.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
-                                sent.put(Messages_Data.TYPE, MESSAGE_SENT);
-                                sent.put(Messages_Data.TRACE, Encrypter.hashPhone(getApplicationContext(), lastMessage.getString(lastMessage.getColumnIndex("address"))));
-
-                                try {
-                                    getContentResolver().insert(Messages_Data.CONTENT_URI, sent);
-                                } catch (SQLiteException e) {
-                                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                                } catch (SQLException e) {
-                                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                                }
-                            }
-
-                            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_COMMUNICATION_EVENTS).equals("true")) {
-                                if (Aware.DEBUG) Log.d(TAG, ACTION_AWARE_MESSAGE_SENT);
-                                Intent messageSent = new Intent(ACTION_AWARE_MESSAGE_SENT);
-                                sendBroadcast(messageSent);
-                            }
-                            break;
-                    }
+            String selection = "_id>" + last_message;
+            if (pending.size() > 0) selection += " OR _id IN (" + TextUtils.join(",", pending) + ")";
+
+            Cursor newMessages = getContentResolver().query(MESSAGES_CONTENT_URI, new String[]{"_id", "date", "type", "address"}, selection, null, "_id ASC");
+            if (newMessages == null) return;
+
+            boolean store = Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_MESSAGES).equals("true");
+            boolean events = Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_COMMUNICATION_EVENTS).equals("true");
+            String device_id = Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID);
+            String hash_program = Aware.getSetting(getApplicationContext(), Aware_Preferences.HASH_FUNCTION_PHONE);
+
+            HashSet<Long> still_pending = new HashSet<>();
+            ArrayList<ContentValues> messages = new ArrayList<>();
+            ArrayList<String> actions = new ArrayList<>();
+            while (newMessages.moveToNext()) {
+                long id = newMessages.getLong(newMessages.getColumnIndex("_id"));
+                last_message = Math.max(last_message, id);
+
+                int type = newMessages.getInt(newMessages.getColumnIndex("type"));
+                String action;
+                switch (type) {
+                    case MESSAGE_INBOX:
+                        action = ACTION_AWARE_MESSAGE_RECEIVED;
+                        break;
+                    case MESSAGE_SENT:
+                        action = ACTION_AWARE_MESSAGE_SENT;
+                        break;
+                    case MESSAGE_OUTBOX:
+                    case MESSAGE_QUEUED:
+                        still_pending.add(id);
+                        continue;
+                    default:
+                        continue;
                 }
-                if (exists != null && !exists.isClosed()) exists.close();
+
+                if (store) {
+                    ContentValues message = new ContentValues();
+                    message.put(Messages_Data.TIMESTAMP, newMessages.getLong(newMessages.getColumnIndex("date")));
+                    message.put(Messages_Data.DEVICE_ID, device_id);
+                    message.put(Messages_Data.TYPE, type);
+                    message.put(Messages_Data.TRACE, Encrypter._hashProgram(getApplicationContext(), newMessages.getString(newMessages.getColumnIndex("address")), hash_program));
+                    messages.add(message);
+                }
+                if (events) actions.add(action);
+            }
+            if (!newMessages.isClosed()) newMessages.close();
+            pending = still_pending;
+
+            if (messages.size() > 0) {
+                try {
+                    getContentResolver().bulkInsert(Messages_Data.CONTENT_URI, messages.toArray(new ContentValues[messages.size()]));
+                } catch (SQLiteException e) {
+                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
+                } catch (SQLException e) {
+                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
+                }
+            }
+
+            for (String action : actions) {
+                if (Aware.DEBUG) Log.d(TAG, action);
+                sendBroadcast(new Intent(action));
+            }
+        }
+    }
+
+    /**
+     * Highest _id currently in a system provider
+     *
+     * @param uri
+     * @return _id, or -1 if there are no rows
+     */
+    private long getLastId(Uri uri) {
+        long last = -1;
+        try {
+            Cursor lastRow = getContentResolver().query(uri, new String[]{BaseColumns._ID}, null, null, BaseColumns._ID + " DESC LIMIT 1");
+            if (lastRow != null && lastRow.moveToFirst()) {
+                last = lastRow.getLong(0);
             }
-            if (lastMessage != null && !lastMessage.isClosed()) lastMessage.close();
+            if (lastRow != null && !lastRow.isClosed()) lastRow.close();
+        } catch (SQLiteException | SecurityException e) {
+            if (Aware.DEBUG) Log.d(TAG, e.getMessage());
         }
+        return last;
     }
 
     private PhoneState phoneState = new PhoneState();
@@ -326,15 +372,15 @@ public class Communication extends Aware_Sensor {
         if (PERMISSIONS_OK) {
             DEBUG = Aware.getSetting(this, Aware_Preferences.DEBUG_FLAG).equals("true");
             if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_CALLS).equals("true")) {
-                getContentResolver().registerContentObserver(Calls.CONTENT_URI, true, callsObs);
+                callsObs.register();
             } else {
-                getContentResolver().unregisterContentObserver(callsObs);
+                callsObs.unregister();
             }
 
             if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_MESSAGES).equals("true")) {
-                getContentResolver().registerContentObserver(MESSAGES_CONTENT_URI, true, msgsObs);
+                msgsObs.register();
             } else {
-                getContentResolver().unregisterContentObserver(msgsObs);
+                msgsObs.unregister();
             }
 
             if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_COMMUNICATION_EVENTS).equals("true")) {
@@ -353,8 +399,8 @@ public class Communication extends Aware_Sensor {
     public void onDestroy() {
         super.onDestroy();
 
-        getContentResolver().unregisterContentObserver(callsObs);
-        getContentResolver().unregisterContentObserver(msgsObs);
+        callsObs.unregister();
+        msgsObs.unregister();
         telephonyManager.listen(phoneState, PhoneStateListener.LISTEN_NONE);
 
         if (Aware.DEBUG) Log.d(TAG, TAG + " service terminated...");
@@ -10,7 +10,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteException;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Binder;
@@ -24,6 +23,7 @@ import com.aware.providers.ESM_Provider.ESM_Data;
 import com.aware.ui.ESM_Queue;
 import com.aware.ui.PermissionsHandler;
 import com.aware.ui.esms.ESMFactory;
+import com.aware.ui.esms.ESMManager;
 import com.aware.ui.esms.ESM_Question;
 import com.aware.utils.Aware_Sensor;
 
@@ -31,6 +31,8 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+
 /**
  * AWARE ESM module
  * Allows a researcher to do ESM's on their studies
@@ -253,13 +255,7 @@ public class ESM extends Aware_Sensor {
      * @return
      */
     public static boolean isESMWaiting(Context c) {
-        boolean is_waiting = false;
-        Cursor esms_waiting = c.getContentResolver().query(ESM_Data.CONTENT_URI, null, ESM_Data.STATUS + "=" + ESM.STATUS_NEW + " AND " + ESM_Data.EXPIRATION_THRESHOLD + "=0", null, ESM_Data.TIMESTAMP + " ASC LIMIT 1");
-        if (esms_waiting != null && esms_waiting.moveToFirst()) {
-            is_waiting = (esms_waiting.getCount() > 0);
-        }
-        if (esms_waiting != null && !esms_waiting.isClosed()) esms_waiting.close();
-        return is_waiting;
+        return ESMManager.isWaiting(c);
     }
 
     /**
@@ -269,13 +265,7 @@ public class ESM extends Aware_Sensor {
      * @return
      */
     public static boolean isESMVisible(Context c) {
-        boolean is_visible = false;
-        Cursor esms_waiting = c.getContentResolver().query(ESM_Data.CONTENT_URI, null, ESM_Data.STATUS + "=" + ESM.STATUS_VISIBLE, null, ESM_Data.TIMESTAMP + " ASC LIMIT 1");
-        if (esms_waiting != null && esms_waiting.moveToFirst()) {
-            is_visible = (esms_waiting.getCount() > 0);
-        }
-        if (esms_waiting != null && !esms_waiting.isClosed()) esms_waiting.close();
-        return is_visible;
+        return ESMManager.getVisible(c) != null;
     }
 
     /**
@@ -299,7 +289,12 @@ public class ESM extends Aware_Sensor {
             JSONArray esms = new JSONArray(queue);
 
             long esm_timestamp = System.currentTimeMillis();
+            String device_id = Aware.getSetting(context, Aware_Preferences.DEVICE_ID);
             boolean is_persistent = false;
+            boolean replace_queue = false;
+
+            ArrayList<ContentValues> rows = new ArrayList<>();
+            ArrayList<JSONObject> definitions = new ArrayList<>();
 
             for (int i = 0; i < esms.length(); i++) {
                 JSONObject esm = esms.getJSONObject(i).getJSONObject(EXTRA_ESM);
@@ -314,23 +309,14 @@ public class ESM extends Aware_Sensor {
                             mNotificationManager = (NotificationManager) context.getSystemService(NOTIFICATION_SERVICE);
                         mNotificationManager.cancel(ESM.ESM_NOTIFICATION_ID);
 
-                        // Clear queue
-                        Cursor esm_cursor = context.getContentResolver().query(ESM_Data.CONTENT_URI, null, ESM_Data.STATUS + " IN (" + ESM.STATUS_NEW + "," + ESM.STATUS_VISIBLE + ")", null, null);
-                        if (esm_cursor != null && esm_cursor.moveToFirst()) {
-                            do {
-                                ContentValues rowData = new ContentValues();
-                                rowData.put(ESM_Data.ANSWER_TIMESTAMP, System.currentTimeMillis());
-                                rowData.put(ESM_Data.STATUS, ESM.STATUS_REPLACED);
-                                context.getContentResolver().update(ESM_Data.CONTENT_URI, rowData, ESM_Data._ID + "=" + esm_cursor.getInt(esm_cursor.getColumnIndex(ESM_Data._ID)), null);
-                            } while (esm_cursor.moveToNext());
-                        }
-                        if (esm_cursor != null && !esm_cursor.isClosed()) esm_cursor.close();
+                        // Clear queue, together with the inserts below
+                        replace_queue = true;
                     }
                 }
 
                 ContentValues rowData = new ContentValues();
                 rowData.put(ESM_Data.TIMESTAMP, esm_timestamp + i); //fix issue with synching and support ordering
-                rowData.put(ESM_Data.DEVICE_ID, Aware.getSetting(context, Aware_Preferences.DEVICE_ID));
+                rowData.put(ESM_Data.DEVICE_ID, device_id);
                 rowData.put(ESM_Data.JSON, esm.toString());
                 rowData.put(ESM_Data.EXPIRATION_THRESHOLD, esm.optInt(ESM_Data.EXPIRATION_THRESHOLD)); //optional, defaults to 0
                 rowData.put(ESM_Data.NOTIFICATION_TIMEOUT, esm.optInt(ESM_Data.NOTIFICATION_TIMEOUT)); //optional, defaults to 0
@@ -341,30 +327,29 @@ public class ESM extends Aware_Sensor {
                     is_persistent = true;
                 }
 
-                try {
-                    context.getContentResolver().insert(ESM_Data.CONTENT_URI, rowData);
-                    if (Aware.DEBUG) Log.d(TAG, "ESM: " + rowData.toString());
-                } catch (SQLiteException e) {
-                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                }
+                rows.add(rowData);
+                definitions.add(esm);
+
+                if (Aware.DEBUG) Log.d(TAG, "ESM: " + rowData.toString());
             }
 
+            //replace, insert and find the next ESM in one go
+            ESMManager.QueuedESM pendingESM = ESMManager.enqueue(context, rows, definitions, replace_queue);
+
             if (is_persistent) { //show notification
-                Cursor pendingESM = context.getContentResolver().query(ESM_Data.CONTENT_URI, null, ESM_Data.STATUS + "=" + ESM.STATUS_NEW, null, ESM_Data.TIMESTAMP + " ASC LIMIT 1");
-                if (pendingESM != null && pendingESM.moveToFirst()) {
+                if (pendingESM != null) {
                     //Set the timer if there is a notification timeout
-                    int notification_timeout = pendingESM.getInt(pendingESM.getColumnIndex(ESM_Data.NOTIFICATION_TIMEOUT));
+                    int notification_timeout = pendingESM.notification_timeout;
                     if (notification_timeout > 0) {
                         try {
-                            ESM_Question question = new ESM_Question().rebuild(new JSONObject(pendingESM.getString(pendingESM.getColumnIndex(ESM_Data.JSON))));
-                            esm_notif_expire = new ESMNotificationTimeout(context, System.currentTimeMillis(), notification_timeout, question.getNotificationRetry(), pendingESM.getInt(pendingESM.getColumnIndex(ESM_Data._ID)));
+                            ESM_Question question = new ESM_Question().rebuild(pendingESM.definition);
+                            esm_notif_expire = new ESMNotificationTimeout(context, System.currentTimeMillis(), notification_timeout, question.getNotificationRetry(), pendingESM._id);
                             esm_notif_expire.execute();
                         } catch (JSONException e) {
                             e.printStackTrace();
                         }
                     }
                 }
-                if (pendingESM != null && !pendingESM.isClosed()) pendingESM.close();
 
                 //Show notification
                 notifyESM(context, true);
@@ -502,7 +487,8 @@ public class ESM extends Aware_Sensor {
 
                     if (ESM_Queue.getQueueSize(context) > 0) {
                         Intent intent_ESM = new Intent(context, ESM_Queue.class);
-                        intent_ESM.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+                        //the queue activity stays, and shows the next question with the views it already has
+                        intent_ESM.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
                         context.startActivity(intent_ESM);
                     } else {
                         if (Aware.DEBUG) Log.d(TAG, "ESM Queue is done!");
@@ -512,16 +498,7 @@ public class ESM extends Aware_Sensor {
                 }
 
                 if (intent.getAction().equals(ESM.ACTION_AWARE_ESM_DISMISSED)) {
-                    Cursor esm = context.getContentResolver().query(ESM_Data.CONTENT_URI, null, ESM_Data.STATUS + " IN (" + ESM.STATUS_NEW + "," + ESM.STATUS_VISIBLE + ")", null, null);
-                    if (esm != null && esm.moveToFirst()) {
-                        do {
-                            ContentValues rowData = new ContentValues();
-                            rowData.put(ESM_Data.ANSWER_TIMESTAMP, System.currentTimeMillis());
-                            rowData.put(ESM_Data.STATUS, ESM.STATUS_DISMISSED);
-                            context.getContentResolver().update(ESM_Data.CONTENT_URI, rowData, ESM_Data._ID + "=" + esm.getInt(esm.getColumnIndex(ESM_Data._ID)), null);
-                        } while (esm.moveToNext());
-                    }
-                    if (esm != null && !esm.isClosed()) esm.close();
+                    ESMManager.closeQueue(context, ESM.STATUS_DISMISSED);
 
                     if (Aware.DEBUG) Log.d(TAG, "Rest of ESM Queue is dismissed!");
 
@@ -530,16 +507,7 @@ public class ESM extends Aware_Sensor {
                 }
 
                 if (intent.getAction().equals(ESM.ACTION_AWARE_ESM_EXPIRED)) {
-                    Cursor esm = context.getContentResolver().query(ESM_Data.CONTENT_URI, null, ESM_Data.STATUS + " IN (" + ESM.STATUS_NEW + "," + ESM.STATUS_VISIBLE + ")", null, null);
-                    if (esm != null && esm.moveToFirst()) {
-                        do {
-                            ContentValues rowData = new ContentValues();
-                            rowData.put(ESM_Provider.ESM_Data.ANSWER_TIMESTAMP, System.currentTimeMillis());
-                            rowData.put(ESM_Provider.ESM_Data.STATUS, ESM.STATUS_EXPIRED);
-                            context.getContentResolver().update(ESM_Data.CONTENT_URI, rowData, ESM_Data._ID + "=" + esm.getInt(esm.getColumnIndex(ESM_Data._ID)), null);
-                        } while (esm.moveToNext());
-                    }
-                    if (esm != null && !esm.isClosed()) esm.close();
+                    ESMManager.closeQueue(context, ESM.STATUS_EXPIRED);
 
                     if (Aware.DEBUG) Log.d(TAG, "Rest of ESM Queue is expired!");
                     Intent esm_done = new Intent(ESM.ACTION_AWARE_ESM_QUEUE_COMPLETE);
@@ -555,15 +523,30 @@ public class ESM extends Aware_Sensor {
         }
 
         try {
-            //Check flow
-            Cursor last_esm = context.getContentResolver().query(ESM_Data.CONTENT_URI, null, ESM_Data.STATUS + "=" + ESM.STATUS_ANSWERED, null, ESM_Data.TIMESTAMP + " DESC LIMIT 1");
-            if (last_esm != null && last_esm.moveToFirst()) {
+            //Check flow. The answer may still be on its way to the database, so we ask the queue first.
+            JSONObject esm_question = null;
+            int last_id = 0;
+            ESMManager.QueuedESM answered = ESMManager.getLastAnswered();
+            if (answered != null) {
+                esm_question = answered.definition;
+                last_id = answered._id;
+            } else {
+                Cursor last_esm = context.getContentResolver().query(ESM_Data.CONTENT_URI, new String[]{ESM_Data._ID, ESM_Data.JSON}, ESM_Data.STATUS + "=" + ESM.STATUS_ANSWERED, null, ESM_Data.TIMESTAMP + " DESC LIMIT 1");
+                if (last_esm != null && last_esm.moveToFirst()) {
+                    last_id = last_esm.getInt(0);
+                    esm_question = new JSONObject(last_esm.getString(1));
+                }
+                if (last_esm != null && !last_esm.isClosed()) last_esm.close();
+            }
+
+            if (esm_question != null) {
 
-                JSONObject esm_question = new JSONObject(last_esm.getString(last_esm.getColumnIndex(ESM_Data.JSON)));
-                ESM_Question esm = new ESMFactory().getESM(esm_question.getInt(ESM_Question.esm_type), esm_question, last_esm.getInt(last_esm.getColumnIndex(ESM_Data._ID)));
+                ESM_Question esm = new ESMFactory().getESM(esm_question.getInt(ESM_Question.esm_type), esm_question, last_id);
 
                 //Set as branched the flow rules that are not triggered
                 JSONArray flows = esm.getFlows();
+                ArrayList<ContentValues> rows = new ArrayList<>();
+                ArrayList<JSONObject> definitions = new ArrayList<>();
                 for (int i = 0; i < flows.length(); i++) {
                     JSONObject flow = flows.getJSONObject(i);
                     String flowAnswer = flow.getString(ESM_Question.flow_user_answer);
@@ -582,7 +565,8 @@ public class ESM extends Aware_Sensor {
                         rowData.put(ESM_Data.STATUS, ESM.STATUS_NEW);
                         rowData.put(ESM_Data.TRIGGER, nextESM.optString(ESM_Data.TRIGGER)); //optional, defaults to ""
 
-                        context.getContentResolver().insert(ESM_Data.CONTENT_URI, rowData);
+                        rows.add(rowData);
+                        definitions.add(nextESM);
                     } else {
                         if (Aware.DEBUG)
                             Log.d(ESM.TAG, "Branched split: " + flowAnswer + " Skipping: " + nextESM);
@@ -597,11 +581,12 @@ public class ESM extends Aware_Sensor {
                         rowData.put(ESM_Data.STATUS, ESM.STATUS_BRANCHED);
                         rowData.put(ESM_Data.TRIGGER, nextESM.optString(ESM_Data.TRIGGER)); //optional, defaults to ""
 
-                        context.getContentResolver().insert(ESM_Data.CONTENT_URI, rowData);
+                        rows.add(rowData);
+                        definitions.add(nextESM);
                     }
                 }
+                if (rows.size() > 0) ESMManager.enqueue(context, rows, definitions, false);
             }
-            if (last_esm != null && !last_esm.isClosed()) last_esm.close();
 
         } catch (JSONException e) {
             e.printStackTrace();
@@ -137,9 +137,7 @@ public class Gravity extends Aware_Sensor implements SensorEventListener {
         data_values.add(rowData);
         LAST_TS = TS;
 
-        Intent gravityData = new Intent(ACTION_AWARE_GRAVITY);
-        gravityData.putExtra(EXTRA_DATA, rowData);
-        sendBroadcast(gravityData);
+        broadcastSample(rowData);
 
         if (Aware.DEBUG) Log.d(TAG, "Gravity:" + rowData.toString());
 
@@ -281,6 +279,10 @@ public class Gravity extends Aware_Sensor implements SensorEventListener {
                     Aware.setSetting(this, Aware_Preferences.THRESHOLD_GRAVITY, 0.0);
                 }
 
+                setBroadcastPolicy(ACTION_AWARE_GRAVITY, EXTRA_DATA,
+                        Aware.getSetting(this, Aware_Preferences.BROADCAST_GRAVITY),
+                        Aware.getSetting(this, Aware_Preferences.BROADCAST_RATE_GRAVITY));
+
                 int new_frequency = Integer.parseInt(Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_GRAVITY));
                 double new_threshold = Double.parseDouble(Aware.getSetting(getApplicationContext(), Aware_Preferences.THRESHOLD_GRAVITY));
                 boolean new_enforce_frequency = (Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_GRAVITY_ENFORCE).equals("true")
@@ -138,9 +138,7 @@ public class Gyroscope extends Aware_Sensor implements SensorEventListener {
         data_values.add(rowData);
         LAST_TS = TS;
 
-        Intent gyroData = new Intent(ACTION_AWARE_GYROSCOPE);
-        gyroData.putExtra(EXTRA_DATA, rowData);
-        sendBroadcast(gyroData);
+        broadcastSample(rowData);
 
         if (Aware.DEBUG) Log.d(TAG, "Gyroscope:" + rowData.toString());
 
@@ -286,6 +284,10 @@ public class Gyroscope extends Aware_Sensor implements SensorEventListener {
                     Aware.setSetting(this, Aware_Preferences.THRESHOLD_GYROSCOPE, 0.0);
                 }
 
+                setBroadcastPolicy(ACTION_AWARE_GYROSCOPE, EXTRA_DATA,
+                        Aware.getSetting(this, Aware_Preferences.BROADCAST_GYROSCOPE),
+                        Aware.getSetting(this, Aware_Preferences.BROADCAST_RATE_GYROSCOPE));
+
                 int new_frequency = Integer.parseInt(Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_GYROSCOPE));
                 double new_threshold = Double.parseDouble(Aware.getSetting(getApplicationContext(), Aware_Preferences.THRESHOLD_GYROSCOPE));
                 boolean new_enforce_frequency = (Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_GYROSCOPE_ENFORCE).equals("true")
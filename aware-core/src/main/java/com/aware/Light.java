@@ -30,6 +30,7 @@ import com.aware.providers.Light_Provider.Light_Data;
 import com.aware.providers.Light_Provider.Light_Sensor;
 import com.aware.ui.PermissionsHandler;
 import com.aware.utils.Aware_Sensor;
+import com.aware.utils.ContextBus;
 import com.aware.utils.Converters;
 
 import java.util.ArrayList;
@@ -126,7 +127,7 @@ public class Light extends Aware_Sensor implements SensorEventListener {
 
         Intent lightData = new Intent(ACTION_AWARE_LIGHT);
         lightData.putExtra(EXTRA_DATA, rowData);
-        sendBroadcast(lightData);
+        ContextBus.post(getApplicationContext(), lightData);
 
         if (Aware.DEBUG) Log.d(TAG, "Light:" + rowData.toString());
 
@@ -137,9 +137,7 @@ public class LinearAccelerometer extends Aware_Sensor implements SensorEventList
         data_values.add(rowData);
         LAST_TS = TS;
 
-        Intent accelData = new Intent(ACTION_AWARE_LINEAR_ACCELEROMETER);
-        accelData.putExtra(EXTRA_DATA, rowData);
-        sendBroadcast(accelData);
+        broadcastSample(rowData);
 
         if (Aware.DEBUG) Log.d(TAG, "Linear-accelerometer:" + rowData.toString());
 
@@ -281,6 +279,10 @@ public class LinearAccelerometer extends Aware_Sensor implements SensorEventList
                     Aware.setSetting(this, Aware_Preferences.THRESHOLD_LINEAR_ACCELEROMETER, 0.0);
                 }
 
+                setBroadcastPolicy(ACTION_AWARE_LINEAR_ACCELEROMETER, EXTRA_DATA,
+                        Aware.getSetting(this, Aware_Preferences.BROADCAST_LINEAR_ACCELEROMETER),
+                        Aware.getSetting(this, Aware_Preferences.BROADCAST_RATE_LINEAR_ACCELEROMETER));
+
                 int new_frequency = Integer.parseInt(Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_LINEAR_ACCELEROMETER));
                 double new_threshold = Double.parseDouble(Aware.getSetting(getApplicationContext(), Aware_Preferences.THRESHOLD_LINEAR_ACCELEROMETER));
                 boolean new_enforce_frequency = (Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_LINEAR_ACCELEROMETER_ENFORCE).equals("true")
@@ -21,8 +21,16 @@ import android.util.Log;
 
 import com.aware.providers.Locations_Provider;
 import com.aware.providers.Locations_Provider.Locations_Data;
+import com.aware.providers.Locations_Provider.Locations_Visits;
 import com.aware.ui.PermissionsHandler;
 import com.aware.utils.Aware_Sensor;
+import com.aware.utils.ContextBus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Location service for Aware framework
@@ -67,39 +75,11 @@ public class Locations extends Aware_Sensor implements LocationListener {
                         bestLocation = lastGPS;
                     }
 
-                    // Are we within the geofence, if we are given one?
-                    Boolean permitted;
-                    if (bestLocation != null) {
-                        permitted = testGeoFence(bestLocation.getLatitude(), bestLocation.getLongitude());
-                    } else {
-                        permitted = true;  // unused because no location.
-                    }
-                    if (Aware.DEBUG) Log.d(TAG, "Locations: geofencing: permitted=" + permitted);
-
                     if (bestLocation != null) {
-                        ContentValues rowData = new ContentValues();
-                        rowData.put(Locations_Data.TIMESTAMP, System.currentTimeMillis());
-                        rowData.put(Locations_Data.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
-                        rowData.put(Locations_Data.PROVIDER, bestLocation.getProvider());
-                        if (permitted) {
-                            rowData.put(Locations_Data.LATITUDE, bestLocation.getLatitude());
-                            rowData.put(Locations_Data.LONGITUDE, bestLocation.getLongitude());
-                            rowData.put(Locations_Data.BEARING, bestLocation.getBearing());
-                            rowData.put(Locations_Data.SPEED, bestLocation.getSpeed());
-                            rowData.put(Locations_Data.ALTITUDE, bestLocation.getAltitude());
-                            rowData.put(Locations_Data.ACCURACY, bestLocation.getAccuracy());
-                        } else {
-                            rowData.put(Locations_Data.LABEL, "outofbounds");
-                        }
-
-                        try {
-                            getContentResolver().insert(Locations_Data.CONTENT_URI, rowData);
-                        } catch (SQLException e) {
-                            if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                        }
+                        saveLocation(bestLocation);
 
                         Intent locationEvent = new Intent(ACTION_AWARE_LOCATIONS);
-                        sendBroadcast(locationEvent);
+                        ContextBus.post(getApplicationContext(), locationEvent);
                     }
                     break;
             }
@@ -137,69 +117,375 @@ public class Locations extends Aware_Sensor implements LocationListener {
     private static int FREQUENCY_GPS = -1;
     private static int FREQUENCY_PASSIVE = -1;
 
+    //Compiled "location_geofence" setting, refreshed when the setting changes
+    private GeoFences geofences = null;
+
+    private TrajectoryCompressor compressor = null;
+    private StayPointDetector visits = null;
+
     /**
      * Geofencing function.  Tests if a lat and lon is allowed, based
      * on the Aware "location_geofence" setting.
      */
     public Boolean testGeoFence(Double lat0, Double lon0) {
-        // Find fence and if we even need to fence.
-        String geofences = Aware.getSetting(getApplicationContext(), Aware_Preferences.LOCATION_GEOFENCE);
-        if (Aware.DEBUG) Log.d(TAG, "Location geofence: testing against config=" + geofences);
-        // If no value, then always accept locations
-        if (geofences.length() == 0 || geofences.equals("null"))
-            return true;
+        if (geofences == null) {
+            geofences = GeoFences.compile(Aware.getSetting(getApplicationContext(), Aware_Preferences.LOCATION_GEOFENCE));
+        }
+        boolean permitted = geofences.contains(lat0, lon0);
+        if (Aware.DEBUG) Log.d(TAG, "Location geofence: " + (permitted ? "within fences" : "not in any fences"));
+        return permitted;
+    }
+
+    /**
+     * Geofences compiled from the "location_geofence" setting: fences separated by spaces, tabs or semicolons, each
+     * either a circle "lat,lon,radius_meters" or a rectangle "rect,lat1,lon1,lat2,lon2".<br/>
+     * Fences are indexed on a grid of GRID_DEGREES cells by their bounding box, so a fix is only tested against the
+     * fences around it. Circles are tested with a fast equirectangular distance first, haversine only near the edge.
+     */
+    static final class GeoFences {
+
+        //grid cell size, about 5.5km of latitude
+        private static final double GRID_DEGREES = 0.05;
+
+        //fences covering more grid cells than this are tested for every fix instead
+        private static final int MAX_CELLS = 64;
+
+        //approximated distances this far from the radius are trusted without haversine
+        private static final double EQUIRECTANGULAR_MARGIN = 0.05;
+
+        private final String source;
+        private final boolean unrestricted;
+
+        //fence i: circle if radius[i] >= 0, rectangle otherwise. Bounding boxes are for both.
+        private final double[] lat;
+        private final double[] lon;
+        private final double[] radius;
+        private final double[] min_lat;
+        private final double[] max_lat;
+        private final double[] min_lon;
+        private final double[] max_lon;
+
+        //sorted grid cell keys and, for each, the fences overlapping that cell
+        private final long[] cells;
+        private final int[][] cell_fences;
+
+        //fences too large for the grid
+        private final int[] large_fences;
+
+        private GeoFences(String source) {
+            this.source = source;
+            this.unrestricted = (source.length() == 0 || source.equals("null"));
+
+            ArrayList<double[]> parsed = new ArrayList<>();
+            if (!unrestricted) {
+                for (String fence : source.split("[ \t;]+")) {
+                    String[] parts = fence.split(",");
+                    try {
+                        if (parts.length == 3) {
+                            double center_lat = Double.parseDouble(parts[0]);
+                            double center_lon = Double.parseDouble(parts[1]);
+                            double meters = Double.parseDouble(parts[2]);
+                            double delta_lat = Math.toDegrees(meters / EARTH_RADIUS);
+                            double delta_lon = delta_lat / Math.max(Math.cos(Math.toRadians(Math.min(Math.abs(center_lat) + delta_lat, 90))), 1e-6);
+                            parsed.add(new double[]{center_lat, center_lon, meters, center_lat - delta_lat, center_lat + delta_lat, center_lon - delta_lon, center_lon + delta_lon});
+                        } else if (parts[0].equals("rect") && parts.length == 5) {
+                            double lat1 = Double.parseDouble(parts[1]);
+                            double lon1 = Double.parseDouble(parts[2]);
+                            double lat2 = Double.parseDouble(parts[3]);
+                            double lon2 = Double.parseDouble(parts[4]);
+                            parsed.add(new double[]{0, 0, -1, Math.min(lat1, lat2), Math.max(lat1, lat2), Math.min(lon1, lon2), Math.max(lon1, lon2)});
+                        }
+                    } catch (NumberFormatException e) {
+                        Log.w(Aware.TAG, "Location geofence: ignoring invalid fence " + fence);
+                    }
+                }
+            }
+
+            int count = parsed.size();
+            lat = new double[count];
+            lon = new double[count];
+            radius = new double[count];
+            min_lat = new double[count];
+            max_lat = new double[count];
+            min_lon = new double[count];
+            max_lon = new double[count];
+
+            TreeMap<Long, ArrayList<Integer>> grid = new TreeMap<>();
+            ArrayList<Integer> large = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                double[] fence = parsed.get(i);
+                lat[i] = fence[0];
+                lon[i] = fence[1];
+                radius[i] = fence[2];
+                min_lat[i] = fence[3];
+                max_lat[i] = fence[4];
+                min_lon[i] = fence[5];
+                max_lon[i] = fence[6];
+
+                int first_row = cell(min_lat[i]), last_row = cell(max_lat[i]);
+                int first_col = cell(min_lon[i]), last_col = cell(max_lon[i]);
+                if ((long) (last_row - first_row + 1) * (last_col - first_col + 1) > MAX_CELLS) {
+                    large.add(i);
+                    continue;
+                }
+                for (int row = first_row; row <= last_row; row++) {
+                    for (int col = first_col; col <= last_col; col++) {
+                        ArrayList<Integer> fences = grid.get(key(row, col));
+                        if (fences == null) {
+                            fences = new ArrayList<>();
+                            grid.put(key(row, col), fences);
+                        }
+                        fences.add(i);
+                    }
+                }
+            }
+
+            cells = new long[grid.size()];
+            cell_fences = new int[grid.size()][];
+            int c = 0;
+            for (Map.Entry<Long, ArrayList<Integer>> entry : grid.entrySet()) {
+                cells[c] = entry.getKey();
+                cell_fences[c] = toArray(entry.getValue());
+                c++;
+            }
+            large_fences = toArray(large);
+        }
+
+        /**
+         * Compile the geofence setting
+         *
+         * @param geofences
+         * @return
+         */
+        static GeoFences compile(String geofences) {
+            return new GeoFences(geofences);
+        }
+
+        /**
+         * @param geofences current setting value
+         * @return true if these fences were compiled from a different setting value
+         */
+        boolean isStale(String geofences) {
+            return !source.equals(geofences);
+        }
+
+        /**
+         * If any fence contains the location. Always true when no fences are set.
+         *
+         * @param lat0
+         * @param lon0
+         * @return
+         */
+        boolean contains(double lat0, double lon0) {
+            if (unrestricted) return true;
+
+            for (int fence : large_fences) {
+                if (inside(fence, lat0, lon0)) return true;
+            }
+
+            int found = Arrays.binarySearch(cells, key(cell(lat0), cell(lon0)));
+            if (found >= 0) {
+                for (int fence : cell_fences[found]) {
+                    if (inside(fence, lat0, lon0)) return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean inside(int fence, double lat0, double lon0) {
+            // Rectangular fence, borders excluded
+            if (radius[fence] < 0) {
+                return min_lat[fence] < lat0 && lat0 < max_lat[fence] && min_lon[fence] < lon0 && lon0 < max_lon[fence];
+            }
 
-        // Separate geofence string by spaces, tabs, and semicolon
-        String[] fences = geofences.split("[ \t;]+");
-        // Test each part separately, if any part is true, return true.
-        for (Integer i=0 ; i<fences.length ; i++) {
-            String[] parts = fences[i].split(",");
             // Circular fences.  Distance in METERS.
-            if (parts.length == 3) {
-                Double lat1 = Double.parseDouble(parts[0]);
-                Double lon1 = Double.parseDouble(parts[1]);
-                Double radius = Double.parseDouble(parts[2]);
-                if (wgs84_dist(lat0, lon0, lat1, lon1) < radius) {
-                    if (Aware.DEBUG) Log.d(TAG, "Location geofence: within " + fences[i]);
-                    return true;
+            if (lat0 < min_lat[fence] || lat0 > max_lat[fence] || lon0 < min_lon[fence] || lon0 > max_lon[fence])
+                return false;
+
+            double approximate = equirectangular(lat0, lon0, lat[fence], lon[fence]);
+            if (approximate < radius[fence] * (1 - EQUIRECTANGULAR_MARGIN)) return true;
+            if (approximate > radius[fence] * (1 + EQUIRECTANGULAR_MARGIN)) return false;
+
+            return haversine(lat0, lon0, lat[fence], lon[fence]) < radius[fence];
+        }
+
+        private static int cell(double degrees) {
+            return (int) Math.floor(degrees / GRID_DEGREES);
+        }
+
+        private static long key(int row, int col) {
+            return ((long) row << 32) | (col & 0xffffffffL);
+        }
+
+        private static int[] toArray(ArrayList<Integer> list) {
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) array[i] = list.get(i);
+            return array;
+        }
+    }
+
+    /**
+     * Dead-reckoning trajectory compressor. For each provider, it remembers the last stored fix and predicts where the
+     * device is now from that fix's speed and bearing. A fix is only stored when it is further than the tolerance from
+     * the prediction, so a stationary device or one moving steadily produces few rows while the trajectory can still be
+     * reconstructed within the tolerance. A fix is always stored at least every MAX_GAP.
+     */
+    static final class TrajectoryCompressor {
+
+        private static final long MAX_GAP = 15 * 60 * 1000;
+
+        private final double tolerance;
+        private final HashMap<String, double[]> anchors = new HashMap<>();
+
+        //anchor layout
+        private static final int LAT = 0, LON = 1, SPEED = 2, BEARING = 3, TIME = 4;
+
+        TrajectoryCompressor(double tolerance) {
+            this.tolerance = tolerance;
+        }
+
+        double getTolerance() {
+            return tolerance;
+        }
+
+        /**
+         * @param provider location provider
+         * @param lat
+         * @param lon
+         * @param speed    meters per second, 0 if unknown
+         * @param bearing  degrees, ignored when speed is 0
+         * @param time     fix time, in milliseconds
+         * @return true if the fix should be stored
+         */
+        boolean accept(String provider, double lat, double lon, double speed, double bearing, long time) {
+            if (tolerance <= 0) return true;
+
+            String key = (provider != null) ? provider : "";
+            double[] anchor = anchors.get(key);
+            if (anchor != null) {
+                double elapsed = time - anchor[TIME];
+                if (elapsed >= 0 && elapsed < MAX_GAP) {
+                    double travelled = anchor[SPEED] * elapsed / 1000;
+                    double bearing_rad = Math.toRadians(anchor[BEARING]);
+                    double predicted_lat = anchor[LAT] + Math.toDegrees(travelled * Math.cos(bearing_rad) / EARTH_RADIUS);
+                    double predicted_lon = anchor[LON] + Math.toDegrees(travelled * Math.sin(bearing_rad) / (EARTH_RADIUS * Math.max(Math.cos(Math.toRadians(anchor[LAT])), 1e-6)));
+                    if (equirectangular(lat, lon, predicted_lat, predicted_lon) <= tolerance) return false;
                 }
+            } else {
+                anchor = new double[5];
+                anchors.put(key, anchor);
             }
-            // Rectungular fence
-            if (parts[0].equals("rect") && parts.length==5) {
-                Double lat1 = Double.parseDouble(parts[1]);
-                Double lon1 = Double.parseDouble(parts[2]);
-                Double lat2 = Double.parseDouble(parts[3]);
-                Double lon2 = Double.parseDouble(parts[4]);
-                // Be safe in case order of xxx1 and xxx2 are reversed,
-                // so test twice.  Is there a better way to do this?
-                if (      ((lat1 < lat0 && lat0 < lat2)
-                        || (lat2 < lat0 && lat0 < lat1))
-                    &&    ((lon1 < lon0 && lon0 < lon2)
-                        || (lon2 < lon0 && lon0 < lon1))
-                       ) {
-                    if (Aware.DEBUG) Log.d(TAG, "Location geofence: within " + fences[i]);
-                    return true;
+            anchor[LAT] = lat;
+            anchor[LON] = lon;
+            anchor[SPEED] = speed;
+            anchor[BEARING] = bearing;
+            anchor[TIME] = time;
+            return true;
+        }
+    }
+
+    /**
+     * Online stay point detector. A visit starts at a fix and grows while the following fixes are within the radius of
+     * it; when a fix falls outside, the visit is complete and is kept if it lasted at least the minimum duration.
+     * Fixes less accurate than the radius are ignored.
+     */
+    static final class StayPointDetector {
+
+        private final double radius;
+        private final long duration;
+
+        private double anchor_lat, anchor_lon;
+        private double sum_lat, sum_lon, spread;
+        private long arrival, departure;
+        private int fixes = 0;
+
+        /**
+         * @param radius   meters
+         * @param duration milliseconds
+         */
+        StayPointDetector(double radius, long duration) {
+            this.radius = radius;
+            this.duration = duration;
+        }
+
+        boolean isConfigured(double radius, long duration) {
+            return this.radius == radius && this.duration == duration;
+        }
+
+        /**
+         * @return the visit completed by this fix, or null
+         */
+        ContentValues accept(double lat, double lon, double accuracy, long time) {
+            if (accuracy > radius) return null;
+
+            if (fixes > 0) {
+                double distance = haversine(anchor_lat, anchor_lon, lat, lon);
+                if (distance <= radius) {
+                    sum_lat += lat;
+                    sum_lon += lon;
+                    spread = Math.max(spread, distance);
+                    departure = time;
+                    fixes++;
+                    return null;
                 }
             }
+
+            ContentValues visit = flush();
+            anchor_lat = sum_lat = lat;
+            anchor_lon = sum_lon = lon;
+            spread = 0;
+            arrival = departure = time;
+            fixes = 1;
+            return visit;
+        }
+
+        /**
+         * Ends the current visit
+         *
+         * @return the current visit if it lasted long enough, or null
+         */
+        ContentValues flush() {
+            ContentValues visit = null;
+            if (fixes > 0 && departure - arrival >= duration) {
+                visit = new ContentValues();
+                visit.put(Locations_Visits.TIMESTAMP, arrival);
+                visit.put(Locations_Visits.LATITUDE, sum_lat / fixes);
+                visit.put(Locations_Visits.LONGITUDE, sum_lon / fixes);
+                visit.put(Locations_Visits.RADIUS, spread);
+                visit.put(Locations_Visits.END_TIMESTAMP, departure);
+                visit.put(Locations_Visits.FIXES, fixes);
+            }
+            fixes = 0;
+            return visit;
         }
-        if (Aware.DEBUG) Log.d(TAG, "Location geofence: not in any fences");
-        return false;
     }
 
+    private static final double EARTH_RADIUS = 6378137.;
+
     /**
      * Haversine formula for geographic distances.  Returns distance in meters.
      */
     public static Double wgs84_dist(Double lat1, Double lon1, Double lat2, Double lon2) {
-        Double EARTH_RADIUS = 6378137.;
-
-        Double dLat = Math.toRadians(lat2 - lat1);
-        Double dLon = Math.toRadians(lon2 - lon1);
-        Double a = (Math.sin(dLat / 2) * Math.sin(dLat / 2) +
-                    Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
-                    Math.sin(dLon / 2) * Math.sin(dLon / 2));
-        Double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        Double d = EARTH_RADIUS * c;
-        return d;
+        return haversine(lat1, lon1, lat2, lon2);
+    }
+
+    /**
+     * Equirectangular approximation of the distance in meters, accurate for short distances
+     */
+    private static double equirectangular(double lat1, double lon1, double lat2, double lon2) {
+        double x = Math.toRadians(lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return EARTH_RADIUS * Math.sqrt(x * x + y * y);
+    }
+
+    private static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = (Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                        Math.sin(dLon / 2) * Math.sin(dLon / 2));
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return EARTH_RADIUS * c;
     }
 
     @Override
@@ -263,7 +549,7 @@ public class Locations extends Aware_Sensor implements LocationListener {
 
         DATABASE_TABLES = Locations_Provider.DATABASE_TABLES;
         TABLES_FIELDS = Locations_Provider.TABLES_FIELDS;
-        CONTEXT_URIS = new Uri[]{Locations_Data.CONTENT_URI};
+        CONTEXT_URIS = new Uri[]{Locations_Data.CONTENT_URI, Locations_Visits.CONTENT_URI};
 
         REQUIRED_PERMISSIONS.add(Manifest.permission.ACCESS_COARSE_LOCATION);
         REQUIRED_PERMISSIONS.add(Manifest.permission.ACCESS_FINE_LOCATION);
@@ -278,6 +564,8 @@ public class Locations extends Aware_Sensor implements LocationListener {
         if (PERMISSIONS_OK) locationManager.removeUpdates(this);
         locationManager.removeGpsStatusListener(gps_status_listener);
 
+        if (visits != null) saveVisit(visits.flush());
+
         if (Aware.DEBUG) Log.d(TAG, "Locations service terminated...");
     }
 
@@ -306,6 +594,38 @@ public class Locations extends Aware_Sensor implements LocationListener {
                 Aware.setSetting(getApplicationContext(), Aware_Preferences.LOCATION_EXPIRATION_TIME, 300);
             }
 
+            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.LOCATION_COMPRESSION_TOLERANCE).length() == 0) {
+                Aware.setSetting(getApplicationContext(), Aware_Preferences.LOCATION_COMPRESSION_TOLERANCE, 0);
+            }
+            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.LOCATION_VISIT_RADIUS).length() == 0) {
+                Aware.setSetting(getApplicationContext(), Aware_Preferences.LOCATION_VISIT_RADIUS, 100);
+            }
+            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.LOCATION_VISIT_DURATION).length() == 0) {
+                Aware.setSetting(getApplicationContext(), Aware_Preferences.LOCATION_VISIT_DURATION, 600);
+            }
+
+            double tolerance = Double.parseDouble(Aware.getSetting(getApplicationContext(), Aware_Preferences.LOCATION_COMPRESSION_TOLERANCE));
+            if (compressor == null || compressor.getTolerance() != tolerance) {
+                compressor = new TrajectoryCompressor(tolerance);
+            }
+
+            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_LOCATION_VISITS).equals("true")) {
+                double visit_radius = Double.parseDouble(Aware.getSetting(getApplicationContext(), Aware_Preferences.LOCATION_VISIT_RADIUS));
+                long visit_duration = Long.parseLong(Aware.getSetting(getApplicationContext(), Aware_Preferences.LOCATION_VISIT_DURATION)) * 1000;
+                if (visits == null || !visits.isConfigured(visit_radius, visit_duration)) {
+                    if (visits != null) saveVisit(visits.flush());
+                    visits = new StayPointDetector(visit_radius, visit_duration);
+                }
+            } else if (visits != null) {
+                saveVisit(visits.flush());
+                visits = null;
+            }
+
+            String geofence_setting = Aware.getSetting(getApplicationContext(), Aware_Preferences.LOCATION_GEOFENCE);
+            if (geofences == null || geofences.isStale(geofence_setting)) {
+                geofences = GeoFences.compile(geofence_setting);
+            }
+
             if (Aware.getSetting(getApplicationContext(), Aware_Preferences.STATUS_LOCATION_GPS).equals("true")) {
                 if (locationManager.getProvider(LocationManager.GPS_PROVIDER) != null) {
                     if (FREQUENCY_GPS != Integer.parseInt(Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_LOCATION_GPS))) {
@@ -407,7 +727,7 @@ public class Locations extends Aware_Sensor implements LocationListener {
         if (Aware.getSetting(getApplicationContext(), Aware_Preferences.LOCATION_SAVE_ALL).equals("true")) {
             saveLocation(newLocation);
             Intent locationEvent = new Intent(ACTION_AWARE_LOCATIONS);
-            sendBroadcast(locationEvent);
+            ContextBus.post(getApplicationContext(), locationEvent);
             return;
         }
 
@@ -437,7 +757,7 @@ public class Locations extends Aware_Sensor implements LocationListener {
         saveLocation(bestLocation);
 
         Intent locationEvent = new Intent(ACTION_AWARE_LOCATIONS);
-        sendBroadcast(locationEvent);
+        ContextBus.post(getApplicationContext(), locationEvent);
     }
 
     @Override
@@ -520,7 +840,7 @@ public class Locations extends Aware_Sensor implements LocationListener {
             }
             if (updated) {
                 Intent locationEvent = new Intent(ACTION_AWARE_LOCATIONS);
-                sendBroadcast(locationEvent);
+                ContextBus.post(getApplicationContext(), locationEvent);
             }
             return;
         }
@@ -546,11 +866,11 @@ public class Locations extends Aware_Sensor implements LocationListener {
         saveLocation(bestLocation);
 
         Intent locationEvent = new Intent(ACTION_AWARE_LOCATIONS);
-        sendBroadcast(locationEvent);
+        ContextBus.post(getApplicationContext(), locationEvent);
     }
 
     /**
-     *  Save a location, handling geofencing.
+     *  Save a location, handling geofencing, trajectory compression and visits.
      *
      * @param bestLocation Location to save
      */
@@ -561,8 +881,20 @@ public class Locations extends Aware_Sensor implements LocationListener {
         Boolean permitted = testGeoFence(bestLocation.getLatitude(), bestLocation.getLongitude());
         if (Aware.DEBUG) Log.d(TAG, "geofencing: permitted=" + permitted);
 
+        long now = System.currentTimeMillis();
+
+        if (permitted) {
+            if (visits != null) {
+                saveVisit(visits.accept(bestLocation.getLatitude(), bestLocation.getLongitude(), bestLocation.getAccuracy(), now));
+            }
+            if (compressor != null && !compressor.accept(bestLocation.getProvider(), bestLocation.getLatitude(), bestLocation.getLongitude(), bestLocation.getSpeed(), bestLocation.getBearing(), now)) {
+                if (Aware.DEBUG) Log.d(TAG, "Location within compression tolerance, not stored");
+                return;
+            }
+        }
+
         ContentValues rowData = new ContentValues();
-        rowData.put(Locations_Data.TIMESTAMP, System.currentTimeMillis());
+        rowData.put(Locations_Data.TIMESTAMP, now);
         rowData.put(Locations_Data.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
         rowData.put(Locations_Data.PROVIDER, bestLocation.getProvider());
         if (permitted) {
@@ -585,4 +917,23 @@ public class Locations extends Aware_Sensor implements LocationListener {
         }
 
     }
-}
\ No newline at end of file
+
+    /**
+     * Save a completed visit
+     *
+     * @param visit visit from the stay point detector, may be null
+     */
+    private void saveVisit(ContentValues visit) {
+        if (visit == null) return;
+
+        visit.put(Locations_Visits.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
+        try {
+            getContentResolver().insert(Locations_Visits.CONTENT_URI, visit);
+        } catch (SQLiteException e) {
+            if (Aware.DEBUG) Log.d(TAG, e.getMessage());
+        } catch (SQLException e) {
+            if (Aware.DEBUG) Log.d(TAG, e.getMessage());
+        }
+        if (Aware.DEBUG) Log.d(TAG, "Visit: " + visit.toString());
+    }
+}
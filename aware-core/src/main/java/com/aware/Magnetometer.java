@@ -125,9 +125,7 @@ public class Magnetometer extends Aware_Sensor implements SensorEventListener {
         data_values.add(rowData);
         LAST_TS = TS;
 
-        Intent magnetoData = new Intent(ACTION_AWARE_MAGNETOMETER);
-        magnetoData.putExtra(EXTRA_DATA, rowData);
-        sendBroadcast(magnetoData);
+        broadcastSample(rowData);
 
         if (Aware.DEBUG) Log.d(TAG, "Magnetometer:" + rowData.toString());
 
@@ -269,6 +267,10 @@ public class Magnetometer extends Aware_Sensor implements SensorEventListener {
                     Aware.setSetting(this, Aware_Preferences.THRESHOLD_MAGNETOMETER, 0.0);
                 }
 
+                setBroadcastPolicy(ACTION_AWARE_MAGNETOMETER, EXTRA_DATA,
+                        Aware.getSetting(this, Aware_Preferences.BROADCAST_MAGNETOMETER),
+                        Aware.getSetting(this, Aware_Preferences.BROADCAST_RATE_MAGNETOMETER));
+
                 int new_frequency = Integer.parseInt(Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_MAGNETOMETER));
                 double new_threshold = Double.parseDouble(Aware.getSetting(getApplicationContext(), Aware_Preferences.THRESHOLD_MAGNETOMETER));
                 boolean new_enforce_frequency = (Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_MAGNETOMETER_ENFORCE).equals("true")
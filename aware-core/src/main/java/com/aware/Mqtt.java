@@ -11,8 +11,9 @@ import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteException;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.support.v4.content.ContextCompat;
 import android.util.Log;
@@ -28,19 +29,29 @@ import com.aware.utils.SSLUtils;
 import com.aware.utils.Scheduler;
 import com.koushikdutta.async.DataEmitterBase;
 
+import org.eclipse.paho.client.mqttv3.DisconnectedBufferOptions;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
-import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
-import org.eclipse.paho.client.mqttv3.MqttSecurityException;
-import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 
 import javax.net.SocketFactory;
 
@@ -49,16 +60,16 @@ import javax.net.SocketFactory;
  *
  * @author denzil
  */
-public class Mqtt extends Aware_Sensor implements MqttCallback {
+public class Mqtt extends Aware_Sensor implements MqttCallbackExtended {
     /**
      * Logging tag (default = "AWARE::MQTT")
      */
     public static String TAG = "AWARE::MQTT";
 
     /**
-     * MQTT persistence messages
+     * MQTT persistence messages, on disk so in-flight and offline messages survive restarts
      */
-    private static MemoryPersistence MQTT_MESSAGES_PERSISTENCE = null;
+    private static MqttDefaultFilePersistence MQTT_MESSAGES_PERSISTENCE = null;
 
     /**
      * The MQTT server
@@ -148,76 +159,305 @@ public class Mqtt extends Aware_Sensor implements MqttCallback {
      */
     public static final String EXTRA_MESSAGE = "message";
 
-    private static MqttClient MQTT_CLIENT = null;
+    private static MqttAsyncClient MQTT_CLIENT = null;
+
+    /**
+     * How many messages can wait to be published. Beyond this, {@link #publish(String, String)} refuses new messages.
+     */
+    private static final int MQTT_QUEUE_SIZE = 1000;
+
+    /**
+     * How many QoS 1 and 2 messages can be waiting for the broker's acknowledgement at once
+     */
+    private static final int MQTT_MAX_INFLIGHT = 10;
+
+    /**
+     * Connection retries start after 1 second, doubling up to 5 minutes
+     */
+    private static final long MQTT_RETRY_MIN = 1000;
+    private static final long MQTT_RETRY_MAX = 5 * 60 * 1000;
+
+    /**
+     * Received and published messages are logged in batches, at most every 2 seconds or every 50 messages
+     */
+    private static final long MQTT_LOG_DELAY = 2000;
+    private static final int MQTT_LOG_BATCH = 50;
+
+    /**
+     * Messages waiting to be published, saved to this file when the service stops
+     */
+    private static final String MQTT_OUTBOUND_FILE = "mqtt_outbound.json";
+
+    /**
+     * Message waiting to be published
+     */
+    private static class Outbound {
+        final String topic;
+        final String message;
+        final int qos;
+
+        Outbound(String topic, String message, int qos) {
+            this.topic = topic;
+            this.message = message;
+            this.qos = qos;
+        }
+    }
+
+    private static final ArrayDeque<Outbound> outbound = new ArrayDeque<>();
+    private static int inflight = 0;
+    private static final ArrayList<ContentValues> messagesLog = new ArrayList<>();
+
+    private static HandlerThread mqttThread = null;
+    private static Handler mqttHandler = null;
+    private static long retryDelay = MQTT_RETRY_MIN;
+    private static Context context = null;
 
     @Override
     public void connectionLost(Throwable throwable) {
+        //the client reconnects by itself, with its own backoff
         if (Aware.DEBUG) Log.d(TAG, "MQTT: Connection lost to server... reconnecting...");
-        try {
-            MQTT_CLIENT.reconnect();
-        } catch (MqttException e) {
-            if (Aware.DEBUG) Log.d(TAG, "MQTT: Connection failed... new attempt in 5 minutes...");
-        }
     }
 
     @Override
-    public void messageArrived(String topic, MqttMessage message) throws Exception {
-        ContentValues rowData = new ContentValues();
-        rowData.put(Mqtt_Messages.TIMESTAMP, System.currentTimeMillis());
-        rowData.put(Mqtt_Messages.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
-        rowData.put(Mqtt_Messages.TOPIC, topic);
-        rowData.put(Mqtt_Messages.MESSAGE, message.toString());
-        rowData.put(Mqtt_Messages.STATUS, MQTT_MSG_RECEIVED);
+    public void connectComplete(boolean reconnect, String serverURI) {
+        retryDelay = MQTT_RETRY_MIN;
+        if (Aware.DEBUG) Log.d(TAG, "Connected to MQTT: Client ID=" + MQTT_CLIENT.getClientId() + "\n Server:" + serverURI + (reconnect ? " (reconnected)" : ""));
 
-        try {
-            getContentResolver().insert(Mqtt_Messages.CONTENT_URI, rowData);
-        } catch (SQLiteException e) {
-            if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-        } catch (SQLException e) {
-            if (Aware.DEBUG) Log.d(TAG, e.getMessage());
+        loadTopics();
+        subscribeDefaults();
+        drain();
+    }
+
+    /**
+     * Handles the messages arriving on a topic
+     */
+    public interface RouteHandler {
+        /**
+         * @param context
+         * @param topic   the topic the message arrived on
+         * @param message
+         */
+        void onMessage(Context context, String topic, String message) throws Exception;
+    }
+
+    /**
+     * Routing table of topic filters to handlers. Filters without wildcards are matched with one hash lookup, the
+     * others (+ and #) with a trie of topic levels. Like before, topics are matched ignoring case.
+     */
+    private static final class Routes {
+        private static final class Node {
+            final HashMap<String, Node> children = new HashMap<>();
+            final ArrayList<RouteHandler> handlers = new ArrayList<>(); //filter ends here
+            final ArrayList<RouteHandler> rest = new ArrayList<>(); //filter ends here with #
         }
 
-        Intent mqttMsg = new Intent(ACTION_AWARE_MQTT_MSG_RECEIVED);
-        mqttMsg.putExtra(EXTRA_TOPIC, topic);
-        mqttMsg.putExtra(EXTRA_MESSAGE, message.toString());
-        sendBroadcast(mqttMsg);
+        private final HashMap<String, ArrayList<RouteHandler>> exact = new HashMap<>();
+        private final Node wildcards = new Node();
 
-        if (Aware.DEBUG)
-            Log.d(TAG, "MQTT: Message received: \n topic = " + topic + "\n message = " + message.toString());
+        void add(String filter, RouteHandler handler) {
+            filter = filter.toLowerCase(Locale.ENGLISH);
+            if (!filter.contains("+") && !filter.contains("#")) {
+                ArrayList<RouteHandler> handlers = exact.get(filter);
+                if (handlers == null) {
+                    handlers = new ArrayList<>();
+                    exact.put(filter, handlers);
+                }
+                handlers.add(handler);
+                return;
+            }
 
-        String study_id = "";
-        if (Aware.isStudy(getApplicationContext())) {
-            Cursor studyInfo = Aware.getStudy(getApplicationContext(), Aware.getSetting(getApplicationContext(), Aware_Preferences.WEBSERVICE_SERVER));
-            if (studyInfo != null && studyInfo.moveToFirst()) {
-                study_id = String.valueOf(studyInfo.getInt(studyInfo.getColumnIndex(Aware_Provider.Aware_Studies.STUDY_KEY)));
+            Node node = wildcards;
+            for (String level : filter.split("/", -1)) {
+                if (level.equals("#")) {
+                    node.rest.add(handler);
+                    return;
+                }
+                Node child = node.children.get(level);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(level, child);
+                }
+                node = child;
             }
-            if (studyInfo != null && !studyInfo.isClosed()) studyInfo.close();
+            node.handlers.add(handler);
+        }
+
+        ArrayList<RouteHandler> match(String topic) {
+            topic = topic.toLowerCase(Locale.ENGLISH);
+            ArrayList<RouteHandler> matched = new ArrayList<>();
+
+            ArrayList<RouteHandler> handlers = exact.get(topic);
+            if (handlers != null) matched.addAll(handlers);
+
+            if (wildcards.children.size() > 0 || wildcards.rest.size() > 0)
+                match(wildcards, topic.split("/", -1), 0, matched);
+
+            return matched;
+        }
+
+        private void match(Node node, String[] levels, int level, ArrayList<RouteHandler> matched) {
+            matched.addAll(node.rest);
+            if (level == levels.length) {
+                matched.addAll(node.handlers);
+                return;
+            }
+            Node child = node.children.get(levels[level]);
+            if (child != null) match(child, levels, level + 1, matched);
+            child = node.children.get("+");
+            if (child != null) match(child, levels, level + 1, matched);
+        }
+    }
+
+    private static volatile Routes routes = new Routes();
+
+    /**
+     * Routes added with {@link #addRoute(String, RouteHandler)}, by topic filter
+     */
+    private static final LinkedHashMap<String, ArrayList<RouteHandler>> customRoutes = new LinkedHashMap<>();
+
+    /**
+     * Topics of this device, and of the study if enrolled in one ("" otherwise). Loaded when connecting.
+     */
+    private static String device_id = "";
+    private static String study_id = "";
+
+    /**
+     * Handle the messages arriving on a topic. The topic filter can use MQTT wildcards (+ and #).
+     * Remember to subscribe to the topic too, with {@link #ACTION_AWARE_MQTT_TOPIC_SUBSCRIBE}.
+     *
+     * @param topicFilter
+     * @param handler
+     */
+    public static void addRoute(String topicFilter, RouteHandler handler) {
+        synchronized (customRoutes) {
+            ArrayList<RouteHandler> handlers = customRoutes.get(topicFilter);
+            if (handlers == null) {
+                handlers = new ArrayList<>();
+                customRoutes.put(topicFilter, handlers);
+            }
+            handlers.add(handler);
         }
+        compileRoutes();
+    }
 
-        if (topic.equalsIgnoreCase(Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/broadcasts") || topic.equalsIgnoreCase(study_id + "/" + Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/broadcasts")) {
-            Intent broadcast = new Intent(message.toString());
-            sendBroadcast(broadcast);
+    /**
+     * Stop handling messages on a topic with this handler
+     *
+     * @param topicFilter
+     * @param handler
+     */
+    public static void removeRoute(String topicFilter, RouteHandler handler) {
+        synchronized (customRoutes) {
+            ArrayList<RouteHandler> handlers = customRoutes.get(topicFilter);
+            if (handlers == null) return;
+            handlers.remove(handler);
+            if (handlers.size() == 0) customRoutes.remove(topicFilter);
         }
+        compileRoutes();
+    }
+
+    private static final RouteHandler broadcastsRoute = new RouteHandler() {
+        @Override
+        public void onMessage(Context context, String topic, String message) {
+            Intent broadcast = new Intent(message);
+            context.sendBroadcast(broadcast);
+        }
+    };
 
-        if (topic.equalsIgnoreCase(Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/esm") || topic.equalsIgnoreCase(study_id + "/" + Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/esm")) {
+    private static final RouteHandler esmRoute = new RouteHandler() {
+        @Override
+        public void onMessage(Context context, String topic, String message) {
             Intent queueESM = new Intent(ESM.ACTION_AWARE_QUEUE_ESM);
-            queueESM.putExtra(ESM.EXTRA_ESM, message.toString());
-            sendBroadcast(queueESM);
+            queueESM.putExtra(ESM.EXTRA_ESM, message);
+            context.sendBroadcast(queueESM);
         }
+    };
 
-        if (topic.equalsIgnoreCase(Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/configuration") || topic.equalsIgnoreCase(study_id + "/" + Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/configuration")) {
-            JSONArray configs = new JSONArray(message.toString());
-            Aware.tweakSettings(getApplicationContext(), configs);
+    private static final RouteHandler configurationRoute = new RouteHandler() {
+        @Override
+        public void onMessage(Context context, String topic, String message) throws JSONException {
+            JSONArray configs = new JSONArray(message);
+            Aware.tweakSettings(context, configs);
         }
+    };
 
-        if (topic.equalsIgnoreCase(Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/schedulers") || topic.equalsIgnoreCase(study_id + "/" + Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/schedulers")) {
-            JSONArray schedules = new JSONArray(message.toString());
+    private static final RouteHandler schedulersRoute = new RouteHandler() {
+        @Override
+        public void onMessage(Context context, String topic, String message) throws JSONException {
+            JSONArray schedules = new JSONArray(message);
             try {
                 Log.d(TAG, "Setting schedules: " + schedules.toString(5));
             } catch (JSONException e) {
                 e.printStackTrace();
             }
-            Scheduler.setSchedules(getApplicationContext(), schedules);
+            Scheduler.setSchedules(context, schedules);
+        }
+    };
+
+    /**
+     * Loads the device and study IDs the default topics are built from, and compiles the routes
+     */
+    private static void loadTopics() {
+        device_id = Aware.getSetting(context, Aware_Preferences.DEVICE_ID);
+
+        study_id = "";
+        if (Aware.isStudy(context)) {
+            Cursor studyInfo = Aware.getStudy(context, Aware.getSetting(context, Aware_Preferences.WEBSERVICE_SERVER));
+            if (studyInfo != null && studyInfo.moveToFirst()) {
+                study_id = String.valueOf(studyInfo.getInt(studyInfo.getColumnIndex(Aware_Provider.Aware_Studies.STUDY_KEY)));
+            }
+            if (studyInfo != null && !studyInfo.isClosed()) studyInfo.close();
+        }
+
+        compileRoutes();
+    }
+
+    private static void compileRoutes() {
+        Routes compiled = new Routes();
+
+        String[] prefixes = (study_id.length() > 0) ? new String[]{device_id, study_id + "/" + device_id} : new String[]{device_id};
+        for (String prefix : prefixes) {
+            compiled.add(prefix + "/broadcasts", broadcastsRoute);
+            compiled.add(prefix + "/esm", esmRoute);
+            compiled.add(prefix + "/configuration", configurationRoute);
+            compiled.add(prefix + "/schedulers", schedulersRoute);
+        }
+
+        synchronized (customRoutes) {
+            for (String filter : customRoutes.keySet()) {
+                for (RouteHandler handler : customRoutes.get(filter)) {
+                    compiled.add(filter, handler);
+                }
+            }
+        }
+
+        routes = compiled;
+    }
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) throws Exception {
+        ContentValues rowData = new ContentValues();
+        rowData.put(Mqtt_Messages.TIMESTAMP, System.currentTimeMillis());
+        rowData.put(Mqtt_Messages.DEVICE_ID, device_id);
+        rowData.put(Mqtt_Messages.TOPIC, topic);
+        rowData.put(Mqtt_Messages.MESSAGE, message.toString());
+        rowData.put(Mqtt_Messages.STATUS, MQTT_MSG_RECEIVED);
+        log(rowData);
+
+        Intent mqttMsg = new Intent(ACTION_AWARE_MQTT_MSG_RECEIVED);
+        mqttMsg.putExtra(EXTRA_TOPIC, topic);
+        mqttMsg.putExtra(EXTRA_MESSAGE, message.toString());
+        sendBroadcast(mqttMsg);
+
+        if (Aware.DEBUG)
+            Log.d(TAG, "MQTT: Message received: \n topic = " + topic + "\n message = " + message.toString());
+
+        for (RouteHandler handler : routes.match(topic)) {
+            try {
+                handler.onMessage(getApplicationContext(), topic, message.toString());
+            } catch (Exception e) {
+                if (Aware.DEBUG) Log.e(TAG, "MQTT: Failed to handle message on " + topic + ": " + e.getMessage());
+            }
         }
     }
 
@@ -248,23 +488,9 @@ public class Mqtt extends Aware_Sensor implements MqttCallback {
                 String topic = intent.getStringExtra(EXTRA_TOPIC);
                 String message = intent.getStringExtra(EXTRA_MESSAGE);
                 if (topic != null && message != null && topic.length() > 0 && message.length() > 0) {
-                    if (publish(topic, message)) {
-                        ContentValues rowData = new ContentValues();
-                        rowData.put(Mqtt_Messages.TIMESTAMP, System.currentTimeMillis());
-                        rowData.put(Mqtt_Messages.DEVICE_ID, Aware.getSetting(context, Aware_Preferences.DEVICE_ID));
-                        rowData.put(Mqtt_Messages.TOPIC, topic);
-                        rowData.put(Mqtt_Messages.MESSAGE, message);
-                        rowData.put(Mqtt_Messages.STATUS, MQTT_MSG_PUBLISHED);
-
-                        try {
-                            context.getContentResolver().insert(Mqtt_Messages.CONTENT_URI, rowData);
-                            if (Aware.DEBUG)
-                                Log.w(TAG, "Published: " + topic + " message: " + message);
-                        } catch (SQLiteException e) {
-                            if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                        } catch (SQLException e) {
-                            if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                        }
+                    //logged once the broker has it
+                    if (!publish(topic, message)) {
+                        if (Aware.DEBUG) Log.w(TAG, "Outbound queue full, dropped: " + topic + " message: " + message);
                     }
                 }
             }
@@ -328,6 +554,14 @@ public class Mqtt extends Aware_Sensor implements MqttCallback {
         filter.addAction(Mqtt.ACTION_AWARE_MQTT_TOPIC_UNSUBSCRIBE);
         filter.addAction(Mqtt.ACTION_AWARE_MQTT_MSG_PUBLISH);
         registerReceiver(mqttReceiver, filter);
+
+        context = getApplicationContext();
+
+        mqttThread = new HandlerThread(TAG);
+        mqttThread.start();
+        mqttHandler = new Handler(mqttThread.getLooper());
+
+        restoreOutbound();
     }
 
     @Override
@@ -343,8 +577,9 @@ public class Mqtt extends Aware_Sensor implements MqttCallback {
             } else {
                 Aware.setSetting(this, Aware_Preferences.STATUS_MQTT, true);
 
-                if (MQTT_CLIENT != null && MQTT_CLIENT.isConnected()) {
-                    if (DEBUG)
+                if (MQTT_CLIENT != null) {
+                    //connected, or connecting in the background
+                    if (DEBUG && MQTT_CLIENT.isConnected())
                         Log.d(TAG, "Connected to MQTT: Client ID=" + MQTT_CLIENT.getClientId() + "\n Server:" + MQTT_CLIENT.getServerURI());
                 } else {
                     initializeMQTT();
@@ -361,16 +596,31 @@ public class Mqtt extends Aware_Sensor implements MqttCallback {
 
         unregisterReceiver(mqttReceiver);
 
-        if (MQTT_CLIENT != null && MQTT_CLIENT.isConnected()) {
+        mqttHandler.removeCallbacksAndMessages(null);
+
+        if (MQTT_CLIENT != null) {
             try {
-                MQTT_MESSAGES_PERSISTENCE.close();
-                MQTT_CLIENT.disconnect();
-                if (Aware.DEBUG)
-                    Log.e(TAG, "Disconnected by demand successfully from the server...");
+                MQTT_CLIENT.setCallback(null);
+                if (MQTT_CLIENT.isConnected()) {
+                    MQTT_CLIENT.disconnect().waitForCompletion(5000);
+                    if (Aware.DEBUG)
+                        Log.e(TAG, "Disconnected by demand successfully from the server...");
+                }
+                MQTT_CLIENT.close();
             } catch (MqttException e) {
                 if (Aware.DEBUG) Log.e(TAG, e.getMessage());
             }
+            MQTT_CLIENT = null;
+        }
+
+        //whatever did not reach the broker is published next time
+        synchronized (outbound) {
+            inflight = 0;
         }
+        saveOutbound();
+        saveLog();
+
+        mqttThread.quit();
 
         if (Aware.DEBUG) Log.d(TAG, "MQTT service terminated...");
     }
@@ -397,7 +647,7 @@ public class Mqtt extends Aware_Sensor implements MqttCallback {
         String MQTT_URL = MQTT_PROTOCOL + "://" + MQTT_SERVER + ":" + MQTT_PORT;
 
         if (MQTT_MESSAGES_PERSISTENCE == null)
-            MQTT_MESSAGES_PERSISTENCE = new MemoryPersistence();
+            MQTT_MESSAGES_PERSISTENCE = new MqttDefaultFilePersistence(getFilesDir().getAbsolutePath() + File.separator + "mqtt");
 
         MqttConnectOptions MQTT_OPTIONS = new MqttConnectOptions();
         MQTT_OPTIONS.setCleanSession(false); //resume pending messages from server
@@ -405,6 +655,7 @@ public class Mqtt extends Aware_Sensor implements MqttCallback {
         MQTT_OPTIONS.setKeepAliveInterval(Integer.parseInt(MQTT_KEEPALIVE));
         MQTT_OPTIONS.setMqttVersion(MqttConnectOptions.MQTT_VERSION_3_1_1);
         MQTT_OPTIONS.setAutomaticReconnect(true);
+        MQTT_OPTIONS.setMaxInflight(MQTT_MAX_INFLIGHT);
 
         if (MQTT_USERNAME.length() > 0)
             MQTT_OPTIONS.setUserName(MQTT_USERNAME);
@@ -412,146 +663,294 @@ public class Mqtt extends Aware_Sensor implements MqttCallback {
         if (MQTT_PASSWORD.length() > 0)
             MQTT_OPTIONS.setPassword(MQTT_PASSWORD.toCharArray());
 
-        if (MQTT_PROTOCOL.equalsIgnoreCase("ssl")) {
-            try {
+        try {
+            if (MQTT_PROTOCOL.equalsIgnoreCase("ssl")) {
                 SocketFactory factory = new SSLUtils(this).getSocketFactory(MQTT_SERVER);
                 MQTT_OPTIONS.setSocketFactory(factory);
-                
-                MQTT_CLIENT = new MqttClient(
-                        MQTT_URL,
-                        String.valueOf(Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID).hashCode()),
-                        MQTT_MESSAGES_PERSISTENCE);
+            }
 
-                MQTT_CLIENT.setCallback(this);
+            MQTT_CLIENT = new MqttAsyncClient(
+                    MQTT_URL,
+                    String.valueOf(Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID).hashCode()),
+                    MQTT_MESSAGES_PERSISTENCE);
 
-                new MQTTAsync().execute(MQTT_OPTIONS);
+            MQTT_CLIENT.setCallback(this);
 
-            } catch (NullPointerException e) {
-                Log.e(Mqtt.TAG, "Unable to create SSL factory. Certificate missing?");
-            } catch (MqttException | IllegalArgumentException e) {
-                if (Aware.DEBUG) Log.e(TAG, "Failed: " + e.getMessage());
-            }
+            //keep publishing to disk while the connection is down
+            DisconnectedBufferOptions MQTT_BUFFER = new DisconnectedBufferOptions();
+            MQTT_BUFFER.setBufferEnabled(true);
+            MQTT_BUFFER.setBufferSize(MQTT_QUEUE_SIZE);
+            MQTT_BUFFER.setPersistBuffer(true);
+            MQTT_BUFFER.setDeleteOldestMessages(true);
+            MQTT_CLIENT.setBufferOpts(MQTT_BUFFER);
+
+            connect(MQTT_OPTIONS);
+
+        } catch (NullPointerException e) {
+            Log.e(Mqtt.TAG, "Unable to create SSL factory. Certificate missing?");
+        } catch (MqttException | IllegalArgumentException e) {
+            if (Aware.DEBUG) Log.e(TAG, "Failed: " + e.getMessage());
         }
     }
 
     /**
-     * UI Thread safe background MQTT options attempt!
+     * Connects in the background. Until the first connection succeeds, retries with exponential backoff;
+     * afterwards the client reconnects by itself.
      *
-     * @author denzil
+     * @param options
      */
-    private class MQTTAsync extends AsyncTask<MqttConnectOptions, Void, Boolean> {
-        private MqttConnectOptions options;
+    private static void connect(final MqttConnectOptions options) {
+        if (MQTT_CLIENT == null) return;
 
-        @Override
-        protected void onPreExecute() {
-            super.onPreExecute();
+        if (Aware.DEBUG) Log.d(TAG, "MQTT service connecting...");
+        try {
+            MQTT_CLIENT.connect(options, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    retryDelay = MQTT_RETRY_MIN;
+                }
 
-            if (Aware.DEBUG) Log.d(TAG, "MQTT service connecting...");
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    if (Aware.DEBUG)
+                        Log.d(TAG, "MQTT Client failed to connect: " + exception + " Parameters used: " + options.toString() + ". New attempt in " + retryDelay / 1000 + " seconds...");
+                    retryConnect(options);
+                }
+            });
+        } catch (MqttException e) {
+            if (Aware.DEBUG) Log.e(TAG, "MqttException: " + e.getMessage());
+            retryConnect(options);
         }
+    }
 
-        @Override
-        protected Boolean doInBackground(MqttConnectOptions... params) {
-            options = params[0];
-            try {
-                MQTT_CLIENT.connect(options);
-            } catch (MqttSecurityException e) {
-                if (Aware.DEBUG) Log.e(TAG, "SecurityException: " + e.getMessage());
-                return false;
-            } catch (MqttException e) {
-                if (Aware.DEBUG) Log.e(TAG, "MqttException: " + e.getMessage());
-                return false;
+    private static void retryConnect(final MqttConnectOptions options) {
+        if (mqttHandler == null) return;
+        mqttHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (MQTT_CLIENT != null && !MQTT_CLIENT.isConnected()) connect(options);
+            }
+        }, retryDelay);
+        retryDelay = Math.min(retryDelay * 2, MQTT_RETRY_MAX);
+    }
+
+    /**
+     * Subscribes to this device's topics, and the study's if enrolled in one
+     */
+    private static void subscribeDefaults() {
+        String[] topics = new String[]{"/broadcasts", "/esm", "/configuration", "/schedulers", "/#"};
+
+        //Study specific subscribes
+        if (study_id.length() > 0) {
+            for (String topic : topics) {
+                Intent studySubscribe = new Intent(ACTION_AWARE_MQTT_TOPIC_SUBSCRIBE);
+                studySubscribe.putExtra(EXTRA_TOPIC, study_id + "/" + device_id + topic);
+                context.sendBroadcast(studySubscribe);
             }
-            return true;
         }
 
-        @Override
-        protected void onPostExecute(Boolean result) {
-            super.onPostExecute(result);
-
-            if (result) {
-                //Study specific subscribes
-                if (Aware.isStudy(getApplicationContext())) {
-                    Cursor studyInfo = Aware.getStudy(getApplicationContext(), Aware.getSetting(getApplicationContext(), Aware_Preferences.WEBSERVICE_SERVER));
-                    if (studyInfo != null && studyInfo.moveToFirst()) {
-                        Intent studySubscribe = new Intent(ACTION_AWARE_MQTT_TOPIC_SUBSCRIBE);
-                        studySubscribe.putExtra(EXTRA_TOPIC, studyInfo.getInt(studyInfo.getColumnIndex(Aware_Provider.Aware_Studies.STUDY_KEY)) + "/" + Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/broadcasts");
-                        sendBroadcast(studySubscribe);
-
-                        studySubscribe = new Intent(ACTION_AWARE_MQTT_TOPIC_SUBSCRIBE);
-                        studySubscribe.putExtra(EXTRA_TOPIC, studyInfo.getInt(studyInfo.getColumnIndex(Aware_Provider.Aware_Studies.STUDY_KEY)) + "/" + Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/esm");
-                        sendBroadcast(studySubscribe);
-
-                        studySubscribe = new Intent(ACTION_AWARE_MQTT_TOPIC_SUBSCRIBE);
-                        studySubscribe.putExtra(EXTRA_TOPIC, studyInfo.getInt(studyInfo.getColumnIndex(Aware_Provider.Aware_Studies.STUDY_KEY)) + "/" + Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/configuration");
-                        sendBroadcast(studySubscribe);
-
-                        studySubscribe = new Intent(ACTION_AWARE_MQTT_TOPIC_SUBSCRIBE);
-                        studySubscribe.putExtra(EXTRA_TOPIC, studyInfo.getInt(studyInfo.getColumnIndex(Aware_Provider.Aware_Studies.STUDY_KEY)) + "/" + Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/schedulers");
-                        sendBroadcast(studySubscribe);
-
-                        studySubscribe = new Intent(ACTION_AWARE_MQTT_TOPIC_SUBSCRIBE);
-                        studySubscribe.putExtra(EXTRA_TOPIC, studyInfo.getInt(studyInfo.getColumnIndex(Aware_Provider.Aware_Studies.STUDY_KEY)) + "/" + Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/#");
-                        sendBroadcast(studySubscribe);
+        //Self-subscribes
+        for (String topic : topics) {
+            Intent selfSubscribe = new Intent(ACTION_AWARE_MQTT_TOPIC_SUBSCRIBE);
+            selfSubscribe.putExtra(EXTRA_TOPIC, device_id + topic);
+            context.sendBroadcast(selfSubscribe);
+        }
+    }
+
+    /**
+     * Publish message to topic. The message is queued and sent in the background; once the broker has it, it is
+     * logged in {@link Mqtt_Messages} as {@link #MQTT_MSG_PUBLISHED}.
+     *
+     * @param topicName
+     * @param messageText
+     * @return false if the outbound queue is full
+     */
+    public static boolean publish(String topicName, String messageText) {
+        synchronized (outbound) {
+            if (outbound.size() >= MQTT_QUEUE_SIZE) return false;
+            outbound.add(new Outbound(topicName, messageText, Integer.parseInt(MQTT_QoS)));
+        }
+        drain();
+        return true;
+    }
+
+    /**
+     * Sends queued messages while connected, keeping at most {@link #MQTT_MAX_INFLIGHT} QoS 1 and 2 messages unacknowledged.
+     */
+    private static void drain() {
+        if (mqttHandler == null) return;
+        mqttHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    Outbound next;
+                    synchronized (outbound) {
+                        if (MQTT_CLIENT == null || !MQTT_CLIENT.isConnected()) return;
+                        next = outbound.peek();
+                        if (next == null) return;
+                        if (next.qos > 0 && inflight >= MQTT_MAX_INFLIGHT) return;
+                        outbound.poll();
+                        if (next.qos > 0) inflight++;
+                    }
+
+                    try {
+                        MqttMessage message = new MqttMessage();
+                        message.setPayload(next.message.getBytes());
+                        message.setQos(next.qos);
+                        message.setRetained(true);
+
+                        MQTT_CLIENT.publish(next.topic, message, next, publishListener);
+                    } catch (MqttException e) {
+                        if (Aware.DEBUG) Log.e(TAG, e.getMessage());
+                        requeue(next);
+                        return;
                     }
-                    if (studyInfo != null && !studyInfo.isClosed()) studyInfo.close();
                 }
+            }
+        });
+    }
 
-                //Self-subscribes
-                Intent selfSubscribe = new Intent(ACTION_AWARE_MQTT_TOPIC_SUBSCRIBE);
-                selfSubscribe.putExtra(EXTRA_TOPIC, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/broadcasts");
-                sendBroadcast(selfSubscribe);
+    private static void requeue(Outbound message) {
+        synchronized (outbound) {
+            if (message.qos > 0) inflight--;
+            outbound.addFirst(message);
+        }
+    }
 
-                selfSubscribe = new Intent(ACTION_AWARE_MQTT_TOPIC_SUBSCRIBE);
-                selfSubscribe.putExtra(EXTRA_TOPIC, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/esm");
-                sendBroadcast(selfSubscribe);
+    private static final IMqttActionListener publishListener = new IMqttActionListener() {
+        @Override
+        public void onSuccess(IMqttToken asyncActionToken) {
+            Outbound published = (Outbound) asyncActionToken.getUserContext();
+            synchronized (outbound) {
+                if (published.qos > 0) inflight--;
+            }
 
-                selfSubscribe = new Intent(ACTION_AWARE_MQTT_TOPIC_SUBSCRIBE);
-                selfSubscribe.putExtra(EXTRA_TOPIC, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/configuration");
-                sendBroadcast(selfSubscribe);
+            ContentValues rowData = new ContentValues();
+            rowData.put(Mqtt_Messages.TIMESTAMP, System.currentTimeMillis());
+            rowData.put(Mqtt_Messages.DEVICE_ID, device_id);
+            rowData.put(Mqtt_Messages.TOPIC, published.topic);
+            rowData.put(Mqtt_Messages.MESSAGE, published.message);
+            rowData.put(Mqtt_Messages.STATUS, MQTT_MSG_PUBLISHED);
+            log(rowData);
 
-                selfSubscribe = new Intent(ACTION_AWARE_MQTT_TOPIC_SUBSCRIBE);
-                selfSubscribe.putExtra(EXTRA_TOPIC, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/schedulers");
-                sendBroadcast(selfSubscribe);
+            if (Aware.DEBUG)
+                Log.w(TAG, "Published: " + published.topic + " message: " + published.message);
 
-                selfSubscribe = new Intent(ACTION_AWARE_MQTT_TOPIC_SUBSCRIBE);
-                selfSubscribe.putExtra(EXTRA_TOPIC, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID) + "/#");
-                sendBroadcast(selfSubscribe);
+            drain();
+        }
 
-                if (MQTT_CLIENT != null && MQTT_CLIENT.isConnected()) {
-                    Log.d(TAG, "Connected to MQTT: Client ID=" + MQTT_CLIENT.getClientId() + "\n Server:" + MQTT_CLIENT.getServerURI());
-                }
+        @Override
+        public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+            if (Aware.DEBUG) Log.e(TAG, "Failed to publish: " + exception);
+            //try again once reconnected
+            requeue((Outbound) asyncActionToken.getUserContext());
+        }
+    };
 
-            } else {
-                if (Aware.DEBUG)
-                    Log.d(TAG, "MQTT Client failed to connect... Parameters used: " + options.toString());
-            }
+    /**
+     * Logs a received or published message, saved with the next batch
+     *
+     * @param rowData
+     */
+    private static void log(ContentValues rowData) {
+        int pending;
+        synchronized (messagesLog) {
+            messagesLog.add(rowData);
+            pending = messagesLog.size();
+        }
+        if (mqttHandler == null) {
+            saveLog();
+        } else if (pending >= MQTT_LOG_BATCH) {
+            mqttHandler.removeCallbacks(logSaver);
+            mqttHandler.post(logSaver);
+        } else if (pending == 1) {
+            mqttHandler.postDelayed(logSaver, MQTT_LOG_DELAY);
+        }
+    }
+
+    private static final Runnable logSaver = new Runnable() {
+        @Override
+        public void run() {
+            saveLog();
+        }
+    };
+
+    private static void saveLog() {
+        ContentValues[] rows;
+        if (context == null) return;
+        synchronized (messagesLog) {
+            if (messagesLog.size() == 0) return;
+            rows = messagesLog.toArray(new ContentValues[messagesLog.size()]);
+            messagesLog.clear();
+        }
+        try {
+            context.getContentResolver().bulkInsert(Mqtt_Messages.CONTENT_URI, rows);
+        } catch (SQLiteException e) {
+            if (Aware.DEBUG) Log.d(TAG, e.getMessage());
+        } catch (SQLException e) {
+            if (Aware.DEBUG) Log.d(TAG, e.getMessage());
         }
     }
 
     /**
-     * Publish message to topic
-     *
-     * @param topicName
-     * @param messageText
+     * Saves the messages that were not published yet
      */
-    public static boolean publish(String topicName, String messageText) {
-        if (MQTT_CLIENT != null && MQTT_CLIENT.isConnected()) {
+    private static void saveOutbound() {
+        JSONArray pending = new JSONArray();
+        synchronized (outbound) {
             try {
-                MqttMessage message = new MqttMessage();
-                message.setPayload(messageText.getBytes());
-                message.setQos(Integer.parseInt(MQTT_QoS));
-                message.setRetained(true);
+                for (Outbound message : outbound) {
+                    pending.put(new JSONObject().put("topic", message.topic).put("message", message.message).put("qos", message.qos));
+                }
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            outbound.clear();
+        }
 
-                MQTT_CLIENT.publish(topicName, message);
-            } catch (MqttPersistenceException e) {
-                if (Aware.DEBUG) Log.e(TAG, e.getMessage());
-                return false;
-            } catch (MqttException e) {
-                if (Aware.DEBUG) Log.e(TAG, e.getMessage());
-                return false;
+        File file = new File(context.getFilesDir(), MQTT_OUTBOUND_FILE);
+        if (pending.length() == 0) {
+            file.delete();
+            return;
+        }
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(pending.toString().getBytes("UTF-8"));
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Queues again the messages that were not published when the service last stopped
+     */
+    private static void restoreOutbound() {
+        File file = new File(context.getFilesDir(), MQTT_OUTBOUND_FILE);
+        if (!file.exists()) return;
+        try {
+            byte[] data = new byte[(int) file.length()];
+            FileInputStream in = new FileInputStream(file);
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) break;
+                read += n;
+            }
+            in.close();
+
+            JSONArray pending = new JSONArray(new String(data, 0, read, "UTF-8"));
+            synchronized (outbound) {
+                for (int i = 0; i < pending.length(); i++) {
+                    JSONObject message = pending.getJSONObject(i);
+                    outbound.add(new Outbound(message.getString("topic"), message.getString("message"), message.getInt("qos")));
+                }
             }
+            if (Aware.DEBUG) Log.d(TAG, "Restored " + pending.length() + " unpublished messages");
+        } catch (IOException | JSONException e) {
+            e.printStackTrace();
         }
-        return true;
+        file.delete();
     }
 
     /**
@@ -563,9 +962,6 @@ public class Mqtt extends Aware_Sensor implements MqttCallback {
         if (MQTT_CLIENT != null && MQTT_CLIENT.isConnected()) {
             try {
                 MQTT_CLIENT.subscribe(topicName, Integer.parseInt(MQTT_QoS));
-            } catch (MqttSecurityException e) {
-                if (Aware.DEBUG) Log.e(TAG, e.getMessage());
-                return false;
             } catch (MqttException e) {
                 if (Aware.DEBUG) Log.e(TAG, e.getMessage());
                 return false;
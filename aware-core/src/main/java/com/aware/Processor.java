@@ -19,12 +19,9 @@ import com.aware.providers.Processor_Provider;
 import com.aware.providers.Processor_Provider.Processor_Data;
 import com.aware.ui.PermissionsHandler;
 import com.aware.utils.Aware_Sensor;
+import com.aware.utils.ContextBus;
+import com.aware.utils.ProcStat;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.HashMap;
 
 /**
@@ -50,42 +47,74 @@ public class Processor extends Aware_Sensor {
     public static final String ACTION_AWARE_PROCESSOR_RELAXED = "ACTION_AWARE_PROCESSOR_RELAXED";
 
     private static Handler mHandler = new Handler();
+
+    //the /proc reader and the previous sample, so a tick doesn't have to read the last row back from the database
+    private ProcStat procStat = null;
+    private final ProcStat.ProcessTimes awareTimes = new ProcStat.ProcessTimes();
+    private long last_user = -1, last_system = -1, last_idle = -1, last_aware = -1, last_total = -1;
+
     private final Runnable mRunnable = new Runnable() {
         @Override
         public void run() {
 
-            HashMap<String, Integer> processorNow = getProcessorLoad();
+            if (!procStat.readStat()) {
+                mHandler.postDelayed(mRunnable, FREQUENCY);
+                return;
+            }
 
-            float user_percentage = 0, system_percentage = 0, idle_percentage = 0;
+            long user = procStat.cpu.user + procStat.cpu.nice;
+            long system = procStat.cpu.system;
+            long idle = procStat.cpu.idle;
 
-            Cursor lastProcessor = getContentResolver().query(Processor_Data.CONTENT_URI, null, null, null, Processor_Data.TIMESTAMP + " DESC LIMIT 1");
-            if (lastProcessor != null && lastProcessor.moveToFirst()) {
-                int oldUser = lastProcessor.getInt(lastProcessor.getColumnIndex(Processor_Data.LAST_USER));
-                int oldSystem = lastProcessor.getInt(lastProcessor.getColumnIndex(Processor_Data.LAST_SYSTEM));
-                int oldIdle = lastProcessor.getInt(lastProcessor.getColumnIndex(Processor_Data.LAST_IDLE));
-
-                int delta_user = processorNow.get("user") - oldUser;
-                int delta_system = processorNow.get("system") - oldSystem;
-                int delta_idle = processorNow.get("idle") - oldIdle;
-
-                try {
-                    user_percentage = delta_user * 100.f / (delta_user + delta_system + delta_idle);
-                    system_percentage = delta_system * 100.f / (delta_user + delta_system + delta_idle);
-                    idle_percentage = delta_idle * 100.f / (delta_user + delta_system + delta_idle);
-                } catch (ArithmeticException e) {
+            if (last_user == -1) {
+                Cursor lastProcessor = getContentResolver().query(Processor_Data.CONTENT_URI, new String[]{Processor_Data.LAST_USER, Processor_Data.LAST_SYSTEM, Processor_Data.LAST_IDLE}, null, null, Processor_Data.TIMESTAMP + " DESC LIMIT 1");
+                if (lastProcessor != null && lastProcessor.moveToFirst()) {
+                    last_user = lastProcessor.getLong(0);
+                    last_system = lastProcessor.getLong(1);
+                    last_idle = lastProcessor.getLong(2);
                 }
+                if (lastProcessor != null && !lastProcessor.isClosed()) lastProcessor.close();
+            }
+
+            float user_percentage = 0, system_percentage = 0, idle_percentage = 0;
+
+            long delta_user = user - last_user;
+            long delta_system = system - last_system;
+            long delta_idle = idle - last_idle;
+            long delta_total = delta_user + delta_system + delta_idle;
+
+            //no previous sample, or the device rebooted since
+            if (last_user != -1 && delta_user >= 0 && delta_system >= 0 && delta_idle >= 0 && delta_total > 0) {
+                user_percentage = delta_user * 100.f / delta_total;
+                system_percentage = delta_system * 100.f / delta_total;
+                idle_percentage = delta_idle * 100.f / delta_total;
             }
-            if (lastProcessor != null && !lastProcessor.isClosed()) lastProcessor.close();
 
-            if (Aware.DEBUG)
+            last_user = user;
+            last_system = system;
+            last_idle = idle;
+
+            if (Aware.DEBUG) {
                 Log.d(TAG, "USER: " + user_percentage + "% SYSTEM: " + system_percentage + "% IDLE: " + idle_percentage + "% Total: " + (user_percentage + system_percentage + idle_percentage));
 
+                //how much of the device's CPU time AWARE itself used since the last tick
+                if (procStat.readProcess(awareTimes)) {
+                    long aware = awareTimes.total();
+                    long total = procStat.cpu.total();
+                    if (last_aware != -1 && total > last_total) {
+                        Log.d(TAG, "AWARE: " + ((aware - last_aware) * 100.f / (total - last_total)) + "%");
+                    }
+                    last_aware = aware;
+                    last_total = total;
+                }
+            }
+
             ContentValues rowData = new ContentValues();
             rowData.put(Processor_Data.TIMESTAMP, System.currentTimeMillis());
             rowData.put(Processor_Data.DEVICE_ID, Aware.getSetting(getApplicationContext(), Aware_Preferences.DEVICE_ID));
-            rowData.put(Processor_Data.LAST_USER, processorNow.get("user"));
-            rowData.put(Processor_Data.LAST_SYSTEM, processorNow.get("system"));
-            rowData.put(Processor_Data.LAST_IDLE, processorNow.get("idle"));
+            rowData.put(Processor_Data.LAST_USER, user);
+            rowData.put(Processor_Data.LAST_SYSTEM, system);
+            rowData.put(Processor_Data.LAST_IDLE, idle);
             rowData.put(Processor_Data.USER_LOAD, user_percentage);
             rowData.put(Processor_Data.SYSTEM_LOAD, system_percentage);
             rowData.put(Processor_Data.IDLE_LOAD, idle_percentage);
@@ -101,7 +130,7 @@ public class Processor extends Aware_Sensor {
             }
 
             Intent newProcessor = new Intent(ACTION_AWARE_PROCESSOR);
-            sendBroadcast(newProcessor);
+            ContextBus.post(getApplicationContext(), newProcessor);
 
             if (idle_percentage <= 10) {
                 Intent stressed = new Intent(ACTION_AWARE_PROCESSOR_STRESSED);
@@ -113,11 +142,19 @@ public class Processor extends Aware_Sensor {
                 sendBroadcast(relaxed);
             }
 
-            mHandler.postDelayed(mRunnable, Integer.parseInt(Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_PROCESSOR)) * 1000);
+            mHandler.postDelayed(mRunnable, FREQUENCY);
         }
     };
 
-    private static int FREQUENCY = -1;
+    /**
+     * Sampling interval in milliseconds, from the setting in seconds (it can be below one, e.g., 0.5)
+     */
+    private static long FREQUENCY = -1;
+
+    /**
+     * Shortest sampling interval, in milliseconds
+     */
+    private static final long MIN_FREQUENCY = 100;
 
     @Override
     public IBinder onBind(Intent intent) {
@@ -132,6 +169,8 @@ public class Processor extends Aware_Sensor {
         TABLES_FIELDS = Processor_Provider.TABLES_FIELDS;
         CONTEXT_URIS = new Uri[]{Processor_Data.CONTENT_URI};
 
+        procStat = new ProcStat();
+
         if (Aware.DEBUG) Log.d(TAG, "Processor service created");
     }
 
@@ -150,24 +189,27 @@ public class Processor extends Aware_Sensor {
             }
 
             DEBUG = Aware.getSetting(this, Aware_Preferences.DEBUG_FLAG).equals("true");
-            if (Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_PROCESSOR).length() == 0) {
-                Aware.setSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_PROCESSOR, 10);
-            }
 
+            double seconds;
             try {
-                Integer.parseInt(Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_PROCESSOR));
+                seconds = Double.parseDouble(Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_PROCESSOR));
             } catch (NumberFormatException e) {
+                seconds = -1;
+            }
+            if (Double.isNaN(seconds) || Double.isInfinite(seconds) || seconds <= 0) {
+                seconds = 10;
                 Aware.setSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_PROCESSOR, 10);
             }
+            long frequency = Math.max(MIN_FREQUENCY, (long) (seconds * 1000));
 
             Aware.setSetting(this, Aware_Preferences.STATUS_PROCESSOR, true);
-            if (FREQUENCY != Integer.parseInt(Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_PROCESSOR))) {
+            if (FREQUENCY != frequency) {
+                FREQUENCY = frequency;
                 mHandler.removeCallbacks(mRunnable);
                 mHandler.post(mRunnable);
-                FREQUENCY = Integer.parseInt(Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_PROCESSOR));
             }
 
-            if (Aware.DEBUG) Log.d(TAG, "Processor service active: " + FREQUENCY + "s");
+            if (Aware.DEBUG) Log.d(TAG, "Processor service active: " + FREQUENCY + "ms");
         }
 
         return START_STICKY;
@@ -178,6 +220,8 @@ public class Processor extends Aware_Sensor {
         super.onDestroy();
 
         mHandler.removeCallbacks(mRunnable);
+        FREQUENCY = -1;
+        procStat.close();
 
         if (Aware.DEBUG) Log.d(TAG, "Processor service terminated...");
     }
@@ -188,30 +232,23 @@ public class Processor extends Aware_Sensor {
      * [system]
      * [idle]
      *
+     * To sample repeatedly, keep a {@link ProcStat} instead: it reuses the open file and does not allocate.
+     *
      * @return {@link HashMap} with user, system and idle keys and values
      */
     public static HashMap<String, Integer> getProcessorLoad() {
         HashMap<String, Integer> processor = new HashMap<String, Integer>();
         processor.put("user", 0);
-        processor.put("system",0);
-        processor.put("idle",0);
-
-        try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream("/proc/stat")), 5000);
-            String line = "";
-            //NOTE: CPU  USER NICE SYSTEM IDLE - there are two spaces after CPU
-            if ((line = reader.readLine()) != null) {
-                String[] items = line.split(" ");
-                processor.put("user", Integer.parseInt(items[2]) + Integer.parseInt(items[3]));
-                processor.put("system", Integer.parseInt(items[4]));
-                processor.put("idle", Integer.parseInt(items[5]));
-            }
-            reader.close();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+        processor.put("system", 0);
+        processor.put("idle", 0);
+
+        ProcStat reader = new ProcStat();
+        if (reader.readStat()) {
+            processor.put("user", (int) (reader.cpu.user + reader.cpu.nice));
+            processor.put("system", (int) reader.cpu.system);
+            processor.put("idle", (int) reader.cpu.idle);
         }
+        reader.close();
         return processor;
     }
 }
@@ -29,6 +29,7 @@ import com.aware.providers.Proximity_Provider.Proximity_Data;
 import com.aware.providers.Proximity_Provider.Proximity_Sensor;
 import com.aware.ui.PermissionsHandler;
 import com.aware.utils.Aware_Sensor;
+import com.aware.utils.ContextBus;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -117,7 +118,7 @@ public class Proximity extends Aware_Sensor implements SensorEventListener {
 
         Intent proxyData = new Intent(ACTION_AWARE_PROXIMITY);
         proxyData.putExtra(EXTRA_DATA, rowData);
-        sendBroadcast(proxyData);
+        ContextBus.post(getApplicationContext(), proxyData);
 
         if (Aware.DEBUG) Log.d(TAG, "Proximity:" + rowData.toString());
 
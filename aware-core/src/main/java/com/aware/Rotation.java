@@ -142,9 +142,7 @@ public class Rotation extends Aware_Sensor implements SensorEventListener {
         data_values.add(rowData);
         LAST_TS = TS;
 
-        Intent rotData = new Intent(ACTION_AWARE_ROTATION);
-        rotData.putExtra(EXTRA_DATA, rowData);
-        sendBroadcast(rotData);
+        broadcastSample(rowData);
 
         if (Aware.DEBUG) Log.d(TAG, "Rotation:" + rowData.toString());
 
@@ -288,6 +286,10 @@ public class Rotation extends Aware_Sensor implements SensorEventListener {
                 if (Aware.getSetting(this, Aware_Preferences.THRESHOLD_ROTATION).length() == 0) {
                     Aware.setSetting(this, Aware_Preferences.THRESHOLD_ROTATION, 0.0);
                 }
+
+                setBroadcastPolicy(ACTION_AWARE_ROTATION, EXTRA_DATA,
+                        Aware.getSetting(this, Aware_Preferences.BROADCAST_ROTATION),
+                        Aware.getSetting(this, Aware_Preferences.BROADCAST_RATE_ROTATION));
                 int new_frequency = Integer.parseInt(Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_ROTATION));
                 double new_threshold = Double.parseDouble(Aware.getSetting(getApplicationContext(), Aware_Preferences.THRESHOLD_ROTATION));
                 boolean new_enforce_frequency = (Aware.getSetting(getApplicationContext(), Aware_Preferences.FREQUENCY_ROTATION_ENFORCE).equals("true")
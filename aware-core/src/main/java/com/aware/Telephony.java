@@ -30,6 +30,7 @@ import com.aware.providers.Telephony_Provider.GSM_Neighbors_Data;
 import com.aware.providers.Telephony_Provider.Telephony_Data;
 import com.aware.ui.PermissionsHandler;
 import com.aware.utils.Aware_Sensor;
+import com.aware.utils.ContextBus;
 import com.aware.utils.Encrypter;
 
 import java.util.List;
@@ -161,7 +162,7 @@ public class Telephony extends Aware_Sensor {
                     mContext.getContentResolver().insert(GSM_Data.CONTENT_URI, rowData);
 
                     Intent newGSM = new Intent(Telephony.ACTION_AWARE_GSM_TOWER);
-                    mContext.sendBroadcast(newGSM);
+                    ContextBus.post(mContext, newGSM);
 
                     if (Aware.DEBUG) Log.d(TAG, "GSM tower:" + rowData.toString());
                 } catch (SQLiteException e) {
@@ -185,7 +186,7 @@ public class Telephony extends Aware_Sensor {
                             mContext.getContentResolver().insert(GSM_Neighbors_Data.CONTENT_URI, rowData);
 
                             Intent newGSMNeighbor = new Intent(Telephony.ACTION_AWARE_GSM_TOWER_NEIGHBOR);
-                            mContext.sendBroadcast(newGSMNeighbor);
+                            ContextBus.post(mContext, newGSMNeighbor);
 
                             if (Aware.DEBUG) Log.d(TAG, "GSM tower neighbor:" + rowData.toString());
                         } catch (SQLiteException e) {
@@ -219,7 +220,7 @@ public class Telephony extends Aware_Sensor {
                     mContext.getContentResolver().insert(CDMA_Data.CONTENT_URI, rowData);
 
                     Intent newCDMA = new Intent(Telephony.ACTION_AWARE_CDMA_TOWER);
-                    mContext.sendBroadcast(newCDMA);
+                    ContextBus.post(mContext, newCDMA);
 
                     if (Aware.DEBUG) Log.d(TAG, "CDMA tower:" + rowData.toString());
                 } catch (SQLiteException e) {
@@ -253,7 +254,7 @@ public class Telephony extends Aware_Sensor {
                 mContext.getContentResolver().insert(Telephony_Data.CONTENT_URI, rowData);
 
                 Intent newTelephony = new Intent(Telephony.ACTION_AWARE_TELEPHONY);
-                mContext.sendBroadcast(newTelephony);
+                ContextBus.post(mContext, newTelephony);
 
                 if (Aware.DEBUG) Log.d(TAG, "Telephony:" + rowData.toString());
             } catch (SQLiteException e) {
@@ -31,6 +31,7 @@ import com.aware.providers.Temperature_Provider.Temperature_Data;
 import com.aware.providers.Temperature_Provider.Temperature_Sensor;
 import com.aware.ui.PermissionsHandler;
 import com.aware.utils.Aware_Sensor;
+import com.aware.utils.ContextBus;
 import com.aware.utils.Converters;
 
 import java.util.ArrayList;
@@ -125,7 +126,7 @@ public class Temperature extends Aware_Sensor implements SensorEventListener {
 
         Intent temperatureData = new Intent(ACTION_AWARE_TEMPERATURE);
         temperatureData.putExtra(EXTRA_DATA, rowData);
-        sendBroadcast(temperatureData);
+        ContextBus.post(getApplicationContext(), temperatureData);
 
         if (Aware.DEBUG) Log.d(TAG, "Temperature:" + rowData.toString());
 
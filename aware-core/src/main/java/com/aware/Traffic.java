@@ -16,6 +16,7 @@ import com.aware.providers.Traffic_Provider;
 import com.aware.providers.Traffic_Provider.Traffic_Data;
 import com.aware.ui.PermissionsHandler;
 import com.aware.utils.Aware_Sensor;
+import com.aware.utils.ContextBus;
 
 /**
  * Service that logs I/O traffic from WiFi & mobile network
@@ -75,7 +76,7 @@ public class Traffic extends Aware_Sensor {
             getContentResolver().insert(Traffic_Data.CONTENT_URI, network);
 
             Intent traffic = new Intent(ACTION_AWARE_NETWORK_TRAFFIC);
-            sendBroadcast(traffic);
+            ContextBus.post(getApplicationContext(), traffic);
 
             if (Aware.DEBUG) {
                 Log.d(TAG, "Mobile RX-bytes: " + d_mobileRxBytes + " TX-bytes: " + d_mobileTxBytes + " RxPack: " + d_mobileRxPackets + " TxPack: " + d_mobileTxPackets);
@@ -29,8 +29,10 @@ import com.aware.providers.WiFi_Provider.WiFi_Data;
 import com.aware.providers.WiFi_Provider.WiFi_Sensor;
 import com.aware.ui.PermissionsHandler;
 import com.aware.utils.Aware_Sensor;
+import com.aware.utils.ContextBus;
 import com.aware.utils.Encrypter;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -69,8 +71,10 @@ public class WiFi extends Aware_Sensor {
 
     /**
      * Broadcasted event: WiFi scan ended
+     * Extra: {@link #EXTRA_SCAN}, ArrayList of ContentValues with all the APs found in this scan
      */
     public static final String ACTION_AWARE_WIFI_SCAN_ENDED = "ACTION_AWARE_WIFI_SCAN_ENDED";
+    public static final String EXTRA_SCAN = "scan";
 
     /**
      * Broadcast receiving event: request a WiFi scan
@@ -92,8 +96,9 @@ public class WiFi extends Aware_Sensor {
         backgroundService.setAction(ACTION_AWARE_WIFI_REQUEST_SCAN);
         wifiScan = PendingIntent.getService(this, 0, backgroundService, PendingIntent.FLAG_UPDATE_CURRENT);
 
-        DATABASE_TABLES = WiFi_Provider.DATABASE_TABLES;
-        TABLES_FIELDS = WiFi_Provider.TABLES_FIELDS;
+        //the compact storage tables are synced through WiFi_Data
+        DATABASE_TABLES = new String[]{WiFi_Provider.DATABASE_TABLES[0], WiFi_Provider.DATABASE_TABLES[1]};
+        TABLES_FIELDS = new String[]{WiFi_Provider.TABLES_FIELDS[0], WiFi_Provider.TABLES_FIELDS[1]};
         CONTEXT_URIS = new Uri[]{WiFi_Data.CONTENT_URI, WiFi_Sensor.CONTENT_URI};
 
         REQUIRED_PERMISSIONS.add(Manifest.permission.CHANGE_WIFI_STATE);
@@ -155,6 +160,16 @@ public class WiFi extends Aware_Sensor {
     }
     private static final WiFiMonitor wifiMonitor = new WiFiMonitor();
 
+    /**
+     * Where scan results are saved: the wifi table, or the AP dictionary and compact scans if {@link Aware_Preferences#WIFI_COMPACT_STORAGE} is on.
+     * Either way, they are read from {@link WiFi_Data#CONTENT_URI}.
+     */
+    private static Uri getDataUri(Context context) {
+        if (Aware.getSetting(context, Aware_Preferences.WIFI_COMPACT_STORAGE).equals("true"))
+            return WiFi_Provider.WiFi_Scans.CONTENT_URI;
+        return WiFi_Data.CONTENT_URI;
+    }
+
     /**
      * Asynchronously get the AP we are currently connected to.
      */
@@ -181,7 +196,7 @@ public class WiFi extends Aware_Sensor {
 
                 Intent currentAp = new Intent(ACTION_AWARE_WIFI_CURRENT_AP);
                 currentAp.putExtra(EXTRA_DATA, rowData);
-                mContext.sendBroadcast(currentAp);
+                ContextBus.post(mContext, currentAp);
 
                 if (Aware.DEBUG) Log.d(TAG, "WiFi local sensor information: " + rowData.toString());
 
@@ -211,36 +226,44 @@ public class WiFi extends Aware_Sensor {
         public String call() throws Exception {
             if (Aware.DEBUG) Log.d(TAG, "Found " + mAPS.size() + " access points");
             long currentScan = System.currentTimeMillis();
+            String device_id = Aware.getSetting(mContext, Aware_Preferences.DEVICE_ID);
 
+            ArrayList<ContentValues> scan = new ArrayList<>(mAPS.size());
             for (ScanResult ap : mAPS) {
                 ContentValues rowData = new ContentValues();
-                rowData.put(WiFi_Data.DEVICE_ID, Aware.getSetting(mContext, Aware_Preferences.DEVICE_ID));
+                rowData.put(WiFi_Data.DEVICE_ID, device_id);
                 rowData.put(WiFi_Data.TIMESTAMP, currentScan);
                 rowData.put(WiFi_Data.BSSID, Encrypter.hashMac(mContext, ap.BSSID));
                 rowData.put(WiFi_Data.SSID, Encrypter.hashSsid(mContext, ap.SSID));
                 rowData.put(WiFi_Data.SECURITY, ap.capabilities);
                 rowData.put(WiFi_Data.FREQUENCY, ap.frequency);
                 rowData.put(WiFi_Data.RSSI, ap.level);
+                scan.add(rowData);
+            }
 
-                try {
-                    mContext.getContentResolver().insert(WiFi_Data.CONTENT_URI, rowData);
-                } catch (SQLiteException e) {
-                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                } catch (SQLException e) {
-                    if (Aware.DEBUG) Log.d(TAG, e.getMessage());
-                }
+            //one transaction for the whole scan
+            try {
+                mContext.getContentResolver().bulkInsert(getDataUri(mContext), scan.toArray(new ContentValues[scan.size()]));
+            } catch (SQLiteException e) {
+                if (Aware.DEBUG) Log.d(TAG, e.getMessage());
+            } catch (SQLException e) {
+                if (Aware.DEBUG) Log.d(TAG, e.getMessage());
+            }
 
+            //kept for clients listening to individual APs
+            for (ContentValues rowData : scan) {
                 if (Aware.DEBUG)
                     Log.d(TAG, ACTION_AWARE_WIFI_NEW_DEVICE + ": " + rowData.toString());
 
                 Intent detectedAP = new Intent(ACTION_AWARE_WIFI_NEW_DEVICE);
                 detectedAP.putExtra(EXTRA_DATA, rowData);
-                mContext.sendBroadcast(detectedAP);
+                ContextBus.post(mContext, detectedAP);
             }
 
             if (Aware.DEBUG) Log.d(TAG, ACTION_AWARE_WIFI_SCAN_ENDED);
 
             Intent scanEnd = new Intent(ACTION_AWARE_WIFI_SCAN_ENDED);
+            scanEnd.putParcelableArrayListExtra(EXTRA_SCAN, scan);
             mContext.sendBroadcast(scanEnd);
 
             return Thread.currentThread().getName();
@@ -280,7 +303,7 @@ public class WiFi extends Aware_Sensor {
                     rowData.put(WiFi_Data.TIMESTAMP, System.currentTimeMillis());
                     rowData.put(WiFi_Data.LABEL, "disabled");
 
-                    getContentResolver().insert(WiFi_Data.CONTENT_URI, rowData);
+                    getContentResolver().insert(getDataUri(getApplicationContext()), rowData);
                 }
             }
 
@@ -2,9 +2,12 @@
 package com.aware.providers;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -20,6 +23,7 @@ import com.aware.BuildConfig;
 import com.aware.utils.DatabaseHelper;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
@@ -302,6 +306,7 @@ public class Applications_Provider extends ContentProvider {
                     database.endTransaction();
                     return applicationsUri;
                 }
+                database.endTransaction();
                 throw new SQLException("Failed to insert row into " + uri);
             case NOTIFICATIONS:
                 long notifications_id = database.insertWithOnConflict(DATABASE_TABLES[2], Applications_Notifications.PACKAGE_NAME, values, SQLiteDatabase.CONFLICT_IGNORE);
@@ -330,6 +335,74 @@ public class Applications_Provider extends ContentProvider {
         }
     }
 
+    /**
+     * Batch insert, e.g., notifications buffered by the accessibility service
+     *
+     * @param uri
+     * @param values
+     * @return values.length
+     */
+    @Override
+    public synchronized int bulkInsert(Uri uri, ContentValues[] values) {
+
+        initialiseDatabase();
+
+        String table;
+        switch (sUriMatcher.match(uri)) {
+            case FOREGROUND:
+                table = DATABASE_TABLES[0];
+                break;
+            case APPLICATIONS:
+                table = DATABASE_TABLES[1];
+                break;
+            case NOTIFICATIONS:
+                table = DATABASE_TABLES[2];
+                break;
+            case ERROR:
+                table = DATABASE_TABLES[3];
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        database.beginTransaction();
+
+        int count = 0;
+        for (ContentValues v : values) {
+            long id = database.insertWithOnConflict(table, Applications_Notifications.PACKAGE_NAME, v, SQLiteDatabase.CONFLICT_IGNORE);
+            if (id <= 0) {
+                Log.w(Aware.TAG, "Failed to insert row into " + uri);
+            } else {
+                count++;
+            }
+        }
+
+        database.setTransactionSuccessful();
+        database.endTransaction();
+
+        getContext().getContentResolver().notifyChange(uri, null);
+
+        return count;
+    }
+
+    /**
+     * Apply a batch of operations in a single transaction
+     */
+    @Override
+    public synchronized ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+
+        initialiseDatabase();
+
+        database.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+            return results;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
     @Override
     public boolean onCreate() {
         AUTHORITY = getContext().getPackageName() + ".provider.applications";
@@ -219,6 +219,49 @@ public class Bluetooth_Provider extends ContentProvider {
         }
     }
 
+    /**
+     * Batch insert for high performance sensors (e.g., Bluetooth scans)
+     */
+    @Override
+    public synchronized int bulkInsert(Uri uri, ContentValues[] values) {
+
+        initialiseDatabase();
+
+        String table;
+        String nullColumn;
+        switch (sUriMatcher.match(uri)) {
+            case BT_DEV:
+                table = DATABASE_TABLES[0];
+                nullColumn = Bluetooth_Sensor.BT_NAME;
+                break;
+            case BT_DATA:
+                table = DATABASE_TABLES[1];
+                nullColumn = Bluetooth_Data.BT_NAME;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        database.beginTransaction();
+
+        int count = 0;
+        for (ContentValues v : values) {
+            long id = database.insertWithOnConflict(table, nullColumn, v, SQLiteDatabase.CONFLICT_IGNORE);
+            if (id <= 0) {
+                Log.w(Aware.TAG, "Failed to insert row into " + uri);
+            } else {
+                count++;
+            }
+        }
+
+        database.setTransactionSuccessful();
+        database.endTransaction();
+
+        getContext().getContentResolver().notifyChange(uri, null);
+
+        return count;
+    }
+
     @Override
     public boolean onCreate() {
         AUTHORITY = getContext().getPackageName() + ".provider.bluetooth";
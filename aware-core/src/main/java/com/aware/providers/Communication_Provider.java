@@ -218,6 +218,50 @@ public class Communication_Provider extends ContentProvider {
 		}
 	}
 
+	/**
+	 * Batch insert calls or messages
+	 *
+	 * @param uri
+	 * @param values
+	 * @return values.length
+	 */
+	@Override
+	public synchronized int bulkInsert(Uri uri, ContentValues[] values) {
+
+		initialiseDatabase();
+
+		String table;
+		switch (sUriMatcher.match(uri)) {
+		case CALLS:
+			table = DATABASE_TABLES[0];
+			break;
+		case MESSAGES:
+			table = DATABASE_TABLES[1];
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown URI " + uri);
+		}
+
+		database.beginTransaction();
+
+		int count = 0;
+		for (ContentValues v : values) {
+			long id = database.insertWithOnConflict(table, Calls_Data.DEVICE_ID, v, SQLiteDatabase.CONFLICT_IGNORE);
+			if (id <= 0) {
+				Log.w(Aware.TAG, "Failed to insert row into " + uri);
+			} else {
+				count++;
+			}
+		}
+
+		database.setTransactionSuccessful();
+		database.endTransaction();
+
+		getContext().getContentResolver().notifyChange(uri, null);
+
+		return count;
+	}
+
 	@Override
 	public boolean onCreate() {
 	    AUTHORITY = getContext().getPackageName() + ".provider.communication";
@@ -2,9 +2,12 @@
 package com.aware.providers;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -20,6 +23,7 @@ import com.aware.ESM;
 import com.aware.utils.DatabaseHelper;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
 
@@ -91,8 +95,12 @@ public class ESM_Provider extends ContentProvider {
     private void initialiseDatabase() {
         if (dbHelper == null)
             dbHelper = new DatabaseHelper(getContext(), DATABASE_NAME, null, DATABASE_VERSION, DATABASE_TABLES, TABLES_FIELDS);
-        if (database == null)
+        if (database == null) {
             database = dbHelper.getWritableDatabase();
+            //the queue is looked up by status, in order
+            if (database != null)
+                database.execSQL("CREATE INDEX IF NOT EXISTS esms_status_time ON " + DATABASE_TABLES[0] + " (" + ESM_Data.STATUS + "," + ESM_Data.TIMESTAMP + ");");
+        }
     }
 
     /**
@@ -168,6 +176,25 @@ public class ESM_Provider extends ContentProvider {
         }
     }
 
+    /**
+     * Apply a batch of operations in a single transaction (e.g., queueing a questionnaire)
+     */
+    @Override
+    public synchronized ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+
+        initialiseDatabase();
+        if (database == null) return new ContentProviderResult[0];
+
+        database.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+            return results;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
     @Override
     public boolean onCreate() {
         AUTHORITY = getContext().getPackageName() + ".provider.esm";
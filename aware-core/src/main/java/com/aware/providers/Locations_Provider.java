@@ -31,7 +31,7 @@ import java.util.HashMap;
  */
 public class Locations_Provider extends ContentProvider {
 
-    public static final int DATABASE_VERSION = 3;
+    public static final int DATABASE_VERSION = 5;
 
     /**
      * Authority of Locations content provider
@@ -41,6 +41,7 @@ public class Locations_Provider extends ContentProvider {
     // ContentProvider query paths
     private static final int LOCATIONS = 1;
     private static final int LOCATIONS_ID = 2;
+    private static final int LOCATIONS_VISITS = 3;
 
     /**
      * Locations content representation
@@ -69,9 +70,32 @@ public class Locations_Provider extends ContentProvider {
         public static final String LABEL = "label";
     }
 
+    /**
+     * Stay points detected from the location fixes: places where the device remained within a radius for a minimum
+     * amount of time. TIMESTAMP is the arrival time.
+     */
+    public static final class Locations_Visits implements BaseColumns {
+        private Locations_Visits() {
+        }
+
+        public static final Uri CONTENT_URI = Uri.parse("content://"
+                + Locations_Provider.AUTHORITY + "/locations_visits");
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.aware.locations.visits";
+        public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.aware.locations.visits";
+
+        public static final String _ID = "_id";
+        public static final String TIMESTAMP = "timestamp";
+        public static final String DEVICE_ID = "device_id";
+        public static final String LATITUDE = "double_latitude";
+        public static final String LONGITUDE = "double_longitude";
+        public static final String RADIUS = "double_radius";
+        public static final String END_TIMESTAMP = "double_end_timestamp"; //departure time
+        public static final String FIXES = "fixes";
+    }
+
     public static String DATABASE_NAME = "locations.db";
 
-    public static final String[] DATABASE_TABLES = {"locations"};
+    public static final String[] DATABASE_TABLES = {"locations", "locations_visits"};
 
     public static final String[] TABLES_FIELDS = {
             Locations_Data._ID + " integer primary key autoincrement,"
@@ -84,10 +108,21 @@ public class Locations_Provider extends ContentProvider {
                     + Locations_Data.ALTITUDE + " real default 0,"
                     + Locations_Data.PROVIDER + " text default '',"
                     + Locations_Data.ACCURACY + " real default 0,"
-                    + Locations_Data.LABEL + " text default ''"};
+                    + Locations_Data.LABEL + " text default ''",
+
+            // Visits
+            Locations_Visits._ID + " integer primary key autoincrement,"
+                    + Locations_Visits.TIMESTAMP + " real default 0,"
+                    + Locations_Visits.DEVICE_ID + " text default '',"
+                    + Locations_Visits.LATITUDE + " real default 0,"
+                    + Locations_Visits.LONGITUDE + " real default 0,"
+                    + Locations_Visits.RADIUS + " real default 0,"
+                    + Locations_Visits.END_TIMESTAMP + " real default 0,"
+                    + Locations_Visits.FIXES + " integer default 0"};
 
     private static UriMatcher sUriMatcher = null;
     private static HashMap<String, String> locationsProjectionMap = null;
+    private static HashMap<String, String> visitsProjectionMap = null;
 
     private DatabaseHelper dbHelper;
     private static SQLiteDatabase database;
@@ -116,6 +151,10 @@ public class Locations_Provider extends ContentProvider {
                 count = database.delete(DATABASE_TABLES[0], selection,
                         selectionArgs);
                 break;
+            case LOCATIONS_VISITS:
+                count = database.delete(DATABASE_TABLES[1], selection,
+                        selectionArgs);
+                break;
             default:
                 database.endTransaction();
                 throw new IllegalArgumentException("Unknown URI " + uri);
@@ -135,6 +174,8 @@ public class Locations_Provider extends ContentProvider {
                 return Locations_Data.CONTENT_TYPE;
             case LOCATIONS_ID:
                 return Locations_Data.CONTENT_ITEM_TYPE;
+            case LOCATIONS_VISITS:
+                return Locations_Visits.CONTENT_TYPE;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
@@ -167,6 +208,19 @@ public class Locations_Provider extends ContentProvider {
                 }
                 database.endTransaction();
                 throw new SQLException("Failed to insert row into " + uri);
+            case LOCATIONS_VISITS:
+                long visit_id = database.insertWithOnConflict(DATABASE_TABLES[1],
+                        Locations_Visits.DEVICE_ID, values, SQLiteDatabase.CONFLICT_IGNORE);
+                database.setTransactionSuccessful();
+                database.endTransaction();
+                if (visit_id > 0) {
+                    Uri visitUri = ContentUris.withAppendedId(
+                            Locations_Visits.CONTENT_URI, visit_id);
+                    getContext().getContentResolver().notifyChange(visitUri,
+                            null);
+                    return visitUri;
+                }
+                throw new SQLException("Failed to insert row into " + uri);
             default:
                 database.endTransaction();
                 throw new IllegalArgumentException("Unknown URI " + uri);
@@ -180,6 +234,8 @@ public class Locations_Provider extends ContentProvider {
         sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         sUriMatcher.addURI(Locations_Provider.AUTHORITY, DATABASE_TABLES[0],
                 LOCATIONS);
+        sUriMatcher.addURI(Locations_Provider.AUTHORITY, DATABASE_TABLES[1],
+                LOCATIONS_VISITS);
 
         locationsProjectionMap = new HashMap<String, String>();
         locationsProjectionMap.put(Locations_Data._ID, Locations_Data._ID);
@@ -202,6 +258,16 @@ public class Locations_Provider extends ContentProvider {
                 Locations_Data.ACCURACY);
         locationsProjectionMap.put(Locations_Data.LABEL, Locations_Data.LABEL);
 
+        visitsProjectionMap = new HashMap<String, String>();
+        visitsProjectionMap.put(Locations_Visits._ID, Locations_Visits._ID);
+        visitsProjectionMap.put(Locations_Visits.TIMESTAMP, Locations_Visits.TIMESTAMP);
+        visitsProjectionMap.put(Locations_Visits.DEVICE_ID, Locations_Visits.DEVICE_ID);
+        visitsProjectionMap.put(Locations_Visits.LATITUDE, Locations_Visits.LATITUDE);
+        visitsProjectionMap.put(Locations_Visits.LONGITUDE, Locations_Visits.LONGITUDE);
+        visitsProjectionMap.put(Locations_Visits.RADIUS, Locations_Visits.RADIUS);
+        visitsProjectionMap.put(Locations_Visits.END_TIMESTAMP, Locations_Visits.END_TIMESTAMP);
+        visitsProjectionMap.put(Locations_Visits.FIXES, Locations_Visits.FIXES);
+
         return true;
     }
 
@@ -221,6 +287,10 @@ public class Locations_Provider extends ContentProvider {
                 qb.setTables(DATABASE_TABLES[0]);
                 qb.setProjectionMap(locationsProjectionMap);
                 break;
+            case LOCATIONS_VISITS:
+                qb.setTables(DATABASE_TABLES[1]);
+                qb.setProjectionMap(visitsProjectionMap);
+                break;
             default:
 
                 throw new IllegalArgumentException("Unknown URI " + uri);
@@ -255,6 +325,10 @@ public class Locations_Provider extends ContentProvider {
                 count = database.update(DATABASE_TABLES[0], values, selection,
                         selectionArgs);
                 break;
+            case LOCATIONS_VISITS:
+                count = database.update(DATABASE_TABLES[1], values, selection,
+                        selectionArgs);
+                break;
             default:
                 database.endTransaction();
                 throw new IllegalArgumentException("Unknown URI " + uri);
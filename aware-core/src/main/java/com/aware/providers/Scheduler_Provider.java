@@ -149,6 +149,45 @@ public class Scheduler_Provider extends ContentProvider {
         }
     }
 
+    /**
+     * Batch insert, e.g., a plan of random schedules
+     *
+     * @param uri
+     * @param values
+     * @return values.length
+     */
+    @Override
+    public synchronized int bulkInsert(Uri uri, ContentValues[] values) {
+
+        initialiseDatabase();
+
+        database.beginTransaction();
+
+        int count = 0;
+        switch (sUriMatcher.match(uri)) {
+            case SCHEDULER:
+                for (ContentValues v : values) {
+                    long id = database.insertWithOnConflict(DATABASE_TABLES[0], Scheduler_Data.DEVICE_ID, v, SQLiteDatabase.CONFLICT_IGNORE);
+                    if (id <= 0) {
+                        Log.w(Aware.TAG, "Failed to insert row into " + uri);
+                    } else {
+                        count++;
+                    }
+                }
+                break;
+            default:
+                database.endTransaction();
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        database.setTransactionSuccessful();
+        database.endTransaction();
+
+        getContext().getContentResolver().notifyChange(uri, null);
+
+        return count;
+    }
+
     @Override
     public boolean onCreate() {
         AUTHORITY = getContext().getPackageName() + ".provider.scheduler";
@@ -30,7 +30,7 @@ import java.util.HashMap;
  */
 public class WiFi_Provider extends ContentProvider {
 
-    public static final int DATABASE_VERSION = 6;
+    public static final int DATABASE_VERSION = 7;
 
     /**
      * Authority of WiFi content provider
@@ -42,6 +42,10 @@ public class WiFi_Provider extends ContentProvider {
     private static final int WIFI_DATA_ID = 2;
     private static final int WIFI_DEV = 3;
     private static final int WIFI_DEV_ID = 4;
+    private static final int WIFI_APS = 5;
+    private static final int WIFI_APS_ID = 6;
+    private static final int WIFI_SCANS = 7;
+    private static final int WIFI_SCANS_ID = 8;
 
     /**
      * WiFi device info
@@ -88,9 +92,66 @@ public class WiFi_Provider extends ContentProvider {
         public static final String LABEL = "label";
     }
 
+    /**
+     * Compact storage: dictionary of the APs seen by this device.
+     * Each AP (hashed BSSID, SSID, security) is stored once and referenced from {@link WiFi_Scans}
+     */
+    public static final class WiFi_APs implements BaseColumns {
+        private WiFi_APs() {
+        }
+
+        public static final Uri CONTENT_URI = Uri.parse("content://" + WiFi_Provider.AUTHORITY + "/wifi_aps");
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.aware.wifi.aps";
+        public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.aware.wifi.aps";
+
+        public static final String _ID = "_id";
+        public static final String TIMESTAMP = "timestamp"; //first seen
+        public static final String DEVICE_ID = "device_id";
+        public static final String BSSID = "bssid";
+        public static final String SSID = "ssid";
+        public static final String SECURITY = "security";
+    }
+
+    /**
+     * Compact storage: one row per AP per scan, referencing {@link WiFi_APs}.
+     * Insert the same values as for {@link WiFi_Data}, the provider replaces BSSID, SSID and security with the AP id.
+     * Readers keep using {@link WiFi_Data#CONTENT_URI}, which returns these rows in the WiFi_Data schema.
+     */
+    public static final class WiFi_Scans implements BaseColumns {
+        private WiFi_Scans() {
+        }
+
+        public static final Uri CONTENT_URI = Uri.parse("content://" + WiFi_Provider.AUTHORITY + "/wifi_scans");
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.aware.wifi.scans";
+        public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.aware.wifi.scans";
+
+        public static final String _ID = "_id";
+        public static final String TIMESTAMP = "timestamp";
+        public static final String DEVICE_ID = "device_id";
+        public static final String AP_ID = "ap_id";
+        public static final String FREQUENCY = "frequency";
+        public static final String RSSI = "rssi";
+        public static final String LABEL = "label";
+    }
+
     public static String DATABASE_NAME = "wifi.db";
 
-    public static final String[] DATABASE_TABLES = {"wifi", "sensor_wifi"};
+    public static final String[] DATABASE_TABLES = {"wifi", "sensor_wifi", "wifi_aps", "wifi_scans"};
+
+    /**
+     * Read-only view of {@link WiFi_Data}: the rows of the wifi table and the compact scans, in the WiFi_Data schema
+     */
+    private static final String WIFI_VIEW = "wifi_view";
+
+    /**
+     * Read-only view of the compact scans alone, in the WiFi_Data schema
+     */
+    private static final String WIFI_SCANS_VIEW = "wifi_scans_view";
+
+    /**
+     * Added to the ids of the compact scans in the views, so they never clash with the ids of the wifi table
+     */
+    private static final long SCANS_ID_OFFSET = 1L << 40;
 
     public static final String[] TABLES_FIELDS = {
             // data
@@ -109,19 +170,120 @@ public class WiFi_Provider extends ContentProvider {
                     + WiFi_Sensor.DEVICE_ID + " text default '',"
                     + WiFi_Sensor.MAC_ADDRESS + " text default '',"
                     + WiFi_Data.SSID + " text default '',"
-                    + WiFi_Data.BSSID + " text default ''"};
+                    + WiFi_Data.BSSID + " text default ''",
+            // aps
+            WiFi_APs._ID + " integer primary key autoincrement,"
+                    + WiFi_APs.TIMESTAMP + " real default 0,"
+                    + WiFi_APs.DEVICE_ID + " text default '',"
+                    + WiFi_APs.BSSID + " text default '',"
+                    + WiFi_APs.SSID + " text default '',"
+                    + WiFi_APs.SECURITY + " text default ''",
+            // scans
+            WiFi_Scans._ID + " integer primary key autoincrement,"
+                    + WiFi_Scans.TIMESTAMP + " real default 0,"
+                    + WiFi_Scans.DEVICE_ID + " text default '',"
+                    + WiFi_Scans.AP_ID + " integer default 0,"
+                    + WiFi_Scans.FREQUENCY + " integer default 0,"
+                    + WiFi_Scans.RSSI + " integer default 0,"
+                    + WiFi_Scans.LABEL + " text default ''"};
 
     private UriMatcher sUriMatcher = null;
     private HashMap<String, String> wifiDataMap = null;
     private HashMap<String, String> wifiDeviceMap = null;
+    private HashMap<String, String> wifiApsMap = null;
+    private HashMap<String, String> wifiScansMap = null;
     private DatabaseHelper dbHelper;
     private static SQLiteDatabase database;
 
+    /**
+     * AP dictionary ids, by hashed BSSID, SSID and security
+     */
+    private final HashMap<String, Long> apIds = new HashMap<>();
+
     private void initialiseDatabase() {
         if (dbHelper == null)
             dbHelper = new DatabaseHelper(getContext(), DATABASE_NAME, null, DATABASE_VERSION, DATABASE_TABLES, TABLES_FIELDS);
-        if (database == null)
+        if (database == null) {
             database = dbHelper.getWritableDatabase();
+            if (database != null) createView();
+        }
+    }
+
+    /**
+     * (Re)creates the WiFi_Data views and the compact storage indexes. Table upgrades drop the views and recreate the tables,
+     * so this is done every time the database is opened.
+     */
+    private void createView() {
+        database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS wifi_aps_lookup ON " + DATABASE_TABLES[2] + " ("
+                + WiFi_APs.BSSID + "," + WiFi_APs.SSID + "," + WiFi_APs.SECURITY + ");");
+        database.execSQL("CREATE INDEX IF NOT EXISTS wifi_scans_time ON " + DATABASE_TABLES[3] + " (" + WiFi_Scans.TIMESTAMP + ");");
+        String columns = WiFi_Data._ID + "," + WiFi_Data.TIMESTAMP + "," + WiFi_Data.DEVICE_ID + "," + WiFi_Data.BSSID + ","
+                + WiFi_Data.SSID + "," + WiFi_Data.SECURITY + "," + WiFi_Data.FREQUENCY + "," + WiFi_Data.RSSI + "," + WiFi_Data.LABEL;
+
+        database.execSQL("DROP VIEW IF EXISTS " + WIFI_VIEW + ";");
+        database.execSQL("DROP VIEW IF EXISTS " + WIFI_SCANS_VIEW + ";");
+        database.execSQL("CREATE VIEW " + WIFI_SCANS_VIEW + " AS "
+                + "SELECT s." + WiFi_Scans._ID + " + " + SCANS_ID_OFFSET + " AS " + WiFi_Data._ID + ",s." + WiFi_Scans.TIMESTAMP + " AS " + WiFi_Data.TIMESTAMP + ","
+                + "s." + WiFi_Scans.DEVICE_ID + " AS " + WiFi_Data.DEVICE_ID + ","
+                + "ifnull(a." + WiFi_APs.BSSID + ",'') AS " + WiFi_Data.BSSID + ","
+                + "ifnull(a." + WiFi_APs.SSID + ",'') AS " + WiFi_Data.SSID + ","
+                + "ifnull(a." + WiFi_APs.SECURITY + ",'') AS " + WiFi_Data.SECURITY + ","
+                + "s." + WiFi_Scans.FREQUENCY + " AS " + WiFi_Data.FREQUENCY + ",s." + WiFi_Scans.RSSI + " AS " + WiFi_Data.RSSI + ","
+                + "s." + WiFi_Scans.LABEL + " AS " + WiFi_Data.LABEL
+                + " FROM " + DATABASE_TABLES[3] + " s LEFT JOIN " + DATABASE_TABLES[2] + " a ON s." + WiFi_Scans.AP_ID + " = a." + WiFi_APs._ID + ";");
+        database.execSQL("CREATE VIEW " + WIFI_VIEW + " AS "
+                + "SELECT " + columns + " FROM " + DATABASE_TABLES[0]
+                + " UNION ALL SELECT " + columns + " FROM " + WIFI_SCANS_VIEW + ";");
+    }
+
+    /**
+     * Replaces the AP columns of a WiFi_Data row with the id of the AP in the dictionary, adding the AP if needed.
+     * Rows without a BSSID (e.g., WiFi disabled) reference no AP.
+     * Must be called inside a transaction.
+     *
+     * @param values WiFi_Data values
+     * @return WiFi_Scans values
+     */
+    private ContentValues toScan(ContentValues values) {
+        ContentValues scan = new ContentValues(values);
+        String bssid = scan.getAsString(WiFi_Data.BSSID);
+        String ssid = scan.getAsString(WiFi_Data.SSID);
+        String security = scan.getAsString(WiFi_Data.SECURITY);
+        scan.remove(WiFi_Data.BSSID);
+        scan.remove(WiFi_Data.SSID);
+        scan.remove(WiFi_Data.SECURITY);
+
+        if (bssid == null || bssid.length() == 0) {
+            scan.put(WiFi_Scans.AP_ID, 0);
+            return scan;
+        }
+        if (ssid == null) ssid = "";
+        if (security == null) security = "";
+
+        String key = bssid + "\n" + ssid + "\n" + security;
+        Long ap_id = apIds.get(key);
+        if (ap_id == null) {
+            Cursor ap = database.query(DATABASE_TABLES[2], new String[]{WiFi_APs._ID},
+                    WiFi_APs.BSSID + "=? AND " + WiFi_APs.SSID + "=? AND " + WiFi_APs.SECURITY + "=?", new String[]{bssid, ssid, security}, null, null, null);
+            if (ap != null && ap.moveToFirst()) {
+                ap_id = ap.getLong(0);
+            }
+            if (ap != null && !ap.isClosed()) ap.close();
+
+            if (ap_id == null) {
+                ContentValues apData = new ContentValues();
+                apData.put(WiFi_APs.TIMESTAMP, scan.getAsDouble(WiFi_Scans.TIMESTAMP));
+                apData.put(WiFi_APs.DEVICE_ID, scan.getAsString(WiFi_Scans.DEVICE_ID));
+                apData.put(WiFi_APs.BSSID, bssid);
+                apData.put(WiFi_APs.SSID, ssid);
+                apData.put(WiFi_APs.SECURITY, security);
+                ap_id = database.insert(DATABASE_TABLES[2], WiFi_APs.DEVICE_ID, apData);
+                if (ap_id <= 0) throw new SQLException("Failed to insert AP into " + WiFi_APs.CONTENT_URI);
+            }
+            apIds.put(key, ap_id);
+        }
+        scan.put(WiFi_Scans.AP_ID, ap_id);
+        return scan;
     }
 
     /**
@@ -145,11 +307,26 @@ public class WiFi_Provider extends ContentProvider {
                 count = database.delete(DATABASE_TABLES[1], selection,
                         selectionArgs);
                 break;
+            case WIFI_APS:
+                count = database.delete(DATABASE_TABLES[2], selection,
+                        selectionArgs);
+                apIds.clear();
+                break;
+            case WIFI_SCANS:
+                count = database.delete(DATABASE_TABLES[3], selection,
+                        selectionArgs);
+                break;
             default:
                 database.endTransaction();
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
+        //WiFi_Data also covers the compact scans
+        if (sUriMatcher.match(uri) == WIFI_DATA) {
+            count += database.delete(DATABASE_TABLES[3], WiFi_Scans._ID + " IN (SELECT " + WiFi_Data._ID + " - " + SCANS_ID_OFFSET + " FROM " + WIFI_SCANS_VIEW
+                    + ((selection != null && selection.length() > 0) ? " WHERE " + selection : "") + ")", selectionArgs);
+        }
+
         database.setTransactionSuccessful();
         database.endTransaction();
         getContext().getContentResolver().notifyChange(uri, null);
@@ -167,6 +344,14 @@ public class WiFi_Provider extends ContentProvider {
                 return WiFi_Data.CONTENT_TYPE;
             case WIFI_DEV_ID:
                 return WiFi_Data.CONTENT_ITEM_TYPE;
+            case WIFI_APS:
+                return WiFi_APs.CONTENT_TYPE;
+            case WIFI_APS_ID:
+                return WiFi_APs.CONTENT_ITEM_TYPE;
+            case WIFI_SCANS:
+                return WiFi_Scans.CONTENT_TYPE;
+            case WIFI_SCANS_ID:
+                return WiFi_Scans.CONTENT_ITEM_TYPE;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
@@ -211,12 +396,97 @@ public class WiFi_Provider extends ContentProvider {
                 }
                 database.endTransaction();
                 throw new SQLException("Failed to insert row into " + uri);
+            case WIFI_APS:
+                long apID = database.insertWithOnConflict(DATABASE_TABLES[2],
+                        WiFi_APs.DEVICE_ID, values, SQLiteDatabase.CONFLICT_IGNORE);
+                database.setTransactionSuccessful();
+                database.endTransaction();
+                if (apID > 0) {
+                    Uri apUri = ContentUris.withAppendedId(
+                            WiFi_APs.CONTENT_URI, apID);
+                    getContext().getContentResolver().notifyChange(apUri, null);
+                    return apUri;
+                }
+                throw new SQLException("Failed to insert row into " + uri);
+            case WIFI_SCANS:
+                long scanID;
+                try {
+                    scanID = database.insertWithOnConflict(DATABASE_TABLES[3],
+                            WiFi_Scans.DEVICE_ID, toScan(values), SQLiteDatabase.CONFLICT_IGNORE);
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+                if (scanID > 0) {
+                    Uri scanUri = ContentUris.withAppendedId(
+                            WiFi_Scans.CONTENT_URI, scanID);
+                    getContext().getContentResolver().notifyChange(scanUri, null);
+                    getContext().getContentResolver().notifyChange(WiFi_Data.CONTENT_URI, null);
+                    return scanUri;
+                }
+                throw new SQLException("Failed to insert row into " + uri);
             default:
                 database.endTransaction();
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
     }
 
+    /**
+     * Batch insert for high performance sensors (e.g., WiFi scans)
+     */
+    @Override
+    public synchronized int bulkInsert(Uri uri, ContentValues[] values) {
+
+        initialiseDatabase();
+
+        int match = sUriMatcher.match(uri);
+        String table;
+        String nullColumn;
+        switch (match) {
+            case WIFI_DATA:
+                table = DATABASE_TABLES[0];
+                nullColumn = WiFi_Data.DEVICE_ID;
+                break;
+            case WIFI_DEV:
+                table = DATABASE_TABLES[1];
+                nullColumn = WiFi_Sensor.DEVICE_ID;
+                break;
+            case WIFI_APS:
+                table = DATABASE_TABLES[2];
+                nullColumn = WiFi_APs.DEVICE_ID;
+                break;
+            case WIFI_SCANS:
+                table = DATABASE_TABLES[3];
+                nullColumn = WiFi_Scans.DEVICE_ID;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        database.beginTransaction();
+
+        int count = 0;
+        try {
+            for (ContentValues v : values) {
+                long id = database.insertWithOnConflict(table, nullColumn, (match == WIFI_SCANS) ? toScan(v) : v, SQLiteDatabase.CONFLICT_IGNORE);
+                if (id <= 0) {
+                    Log.w(Aware.TAG, "Failed to insert row into " + uri);
+                } else {
+                    count++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        getContext().getContentResolver().notifyChange(uri, null);
+        if (match == WIFI_SCANS)
+            getContext().getContentResolver().notifyChange(WiFi_Data.CONTENT_URI, null);
+
+        return count;
+    }
+
     @Override
     public boolean onCreate() {
         AUTHORITY = getContext().getPackageName() + ".provider.wifi";
@@ -230,6 +500,14 @@ public class WiFi_Provider extends ContentProvider {
                 WIFI_DEV);
         sUriMatcher.addURI(WiFi_Provider.AUTHORITY, DATABASE_TABLES[1] + "/#",
                 WIFI_DEV_ID);
+        sUriMatcher.addURI(WiFi_Provider.AUTHORITY, DATABASE_TABLES[2],
+                WIFI_APS);
+        sUriMatcher.addURI(WiFi_Provider.AUTHORITY, DATABASE_TABLES[2] + "/#",
+                WIFI_APS_ID);
+        sUriMatcher.addURI(WiFi_Provider.AUTHORITY, DATABASE_TABLES[3],
+                WIFI_SCANS);
+        sUriMatcher.addURI(WiFi_Provider.AUTHORITY, DATABASE_TABLES[3] + "/#",
+                WIFI_SCANS_ID);
 
         wifiDataMap = new HashMap<String, String>();
         wifiDataMap.put(WiFi_Data._ID, WiFi_Data._ID);
@@ -250,6 +528,23 @@ public class WiFi_Provider extends ContentProvider {
         wifiDeviceMap.put(WiFi_Sensor.BSSID, WiFi_Sensor.BSSID);
         wifiDeviceMap.put(WiFi_Sensor.SSID, WiFi_Sensor.SSID);
 
+        wifiApsMap = new HashMap<String, String>();
+        wifiApsMap.put(WiFi_APs._ID, WiFi_APs._ID);
+        wifiApsMap.put(WiFi_APs.TIMESTAMP, WiFi_APs.TIMESTAMP);
+        wifiApsMap.put(WiFi_APs.DEVICE_ID, WiFi_APs.DEVICE_ID);
+        wifiApsMap.put(WiFi_APs.BSSID, WiFi_APs.BSSID);
+        wifiApsMap.put(WiFi_APs.SSID, WiFi_APs.SSID);
+        wifiApsMap.put(WiFi_APs.SECURITY, WiFi_APs.SECURITY);
+
+        wifiScansMap = new HashMap<String, String>();
+        wifiScansMap.put(WiFi_Scans._ID, WiFi_Scans._ID);
+        wifiScansMap.put(WiFi_Scans.TIMESTAMP, WiFi_Scans.TIMESTAMP);
+        wifiScansMap.put(WiFi_Scans.DEVICE_ID, WiFi_Scans.DEVICE_ID);
+        wifiScansMap.put(WiFi_Scans.AP_ID, WiFi_Scans.AP_ID);
+        wifiScansMap.put(WiFi_Scans.FREQUENCY, WiFi_Scans.FREQUENCY);
+        wifiScansMap.put(WiFi_Scans.RSSI, WiFi_Scans.RSSI);
+        wifiScansMap.put(WiFi_Scans.LABEL, WiFi_Scans.LABEL);
+
         return true;
     }
 
@@ -266,13 +561,24 @@ public class WiFi_Provider extends ContentProvider {
 
         switch (sUriMatcher.match(uri)) {
             case WIFI_DATA:
-                qb.setTables(DATABASE_TABLES[0]);
+                qb.setTables(WIFI_VIEW);
                 qb.setProjectionMap(wifiDataMap);
+                //the compact scans come after the wifi rows by _id: pages by _id (e.g., sync) need them in time order
+                if (sortOrder != null && sortOrder.startsWith(WiFi_Data._ID + " ASC"))
+                    sortOrder = WiFi_Data.TIMESTAMP + " ASC, " + sortOrder;
                 break;
             case WIFI_DEV:
                 qb.setTables(DATABASE_TABLES[1]);
                 qb.setProjectionMap(wifiDeviceMap);
                 break;
+            case WIFI_APS:
+                qb.setTables(DATABASE_TABLES[2]);
+                qb.setProjectionMap(wifiApsMap);
+                break;
+            case WIFI_SCANS:
+                qb.setTables(DATABASE_TABLES[3]);
+                qb.setProjectionMap(wifiScansMap);
+                break;
             default:
 
                 throw new IllegalArgumentException("Unknown URI " + uri);
@@ -311,6 +617,15 @@ public class WiFi_Provider extends ContentProvider {
                 count = database.update(DATABASE_TABLES[1], values, selection,
                         selectionArgs);
                 break;
+            case WIFI_APS:
+                count = database.update(DATABASE_TABLES[2], values, selection,
+                        selectionArgs);
+                apIds.clear();
+                break;
+            case WIFI_SCANS:
+                count = database.update(DATABASE_TABLES[3], values, selection,
+                        selectionArgs);
+                break;
             default:
                 database.endTransaction();
                 throw new IllegalArgumentException("Unknown URI " + uri);
@@ -6,7 +6,6 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.database.Cursor;
 import android.os.Bundle;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentManager;
@@ -17,11 +16,11 @@ import com.aware.Aware_Preferences;
 import com.aware.ESM;
 import com.aware.providers.ESM_Provider.ESM_Data;
 import com.aware.ui.esms.ESMFactory;
+import com.aware.ui.esms.ESMManager;
 import com.aware.ui.esms.ESM_Question;
 
 import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 /**
  * Processes an  ESM queue until it's over.
@@ -68,30 +67,23 @@ public class ESM_Queue extends FragmentActivity {
         try {
             FragmentManager fragmentManager = getSupportFragmentManager();
 
-            Cursor current_esm;
-            if (ESM.isESMVisible(getApplicationContext())) {
-                current_esm = getContentResolver().query(ESM_Data.CONTENT_URI, null, ESM_Data.STATUS + "=" + ESM.STATUS_VISIBLE, null, ESM_Data.TIMESTAMP + " ASC LIMIT 1");
-            } else {
-                current_esm = getContentResolver().query(ESM_Data.CONTENT_URI, null, ESM_Data.STATUS + "=" + ESM.STATUS_NEW, null, ESM_Data.TIMESTAMP + " ASC LIMIT 1");
-            }
-            if (current_esm != null && current_esm.moveToFirst()) {
+            ESMManager.QueuedESM current_esm = ESMManager.getHead(getApplicationContext());
+            if (current_esm != null) {
 
-                int _id = current_esm.getInt(current_esm.getColumnIndex(ESM_Data._ID));
+                int _id = current_esm._id;
 
                 //Fixed: set the esm as VISIBLE, to avoid displaying the same ESM twice due to changes in orientation
                 ContentValues update_state = new ContentValues();
                 update_state.put(ESM_Data.STATUS, ESM.STATUS_VISIBLE);
-                getContentResolver().update(ESM_Data.CONTENT_URI, update_state, ESM_Data._ID + "=" + _id, null);
+                ESMManager.update(getApplicationContext(), _id, update_state);
                 //--
 
-                //Load esm question JSON from database
-                JSONObject esm_question = new JSONObject(current_esm.getString(current_esm.getColumnIndex(ESM_Data.JSON)));
-                ESM_Question esm = esmFactory.getESM(esm_question.getInt(ESM_Question.esm_type), esm_question, current_esm.getInt(current_esm.getColumnIndex(ESM_Data._ID)));
+                //The definition was parsed when queued
+                ESM_Question esm = esmFactory.getESM(current_esm);
                 if (esm != null) {
                     esm.show(fragmentManager, TAG);
                 }
             }
-            if (current_esm != null && !current_esm.isClosed()) current_esm.close();
         } catch (JSONException e) {
             e.printStackTrace();
         }
@@ -120,14 +112,8 @@ public class ESM_Queue extends FragmentActivity {
      * @return int count
      */
     public static int getQueueSize(Context c) {
-        int size = 0;
-        Cursor onqueue = c.getContentResolver().query(ESM_Data.CONTENT_URI, null, ESM_Data.STATUS + " IN (" + ESM.STATUS_VISIBLE + "," + ESM.STATUS_NEW + ")", null, null);
-        if (onqueue != null && onqueue.moveToFirst()) {
-            size = onqueue.getCount();
-        }
-        if (onqueue != null && !onqueue.isClosed()) onqueue.close();
-
-        Log.d(TAG, "Queue size: " + size);
+        int size = ESMManager.getQueueSize(c);
+        if (Aware.DEBUG) Log.d(TAG, "Queue size: " + size);
         return size;
     }
 
@@ -137,14 +123,8 @@ public class ESM_Queue extends FragmentActivity {
      * @return
      */
     public static int getExpirationThreshold(Context c) {
-        int expiration = 0;
-        String[] projection = { ESM_Data.EXPIRATION_THRESHOLD };
-        Cursor onqueue = c.getContentResolver().query(ESM_Data.CONTENT_URI, projection, ESM_Data.STATUS + "=" + ESM.STATUS_VISIBLE, null, null);
-        if (onqueue != null && onqueue.moveToFirst()) {
-            expiration = onqueue.getInt(onqueue.getColumnIndex(ESM_Data.EXPIRATION_THRESHOLD));
-        }
-        if (onqueue != null && !onqueue.isClosed()) onqueue.close();
-        return expiration;
+        ESMManager.QueuedESM visible = ESMManager.getVisible(c);
+        return (visible != null) ? visible.expiration_threshold : 0;
     }
 
     /**
@@ -153,13 +133,7 @@ public class ESM_Queue extends FragmentActivity {
      * @return
      */
     public static int getNotificationTimeout(Context c) {
-        int timeout = 0;
-        String[] projection = { ESM_Data.NOTIFICATION_TIMEOUT };
-        Cursor onqueue = c.getContentResolver().query(ESM_Data.CONTENT_URI, projection, ESM_Data.STATUS + "=" + ESM.STATUS_NEW, null, null);
-        if (onqueue != null && onqueue.moveToFirst()) {
-            timeout = onqueue.getInt(onqueue.getColumnIndex(ESM_Data.NOTIFICATION_TIMEOUT));
-        }
-        if (onqueue != null && !onqueue.isClosed()) onqueue.close();
-        return timeout;
+        ESMManager.QueuedESM next = ESMManager.getNext(c);
+        return (next != null) ? next.notification_timeout : 0;
     }
 }
\ No newline at end of file
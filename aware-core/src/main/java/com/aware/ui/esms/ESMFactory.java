@@ -1,5 +1,9 @@
 package com.aware.ui.esms;
 
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+
 import com.aware.ESM;
 
 import org.json.JSONArray;
@@ -13,6 +17,9 @@ public class ESMFactory {
 
     private JSONArray queue = new JSONArray();
 
+    //Dialog views of questions already gone, per layout, to show the next question of the same type without inflating again
+    private final SparseArray<View> recycledViews = new SparseArray<>();
+
     public ESMFactory() {}
 
     public JSONArray getQueue() {
@@ -43,27 +50,69 @@ public class ESMFactory {
     }
 
     public ESM_Question getESM(int esmType, JSONObject esm, int _id) throws JSONException {
+        ESM_Question question;
         switch (esmType) {
             case ESM.TYPE_ESM_TEXT:
-                return new ESM_Freetext().rebuild(esm).setID(_id);
+                question = new ESM_Freetext();
+                break;
             case ESM.TYPE_ESM_CHECKBOX:
-                return new ESM_Checkbox().rebuild(esm).setID(_id);
+                question = new ESM_Checkbox();
+                break;
             case ESM.TYPE_ESM_LIKERT:
-                return new ESM_Likert().rebuild(esm).setID(_id);
+                question = new ESM_Likert();
+                break;
             case ESM.TYPE_ESM_QUICK_ANSWERS:
-                return new ESM_QuickAnswer().rebuild(esm).setID(_id);
+                question = new ESM_QuickAnswer();
+                break;
             case ESM.TYPE_ESM_RADIO:
-                return new ESM_Radio().rebuild(esm).setID(_id);
+                question = new ESM_Radio();
+                break;
             case ESM.TYPE_ESM_SCALE:
-                return new ESM_Scale().rebuild(esm).setID(_id);
+                question = new ESM_Scale();
+                break;
             case ESM.TYPE_ESM_DATETIME:
-                return new ESM_DateTime().rebuild(esm).setID(_id);
+                question = new ESM_DateTime();
+                break;
             case ESM.TYPE_ESM_PAM:
-                return new ESM_PAM().rebuild(esm).setID(_id);
+                question = new ESM_PAM();
+                break;
             case ESM.TYPE_ESM_NUMBER:
-                return new ESM_Number().rebuild(esm).setID(_id);
+                question = new ESM_Number();
+                break;
             default:
                 return null;
         }
+        question.factory = this;
+        return question.rebuild(esm).setID(_id);
+    }
+
+    /**
+     * Queued ESMs come already parsed from the ESMManager
+     *
+     * @param queued
+     * @return null if the ESM type is unknown
+     * @throws JSONException
+     */
+    public ESM_Question getESM(ESMManager.QueuedESM queued) throws JSONException {
+        return getESM(queued.type, queued.definition, queued._id);
+    }
+
+    /**
+     * A recycled dialog view for this layout, detached and ready to be filled again
+     *
+     * @param layout
+     * @return null if there is none
+     */
+    View obtainView(int layout) {
+        View ui = recycledViews.get(layout);
+        if (ui == null) return null;
+
+        recycledViews.remove(layout);
+        if (ui.getParent() != null) ((ViewGroup) ui.getParent()).removeView(ui);
+        return ui;
+    }
+
+    void recycleView(int layout, View ui) {
+        recycledViews.put(layout, ui);
     }
 }
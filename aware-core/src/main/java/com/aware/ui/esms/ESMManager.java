@@ -0,0 +1,350 @@
+package com.aware.ui.esms;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.aware.Aware;
+import com.aware.ESM;
+import com.aware.providers.ESM_Provider;
+import com.aware.providers.ESM_Provider.ESM_Data;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the ESM queue (new and visible ESMs) in memory, so the queue size and head can be checked without querying the database.
+ * Status changes are applied in memory right away and written to the database in the background, in order.
+ * Changes made to the database by someone else are picked up with a ContentObserver, and the queue is reloaded on the next access.
+ */
+public class ESMManager {
+
+    private static final String TAG = "AWARE::ESM Manager";
+
+    private static final String[] QUEUE_PROJECTION = new String[]{
+            ESM_Data._ID, ESM_Data.TIMESTAMP, ESM_Data.STATUS, ESM_Data.EXPIRATION_THRESHOLD, ESM_Data.NOTIFICATION_TIMEOUT, ESM_Data.JSON
+    };
+
+    /**
+     * An ESM on the queue, with its definition parsed once when queued
+     */
+    public static class QueuedESM {
+        public final int _id;
+        public final long timestamp;
+        public final int expiration_threshold;
+        public final int notification_timeout;
+        public final String json;
+        public final JSONObject definition;
+        public final int type;
+        public int status;
+
+        QueuedESM(int _id, long timestamp, int status, int expiration_threshold, int notification_timeout, String json, JSONObject definition) {
+            this._id = _id;
+            this.timestamp = timestamp;
+            this.status = status;
+            this.expiration_threshold = expiration_threshold;
+            this.notification_timeout = notification_timeout;
+            this.json = json;
+            this.definition = definition;
+            this.type = definition.optInt(ESM_Question.esm_type, -1);
+        }
+    }
+
+    //New and visible ESMs, ordered by timestamp
+    private static final ArrayList<QueuedESM> queue = new ArrayList<>();
+    private static QueuedESM visible = null;
+    private static QueuedESM next = null;
+    private static int waiting = 0;
+    private static QueuedESM lastAnswered = null;
+
+    private static boolean loaded = false;
+    private static boolean dirty = false;
+    private static int pendingWrites = 0;
+    private static int expectedChanges = 0;
+
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor();
+    private static ContentObserver queueObserver = null;
+
+    /**
+     * Amount of ESMs on the queue (new or visible)
+     *
+     * @param context
+     * @return
+     */
+    public static synchronized int getQueueSize(Context context) {
+        load(context);
+        return queue.size();
+    }
+
+    /**
+     * The ESM to show: the visible one, or else the oldest new ESM
+     *
+     * @param context
+     * @return null if the queue is empty
+     */
+    public static synchronized QueuedESM getHead(Context context) {
+        load(context);
+        return (visible != null) ? visible : next;
+    }
+
+    /**
+     * The ESM the user is answering right now
+     *
+     * @param context
+     * @return null if none is visible
+     */
+    public static synchronized QueuedESM getVisible(Context context) {
+        load(context);
+        return visible;
+    }
+
+    /**
+     * The oldest new ESM
+     *
+     * @param context
+     * @return null if there are no new ESMs
+     */
+    public static synchronized QueuedESM getNext(Context context) {
+        load(context);
+        return next;
+    }
+
+    /**
+     * True if there are new ESMs that do not expire (i.e., can be answered at any time)
+     *
+     * @param context
+     * @return
+     */
+    public static synchronized boolean isWaiting(Context context) {
+        load(context);
+        return waiting > 0;
+    }
+
+    /**
+     * The last ESM answered in this process, if any
+     *
+     * @return
+     */
+    public static synchronized QueuedESM getLastAnswered() {
+        return lastAnswered;
+    }
+
+    /**
+     * Saves ESMs to the database in one transaction, after the status changes still on their way, and adds the new and visible ones to the queue.
+     *
+     * @param context
+     * @param rows          ESM_Data rows
+     * @param definitions   the parsed ESM_Data.JSON of each row
+     * @param replace_queue the ESMs on the queue get replaced, in the same transaction
+     * @return the next new ESM on the queue afterwards, null if none
+     */
+    public static QueuedESM enqueue(Context context, final ArrayList<ContentValues> rows, ArrayList<JSONObject> definitions, boolean replace_queue) {
+        final Context appContext = context.getApplicationContext();
+
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        if (replace_queue) {
+            ContentValues replaced = new ContentValues();
+            replaced.put(ESM_Data.ANSWER_TIMESTAMP, System.currentTimeMillis());
+            replaced.put(ESM_Data.STATUS, ESM.STATUS_REPLACED);
+            operations.add(ContentProviderOperation.newUpdate(ESM_Data.CONTENT_URI)
+                    .withValues(replaced)
+                    .withSelection(ESM_Data.STATUS + " IN (" + ESM.STATUS_NEW + "," + ESM.STATUS_VISIBLE + ")", null)
+                    .build());
+        }
+        for (ContentValues rowData : rows) {
+            operations.add(ContentProviderOperation.newInsert(ESM_Data.CONTENT_URI).withValues(rowData).build());
+        }
+
+        synchronized (ESMManager.class) {
+            load(context);
+            pendingWrites++;
+            expectedChanges += operations.size();
+        }
+
+        //we wait without holding the lock, the writer needs it
+        ContentProviderResult[] results = null;
+        try {
+            results = writer.submit(new Callable<ContentProviderResult[]>() {
+                @Override
+                public ContentProviderResult[] call() throws Exception {
+                    return appContext.getContentResolver().applyBatch(ESM_Provider.AUTHORITY, operations);
+                }
+            }).get();
+        } catch (InterruptedException | ExecutionException e) {
+            if (Aware.DEBUG) Log.d(TAG, "Failed to queue ESMs: " + e.getMessage());
+        }
+
+        synchronized (ESMManager.class) {
+            pendingWrites--;
+
+            if (results == null || results.length != operations.size()) {
+                //rolled back: nothing changed, but we may have missed someone else's change meanwhile
+                expectedChanges = Math.max(0, expectedChanges - operations.size());
+                dirty = true;
+                load(context);
+                return next;
+            }
+
+            if (replace_queue) queue.clear();
+
+            int offset = (replace_queue) ? 1 : 0;
+            for (int i = 0; i < rows.size(); i++) {
+                ContentValues rowData = rows.get(i);
+                int status = rowData.getAsInteger(ESM_Data.STATUS);
+                if (status != ESM.STATUS_NEW && status != ESM.STATUS_VISIBLE) continue;
+
+                QueuedESM esm = new QueuedESM(Integer.parseInt(results[offset + i].uri.getLastPathSegment()), rowData.getAsLong(ESM_Data.TIMESTAMP), status,
+                        rowData.getAsInteger(ESM_Data.EXPIRATION_THRESHOLD), rowData.getAsInteger(ESM_Data.NOTIFICATION_TIMEOUT), rowData.getAsString(ESM_Data.JSON), definitions.get(i));
+
+                int position = queue.size();
+                while (position > 0 && queue.get(position - 1).timestamp > esm.timestamp) position--;
+                queue.add(position, esm);
+            }
+            refresh();
+
+            if (Aware.DEBUG) Log.d(TAG, "Queued " + rows.size() + " ESMs, queue size: " + queue.size());
+            return next;
+        }
+    }
+
+    /**
+     * Updates an ESM. If the values have a status, the queue changes right away. The database is updated in the background.
+     *
+     * @param context
+     * @param esm_id
+     * @param rowData
+     */
+    public static synchronized void update(Context context, int esm_id, ContentValues rowData) {
+        load(context);
+
+        Integer status = rowData.getAsInteger(ESM_Data.STATUS);
+        if (status != null) {
+            boolean found = false;
+            for (int i = 0; i < queue.size(); i++) {
+                QueuedESM esm = queue.get(i);
+                if (esm._id != esm_id) continue;
+
+                esm.status = status;
+                if (status != ESM.STATUS_NEW && status != ESM.STATUS_VISIBLE) queue.remove(i);
+                if (status == ESM.STATUS_ANSWERED) lastAnswered = esm;
+                found = true;
+                break;
+            }
+            //back on the queue: reload it once the write lands
+            if (!found && (status == ESM.STATUS_NEW || status == ESM.STATUS_VISIBLE)) dirty = true;
+            refresh();
+        }
+
+        write(context, new ContentValues(rowData), ESM_Data._ID + "=" + esm_id);
+    }
+
+    /**
+     * Closes the queue: all the new and visible ESMs get the status (e.g., dismissed, expired, replaced)
+     *
+     * @param context
+     * @param status
+     */
+    public static synchronized void closeQueue(Context context, int status) {
+        load(context);
+        if (queue.isEmpty()) return;
+
+        StringBuilder ids = new StringBuilder();
+        for (QueuedESM esm : queue) {
+            if (ids.length() > 0) ids.append(',');
+            ids.append(esm._id);
+        }
+        queue.clear();
+        refresh();
+
+        ContentValues rowData = new ContentValues();
+        rowData.put(ESM_Data.ANSWER_TIMESTAMP, System.currentTimeMillis());
+        rowData.put(ESM_Data.STATUS, status);
+        write(context, rowData, ESM_Data._ID + " IN (" + ids + ")");
+    }
+
+    private static void write(Context context, final ContentValues rowData, final String where) {
+        final Context appContext = context.getApplicationContext();
+        pendingWrites++;
+        expectedChanges++;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    appContext.getContentResolver().update(ESM_Data.CONTENT_URI, rowData, where, null);
+                } catch (RuntimeException e) {
+                    synchronized (ESMManager.class) {
+                        expectedChanges--;
+                    }
+                    if (Aware.DEBUG) Log.d(TAG, "Failed to update ESMs: " + e.getMessage());
+                } finally {
+                    synchronized (ESMManager.class) {
+                        pendingWrites--;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the queue from the database the first time, or after someone else changed it. We wait for our own writes to land first.
+     */
+    private static void load(Context context) {
+        if (loaded && (!dirty || pendingWrites > 0)) return;
+
+        if (queueObserver == null) {
+            queueObserver = new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    synchronized (ESMManager.class) {
+                        if (expectedChanges > 0) expectedChanges--;
+                        else dirty = true;
+                    }
+                }
+            };
+            context.getApplicationContext().getContentResolver().registerContentObserver(ESM_Data.CONTENT_URI, true, queueObserver);
+        }
+
+        queue.clear();
+        Cursor esms = context.getContentResolver().query(ESM_Data.CONTENT_URI, QUEUE_PROJECTION, ESM_Data.STATUS + " IN (" + ESM.STATUS_NEW + "," + ESM.STATUS_VISIBLE + ")", null, ESM_Data.TIMESTAMP + " ASC");
+        if (esms != null && esms.moveToFirst()) {
+            do {
+                try {
+                    queue.add(new QueuedESM(esms.getInt(0), esms.getLong(1), esms.getInt(2), esms.getInt(3), esms.getInt(4), esms.getString(5), new JSONObject(esms.getString(5))));
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                }
+            } while (esms.moveToNext());
+        }
+        if (esms != null && !esms.isClosed()) esms.close();
+
+        loaded = true;
+        dirty = false;
+        refresh();
+
+        if (Aware.DEBUG) Log.d(TAG, "ESM queue loaded: " + queue.size());
+    }
+
+    private static void refresh() {
+        visible = null;
+        next = null;
+        waiting = 0;
+        for (QueuedESM esm : queue) {
+            if (esm.status == ESM.STATUS_VISIBLE) {
+                if (visible == null) visible = esm;
+            } else {
+                if (next == null) next = esm;
+                if (esm.expiration_threshold == 0) waiting++;
+            }
+        }
+    }
+}
@@ -3,13 +3,11 @@ package com.aware.ui.esms;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.ContentValues;
-import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import android.view.Gravity;
-import android.view.LayoutInflater;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
@@ -79,8 +77,7 @@ public class ESM_Checkbox extends ESM_Question {
 
         AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
 
-        LayoutInflater inflater = (LayoutInflater) getActivity().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        View ui = inflater.inflate(R.layout.esm_checkbox, null);
+        View ui = inflateESM(R.layout.esm_checkbox);
         builder.setView(ui);
 
         esm_dialog = builder.create();
@@ -94,6 +91,7 @@ public class ESM_Checkbox extends ESM_Question {
             esm_instructions.setText(getInstructions());
 
             final LinearLayout checkboxes = (LinearLayout) ui.findViewById(R.id.esm_checkboxes);
+            checkboxes.removeAllViews();
             checkboxes.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
@@ -192,7 +190,7 @@ public class ESM_Checkbox extends ESM_Question {
                         }
                         rowData.put(ESM_Provider.ESM_Data.STATUS, ESM.STATUS_ANSWERED);
 
-                        getContext().getContentResolver().update(ESM_Provider.ESM_Data.CONTENT_URI, rowData, ESM_Provider.ESM_Data._ID + "=" + getID(), null);
+                        ESMManager.update(getContext(), getID(), rowData);
                         selected_options.clear();
 
                         Intent answer = new Intent(ESM.ACTION_AWARE_ESM_ANSWERED);
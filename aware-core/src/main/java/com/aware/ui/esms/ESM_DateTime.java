@@ -198,7 +198,7 @@ public class ESM_DateTime extends ESM_Question {
                         rowData.put(ESM_Provider.ESM_Data.ANSWER, datePicked.getTimeInMillis());
                         rowData.put(ESM_Provider.ESM_Data.STATUS, ESM.STATUS_ANSWERED);
 
-                        getActivity().getContentResolver().update(ESM_Provider.ESM_Data.CONTENT_URI, rowData, ESM_Provider.ESM_Data._ID + "=" + getID(), null);
+                        ESMManager.update(getActivity(), getID(), rowData);
 
                         Intent answer = new Intent(ESM.ACTION_AWARE_ESM_ANSWERED);
                         answer.putExtra(ESM.EXTRA_ANSWER, rowData.getAsString(ESM_Provider.ESM_Data.ANSWER));
@@ -3,12 +3,10 @@ package com.aware.ui.esms;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.ContentValues;
-import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.util.Log;
-import android.view.LayoutInflater;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
@@ -38,8 +36,7 @@ public class ESM_Freetext extends ESM_Question {
 
         AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
 
-        LayoutInflater inflater = (LayoutInflater) getActivity().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        View ui = inflater.inflate(R.layout.esm_text, null);
+        View ui = inflateESM(R.layout.esm_text);
         builder.setView(ui);
 
         esm_dialog = builder.create();
@@ -53,6 +50,7 @@ public class ESM_Freetext extends ESM_Question {
             esm_instructions.setText(getInstructions());
 
             final EditText feedback = (EditText) ui.findViewById(R.id.esm_feedback);
+            feedback.setText("");
             feedback.requestFocus();
             feedback.setOnClickListener(new View.OnClickListener() {
                 @Override
@@ -89,7 +87,7 @@ public class ESM_Freetext extends ESM_Question {
                         rowData.put(ESM_Provider.ESM_Data.ANSWER, feedback.getText().toString());
                         rowData.put(ESM_Provider.ESM_Data.STATUS, ESM.STATUS_ANSWERED);
 
-                        getActivity().getContentResolver().update(ESM_Provider.ESM_Data.CONTENT_URI, rowData, ESM_Provider.ESM_Data._ID + "=" + getID(), null);
+                        ESMManager.update(getActivity(), getID(), rowData);
 
                         Intent answer = new Intent(ESM.ACTION_AWARE_ESM_ANSWERED);
                         answer.putExtra(ESM.EXTRA_ANSWER, rowData.getAsString(ESM_Provider.ESM_Data.ANSWER));
@@ -3,12 +3,10 @@ package com.aware.ui.esms;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.ContentValues;
-import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.util.Log;
-import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.Button;
 import android.widget.RatingBar;
@@ -90,8 +88,7 @@ public class ESM_Likert extends ESM_Question {
 
         AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
 
-        LayoutInflater inflater = (LayoutInflater) getActivity().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        View ui = inflater.inflate(R.layout.esm_likert, null);
+        View ui = inflateESM(R.layout.esm_likert);
         builder.setView(ui);
 
         esm_dialog = builder.create();
@@ -109,6 +106,7 @@ public class ESM_Likert extends ESM_Question {
             ratingBar.setNumStars(getLikertMax());
             ratingBar.setMax(getLikertMax());
             ratingBar.setStepSize((float) getLikertStep());
+            ratingBar.setRating(0);
 
             ratingBar.setOnClickListener(new View.OnClickListener() {
                 @Override
@@ -149,7 +147,7 @@ public class ESM_Likert extends ESM_Question {
                         rowData.put(ESM_Provider.ESM_Data.ANSWER, ratingBar.getRating());
                         rowData.put(ESM_Provider.ESM_Data.STATUS, ESM.STATUS_ANSWERED);
 
-                        getContext().getContentResolver().update(ESM_Provider.ESM_Data.CONTENT_URI, rowData, ESM_Provider.ESM_Data._ID + "=" + getID(), null);
+                        ESMManager.update(getContext(), getID(), rowData);
 
                         Intent answer = new Intent(ESM.ACTION_AWARE_ESM_ANSWERED);
                         answer.putExtra(ESM.EXTRA_ANSWER, rowData.getAsString(ESM_Provider.ESM_Data.ANSWER));
@@ -6,6 +6,7 @@ package com.aware.ui.esms;
 
 import android.app.Dialog;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
@@ -14,6 +15,8 @@ import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v4.app.DialogFragment;
 import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
 
 import com.aware.Aware;
 import com.aware.ESM;
@@ -316,6 +319,31 @@ public class ESM_Question extends DialogFragment {
     public Dialog esm_dialog;
     public ESMExpireMonitor expire_monitor;
 
+    /**
+     * The ESMFactory that created this question, which keeps the dialog views for the next questions
+     */
+    ESMFactory factory;
+    private View esm_view;
+    private int esm_layout;
+
+    /**
+     * Inflates the dialog layout, or reuses the one of a previous question of the same type.
+     * A reused view keeps whatever state it had, so the sub-class must set all of it again.
+     *
+     * @param layout
+     * @return
+     */
+    protected View inflateESM(int layout) {
+        View ui = (factory != null) ? factory.obtainView(layout) : null;
+        if (ui == null) {
+            LayoutInflater inflater = (LayoutInflater) getActivity().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+            ui = inflater.inflate(layout, null);
+        }
+        esm_view = ui;
+        esm_layout = layout;
+        return ui;
+    }
+
     /**
      * Extended on sub-classes
      *
@@ -380,7 +408,7 @@ public class ESM_Question extends DialogFragment {
             ContentValues rowData = new ContentValues();
             rowData.put(ESM_Provider.ESM_Data.ANSWER_TIMESTAMP, System.currentTimeMillis());
             rowData.put(ESM_Provider.ESM_Data.STATUS, ESM.STATUS_EXPIRED);
-            getActivity().getContentResolver().update(ESM_Provider.ESM_Data.CONTENT_URI, rowData, ESM_Provider.ESM_Data._ID + "=" + esm_id, null);
+            ESMManager.update(getActivity(), esm_id, rowData);
 
             Intent expired = new Intent(ESM.ACTION_AWARE_ESM_EXPIRED);
             getActivity().sendBroadcast(expired);
@@ -398,19 +426,12 @@ public class ESM_Question extends DialogFragment {
         ContentValues rowData = new ContentValues();
         rowData.put(ESM_Provider.ESM_Data.ANSWER_TIMESTAMP, System.currentTimeMillis());
         rowData.put(ESM_Provider.ESM_Data.STATUS, ESM.STATUS_DISMISSED);
-        getActivity().getContentResolver().update(ESM_Provider.ESM_Data.CONTENT_URI, rowData, ESM_Provider.ESM_Data._ID + "=" + getID(), null);
+        ESMManager.update(getActivity(), getID(), rowData);
 
-        Cursor pendingESM = getActivity().getContentResolver().query(ESM_Provider.ESM_Data.CONTENT_URI, null, ESM_Provider.ESM_Data.STATUS + " IN (" + ESM.STATUS_NEW + "," + ESM.STATUS_VISIBLE + ")", null, null);
-        if (pendingESM != null && pendingESM.moveToFirst()) {
+        if (ESMManager.getQueueSize(getActivity()) > 0) {
             if (Aware.DEBUG) Log.d(Aware.TAG, "Rest of ESM Queue is dismissed!");
-            do {
-                rowData = new ContentValues();
-                rowData.put(ESM_Provider.ESM_Data.ANSWER_TIMESTAMP, System.currentTimeMillis());
-                rowData.put(ESM_Provider.ESM_Data.STATUS, ESM.STATUS_DISMISSED);
-                getActivity().getContentResolver().update(ESM_Provider.ESM_Data.CONTENT_URI, rowData, ESM_Provider.ESM_Data._ID + "=" + pendingESM.getInt(pendingESM.getColumnIndex(ESM_Provider.ESM_Data._ID)), null);
-            } while (pendingESM.moveToNext());
+            ESMManager.closeQueue(getActivity(), ESM.STATUS_DISMISSED);
         }
-        if (pendingESM != null && !pendingESM.isClosed()) pendingESM.close();
 
         Intent answer = new Intent(ESM.ACTION_AWARE_ESM_DISMISSED);
         getActivity().sendBroadcast(answer);
@@ -437,6 +458,11 @@ public class ESM_Question extends DialogFragment {
         } catch (JSONException e) {
             e.printStackTrace();
         }
+
+        if (factory != null && esm_view != null) {
+            factory.recycleView(esm_layout, esm_view);
+            esm_view = null;
+        }
     }
 
     @Override
@@ -451,7 +477,7 @@ public class ESM_Question extends DialogFragment {
             ContentValues rowData = new ContentValues();
             rowData.put(ESM_Provider.ESM_Data.ANSWER_TIMESTAMP, 0);
             rowData.put(ESM_Provider.ESM_Data.STATUS, ESM.STATUS_NEW);
-            getActivity().getContentResolver().update(ESM_Provider.ESM_Data.CONTENT_URI, rowData, ESM_Provider.ESM_Data._ID + "=" + getID(), null);
+            ESMManager.update(getActivity(), getID(), rowData);
 
             //Update notification
             ESM.notifyESM(getActivity().getApplicationContext(), true);
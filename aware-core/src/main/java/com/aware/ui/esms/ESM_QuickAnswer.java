@@ -3,12 +3,10 @@ package com.aware.ui.esms;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.ContentValues;
-import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.util.Log;
-import android.view.LayoutInflater;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
@@ -71,8 +69,7 @@ public class ESM_QuickAnswer extends ESM_Question {
 
         AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
 
-        LayoutInflater inflater = (LayoutInflater) getActivity().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        View ui = inflater.inflate(R.layout.esm_quick, null);
+        View ui = inflateESM(R.layout.esm_quick);
         builder.setView(ui);
 
         esm_dialog = builder.create();
@@ -87,11 +84,10 @@ public class ESM_QuickAnswer extends ESM_Question {
 
             final JSONArray answers = getQuickAnswers();
             final LinearLayout answersHolder = (LinearLayout) ui.findViewById(R.id.esm_answers);
+            answersHolder.removeAllViews();
 
             //If we have more than 3 possibilities, use a vertical layout for UX
-            if (answers.length() > 3) {
-                answersHolder.setOrientation(LinearLayout.VERTICAL);
-            }
+            answersHolder.setOrientation((answers.length() > 3) ? LinearLayout.VERTICAL : LinearLayout.HORIZONTAL);
 
             for (int i = 0; i < answers.length(); i++) {
                 final Button answer = new Button(getActivity());
@@ -112,7 +108,7 @@ public class ESM_QuickAnswer extends ESM_Question {
                             rowData.put(ESM_Provider.ESM_Data.STATUS, ESM.STATUS_ANSWERED);
                             rowData.put(ESM_Provider.ESM_Data.ANSWER, (String) answer.getText());
 
-                            getContext().getContentResolver().update(ESM_Provider.ESM_Data.CONTENT_URI, rowData, ESM_Provider.ESM_Data._ID + "=" + getID(), null);
+                            ESMManager.update(getContext(), getID(), rowData);
 
                             Intent answer = new Intent(ESM.ACTION_AWARE_ESM_ANSWERED);
                             answer.putExtra(ESM.EXTRA_ANSWER, rowData.getAsString(ESM_Provider.ESM_Data.ANSWER));
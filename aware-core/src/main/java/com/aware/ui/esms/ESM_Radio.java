@@ -3,13 +3,11 @@ package com.aware.ui.esms;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.ContentValues;
-import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import android.view.Gravity;
-import android.view.LayoutInflater;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
@@ -75,8 +73,7 @@ public class ESM_Radio extends ESM_Question {
 
         AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
 
-        LayoutInflater inflater = (LayoutInflater) getActivity().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        final View ui = inflater.inflate(R.layout.esm_radio, null);
+        final View ui = inflateESM(R.layout.esm_radio);
         builder.setView(ui);
 
         esm_dialog = builder.create();
@@ -90,6 +87,8 @@ public class ESM_Radio extends ESM_Question {
             esm_instructions.setText(getInstructions());
 
             final RadioGroup radioOptions = (RadioGroup) ui.findViewById(R.id.esm_radio);
+            radioOptions.clearCheck();
+            radioOptions.removeAllViews();
             radioOptions.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
@@ -171,7 +170,7 @@ public class ESM_Radio extends ESM_Question {
                         }
                         rowData.put(ESM_Provider.ESM_Data.STATUS, ESM.STATUS_ANSWERED);
 
-                        getContext().getContentResolver().update(ESM_Provider.ESM_Data.CONTENT_URI, rowData, ESM_Provider.ESM_Data._ID + "=" + getID(), null);
+                        ESMManager.update(getContext(), getID(), rowData);
 
                         Intent answer = new Intent(ESM.ACTION_AWARE_ESM_ANSWERED);
                         answer.putExtra(ESM.EXTRA_ANSWER, rowData.getAsString(ESM_Provider.ESM_Data.ANSWER));
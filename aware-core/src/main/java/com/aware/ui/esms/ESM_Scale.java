@@ -3,12 +3,10 @@ package com.aware.ui.esms;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.ContentValues;
-import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.util.Log;
-import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.Button;
 import android.widget.SeekBar;
@@ -118,8 +116,7 @@ public class ESM_Scale extends ESM_Question {
 
         AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
 
-        LayoutInflater inflater = (LayoutInflater) getActivity().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        View ui = inflater.inflate(R.layout.esm_scale, null);
+        View ui = inflateESM(R.layout.esm_scale);
         builder.setView(ui);
 
         esm_dialog = builder.create();
@@ -158,8 +155,8 @@ public class ESM_Scale extends ESM_Question {
             seekBar.incrementProgressBy(step_size);
 
             if (min_value >= 0) {
-                seekBar.setProgress(selected_scale_progress);
                 seekBar.setMax(max_value);
+                seekBar.setProgress(selected_scale_progress);
             } else {
                 seekBar.setMax(max_value * 2);
                 seekBar.setProgress(max_value); //move handle to center value
@@ -227,7 +224,7 @@ public class ESM_Scale extends ESM_Question {
                         rowData.put(ESM_Provider.ESM_Data.ANSWER, selected_scale_progress);
                         rowData.put(ESM_Provider.ESM_Data.STATUS, ESM.STATUS_ANSWERED);
 
-                        getContext().getContentResolver().update(ESM_Provider.ESM_Data.CONTENT_URI, rowData, ESM_Provider.ESM_Data._ID + "=" + getID(), null);
+                        ESMManager.update(getContext(), getID(), rowData);
 
                         Intent answer = new Intent(ESM.ACTION_AWARE_ESM_ANSWERED);
                         answer.putExtra(ESM.EXTRA_ANSWER, rowData.getAsString(ESM_Provider.ESM_Data.ANSWER));
@@ -4,6 +4,7 @@ package com.aware.utils;
 import android.Manifest;
 import android.app.Service;
 import android.content.BroadcastReceiver;
+import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -68,6 +69,35 @@ public class Aware_Sensor extends Service {
      */
     public boolean PERMISSIONS_OK = true;
 
+    /**
+     * Broadcast policies for the samples of high-rate sensors (e.g., Aware_Preferences.BROADCAST_ACCELEROMETER):
+     * - all: one broadcast per sample (default)
+     * - off: no broadcasts
+     * - latest: the newest sample, at most N times per second
+     * - batch: N samples per broadcast
+     */
+    public static final String BROADCAST_ALL = "all";
+    public static final String BROADCAST_OFF = "off";
+    public static final String BROADCAST_LATEST = "latest";
+    public static final String BROADCAST_BATCH = "batch";
+
+    /**
+     * Broadcasted with the batch policy: ArrayList of ContentValues, the samples since the last broadcast.
+     * The sensor's data extra holds the newest of them.
+     */
+    public static final String EXTRA_DATA_BATCH = "data_batch";
+
+    private static final int DEFAULT_BROADCAST_HZ = 5;
+    private static final int DEFAULT_BROADCAST_BATCH = 50;
+
+    private String broadcastAction = null;
+    private String broadcastExtra = null;
+    private String broadcastPolicy = BROADCAST_ALL;
+    private long broadcastInterval = 0;
+    private int broadcastBatch = 1;
+    private long lastBroadcast = 0;
+    private final ArrayList<ContentValues> broadcastBuffer = new ArrayList<>();
+
     /**
      * Interface to share context with other applications/addons<br/>
      * You MUST broadcast your contexts here!
@@ -141,6 +171,80 @@ public class Aware_Sensor extends Service {
 
         //Unregister Context Broadcaster
         if (contextBroadcaster != null) unregisterReceiver(contextBroadcaster);
+
+        flushSamples();
+    }
+
+    /**
+     * Sets how the samples given to {@link #broadcastSample(ContentValues)} are broadcast
+     *
+     * @param action broadcast action
+     * @param extra  extra for the sample
+     * @param policy BROADCAST_ALL, BROADCAST_OFF, BROADCAST_LATEST or BROADCAST_BATCH
+     * @param rate   broadcasts per second with BROADCAST_LATEST, samples per broadcast with BROADCAST_BATCH
+     */
+    public synchronized void setBroadcastPolicy(String action, String extra, String policy, String rate) {
+        flushSamples();
+
+        broadcastAction = action;
+        broadcastExtra = extra;
+
+        double value = 0;
+        try {
+            value = Double.parseDouble(rate);
+        } catch (NumberFormatException e) {
+        }
+
+        if (policy.equals(BROADCAST_OFF)) {
+            broadcastPolicy = BROADCAST_OFF;
+        } else if (policy.equals(BROADCAST_LATEST)) {
+            broadcastPolicy = BROADCAST_LATEST;
+            broadcastInterval = (long) (1000 / ((value > 0) ? value : DEFAULT_BROADCAST_HZ));
+        } else if (policy.equals(BROADCAST_BATCH)) {
+            broadcastPolicy = BROADCAST_BATCH;
+            broadcastBatch = (value >= 1) ? (int) value : DEFAULT_BROADCAST_BATCH;
+        } else {
+            broadcastPolicy = BROADCAST_ALL;
+        }
+
+        if (Aware.DEBUG) Log.d(TAG, "Broadcast policy: " + broadcastPolicy + " " + rate);
+    }
+
+    /**
+     * Broadcasts a new sample, as the policy set with {@link #setBroadcastPolicy(String, String, String, String)} allows
+     *
+     * @param sample
+     */
+    public synchronized void broadcastSample(ContentValues sample) {
+        if (broadcastAction == null || broadcastPolicy.equals(BROADCAST_OFF)) return;
+
+        if (broadcastPolicy.equals(BROADCAST_LATEST)) {
+            long now = System.currentTimeMillis();
+            if (now - lastBroadcast < broadcastInterval) return;
+            lastBroadcast = now;
+        } else if (broadcastPolicy.equals(BROADCAST_BATCH)) {
+            broadcastBuffer.add(sample);
+            if (broadcastBuffer.size() >= broadcastBatch) flushSamples();
+            return;
+        }
+
+        Intent event = new Intent(broadcastAction);
+        event.putExtra(broadcastExtra, sample);
+        ContextBus.post(getApplicationContext(), event);
+    }
+
+    /**
+     * Broadcasts the samples batched so far, if any
+     */
+    public synchronized void flushSamples() {
+        if (broadcastBuffer.isEmpty()) return;
+
+        Intent event = new Intent(broadcastAction);
+        event.putExtra(broadcastExtra, broadcastBuffer.get(broadcastBuffer.size() - 1));
+        event.putParcelableArrayListExtra(EXTRA_DATA_BATCH, new ArrayList<>(broadcastBuffer));
+        ContextBus.post(getApplicationContext(), event);
+
+        broadcastBuffer.clear();
     }
 
     /**
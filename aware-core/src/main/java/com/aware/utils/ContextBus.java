@@ -0,0 +1,415 @@
+package com.aware.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.aware.Aware;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process bus for context events (e.g., new accelerometer sample, new foreground application).
+ * <p>
+ * Subscribers in the same process get the very same Intent that was posted, on the main thread. Nothing is copied or
+ * sent through the system. The event is broadcast to other apps only for actions someone outside this process asked
+ * for, and no more often than they asked:
+ * - a receiver declared in a manifest for the action
+ * - a request with {@link #requestBroadcasts(Context, long, String...)} (e.g., plugins registering receivers at runtime)
+ *
+ * @author denzil
+ */
+public class ContextBus {
+
+    private static final String TAG = "AWARE::ContextBus";
+
+    /**
+     * Broadcast by other apps to ask for, or stop, cross-process broadcasts of context events
+     * Extras: EXTRA_ACTIONS, EXTRA_MIN_INTERVAL, EXTRA_WITHDRAW, EXTRA_PACKAGE
+     */
+    public static final String ACTION_AWARE_CONTEXT_INTEREST = "ACTION_AWARE_CONTEXT_INTEREST";
+
+    /**
+     * String[] of the actions
+     */
+    public static final String EXTRA_ACTIONS = "actions";
+
+    /**
+     * long, minimum time between broadcasts of an action, in milliseconds. 0 for every event.
+     */
+    public static final String EXTRA_MIN_INTERVAL = "min_interval";
+
+    /**
+     * boolean, true to stop the broadcasts of the actions
+     */
+    public static final String EXTRA_WITHDRAW = "withdraw";
+
+    /**
+     * String, package of the app asking. Each app's requests are kept apart, so withdrawing only stops its own.
+     */
+    public static final String EXTRA_PACKAGE = "package";
+
+    /**
+     * Set on the events broadcast by the bus, to tell them apart from the ones subscribers already got in-process
+     */
+    public static final String EXTRA_ORIGIN = "aware_bus_origin";
+
+    /**
+     * How long we trust what we know about the receivers declared in manifests
+     */
+    private static final long MANIFEST_RECEIVERS_TTL = 10 * 60 * 1000;
+
+    public interface Subscriber {
+        /**
+         * @param context application context
+         * @param event   the Intent as posted: read-only, other subscribers get the same instance
+         */
+        void onContext(Context context, Intent event);
+    }
+
+    private static final HashMap<String, CopyOnWriteArrayList<Subscriber>> subscribers = new HashMap<>();
+
+    //action -> minimum interval between broadcasts, the lowest asked for by other apps
+    private static final HashMap<String, Long> interest = new HashMap<>();
+
+    //action -> requesting package -> minimum interval it asked for
+    private static final HashMap<String, HashMap<String, Long>> requests = new HashMap<>();
+
+    //action -> minimum interval between broadcasts, set by this app
+    private static final HashMap<String, Long> rateLimits = new HashMap<>();
+
+    private static final HashMap<String, Long> lastBroadcast = new HashMap<>();
+
+    //action -> {has manifest receivers (1 or 0), checked at}
+    private static final HashMap<String, long[]> manifestReceivers = new HashMap<>();
+
+    private static Context appContext = null;
+    private static Handler mainHandler = null;
+    private static String origin = null;
+
+    /**
+     * Starts listening to the requests of other apps. Done by the first post or subscription too, but requests sent
+     * before then are lost: call it when the app starts.
+     *
+     * @param context
+     */
+    public static synchronized void init(Context context) {
+        if (appContext != null) return;
+
+        appContext = context.getApplicationContext();
+        mainHandler = new Handler(Looper.getMainLooper());
+        origin = appContext.getPackageName() + ":" + Process.myPid();
+
+        //saved as package|action. Requests saved before, by action only, belong to no package.
+        SharedPreferences saved = getSaved(appContext);
+        SharedPreferences.Editor migrated = saved.edit();
+        for (Map.Entry<String, ?> entry : saved.getAll().entrySet()) {
+            if (!(entry.getValue() instanceof Long)) continue;
+            String key = entry.getKey();
+            int separator = key.indexOf('|');
+            String requester = (separator >= 0) ? key.substring(0, separator) : "";
+            String action = key.substring(separator + 1);
+            if (requester.equals(appContext.getPackageName())) { //our own, not kept anymore
+                migrated.remove(key);
+                continue;
+            }
+            if (separator < 0) migrated.remove(key).putLong("|" + action, (Long) entry.getValue());
+            synchronized (interest) {
+                putRequest(action, requester, (Long) entry.getValue());
+            }
+        }
+        migrated.apply();
+
+        appContext.registerReceiver(interestListener, new IntentFilter(ACTION_AWARE_CONTEXT_INTEREST));
+    }
+
+    /**
+     * Receive the events of an action posted in this process
+     *
+     * @param context
+     * @param action
+     * @param subscriber
+     */
+    public static void subscribe(Context context, String action, Subscriber subscriber) {
+        init(context);
+        synchronized (subscribers) {
+            CopyOnWriteArrayList<Subscriber> list = subscribers.get(action);
+            if (list == null) {
+                list = new CopyOnWriteArrayList<>();
+                subscribers.put(action, list);
+            }
+            list.addIfAbsent(subscriber);
+        }
+    }
+
+    /**
+     * Stop receiving events, for all the actions the subscriber was registered for
+     *
+     * @param subscriber
+     */
+    public static void unsubscribe(Subscriber subscriber) {
+        synchronized (subscribers) {
+            for (CopyOnWriteArrayList<Subscriber> list : subscribers.values()) {
+                list.remove(subscriber);
+            }
+        }
+    }
+
+    /**
+     * True if something in this process subscribed to the action
+     *
+     * @param action
+     */
+    public static boolean hasSubscribers(String action) {
+        synchronized (subscribers) {
+            CopyOnWriteArrayList<Subscriber> list = subscribers.get(action);
+            return list != null && !list.isEmpty();
+        }
+    }
+
+    /**
+     * Limits how often an action is broadcast to other apps, whatever they asked for
+     *
+     * @param action
+     * @param min_interval milliseconds, 0 to remove the limit
+     */
+    public static void setRateLimit(String action, long min_interval) {
+        synchronized (rateLimits) {
+            if (min_interval > 0) rateLimits.put(action, min_interval);
+            else rateLimits.remove(action);
+        }
+    }
+
+    /**
+     * Post a context event: delivered to the subscribers of this process, and broadcast if other apps asked for it.
+     * The Intent should not be modified afterwards.
+     *
+     * @param context
+     * @param event
+     */
+    public static void post(Context context, final Intent event) {
+        init(context);
+
+        final String action = event.getAction();
+        if (action == null) return;
+
+        if (shouldBroadcast(action)) {
+            event.putExtra(EXTRA_ORIGIN, origin);
+            context.sendBroadcast(event);
+        }
+
+        final CopyOnWriteArrayList<Subscriber> list;
+        synchronized (subscribers) {
+            list = subscribers.get(action);
+        }
+        if (list == null || list.isEmpty()) return;
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Subscriber subscriber : list) {
+                    try {
+                        subscriber.onContext(appContext, event);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Subscriber of " + action + " failed: " + e.toString());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * True if this event was broadcast by the bus of this process, i.e., in-process subscribers already got it
+     *
+     * @param event
+     */
+    public static boolean isLocal(Intent event) {
+        return origin != null && origin.equals(event.getStringExtra(EXTRA_ORIGIN));
+    }
+
+    /**
+     * Ask the apps running AWARE to broadcast these actions (e.g., from a plugin, before registering a receiver).
+     * An app ignores its own requests: subscribe to get its events.
+     *
+     * @param context
+     * @param min_interval minimum time between broadcasts of an action, in milliseconds. 0 for every event.
+     * @param actions
+     */
+    public static void requestBroadcasts(Context context, long min_interval, String... actions) {
+        Intent request = new Intent(ACTION_AWARE_CONTEXT_INTEREST);
+        request.putExtra(EXTRA_ACTIONS, actions);
+        request.putExtra(EXTRA_MIN_INTERVAL, min_interval);
+        request.putExtra(EXTRA_PACKAGE, context.getPackageName());
+        context.sendBroadcast(request);
+    }
+
+    /**
+     * Stop the broadcasts asked for with {@link #requestBroadcasts(Context, long, String...)}
+     *
+     * @param context
+     * @param actions
+     */
+    public static void withdrawBroadcasts(Context context, String... actions) {
+        Intent request = new Intent(ACTION_AWARE_CONTEXT_INTEREST);
+        request.putExtra(EXTRA_ACTIONS, actions);
+        request.putExtra(EXTRA_WITHDRAW, true);
+        request.putExtra(EXTRA_PACKAGE, context.getPackageName());
+        context.sendBroadcast(request);
+    }
+
+    /**
+     * Packages were installed or removed: check the manifests again
+     */
+    public static void invalidateReceivers() {
+        synchronized (manifestReceivers) {
+            manifestReceivers.clear();
+        }
+    }
+
+    /**
+     * A package was removed: drop what it asked for
+     *
+     * @param context
+     * @param package_name
+     */
+    public static void removeRequests(Context context, String package_name) {
+        init(context);
+        SharedPreferences.Editor saved = getSaved(context).edit();
+        synchronized (interest) {
+            for (String action : new ArrayList<>(requests.keySet())) {
+                if (removeRequest(action, package_name)) saved.remove(package_name + "|" + action);
+            }
+        }
+        saved.apply();
+    }
+
+    private static SharedPreferences getSaved(Context context) {
+        return context.getSharedPreferences(context.getPackageName() + ".context_bus", Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Call holding the interest lock
+     */
+    private static void putRequest(String action, String requester, long min_interval) {
+        HashMap<String, Long> requesters = requests.get(action);
+        if (requesters == null) {
+            requesters = new HashMap<>();
+            requests.put(action, requesters);
+        }
+        requesters.put(requester, min_interval);
+        updateInterest(action);
+    }
+
+    /**
+     * Call holding the interest lock
+     *
+     * @return false if the requester had not asked for the action
+     */
+    private static boolean removeRequest(String action, String requester) {
+        HashMap<String, Long> requesters = requests.get(action);
+        if (requesters == null || requesters.remove(requester) == null) return false;
+        if (requesters.isEmpty()) requests.remove(action);
+        updateInterest(action);
+        return true;
+    }
+
+    /**
+     * Several apps may ask for the same action: the most demanding of them wins
+     */
+    private static void updateInterest(String action) {
+        HashMap<String, Long> requesters = requests.get(action);
+        if (requesters == null) {
+            interest.remove(action);
+            return;
+        }
+        long min_interval = Long.MAX_VALUE;
+        for (long requested : requesters.values()) min_interval = Math.min(min_interval, requested);
+        interest.put(action, min_interval);
+    }
+
+    private static boolean shouldBroadcast(String action) {
+        long min_interval;
+        synchronized (interest) {
+            Long requested = interest.get(action);
+            if (requested != null) {
+                min_interval = requested;
+            } else if (hasManifestReceivers(action)) {
+                min_interval = 0;
+            } else {
+                return false;
+            }
+        }
+
+        synchronized (rateLimits) {
+            Long limit = rateLimits.get(action);
+            if (limit != null && limit > min_interval) min_interval = limit;
+        }
+
+        if (min_interval == 0) return true;
+
+        long now = System.currentTimeMillis();
+        synchronized (lastBroadcast) {
+            Long last = lastBroadcast.get(action);
+            if (last != null && now - last < min_interval) return false;
+            lastBroadcast.put(action, now);
+        }
+        return true;
+    }
+
+    private static boolean hasManifestReceivers(String action) {
+        long now = System.currentTimeMillis();
+        synchronized (manifestReceivers) {
+            long[] known = manifestReceivers.get(action);
+            if (known != null && now - known[1] < MANIFEST_RECEIVERS_TTL) return known[0] == 1;
+        }
+
+        boolean found = !appContext.getPackageManager().queryBroadcastReceivers(new Intent(action), 0).isEmpty();
+        synchronized (manifestReceivers) {
+            manifestReceivers.put(action, new long[]{found ? 1 : 0, now});
+        }
+        return found;
+    }
+
+    private static final BroadcastReceiver interestListener = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String[] actions = intent.getStringArrayExtra(EXTRA_ACTIONS);
+            if (actions == null) return;
+
+            boolean withdraw = intent.getBooleanExtra(EXTRA_WITHDRAW, false);
+            long min_interval = Math.max(0, intent.getLongExtra(EXTRA_MIN_INTERVAL, 0));
+            String requester = intent.getStringExtra(EXTRA_PACKAGE);
+            if (requester == null) requester = ""; //apps that don't say who they are share one request
+
+            //our own requests are for events posted elsewhere: subscribers here get ours in-process
+            if (requester.equals(context.getPackageName())) return;
+
+            SharedPreferences.Editor saved = getSaved(context).edit();
+            synchronized (interest) {
+                for (String action : actions) {
+                    if (withdraw) {
+                        removeRequest(action, requester);
+                        saved.remove(requester + "|" + action);
+                    } else {
+                        putRequest(action, requester, min_interval);
+                        saved.putLong(requester + "|" + action, min_interval);
+                    }
+                }
+            }
+            saved.apply();
+
+            if (Aware.DEBUG)
+                Log.d(TAG, requester + ((withdraw) ? " withdrew: " : " requested: ") + Arrays.toString(actions));
+        }
+    };
+}
@@ -79,6 +79,15 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         if (DEBUG) Log.w(TAG, "Upgrading database: " + db.getPath());
 
+        //Views can't survive the tables being renamed and recreated below. Providers with views recreate them once the database is open.
+        Cursor views = db.rawQuery("SELECT name FROM sqlite_master WHERE type='view'", null);
+        if (views != null && views.moveToFirst()) {
+            do {
+                db.execSQL("DROP VIEW IF EXISTS " + views.getString(0) + ";");
+            } while (views.moveToNext());
+        }
+        if (views != null && !views.isClosed()) views.close();
+
         for (int i = 0; i < databaseTables.length; i++) {
             db.execSQL("CREATE TABLE IF NOT EXISTS " + databaseTables[i] + " (" + tableFields[i] + ");");
 
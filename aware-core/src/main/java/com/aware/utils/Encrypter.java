@@ -2,14 +2,20 @@
 package com.aware.utils;
 
 import android.content.Context;
+import android.database.ContentObserver;
 import android.util.Log;
 
 import com.aware.Aware;
 import com.aware.Aware_Preferences;
+import com.aware.providers.Aware_Provider;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
@@ -83,26 +89,228 @@ public class Encrypter {
      */
     public static final String hashGeneric(String clear, String hash_function) {
         if( clear == null || clear.length() == 0 ) return "";
-        try {
-            // Create Hash
-            MessageDigest digest = java.security.MessageDigest.getInstance(hash_function);
-            digest.update(clear.getBytes());
-            byte messageDigest[] = digest.digest();
-
-            // Create Hex String
-            StringBuffer hexString = new StringBuffer();
-            for (int i = 0; i < messageDigest.length; i++) {
-                String h = Integer.toHexString(0xFF & messageDigest[i]);
-                while (h.length() < 2)
-                    h = "0" + h;
-                hexString.append(h);
+
+        MessageDigest digest = getDigest(hash_function);
+        if (digest == null) return "<invalid alg "+hash_function+">";
+
+        digest.reset();
+        return toLowerHex(digest.digest(clear.getBytes()));
+    }
+
+    /**
+     * MessageDigest instances of this thread, by algorithm. MessageDigest is not thread-safe and
+     * getInstance() is a provider lookup, so each thread keeps its own.
+     */
+    private static final ThreadLocal<HashMap<String, MessageDigest>> digests = new ThreadLocal<HashMap<String, MessageDigest>>() {
+        @Override
+        protected HashMap<String, MessageDigest> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    private static MessageDigest getDigest(String hash_function) {
+        HashMap<String, MessageDigest> thread_digests = digests.get();
+        MessageDigest digest = thread_digests.get(hash_function);
+        if (digest == null) {
+            try {
+                digest = MessageDigest.getInstance(hash_function);
+                thread_digests.put(hash_function, digest);
+            } catch (NoSuchAlgorithmException e) {
+                e.printStackTrace();
+            }
+        }
+        return digest;
+    }
+
+    private static final char[] LOWER_HEX = "0123456789abcdef".toCharArray();
+
+    private static String toLowerHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = LOWER_HEX[(bytes[i] >> 4) & 0x0f];
+            hex[2 * i + 1] = LOWER_HEX[bytes[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * A hash program compiled once: its commands are split and parsed, salts and settings resolved.
+     * Immutable, so it can be shared between threads.
+     */
+    private static final class HashProgram {
+        private static final int SALT = 0;
+        private static final int NORMALIZE = 1;
+        private static final int NORMALIZE_ALNUM = 2;
+        private static final int LAST = 3;
+
+        //how the program ends
+        private static final int END_HASH = 0;
+        private static final int END_CLEAR = 1;
+        private static final int END_GLOBAL = 2;
+
+        private final int[] steps;
+        private final String[] salts;
+        private final int[] lasts;
+        private final int end;
+        private final String hash_function;
+
+        /**
+         * @param context
+         * @param hashProgram program text
+         * @param global      true when compiling the global program, which cannot defer to itself
+         */
+        HashProgram(Context context, String hashProgram, boolean global) {
+            ArrayList<Integer> program_steps = new ArrayList<>();
+            ArrayList<String> program_salts = new ArrayList<>();
+            ArrayList<Integer> program_lasts = new ArrayList<>();
+            int program_end = END_GLOBAL;
+            String program_hash = null;
+
+            if (hashProgram.length() > 0) {
+                for (String command: hashProgram.split(",")) {
+                    if (command.equals("salt=device_id")) {
+                        // Salt using the device_id
+                        program_steps.add(SALT);
+                        program_salts.add(Aware.getSetting(context, Aware_Preferences.DEVICE_ID));
+                        program_lasts.add(0);
+                    } else if (command.startsWith("salt=")) {
+                        // Salt using any string
+                        String[] command_split = command.split("=");
+                        // If salting with a empty hash, do nothing.
+                        if (command_split.length == 1) continue;
+                        program_steps.add(SALT);
+                        program_salts.add(command_split[1]);
+                        program_lasts.add(0);
+                    } else if (command.equals("normalize")) {
+                        // Remove all characters not in [0-9+]
+                        program_steps.add(NORMALIZE);
+                        program_salts.add(null);
+                        program_lasts.add(0);
+                    } else if (command.equals("normalizeAlnum")) {
+                        // Remove all characters not in [0-9A-Za-z+]
+                        program_steps.add(NORMALIZE_ALNUM);
+                        program_salts.add(null);
+                        program_lasts.add(0);
+                    } else if (command.startsWith("last=")) {
+                        // Take only the last N digits
+                        program_steps.add(LAST);
+                        program_salts.add(null);
+                        program_lasts.add(Integer.parseInt(command.split("=")[1]));
+                    } else if (command.equals("clear")) {
+                        // Do not hash.  This is default for some modes.
+                        program_end = END_CLEAR;
+                        break;
+                    } else if (command.equals("true")) {
+                        // Hash using global settings
+                        program_end = END_GLOBAL;
+                        break;
+                    } else {
+                        // This is a hash algorithm name.  Hash it and stop.
+                        program_end = END_HASH;
+                        program_hash = command;
+                        break;
+                    }
+                }
+            }
+
+            // The global program deferring to itself used to recurse forever, use the default hash instead
+            if (global && program_end == END_GLOBAL) {
+                program_end = END_HASH;
+                program_hash = "SHA-1";
+            }
+
+            steps = new int[program_steps.size()];
+            lasts = new int[program_steps.size()];
+            salts = program_salts.toArray(new String[program_salts.size()]);
+            for (int i = 0; i < steps.length; i++) {
+                steps[i] = program_steps.get(i);
+                lasts[i] = program_lasts.get(i);
+            }
+            end = program_end;
+            hash_function = program_hash;
+        }
+
+        String run(Context context, String clear) {
+            if( clear == null || clear.length() == 0  ) return "";
+
+            for (int i = 0; i < steps.length; i++) {
+                switch (steps[i]) {
+                    case SALT:
+                        clear = clear + salts[i];
+                        break;
+                    case NORMALIZE:
+                        clear = NON_DIGITS.matcher(clear).replaceAll("");
+                        break;
+                    case NORMALIZE_ALNUM:
+                        clear = NON_ALNUM.matcher(clear).replaceAll("");
+                        break;
+                    case LAST:
+                        clear = clear.substring(Math.max(clear.length() - lasts[i], 0));
+                        break;
+                }
+            }
+
+            switch (end) {
+                case END_CLEAR:
+                    return clear;
+                case END_HASH:
+                    return hashGeneric(clear, hash_function);
+                default:
+                    return hash(context, clear);
+            }
+        }
+    }
+
+    private static final Pattern NON_DIGITS = Pattern.compile("[^\\d+]");
+    private static final Pattern NON_ALNUM = Pattern.compile("[^\\dA-Za-z+]");
+
+    /**
+     * Compiled programs, by program text. Programs depend on settings (device_id salt), so they
+     * are dropped with the settings-based ones below when the settings change.
+     */
+    private static final ConcurrentHashMap<String, HashProgram> programs = new ConcurrentHashMap<>();
+
+    //Programs from the hash settings, null until first needed
+    private static volatile HashProgram globalProgram = null;
+    private static volatile HashProgram phoneProgram = null;
+    private static volatile HashProgram macProgram = null;
+    private static volatile HashProgram ssidProgram = null;
+
+    private static ContentObserver settingsObserver = null;
+
+    /**
+     * Forget all compiled hash programs, e.g., when the hash settings or the device ID change
+     */
+    public static void invalidate() {
+        programs.clear();
+        globalProgram = null;
+        phoneProgram = null;
+        macProgram = null;
+        ssidProgram = null;
+    }
+
+    /**
+     * Start listening for settings changes, once per process
+     */
+    private static synchronized void observeSettings(Context context) {
+        if (settingsObserver != null) return;
+        settingsObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidate();
             }
-            return hexString.toString();
+        };
+        context.getApplicationContext().getContentResolver().registerContentObserver(Aware_Provider.Aware_Settings.CONTENT_URI, true, settingsObserver);
+    }
 
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return "<invalid alg "+hash_function+">";
+    private static HashProgram compile(Context context, String hashProgram) {
+        observeSettings(context);
+        HashProgram program = programs.get(hashProgram);
+        if (program == null) {
+            program = new HashProgram(context, hashProgram, false);
+            programs.put(hashProgram, program);
         }
+        return program;
     }
 
     /*
@@ -118,49 +326,12 @@ public class Encrypter {
      * - "salt=device_id": salt using the device_id
      * - "last=N": take only the last N digits
      * - "normalize": Remove all non [0-9+] characters.
+     *
+     * Programs are compiled on first use and cached until the settings change.
      */
     public static final String _hashProgram(Context context, String clear, String hashProgram) {
         if( clear == null || clear.length() == 0  ) return "";
-
-        if (hashProgram.length() > 0) {
-            String[] hashProgramCommands = hashProgram.split(",");
-            for (String command: hashProgramCommands) {
-                if (command.equals("salt=device_id")) {
-                    // Salt using the device_id
-                    clear = clear + Aware.getSetting(context, Aware_Preferences.DEVICE_ID);
-                } else if (command.startsWith("salt=")) {
-                    // Salt using any string
-                    String[] command_split = command.split("=");
-                    // If salting with a empty hash, do nothing.
-                    if (command_split.length == 1) continue;
-                    clear = clear + command_split[1];
-                } else if (command.equals("normalize")) {
-                    // Remove all characters not in [0-9+]
-                    clear = clear.replaceAll("[^\\d+]", "");
-                } else if (command.equals("normalizeAlnum")) {
-                    // Remove all characters not in [0-9A-Za-z+]
-                    clear = clear.replaceAll("[^\\dA-Za-z+]", "");
-                } else if (command.startsWith("last=")) {
-                    // Take only the last N digits
-                    int start_idx = clear.length() - Integer.parseInt(command.split("=")[1]);
-                    if (start_idx < 0)
-                        start_idx = 0;
-                    clear = clear.substring(start_idx);
-                } else if (command.equals("clear")) {
-                    // Do not hash.  This is default for some modes.
-                    return clear;
-                } else if (command.equals("true")) {
-                    // Hash using global settings
-                    return hash(context, clear);
-                } else {
-                    // This is a hash algorithm name.  Hash it and return.  Stops loop.
-                    return hashGeneric(clear, command);
-                }
-            }
-        }
-        // Default: hash with default parameters (actually sets default parameters and calls
-        // this function again) if there are no
-        return hash(context, clear);
+        return compile(context, hashProgram).run(context, clear);
     }
 
     /**
@@ -175,49 +346,73 @@ public class Encrypter {
      * @return Hex-encoded hash
      */
     public static final String hash(Context context, String clear) {
-        String hashProgram = Aware.getSetting(context.getApplicationContext(), Aware_Preferences.HASH_FUNCTION);
-        if (hashProgram.equals("")) {
-            // Default if unset
-            hashProgram = "SHA-1";
-        }
+        if( clear == null || clear.length() == 0  ) return "";
 
-        String HASH_SALT = Aware.getSetting(context.getApplicationContext(), Aware_Preferences.HASH_SALT);
-        // Option to salt per-device.
-        if (HASH_SALT.equals("device_id"))
-            hashProgram = "salt=device_id," + hashProgram;
-        // HASH_SALT defaults to empty
-        hashProgram = "salt="+ HASH_SALT + "," + hashProgram;
-        return _hashProgram(context, clear, hashProgram);
+        HashProgram program = globalProgram;
+        if (program == null) {
+            observeSettings(context);
+
+            String hashProgram = Aware.getSetting(context.getApplicationContext(), Aware_Preferences.HASH_FUNCTION);
+            if (hashProgram.equals("")) {
+                // Default if unset
+                hashProgram = "SHA-1";
+            }
+
+            String HASH_SALT = Aware.getSetting(context.getApplicationContext(), Aware_Preferences.HASH_SALT);
+            // Option to salt per-device.
+            if (HASH_SALT.equals("device_id"))
+                hashProgram = "salt=device_id," + hashProgram;
+            // HASH_SALT defaults to empty
+            hashProgram = "salt="+ HASH_SALT + "," + hashProgram;
+
+            program = new HashProgram(context.getApplicationContext(), hashProgram, true);
+            globalProgram = program;
+        }
+        return program.run(context, clear);
     }
 
     /*
      * Hash a phone number.  Default to hashing even if blank.
      */
     public static final String hashPhone(Context context, String clear) {
-        String hashProgram = Aware.getSetting(context.getApplicationContext(), Aware_Preferences.HASH_FUNCTION_PHONE);
-        return _hashProgram(context, clear, hashProgram);
+        HashProgram program = phoneProgram;
+        if (program == null) {
+            program = compile(context, Aware.getSetting(context.getApplicationContext(), Aware_Preferences.HASH_FUNCTION_PHONE));
+            phoneProgram = program;
+        }
+        return program.run(context, clear);
     }
 
     /*
      * Hash a MAC address.  Defaults to not hashing.
      */
     public static final String hashMac(Context context, String clear) {
-        String hashProgram = Aware.getSetting(context.getApplicationContext(), Aware_Preferences.HASH_FUNCTION_MAC);
-        if (hashProgram.equals("")) {
-            hashProgram = "clear";
+        HashProgram program = macProgram;
+        if (program == null) {
+            String hashProgram = Aware.getSetting(context.getApplicationContext(), Aware_Preferences.HASH_FUNCTION_MAC);
+            if (hashProgram.equals("")) {
+                hashProgram = "clear";
+            }
+            program = compile(context, hashProgram);
+            macProgram = program;
         }
-        return _hashProgram(context, clear, hashProgram);
+        return program.run(context, clear);
     }
 
     /*
      * Hash a wifi/bluetooth SSID/name.  Defaults to not hashing.
      */
     public static final String hashSsid(Context context, String clear) {
-        String hashProgram = Aware.getSetting(context.getApplicationContext(), Aware_Preferences.HASH_FUNCTION_SSID);
-        if (hashProgram.equals("")) {
-            hashProgram = "clear";
+        HashProgram program = ssidProgram;
+        if (program == null) {
+            String hashProgram = Aware.getSetting(context.getApplicationContext(), Aware_Preferences.HASH_FUNCTION_SSID);
+            if (hashProgram.equals("")) {
+                hashProgram = "clear";
+            }
+            program = compile(context, hashProgram);
+            ssidProgram = program;
         }
-        return _hashProgram(context, clear, hashProgram);
+        return program.run(context, clear);
     }
 
 
@@ -32,6 +32,9 @@ public class Http {
 	 */
 	private String TAG = "AWARE::HTML";
     private int timeout = 60 * 1000;
+    private Hashtable<String, String> headers = new Hashtable<>();
+    private int responseCode = -1;
+    private Hashtable<String, String> responseHeaders = new Hashtable<>();
 
 	public Http() {}
 
@@ -40,6 +43,31 @@ public class Http {
         return this;
     }
 
+    /**
+     * Add a header to the requests, e.g., If-None-Match for conditional requests
+     * @param name header
+     * @param value value
+     */
+    public Http setHeader(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    /**
+     * @return HTTP status of the last request, -1 if it never got a reply
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * @param name header
+     * @return header of the last reply, null if absent
+     */
+    public String getResponseHeader(String name) {
+        return responseHeaders.get(name.toLowerCase());
+    }
+
     /**
      * Request a GET from an URL.
      * @param url GET URL
@@ -47,6 +75,7 @@ public class Http {
      */
     public String dataGET(final String url, final boolean is_gzipped) {
         if( url.length() == 0 ) return null;
+        responseCode = -1;
 
         try {
 
@@ -58,9 +87,19 @@ public class Http {
             path_connection.setDoInput(true);
 
             if( is_gzipped ) path_connection.setRequestProperty("accept-encoding","gzip");
+            for (String header : headers.keySet()) {
+                path_connection.setRequestProperty(header, headers.get(header));
+            }
 
             path_connection.connect();
 
+            responseCode = path_connection.getResponseCode();
+            responseHeaders.clear();
+            for (String header : path_connection.getHeaderFields().keySet()) {
+                if (header != null && path_connection.getHeaderField(header) != null)
+                    responseHeaders.put(header.toLowerCase(), path_connection.getHeaderField(header));
+            }
+
             if( path_connection.getResponseCode() != HttpURLConnection.HTTP_OK ) {
                 if (Aware.DEBUG) {
                     Log.d(TAG,"Request: GET, URL: " + url);
@@ -103,6 +142,7 @@ public class Http {
 	 */
 	public String dataPOST(final String url, final Hashtable<String, String> data, final boolean is_gzipped) {
         if( url.length() == 0 ) return null;
+        responseCode = -1;
 
 		try{
 
@@ -114,6 +154,9 @@ public class Http {
             path_connection.setDoOutput(true);
 
             if( is_gzipped ) path_connection.setRequestProperty("accept-encoding","gzip");
+            for (String header : headers.keySet()) {
+                path_connection.setRequestProperty(header, headers.get(header));
+            }
 
             Uri.Builder builder = new Uri.Builder();
             Enumeration e = data.keys();
@@ -131,6 +174,13 @@ public class Http {
 
             path_connection.connect();
 
+            responseCode = path_connection.getResponseCode();
+            responseHeaders.clear();
+            for (String header : path_connection.getHeaderFields().keySet()) {
+                if (header != null && path_connection.getHeaderField(header) != null)
+                    responseHeaders.put(header.toLowerCase(), path_connection.getHeaderField(header));
+            }
+
             if( path_connection.getResponseCode() != HttpURLConnection.HTTP_OK ) {
                 if (Aware.DEBUG) {
                     Log.d(TAG,"Request: POST, URL: " + url + "\nData:" + builder.build().getEncodedQuery());
@@ -39,6 +39,9 @@ public class Https {
     private final String TAG = "AWARE::HTTPS";
     private SSLSocketFactory sslSocketFactory;
     private int timeout = 60 * 1000;
+    private Hashtable<String, String> headers = new Hashtable<>();
+    private int responseCode = -1;
+    private Hashtable<String, String> responseHeaders = new Hashtable<>();
 
     /**
      * Initialise a HTTPS client
@@ -90,6 +93,31 @@ public class Https {
         return this;
     }
 
+    /**
+     * Add a header to the requests, e.g., If-None-Match for conditional requests
+     * @param name header
+     * @param value value
+     */
+    public Https setHeader(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    /**
+     * @return HTTP status of the last request, -1 if it never got a reply
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * @param name header
+     * @return header of the last reply, null if absent
+     */
+    public String getResponseHeader(String name) {
+        return responseHeaders.get(name.toLowerCase());
+    }
+
     /**
      * Make a POST to the URL, with the Hashtable<String, String> data, using gzip
      *
@@ -101,6 +129,7 @@ public class Https {
     public String dataPOST(final String url, final Hashtable<String, String> data, final boolean is_gzipped) {
 
         if (url.length() == 0) return null;
+        responseCode = -1;
 
         try {
 
@@ -114,6 +143,9 @@ public class Https {
             path_connection.setDoOutput(true);
 
             if (is_gzipped) path_connection.setRequestProperty("accept-encoding", "gzip");
+            for (String header : headers.keySet()) {
+                path_connection.setRequestProperty(header, headers.get(header));
+            }
 
             Uri.Builder builder = new Uri.Builder();
             Enumeration e = data.keys();
@@ -131,6 +163,13 @@ public class Https {
 
             path_connection.connect();
 
+            responseCode = path_connection.getResponseCode();
+            responseHeaders.clear();
+            for (String header : path_connection.getHeaderFields().keySet()) {
+                if (header != null && path_connection.getHeaderField(header) != null)
+                    responseHeaders.put(header.toLowerCase(), path_connection.getHeaderField(header));
+            }
+
             //only debug is there is a problem with the request
             if (path_connection.getResponseCode() != HttpsURLConnection.HTTP_OK) {
                 if (Aware.DEBUG) {
@@ -177,6 +216,7 @@ public class Https {
      */
     public String dataGET(final String url, final boolean is_gzipped) {
         if (url.length() == 0) return null;
+        responseCode = -1;
 
         try {
 
@@ -189,9 +229,19 @@ public class Https {
             path_connection.setDoInput(true);
 
             if (is_gzipped) path_connection.setRequestProperty("accept-encoding", "gzip");
+            for (String header : headers.keySet()) {
+                path_connection.setRequestProperty(header, headers.get(header));
+            }
 
             path_connection.connect();
 
+            responseCode = path_connection.getResponseCode();
+            responseHeaders.clear();
+            for (String header : path_connection.getHeaderFields().keySet()) {
+                if (header != null && path_connection.getHeaderField(header) != null)
+                    responseHeaders.put(header.toLowerCase(), path_connection.getHeaderField(header));
+            }
+
             if (path_connection.getResponseCode() != HttpsURLConnection.HTTP_OK) {
                 if (Aware.DEBUG) {
                     Log.d(TAG, "Request: GET, URL: " + url);
@@ -0,0 +1,312 @@
+package com.aware.utils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads CPU time from /proc/stat and /proc/[pid]/stat, in jiffies.
+ * <p>
+ * The files stay open and are read again from the start on every call, into the same buffer and the same objects, so
+ * sampling often does not allocate anything. Not thread-safe: use one reader per thread.
+ *
+ * @author denzil
+ */
+public class ProcStat {
+
+    /**
+     * CPU time of the whole device or of one core, in jiffies since boot
+     */
+    public static class CpuTimes {
+        public long user;
+        public long nice;
+        public long system;
+        public long idle;
+        public long iowait;
+        public long irq;
+        public long softirq;
+        public long steal;
+
+        /**
+         * False if the core was offline on the last read (cores are hotplugged on most phones)
+         */
+        public boolean online;
+
+        public long busy() {
+            return user + nice + system + irq + softirq + steal;
+        }
+
+        public long total() {
+            return busy() + idle + iowait;
+        }
+    }
+
+    /**
+     * CPU time of a process, in jiffies since it started
+     */
+    public static class ProcessTimes {
+        public long utime;
+        public long stime;
+
+        public long total() {
+            return utime + stime;
+        }
+    }
+
+    private static final int MAX_FIELDS = 8;
+
+    /**
+     * All the cores together
+     */
+    public final CpuTimes cpu = new CpuTimes();
+
+    private CpuTimes[] cores = new CpuTimes[0];
+
+    private byte[] buffer = new byte[2048];
+    private int length = 0;
+    private final long[] fields = new long[MAX_FIELDS];
+
+    private RandomAccessFile stat = null;
+    private RandomAccessFile self = null;
+
+    /**
+     * Reads /proc/stat into {@link #cpu} and the cores
+     *
+     * @return false if /proc/stat can't be read (e.g., not allowed since Android N)
+     */
+    public boolean readStat() {
+        try {
+            if (stat == null) stat = new RandomAccessFile("/proc/stat", "r");
+
+            //we only need the cpu lines at the top: read more only if they don't fit
+            while (true) {
+                boolean eof = fill(stat);
+                int end = cpuLinesEnd();
+                if (end >= 0 || eof) {
+                    parseStat((end >= 0) ? end : length);
+                    return true;
+                }
+                buffer = new byte[buffer.length * 2];
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            try {
+                if (stat != null) stat.close();
+            } catch (IOException ignored) {
+            }
+            stat = null;
+            return false;
+        }
+    }
+
+    /**
+     * Highest core number seen + 1, online or not
+     */
+    public int getCoreCount() {
+        return cores.length;
+    }
+
+    /**
+     * @param core core number, from 0 to {@link #getCoreCount()} - 1
+     * @return the values from the last {@link #readStat()}
+     */
+    public CpuTimes getCore(int core) {
+        return cores[core];
+    }
+
+    /**
+     * Reads the CPU time of this process
+     *
+     * @param times filled in with the values
+     * @return false if it can't be read
+     */
+    public boolean readProcess(ProcessTimes times) {
+        try {
+            if (self == null) self = new RandomAccessFile("/proc/self/stat", "r");
+            fill(self);
+            return parseProcess(times);
+        } catch (IOException e) {
+            e.printStackTrace();
+            try {
+                if (self != null) self.close();
+            } catch (IOException ignored) {
+            }
+            self = null;
+            return false;
+        }
+    }
+
+    /**
+     * Reads the CPU time of another process. The file is opened and closed on every call: keep a ProcStat per process
+     * and use {@link #readProcess(ProcessTimes)} for this one.
+     *
+     * @param pid
+     * @param times filled in with the values
+     * @return false if the process is gone or can't be read
+     */
+    public boolean readProcess(int pid, ProcessTimes times) {
+        RandomAccessFile process = null;
+        try {
+            process = new RandomAccessFile("/proc/" + pid + "/stat", "r");
+            fill(process);
+            return parseProcess(times);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (process != null) {
+                try {
+                    process.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the files. The reader can still be used, they are opened again when needed.
+     */
+    public void close() {
+        try {
+            if (stat != null) stat.close();
+            if (self != null) self.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        stat = null;
+        self = null;
+    }
+
+    /**
+     * Reads the file from the start, as much as fits in the buffer
+     *
+     * @return true if the whole file was read
+     */
+    private boolean fill(RandomAccessFile file) throws IOException {
+        file.seek(0);
+        length = 0;
+        while (length < buffer.length) {
+            int read = file.read(buffer, length, buffer.length - length);
+            if (read < 0) return true;
+            length += read;
+        }
+        return false;
+    }
+
+    /**
+     * End of the last cpu line, if a line after them was read
+     *
+     * @return -1 if the buffer only has cpu lines (the last one may be cut)
+     */
+    private int cpuLinesEnd() {
+        int start = 0;
+        while (start < length) {
+            if (!isCpuLine(start)) return start;
+            int end = lineEnd(start);
+            if (end == length) return -1;
+            start = end + 1;
+        }
+        return -1;
+    }
+
+    private void parseStat(int end) {
+        for (CpuTimes core : cores) core.online = false;
+
+        int start = 0;
+        while (start < end && isCpuLine(start)) {
+            int lineEnd = lineEnd(start);
+            int position = start + 3;
+
+            int core = -1;
+            if (position < lineEnd && buffer[position] >= '0' && buffer[position] <= '9') {
+                core = 0;
+                while (position < lineEnd && buffer[position] >= '0' && buffer[position] <= '9') {
+                    core = core * 10 + (buffer[position++] - '0');
+                }
+            }
+
+            int count = parseFields(position, lineEnd, 0, MAX_FIELDS);
+            if (count >= 4) {
+                CpuTimes times;
+                if (core < 0) {
+                    times = cpu;
+                } else {
+                    if (core >= cores.length) growCores(core + 1);
+                    times = cores[core];
+                }
+                times.user = fields[0];
+                times.nice = fields[1];
+                times.system = fields[2];
+                times.idle = fields[3];
+                times.iowait = (count > 4) ? fields[4] : 0;
+                times.irq = (count > 5) ? fields[5] : 0;
+                times.softirq = (count > 6) ? fields[6] : 0;
+                times.steal = (count > 7) ? fields[7] : 0;
+                times.online = true;
+            }
+            start = lineEnd + 1;
+        }
+    }
+
+    /**
+     * /proc/[pid]/stat: pid (comm) state ppid ... utime stime ...
+     * comm can have spaces and brackets, so we count the fields from the last ')'
+     */
+    private boolean parseProcess(ProcessTimes times) {
+        int position = length - 1;
+        while (position >= 0 && buffer[position] != ')') position--;
+        if (position < 0) return false;
+
+        //utime and stime are fields 14 and 15: the 12th and 13th after the comm
+        if (parseFields(position + 1, length, 11, 2) < 2) return false;
+        times.utime = fields[0];
+        times.stime = fields[1];
+        return true;
+    }
+
+    /**
+     * Parses space separated numbers into {@link #fields}
+     *
+     * @param skip fields to skip first (they don't have to be numbers)
+     * @param max  fields to parse
+     * @return how many were parsed
+     */
+    private int parseFields(int position, int end, int skip, int max) {
+        int count = 0;
+        while (position < end && count < max) {
+            while (position < end && buffer[position] == ' ') position++;
+            if (position >= end) break;
+
+            if (skip > 0) {
+                while (position < end && buffer[position] != ' ') position++;
+                skip--;
+                continue;
+            }
+
+            long value = 0;
+            boolean digits = false;
+            while (position < end && buffer[position] >= '0' && buffer[position] <= '9') {
+                value = value * 10 + (buffer[position++] - '0');
+                digits = true;
+            }
+            if (!digits) break;
+            fields[count++] = value;
+        }
+        return count;
+    }
+
+    private boolean isCpuLine(int start) {
+        return start + 3 <= length && buffer[start] == 'c' && buffer[start + 1] == 'p' && buffer[start + 2] == 'u';
+    }
+
+    private int lineEnd(int start) {
+        while (start < length && buffer[start] != '\n') start++;
+        return start;
+    }
+
+    private void growCores(int count) {
+        CpuTimes[] grown = new CpuTimes[count];
+        System.arraycopy(cores, 0, grown, 0, cores.length);
+        for (int i = cores.length; i < count; i++) grown[i] = new CpuTimes();
+        cores = grown;
+    }
+}
@@ -10,10 +10,14 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.provider.BaseColumns;
 import android.util.Log;
 
 import com.aware.Aware;
@@ -28,8 +32,14 @@ import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Scheduler extends Aware_Sensor {
 
@@ -68,6 +78,11 @@ public class Scheduler extends Aware_Sensor {
      */
     public static final String RANDOM_INTERVAL = "random_interval";
 
+    /**
+     * How many days of random times are planned ahead
+     */
+    public static final int RANDOM_PLAN_DAYS = 7;
+
     /**
      * Defines the type of action (e.g., broadcast, service or activity)
      */
@@ -101,9 +116,33 @@ public class Scheduler extends Aware_Sensor {
     //String is the scheduler ID, and hashtable contains list of IntentFilters and BroadcastReceivers
     private static final Hashtable<String, Hashtable<IntentFilter, BroadcastReceiver>> schedulerListeners = new Hashtable<>();
 
+    //String is the scheduler ID, and the subscriber receives the context events posted in this process
+    private static final Hashtable<String, ContextBus.Subscriber> schedulerSubscribers = new Hashtable<>();
+
+    //Actions the contextual schedules asked other apps to broadcast, and how many schedules use each
+    private static final HashMap<String, Integer> requestedContexts = new HashMap<>();
+
     //String is the scheduler ID, and hashtable contains list of Uri and ContentObservers
     private static final Hashtable<String, Hashtable<Uri, ContentObserver>> schedulerDataObservers = new Hashtable<>();
 
+    //One ContentObserver per Uri, shared by all the conditional schedules on it
+    private static final Hashtable<Uri, ConditionObserver> conditionObservers = new Hashtable<>();
+
+    //How long to wait for a burst of database changes to settle before checking conditions, in milliseconds
+    private static final long CONDITION_CHECK_DELAY = 1000;
+
+    //Compiled schedules, by schedule ID
+    private static final Hashtable<String, CompiledSchedule> compiledSchedules = new Hashtable<>();
+
+    //Time-based schedules, ordered by their next fire time. Only the head is armed on the AlarmManager.
+    private static final PriorityQueue<ScheduleTrigger> scheduleQueue = new PriorityQueue<>();
+
+    //Set whenever a schedule is saved or removed, so the queue is rebuilt on the next start
+    private static volatile boolean schedulesChanged = true;
+
+    //LAST_TRIGGERED updates the Scheduler made itself whose change notifications didn't arrive yet: they don't need a reload
+    private static final AtomicInteger ownUpdates = new AtomicInteger();
+
     /**
      * Save the defined scheduled task
      *
@@ -121,73 +160,7 @@ public class Scheduler extends Aware_Sensor {
                 is_global = false;
 
             if (schedule.getRandom().length() != 0) {
-
-                JSONObject random = schedule.getRandom();
-
-                Calendar start = Calendar.getInstance();
-                Calendar end = Calendar.getInstance();
-                Calendar now = Calendar.getInstance();
-
-                int earliest = schedule.getDailyEarliest();
-                int latest = schedule.getDailyLatest();
-
-                start.set(Calendar.HOUR_OF_DAY, earliest);
-                start.set(Calendar.MINUTE, start.get(Calendar.MINUTE));
-                start.set(Calendar.SECOND, start.get(Calendar.SECOND));
-                start.set(Calendar.MILLISECOND, start.get(Calendar.MILLISECOND));
-
-                end.set(Calendar.HOUR_OF_DAY, latest);
-                end.set(Calendar.MINUTE, 59);
-                end.set(Calendar.SECOND, 59);
-                end.set(Calendar.MILLISECOND, 999);
-
-                if (now.get(Calendar.HOUR_OF_DAY) > earliest) { //earliest today is earlier today, let's assign randoms for the rest of today
-                    start.set(Calendar.HOUR_OF_DAY, now.get(Calendar.HOUR_OF_DAY));
-                    start.add(Calendar.MINUTE, 15); //schedule randomly 15 minutes from now->latest
-
-                    Log.d(TAG, "Random times set for today between " + start.getTime().toString() + " and " + end.getTime().toString());
-                }
-
-                if (now.get(Calendar.HOUR_OF_DAY) > latest) { //too late to schedule them today, schedule for the next day starting at the earliest hour onwards
-                    start.add(Calendar.DAY_OF_YEAR, 1);
-                    start.set(Calendar.HOUR_OF_DAY, earliest);
-                    start.set(Calendar.MINUTE, 0);
-                    start.set(Calendar.SECOND, 0);
-                    start.set(Calendar.MILLISECOND, 0);
-
-                    end.add(Calendar.DAY_OF_YEAR, 1);
-
-                    Log.d(TAG, "Random times set for tomorrow between " + start.getTime().toString() + " and " + end.getTime().toString());
-                }
-
-                ArrayList<Long> randoms = random_times(start, end, random.getInt(RANDOM_TIMES), random.getInt(RANDOM_INTERVAL));
-                String original_id = schedule.getScheduleID();
-
-                long max = getLastRandom(randoms);
-                for (Long r : randoms) {
-                    Calendar timer = Calendar.getInstance();
-                    timer.setTimeInMillis(r);
-
-                    Log.d(TAG, "RANDOM TIME:" + timer.getTime().toString() + "\n");
-
-                    schedule.setTimer(timer);
-
-                    if (r == max) {
-                        schedule.setScheduleID(original_id + "_random_" + r + "_last");
-                    } else {
-                        schedule.setScheduleID(original_id + "_random_" + r);
-                    }
-
-                    ContentValues data = new ContentValues();
-                    data.put(Scheduler_Provider.Scheduler_Data.TIMESTAMP, System.currentTimeMillis());
-                    data.put(Scheduler_Provider.Scheduler_Data.DEVICE_ID, Aware.getSetting(context, Aware_Preferences.DEVICE_ID));
-                    data.put(Scheduler_Provider.Scheduler_Data.SCHEDULE_ID, schedule.getScheduleID());
-                    data.put(Scheduler_Provider.Scheduler_Data.SCHEDULE, schedule.build().toString());
-                    data.put(Scheduler_Provider.Scheduler_Data.PACKAGE_NAME, (is_global) ? "com.aware.phone" : context.getPackageName());
-
-                    Log.d(Scheduler.TAG, "Random schedule: " + data.toString() + "\n");
-                    context.getContentResolver().insert(Scheduler_Provider.Scheduler_Data.CONTENT_URI, data);
-                }
+                planRandom(context, schedule, (is_global) ? "com.aware.phone" : context.getPackageName(), 0);
             } else {
                 ContentValues data = new ContentValues();
                 data.put(Scheduler_Provider.Scheduler_Data.TIMESTAMP, System.currentTimeMillis());
@@ -206,12 +179,16 @@ public class Scheduler extends Aware_Sensor {
                 }
 
                 if (schedules != null && !schedules.isClosed()) schedules.close();
+
+                compiledSchedules.remove(schedule.getScheduleID());
             }
 
         } catch (JSONException e) {
             e.printStackTrace();
             Log.e(Scheduler.TAG, "Error saving schedule");
         }
+
+        notifySchedulesChanged(context);
     }
 
     /**
@@ -224,75 +201,7 @@ public class Scheduler extends Aware_Sensor {
     public static void saveSchedule(Context context, Schedule schedule, String package_name) {
         try {
             if (schedule.getRandom().length() != 0) {
-
-                JSONObject random = schedule.getRandom();
-
-                Calendar start = Calendar.getInstance();
-                Calendar end = Calendar.getInstance();
-                Calendar now = Calendar.getInstance();
-
-                int earliest = schedule.getDailyEarliest();
-                int latest = schedule.getDailyLatest();
-
-                start.set(Calendar.HOUR_OF_DAY, earliest);
-                start.set(Calendar.MINUTE, start.get(Calendar.MINUTE));
-                start.set(Calendar.SECOND, start.get(Calendar.SECOND));
-                start.set(Calendar.MILLISECOND, start.get(Calendar.MILLISECOND));
-
-                end.set(Calendar.HOUR_OF_DAY, latest);
-                end.set(Calendar.MINUTE, 59);
-                end.set(Calendar.SECOND, 59);
-                end.set(Calendar.MILLISECOND, 999);
-
-                if (now.get(Calendar.HOUR_OF_DAY) > earliest) { //earliest today is earlier today, let's assign randoms for the rest of today
-                    start.set(Calendar.HOUR_OF_DAY, now.get(Calendar.HOUR_OF_DAY));
-                    start.add(Calendar.MINUTE, 15); //schedule randomly 15 minutes from now->latest
-
-                    Log.d(TAG, "Random times set for today between " + start.getTime().toString() + " and " + end.getTime().toString());
-                }
-
-                //too late to schedule them today, schedule for the next day
-                if (now.get(Calendar.HOUR_OF_DAY) > latest) {
-                    start.add(Calendar.DAY_OF_YEAR, 1);
-                    start.set(Calendar.HOUR_OF_DAY, earliest);
-                    start.set(Calendar.MINUTE, 0);
-                    start.set(Calendar.SECOND, 0);
-                    start.set(Calendar.MILLISECOND, 0);
-
-                    end.add(Calendar.DAY_OF_YEAR, 1);
-
-                    Log.d(TAG, "Random times set for tomorrow between " + start.getTime().toString() + " and " + end.getTime().toString());
-                }
-
-                ArrayList<Long> randoms = random_times(start, end, random.getInt(RANDOM_TIMES), random.getInt(RANDOM_INTERVAL));
-                String original_id = schedule.getScheduleID();
-
-                long max = getLastRandom(randoms);
-
-                for (Long r : randoms) {
-                    Calendar timer = Calendar.getInstance();
-                    timer.setTimeInMillis(r);
-
-                    Log.d(TAG, "RANDOM TIME:" + timer.getTime().toString() + "\n");
-
-                    schedule.setTimer(timer);
-
-                    if (r == max) {
-                        schedule.setScheduleID(original_id + "_random_" + r + "_last");
-                    } else {
-                        schedule.setScheduleID(original_id + "_random_" + r);
-                    }
-
-                    ContentValues data = new ContentValues();
-                    data.put(Scheduler_Provider.Scheduler_Data.TIMESTAMP, System.currentTimeMillis());
-                    data.put(Scheduler_Provider.Scheduler_Data.DEVICE_ID, Aware.getSetting(context, Aware_Preferences.DEVICE_ID));
-                    data.put(Scheduler_Provider.Scheduler_Data.SCHEDULE_ID, schedule.getScheduleID());
-                    data.put(Scheduler_Provider.Scheduler_Data.SCHEDULE, schedule.build().toString());
-                    data.put(Scheduler_Provider.Scheduler_Data.PACKAGE_NAME, package_name);
-
-                    Log.d(Scheduler.TAG, "Random schedule: " + data.toString() + "\n");
-                    context.getContentResolver().insert(Scheduler_Provider.Scheduler_Data.CONTENT_URI, data);
-                }
+                planRandom(context, schedule, package_name, 0);
             } else {
                 ContentValues data = new ContentValues();
                 data.put(Scheduler_Provider.Scheduler_Data.TIMESTAMP, System.currentTimeMillis());
@@ -310,81 +219,110 @@ public class Scheduler extends Aware_Sensor {
                     context.getContentResolver().insert(Scheduler_Provider.Scheduler_Data.CONTENT_URI, data);
                 }
                 if (schedules != null && !schedules.isClosed()) schedules.close();
+
+                compiledSchedules.remove(schedule.getScheduleID());
             }
 
         } catch (JSONException e) {
             e.printStackTrace();
             Log.e(Scheduler.TAG, "Error saving schedule");
         }
-    }
 
-    private static long getLastRandom(ArrayList<Long> randoms) {
-        long max = 0;
-        for (Long r : randoms) {
-            if (r >= max) max = r;
-        }
-        return max;
+        notifySchedulesChanged(context);
     }
 
-    private static void rescheduleRandom(Context context, Schedule schedule) {
-        try {
-            JSONObject random = schedule.getRandom();
+    /**
+     * Persists the random trigger times of a schedule for the next RANDOM_PLAN_DAYS days, starting at first_day (0 is today).
+     * Each time is saved as a timer schedule; the last one of the plan is tagged to plan the following days once triggered.
+     * Pending times from a previous plan of the same schedule are replaced.
+     *
+     * @param context
+     * @param schedule
+     * @param package_name
+     * @param first_day
+     * @throws JSONException
+     */
+    private static void planRandom(Context context, Schedule schedule, String package_name, int first_day) throws JSONException {
+        JSONObject random = schedule.getRandom();
 
-            Calendar start = Calendar.getInstance();
-            Calendar end = Calendar.getInstance();
+        int earliest = schedule.getDailyEarliest();
+        int latest = schedule.getDailyLatest();
 
-            int earliest = schedule.getDailyEarliest();
-            int latest = schedule.getDailyLatest();
+        String original_id = schedule.getScheduleID();
+        String device_id = Aware.getSetting(context, Aware_Preferences.DEVICE_ID);
+        long now = System.currentTimeMillis();
 
+        ArrayList<Long> randoms = new ArrayList<>();
+        for (int day = first_day; day < first_day + RANDOM_PLAN_DAYS; day++) {
+            Calendar start = Calendar.getInstance();
+            start.add(Calendar.DAY_OF_YEAR, day);
             start.set(Calendar.HOUR_OF_DAY, earliest);
             start.set(Calendar.MINUTE, 0);
             start.set(Calendar.SECOND, 0);
             start.set(Calendar.MILLISECOND, 0);
 
+            Calendar end = Calendar.getInstance();
+            end.setTimeInMillis(start.getTimeInMillis());
             end.set(Calendar.HOUR_OF_DAY, latest);
             end.set(Calendar.MINUTE, 59);
             end.set(Calendar.SECOND, 59);
             end.set(Calendar.MILLISECOND, 999);
 
-            //moving dates to tomorrow
-            start.add(Calendar.DAY_OF_YEAR, 1);
-            end.add(Calendar.DAY_OF_YEAR, 1);
+            //only 15 minutes from now->latest
+            long earliest_allowed = now + 15 * 60000;
 
-            Log.d(TAG, "Random times set for tomorrow between " + start.getTime().toString() + " and " + end.getTime().toString());
+            //too late to schedule them on this day
+            if (end.getTimeInMillis() <= earliest_allowed) continue;
 
-            ArrayList<Long> randoms = random_times(start, end, random.getInt(RANDOM_TIMES), random.getInt(RANDOM_INTERVAL));
-            String original_id = schedule.getScheduleID();
+            //same schedule and day, same times: the whole day is drawn, then the times that are too soon are left out
+            long seed = original_id.hashCode() * 1000003L + end.get(Calendar.YEAR) * 1000 + end.get(Calendar.DAY_OF_YEAR);
+            for (long r : random_times(start, end, random.getInt(RANDOM_TIMES), random.getInt(RANDOM_INTERVAL), seed)) {
+                if (r >= earliest_allowed) randoms.add(r);
+            }
 
-            long max = getLastRandom(randoms);
+            Log.d(TAG, "Random times set between " + new Date(Math.max(start.getTimeInMillis(), earliest_allowed)).toString() + " and " + end.getTime().toString());
+        }
 
-            for (Long r : randoms) {
-                Calendar timer = Calendar.getInstance();
-                timer.setTimeInMillis(r);
+        ContentValues[] plan = new ContentValues[randoms.size()];
+        for (int i = 0; i < randoms.size(); i++) {
+            long r = randoms.get(i);
 
-                Log.d(TAG, "RANDOM TIME:" + timer.getTime().toString() + "\n");
+            Calendar timer = Calendar.getInstance();
+            timer.setTimeInMillis(r);
+            schedule.setTimer(timer);
 
-                schedule.setTimer(timer);
+            //times are in increasing order, the last one plans the following days
+            if (i == randoms.size() - 1) {
+                schedule.setScheduleID(original_id + "_random_" + r + "_last");
+            } else {
+                schedule.setScheduleID(original_id + "_random_" + r);
+            }
 
-                if (r == max) {
-                    schedule.setScheduleID(original_id + "_random_" + r + "_last");
-                } else {
-                    schedule.setScheduleID(original_id + "_random_" + r);
-                }
+            ContentValues data = new ContentValues();
+            data.put(Scheduler_Provider.Scheduler_Data.TIMESTAMP, now);
+            data.put(Scheduler_Provider.Scheduler_Data.DEVICE_ID, device_id);
+            data.put(Scheduler_Provider.Scheduler_Data.SCHEDULE_ID, schedule.getScheduleID());
+            data.put(Scheduler_Provider.Scheduler_Data.SCHEDULE, schedule.build().toString());
+            data.put(Scheduler_Provider.Scheduler_Data.PACKAGE_NAME, package_name);
+            plan[i] = data;
 
-                ContentValues data = new ContentValues();
-                data.put(Scheduler_Provider.Scheduler_Data.TIMESTAMP, System.currentTimeMillis());
-                data.put(Scheduler_Provider.Scheduler_Data.DEVICE_ID, Aware.getSetting(context, Aware_Preferences.DEVICE_ID));
-                data.put(Scheduler_Provider.Scheduler_Data.SCHEDULE_ID, schedule.getScheduleID());
-                data.put(Scheduler_Provider.Scheduler_Data.SCHEDULE, schedule.build().toString());
-                data.put(Scheduler_Provider.Scheduler_Data.PACKAGE_NAME, context.getPackageName());
+            Log.d(TAG, "RANDOM TIME:" + timer.getTime().toString() + "\n");
+        }
+        schedule.setScheduleID(original_id);
 
-                Log.d(Scheduler.TAG, "Random schedule: " + data.toString() + "\n");
-                context.getContentResolver().insert(Scheduler_Provider.Scheduler_Data.CONTENT_URI, data);
-            }
+        context.getContentResolver().delete(Scheduler_Provider.Scheduler_Data.CONTENT_URI, Scheduler_Provider.Scheduler_Data.SCHEDULE_ID + " LIKE '" + original_id + "_random_%' AND " + Scheduler_Provider.Scheduler_Data.PACKAGE_NAME + " LIKE '" + package_name + "'", null);
+        context.getContentResolver().bulkInsert(Scheduler_Provider.Scheduler_Data.CONTENT_URI, plan);
+    }
 
+    private static void rescheduleRandom(Context context, Schedule schedule) {
+        try {
+            //the plan is over, plan the following days
+            planRandom(context, schedule, context.getPackageName(), 1);
         } catch (JSONException e) {
             e.printStackTrace();
         }
+
+        notifySchedulesChanged(context);
     }
 
     /**
@@ -404,8 +342,11 @@ public class Scheduler extends Aware_Sensor {
 
         context.getContentResolver().delete(Scheduler_Provider.Scheduler_Data.CONTENT_URI, Scheduler_Provider.Scheduler_Data.SCHEDULE_ID + " LIKE '" + schedule_id + "' AND " + Scheduler_Provider.Scheduler_Data.PACKAGE_NAME + " LIKE '" + ((is_global) ? "com.aware.phone" : context.getPackageName()) + "'", null);
 
+        compiledSchedules.remove(schedule_id);
         clearReceivers(context, schedule_id);
         clearContentObservers(context, schedule_id);
+
+        notifySchedulesChanged(context);
     }
 
     /**
@@ -418,8 +359,11 @@ public class Scheduler extends Aware_Sensor {
     public static void removeSchedule(Context context, String schedule_id, String package_name) {
         context.getContentResolver().delete(Scheduler_Provider.Scheduler_Data.CONTENT_URI, Scheduler_Provider.Scheduler_Data.SCHEDULE_ID + " LIKE '" + schedule_id + "' AND " + Scheduler_Provider.Scheduler_Data.PACKAGE_NAME + " LIKE '" + package_name + "'", null);
 
+        compiledSchedules.remove(schedule_id);
         clearReceivers(context, schedule_id);
         clearContentObservers(context, schedule_id);
+
+        notifySchedulesChanged(context);
     }
 
     /**
@@ -517,26 +461,97 @@ public class Scheduler extends Aware_Sensor {
         if (scheduled_tasks != null && !scheduled_tasks.isClosed()) scheduled_tasks.close();
     }
 
+    /**
+     * True if a conditional schedule of this app is watching the content URI
+     *
+     * @param data
+     */
+    public static boolean hasConditions(Uri data) {
+        return conditionObservers.containsKey(data);
+    }
+
+    /**
+     * Flags the schedules as changed and wakes up the Scheduler so it recomputes when to fire next
+     *
+     * @param c
+     */
+    private static void notifySchedulesChanged(Context c) {
+        schedulesChanged = true;
+        Aware.startScheduler(c);
+    }
+
     private static void clearReceivers(Context c, String schedule_id) {
         if (schedulerListeners.size() == 0) return;
         Hashtable<IntentFilter, BroadcastReceiver> scheduled = schedulerListeners.get(schedule_id);
+        if (scheduled == null) return;
         for (IntentFilter filter : scheduled.keySet()) {
             try {
                 c.unregisterReceiver(scheduled.get(filter));
             } catch (IllegalArgumentException | NullPointerException e) {
             }
+            withdrawContexts(c, filter);
         }
         schedulerListeners.remove(schedule_id);
+
+        ContextBus.Subscriber subscriber = schedulerSubscribers.remove(schedule_id);
+        if (subscriber != null) ContextBus.unsubscribe(subscriber);
+    }
+
+    /**
+     * Asks the other apps running AWARE to broadcast the actions of a contextual schedule. The events of this app
+     * reach the schedule in-process.
+     */
+    private static void requestContexts(Context c, IntentFilter filter) {
+        ArrayList<String> requested = new ArrayList<>();
+        synchronized (requestedContexts) {
+            for (int i = 0; i < filter.countActions(); i++) {
+                String action = filter.getAction(i);
+                Integer count = requestedContexts.get(action);
+                requestedContexts.put(action, (count == null) ? 1 : count + 1);
+                if (count == null) requested.add(action);
+            }
+        }
+        if (requested.size() > 0)
+            ContextBus.requestBroadcasts(c, 0, requested.toArray(new String[requested.size()]));
+    }
+
+    /**
+     * Withdraws the actions no other contextual schedule needs
+     */
+    private static void withdrawContexts(Context c, IntentFilter filter) {
+        ArrayList<String> withdrawn = new ArrayList<>();
+        synchronized (requestedContexts) {
+            for (int i = 0; i < filter.countActions(); i++) {
+                String action = filter.getAction(i);
+                Integer count = requestedContexts.get(action);
+                if (count == null) continue;
+                if (count > 1) {
+                    requestedContexts.put(action, count - 1);
+                } else {
+                    requestedContexts.remove(action);
+                    withdrawn.add(action);
+                }
+            }
+        }
+        if (withdrawn.size() > 0)
+            ContextBus.withdrawBroadcasts(c, withdrawn.toArray(new String[withdrawn.size()]));
     }
 
     private static void clearContentObservers(Context c, String schedule_id) {
         if (schedulerDataObservers.size() == 0) return;
         Hashtable<Uri, ContentObserver> scheduled = schedulerDataObservers.get(schedule_id);
+        if (scheduled == null) return;
         for (Uri data : scheduled.keySet()) {
+            ConditionObserver observer = (ConditionObserver) scheduled.get(data);
+
+            //other schedules still watching this URI
+            if (!observer.removeConditions(schedule_id)) continue;
+
             try {
-                c.getContentResolver().unregisterContentObserver(scheduled.get(data));
+                c.getContentResolver().unregisterContentObserver(observer);
             } catch (IllegalArgumentException | NullPointerException e) {
             }
+            conditionObservers.remove(data);
         }
         schedulerDataObservers.remove(schedule_id);
     }
@@ -927,62 +942,272 @@ public class Scheduler extends Aware_Sensor {
         }
     }
 
+    /**
+     * Immutable, typed form of a {@link Schedule}, compiled once when the schedule is loaded.
+     * Time constraints are kept as bit masks so that checking a trigger needs neither JSON nor allocations.
+     */
+    public static final class CompiledSchedule {
+
+        public final Schedule schedule;
+        public final String schedule_id;
+        public final long timer;
+        public final long interval;
+        public final long interval_delayed;
+        public final boolean random;
+
+        //bit N set if Calendar.MONTH, Calendar.DAY_OF_WEEK, Calendar.HOUR_OF_DAY or Calendar.MINUTE value N is allowed
+        final int months;
+        final int weekdays;
+        final int hours;
+        final long minutes;
+
+        final boolean has_months;
+        final boolean has_weekdays;
+        final boolean has_hours;
+        final boolean has_minutes;
+
+        //the JSON this schedule was compiled from
+        private final String source;
+
+        private CompiledSchedule(Schedule schedule, String source) throws JSONException {
+            this.schedule = schedule;
+            this.source = source;
+            this.schedule_id = schedule.getScheduleID();
+            this.timer = schedule.getTimer();
+            this.interval = schedule.getInterval();
+            this.interval_delayed = schedule.getIntervalDelayed();
+            this.random = schedule.getRandom().length() > 0;
+
+            Calendar calendar = Calendar.getInstance();
+
+            JSONArray json_months = schedule.getMonths();
+            this.has_months = json_months.length() > 0;
+            this.months = (int) mask(json_months, calendar.getDisplayNames(Calendar.MONTH, Calendar.LONG, Locale.getDefault()));
+
+            JSONArray json_weekdays = schedule.getWeekdays();
+            this.has_weekdays = json_weekdays.length() > 0;
+            this.weekdays = (int) mask(json_weekdays, calendar.getDisplayNames(Calendar.DAY_OF_WEEK, Calendar.LONG, Locale.getDefault()));
+
+            JSONArray json_hours = schedule.getHours();
+            this.has_hours = json_hours.length() > 0;
+            this.hours = (int) mask(json_hours, 24);
+
+            JSONArray json_minutes = schedule.getMinutes();
+            this.has_minutes = json_minutes.length() > 0;
+            this.minutes = mask(json_minutes, 60);
+        }
+
+        /**
+         * Compile a schedule as stored in the database
+         *
+         * @param json
+         * @return
+         * @throws JSONException
+         */
+        public static CompiledSchedule compile(String json) throws JSONException {
+            return new CompiledSchedule(new Schedule(new JSONObject(json)), json);
+        }
+
+        /**
+         * True if this schedule has no time constraints at all
+         *
+         * @return
+         */
+        public boolean isUnconstrained() {
+            return timer == -1 && interval == 0 && interval_delayed == 0 && !has_months && !has_weekdays && !has_hours && !has_minutes;
+        }
+
+        boolean isMonth(Calendar date) {
+            return !has_months || (months & (1 << date.get(Calendar.MONTH))) != 0;
+        }
+
+        boolean isWeekday(Calendar date) {
+            return !has_weekdays || (weekdays & (1 << date.get(Calendar.DAY_OF_WEEK))) != 0;
+        }
+
+        boolean isHour(Calendar date) {
+            return !has_hours || (hours & (1 << date.get(Calendar.HOUR_OF_DAY))) != 0;
+        }
+
+        boolean isMinute(Calendar date) {
+            return !has_minutes || (minutes & (1L << date.get(Calendar.MINUTE))) != 0;
+        }
+
+        private static long mask(JSONArray values, int range) throws JSONException {
+            long mask = 0;
+            for (int i = 0; i < values.length(); i++) {
+                int value = values.getInt(i);
+                if (value >= 0 && value < range) mask |= 1L << value;
+            }
+            return mask;
+        }
+
+        private static long mask(JSONArray names, Map<String, Integer> display_names) throws JSONException {
+            long mask = 0;
+            if (display_names == null) return mask;
+            for (int i = 0; i < names.length(); i++) {
+                for (Map.Entry<String, Integer> name : display_names.entrySet()) {
+                    if (name.getKey().equalsIgnoreCase(names.getString(i))) mask |= 1L << name.getValue();
+                }
+            }
+            return mask;
+        }
+    }
+
+    //Reused when checking time constraints, only accessed from the main thread
+    private final Calendar clock = Calendar.getInstance();
+
+    //Conditions are checked on the scheduler thread, actions are performed on the main thread
+    private HandlerThread schedulerThread;
+    private Handler schedulerHandler;
+    private Handler mainHandler;
+
+    //Schedules can be deleted or changed without going through the Scheduler (e.g., reset, plugin removed, study joined)
+    private ContentObserver schedulesObserver;
+
     @Override
     public void onCreate() {
         super.onCreate();
+
+        schedulerThread = new HandlerThread(TAG);
+        schedulerThread.start();
+        schedulerHandler = new Handler(schedulerThread.getLooper());
+        mainHandler = new Handler(Looper.getMainLooper());
+
+        schedulesObserver = new ContentObserver(mainHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                //the in-memory triggers already know when they last fired
+                int pending;
+                while ((pending = ownUpdates.get()) > 0) {
+                    if (ownUpdates.compareAndSet(pending, pending - 1)) return;
+                }
+
+                if (schedulesChanged) return; //a reload is already on its way
+                schedulesChanged = true;
+                Aware.startScheduler(getApplicationContext());
+            }
+        };
+        getContentResolver().registerContentObserver(Scheduler_Provider.Scheduler_Data.CONTENT_URI, true, schedulesObserver);
+
         if (DEBUG) Log.d(TAG, "Scheduler is created");
     }
 
     /**
-     * Scheduler's ContentObservers
+     * Scheduler's ContentObservers: one per content URI, shared by all the conditional schedules watching it.
+     * Bursts of changes (e.g., bulk inserts of sensor data) are coalesced, then every condition on the URI is
+     * checked with a single existence query on the scheduler thread.
      */
-    private class DBObserver extends ContentObserver {
-        private Uri data;
-        private String condition;
-        private Schedule schedule;
-
-        DBObserver(Handler h) {
-            super(h);
-        }
+    private class ConditionObserver extends ContentObserver {
+        private final Uri data;
+        private final CopyOnWriteArrayList<Condition> conditions = new CopyOnWriteArrayList<>();
+        private boolean pending = false;
+
+        private final Runnable check = new Runnable() {
+            @Override
+            public void run() {
+                pending = false;
+                checkConditions();
+            }
+        };
 
-        DBObserver setSchedule(Schedule s) {
-            this.schedule = s;
-            return this;
+        ConditionObserver(Uri content_uri) {
+            super(schedulerHandler);
+            this.data = content_uri;
         }
 
-        DBObserver setData(Uri content_uri) {
-            this.data = content_uri;
-            return this;
+        void addCondition(ScheduleTrigger trigger, String where) {
+            conditions.add(new Condition(trigger, where));
         }
 
-        DBObserver setCondition(String where) {
-            this.condition = where;
-            return this;
+        /**
+         * Stop checking the conditions of a schedule
+         *
+         * @param schedule_id
+         * @return true if no other schedule is watching this URI
+         */
+        boolean removeConditions(String schedule_id) {
+            for (Condition condition : conditions) {
+                if (condition.trigger.compiled.schedule_id.equals(schedule_id)) conditions.remove(condition);
+            }
+            return conditions.isEmpty();
         }
 
         @Override
         public void onChange(boolean selfChange) {
-            super.onChange(selfChange);
-
-            if (DEBUG) Log.d(Aware.TAG, "Checking condition : " + data.toString() + " where: " + condition);
+            if (pending) return;
+            pending = true;
+            schedulerHandler.postDelayed(check, CONDITION_CHECK_DELAY);
+        }
 
-            if (this.data != null && this.condition.length() > 0) {
+        private void checkConditions() {
+            if (DEBUG) Log.d(Aware.TAG, "Checking " + conditions.size() + " condition(s) on " + data.toString());
 
-                boolean condition_met = false;
+            HashMap<String, Boolean> checked = new HashMap<>();
+            final ArrayList<ScheduleTrigger> met = new ArrayList<>();
+            for (Condition condition : conditions) {
+                if (condition.where.length() == 0) continue;
 
-                Cursor rows = getContentResolver().query(this.data, null, this.condition, null, null);
-                if (rows != null && rows.moveToFirst() && rows.getCount() > 0) {
-                    condition_met = true;
+                Boolean exists = checked.get(condition.where);
+                if (exists == null) {
+                    exists = condition_exists(data, condition.where);
+                    checked.put(condition.where, exists);
                 }
-                if (rows != null && !rows.isClosed()) rows.close();
+                if (exists && !met.contains(condition.trigger)) met.add(condition.trigger);
+            }
 
-                if (condition_met) {
-                    if (is_trigger(schedule)) {
-                        performAction(schedule);
-                        if (DEBUG) Log.d(Aware.TAG, "Condition triggered: " + data.toString() + " where: " + condition);
+            if (met.isEmpty()) return;
+
+            //trigger state is kept on the main thread
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    long now = System.currentTimeMillis();
+                    for (ScheduleTrigger trigger : met) {
+                        if (is_trigger(trigger, now)) {
+                            performAction(trigger.compiled.schedule);
+                            trigger.last_triggered = now;
+                            if (DEBUG) Log.d(Aware.TAG, "Condition triggered: " + trigger.compiled.schedule_id + " on " + data.toString());
+                        }
                     }
                 }
+            });
+        }
+    }
+
+    private static class Condition {
+        private final ScheduleTrigger trigger;
+        private final String where;
+
+        Condition(ScheduleTrigger trigger, String where) {
+            this.trigger = trigger;
+            this.where = where;
+        }
+    }
+
+    /**
+     * Checks if any row matches the condition, fetching at most one row id
+     *
+     * @param data
+     * @param where
+     * @return
+     */
+    private boolean condition_exists(Uri data, String where) {
+        Cursor rows = null;
+        try {
+            try {
+                rows = getContentResolver().query(data, new String[]{BaseColumns._ID}, where, null, BaseColumns._ID + " DESC LIMIT 1");
+            } catch (IllegalArgumentException | SQLiteException e) {
+                //provider does not expose an _id column, or does not take our sort order
+                rows = getContentResolver().query(data, null, where, null, null);
             }
+            return (rows != null && rows.moveToFirst());
+        } catch (IllegalArgumentException | SQLiteException | SecurityException e) {
+            //bad condition, or a provider we are not allowed to read: the condition is not met
+            if (DEBUG) Log.d(TAG, "Condition failed on " + data.toString() + ": " + e.getMessage());
+            return false;
+        } finally {
+            if (rows != null && !rows.isClosed()) rows.close();
         }
     }
 
@@ -992,289 +1217,395 @@ public class Scheduler extends Aware_Sensor {
 
         if (PERMISSIONS_OK) {
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                AlarmManager am = (AlarmManager) getSystemService(ALARM_SERVICE);
-                Intent scheduler = new Intent(this, Scheduler.class);
-                PendingIntent repeating = PendingIntent.getService(getApplicationContext(), 0, scheduler, PendingIntent.FLAG_UPDATE_CURRENT);
-                am.setAlarmClock(new AlarmManager.AlarmClockInfo(System.currentTimeMillis() + (60000), repeating), repeating); //next minute
-            } else {
-                //no-op: using a repeating alarm for older versions of Android.
+            DEBUG = Aware.getSetting(this, Aware_Preferences.DEBUG_FLAG).equals("true");
+
+            //Schedules were added, changed or removed: rebuild the triggers and the time queue
+            if (schedulesChanged) {
+                schedulesChanged = false;
+                loadSchedules();
             }
 
-            DEBUG = Aware.getSetting(this, Aware_Preferences.DEBUG_FLAG).equals("true");
+            //Fire all time-based schedules that are due by now
+            long now = System.currentTimeMillis();
+            while (!scheduleQueue.isEmpty() && scheduleQueue.peek().next_fire <= now) {
+                ScheduleTrigger due = scheduleQueue.poll();
 
-            if (DEBUG) Log.d(TAG, "Checking for scheduled tasks: " + getPackageName());
+                if (DEBUG) Log.d(TAG, "Triggering scheduled task: " + due.compiled.schedule_id + " in package: " + getPackageName());
+                performAction(due.compiled.schedule);
+                if (due.compiled.timer != -1) continue; //timers are removed once triggered
 
-            String standalone = "";
-            if (getResources().getBoolean(R.bool.standalone)) {
-                standalone = " OR " + Scheduler_Provider.Scheduler_Data.PACKAGE_NAME + " LIKE 'com.aware.phone'";
+                due.last_triggered = now;
+                due.next_fire = nextFireTime(due.compiled, now + 1, due.last_triggered, due.created);
+                if (due.next_fire != -1) scheduleQueue.add(due);
             }
 
-            Cursor scheduled_tasks = getContentResolver().query(Scheduler_Provider.Scheduler_Data.CONTENT_URI, null, Scheduler_Provider.Scheduler_Data.PACKAGE_NAME + " LIKE '" + getPackageName() + "'" + standalone, null, Scheduler_Provider.Scheduler_Data.TIMESTAMP + " ASC");
-            if (scheduled_tasks != null && scheduled_tasks.moveToFirst()) {
+            //performing the actions may have removed or rescheduled timers
+            if (schedulesChanged) {
+                schedulesChanged = false;
+                loadSchedules();
+            }
+
+            armNextAlarm();
+        }
 
-                if (DEBUG)
-                    Log.d(TAG, "Scheduled tasks for " + getPackageName() + ": " + scheduled_tasks.getCount());
+        return START_STICKY;
+    }
 
-                do {
-                    try {
-                        final Schedule schedule = getSchedule(this, scheduled_tasks.getString(scheduled_tasks.getColumnIndex(Scheduler_Provider.Scheduler_Data.SCHEDULE_ID)));
+    /**
+     * Reads all the schedules for this package once: contextual and conditional schedules register their listeners,
+     * time-based schedules are queued by their next fire time.
+     */
+    private void loadSchedules() {
 
-                        //unable to load schedule. This should never happen.
-                        if (schedule == null) {
-                            if (DEBUG)
-                                Log.e(TAG, "Failed to load schedule... something is wrong with the database.");
+        if (DEBUG) Log.d(TAG, "Checking for scheduled tasks: " + getPackageName());
 
-                            continue;
-                        }
+        scheduleQueue.clear();
+        Hashtable<String, CompiledSchedule> loaded = new Hashtable<>();
 
-                        //Schedulers triggered by broadcasts
-                        if (schedule.getContexts().length() > 0) {
+        String standalone = "";
+        if (getResources().getBoolean(R.bool.standalone)) {
+            standalone = " OR " + Scheduler_Provider.Scheduler_Data.PACKAGE_NAME + " LIKE 'com.aware.phone'";
+        }
 
-                            //Check if we already registered the broadcastreceiver for this schedule
-                            if (!schedulerListeners.containsKey(schedule.getScheduleID())) {
+        long now = System.currentTimeMillis();
 
-                                final JSONArray contexts = schedule.getContexts();
-                                IntentFilter filter = new IntentFilter();
-                                for (int i = 0; i < contexts.length(); i++) {
-                                    String context = contexts.getString(i);
-                                    filter.addAction(context);
-                                }
+        Cursor scheduled_tasks = getContentResolver().query(Scheduler_Provider.Scheduler_Data.CONTENT_URI, null, Scheduler_Provider.Scheduler_Data.PACKAGE_NAME + " LIKE '" + getPackageName() + "'" + standalone, null, Scheduler_Provider.Scheduler_Data.TIMESTAMP + " ASC");
+        if (scheduled_tasks != null && scheduled_tasks.moveToFirst()) {
 
-                                BroadcastReceiver listener = new BroadcastReceiver() {
-                                    @Override
-                                    public void onReceive(Context context, Intent intent) {
-                                        if (is_trigger(schedule)) {
-                                            if (DEBUG) Log.d(TAG, "Triggered contextual trigger: " + contexts.toString());
+            if (DEBUG)
+                Log.d(TAG, "Scheduled tasks for " + getPackageName() + ": " + scheduled_tasks.getCount());
 
-                                            performAction(schedule);
-                                        }
-                                    }
-                                };
+            do {
+                try {
+                    //Only compile the schedules that are new or have changed since last time
+                    String json = scheduled_tasks.getString(scheduled_tasks.getColumnIndex(Scheduler_Provider.Scheduler_Data.SCHEDULE));
+                    CompiledSchedule compiled = compiledSchedules.get(scheduled_tasks.getString(scheduled_tasks.getColumnIndex(Scheduler_Provider.Scheduler_Data.SCHEDULE_ID)));
+                    if (compiled == null || !compiled.source.equals(json)) {
+                        if (compiled != null) {
+                            //changed: the listeners of the old version go
+                            clearReceivers(getApplicationContext(), compiled.schedule_id);
+                            clearContentObservers(getApplicationContext(), compiled.schedule_id);
+                        }
+                        compiled = CompiledSchedule.compile(json);
+                    }
+                    loaded.put(compiled.schedule_id, compiled);
 
-                                Hashtable<IntentFilter, BroadcastReceiver> scheduler_listener = new Hashtable<>();
-                                scheduler_listener.put(filter, listener);
+                    final Schedule schedule = compiled.schedule;
+                    final ScheduleTrigger trigger = new ScheduleTrigger(compiled,
+                            scheduled_tasks.getLong(scheduled_tasks.getColumnIndex(Scheduler_Provider.Scheduler_Data.LAST_TRIGGERED)),
+                            scheduled_tasks.getLong(scheduled_tasks.getColumnIndex(Scheduler_Provider.Scheduler_Data.TIMESTAMP)));
 
-                                schedulerListeners.put(schedule.getScheduleID(), scheduler_listener);
+                    //Schedulers triggered by broadcasts
+                    if (schedule.getContexts().length() > 0) {
+
+                        //Check if we already registered the broadcastreceiver for this schedule
+                        if (!schedulerListeners.containsKey(schedule.getScheduleID())) {
+
+                            final JSONArray contexts = schedule.getContexts();
+                            IntentFilter filter = new IntentFilter();
+                            for (int i = 0; i < contexts.length(); i++) {
+                                String context = contexts.getString(i);
+                                filter.addAction(context);
+                            }
 
-                                registerReceiver(listener, filter);
+                            final ContextBus.Subscriber subscriber = new ContextBus.Subscriber() {
+                                @Override
+                                public void onContext(Context context, Intent event) {
+                                    long now = System.currentTimeMillis();
+                                    if (is_trigger(trigger, now)) {
+                                        if (DEBUG) Log.d(TAG, "Triggered contextual trigger: " + contexts.toString());
 
-                                if (DEBUG) Log.d(TAG, "Registered a contextual trigger for " + contexts.toString());
+                                        performAction(schedule);
+                                        trigger.last_triggered = now;
+                                    }
+                                }
+                            };
+
+                            BroadcastReceiver listener = new BroadcastReceiver() {
+                                @Override
+                                public void onReceive(Context context, Intent intent) {
+                                    //the subscriber already got the events posted in this process
+                                    if (ContextBus.isLocal(intent)) return;
+                                    subscriber.onContext(context, intent);
+                                }
+                            };
 
-                            } else {
+                            Hashtable<IntentFilter, BroadcastReceiver> scheduler_listener = new Hashtable<>();
+                            scheduler_listener.put(filter, listener);
 
-                                if (DEBUG) Log.d(TAG, "Contextual triggers are active: " + schedule.getContexts().toString());
+                            schedulerListeners.put(schedule.getScheduleID(), scheduler_listener);
+                            schedulerSubscribers.put(schedule.getScheduleID(), subscriber);
 
+                            registerReceiver(listener, filter);
+                            requestContexts(this, filter);
+                            for (int i = 0; i < contexts.length(); i++) {
+                                ContextBus.subscribe(this, contexts.getString(i), subscriber);
                             }
 
-                            continue;
-                        }
+                            if (DEBUG) Log.d(TAG, "Registered a contextual trigger for " + contexts.toString());
 
-                        //Schedulers triggered by database changes
-                        if (schedule.getConditions().length() > 0) {
+                        } else {
 
-                            //Check if we already registered the ContentObservers for this schedule
-                            if (!schedulerDataObservers.containsKey(schedule.getScheduleID())) {
+                            if (DEBUG) Log.d(TAG, "Contextual triggers are active: " + schedule.getContexts().toString());
 
-                                Hashtable<Uri, ContentObserver> dataObs = new Hashtable<>();
+                        }
 
-                                final JSONArray conditions = schedule.getConditions();
-                                for (int i = 0; i < conditions.length(); i++) {
+                        continue;
+                    }
 
-                                    JSONObject condition = conditions.getJSONObject(i);
+                    //Schedulers triggered by database changes
+                    if (schedule.getConditions().length() > 0) {
 
-                                    Uri content_uri = Uri.parse(condition.getString(CONDITION_URI));
-                                    String content_where = condition.getString(CONDITION_WHERE);
+                        //Check if we already registered the ContentObservers for this schedule
+                        if (!schedulerDataObservers.containsKey(schedule.getScheduleID())) {
 
-                                    DBObserver dbObs = new DBObserver(new Handler())
-                                            .setCondition(content_where)
-                                            .setData(content_uri)
-                                            .setSchedule(schedule);
+                            Hashtable<Uri, ContentObserver> dataObs = new Hashtable<>();
 
-                                    dataObs.put(content_uri, dbObs);
+                            final JSONArray conditions = schedule.getConditions();
+                            for (int i = 0; i < conditions.length(); i++) {
 
-                                    getContentResolver().registerContentObserver(content_uri, true, dbObs);
-                                }
+                                JSONObject condition = conditions.getJSONObject(i);
 
-                                schedulerDataObservers.put(schedule.getScheduleID(), dataObs);
+                                Uri content_uri = Uri.parse(condition.getString(CONDITION_URI));
+                                String content_where = condition.getString(CONDITION_WHERE);
 
-                                if (DEBUG)
-                                    Log.d(TAG, "Registered conditional triggers: " + conditions.toString());
+                                ConditionObserver observer = conditionObservers.get(content_uri);
+                                if (observer == null) {
+                                    observer = new ConditionObserver(content_uri);
+                                    conditionObservers.put(content_uri, observer);
+                                    getContentResolver().registerContentObserver(content_uri, true, observer);
+                                }
+                                observer.addCondition(trigger, content_where);
 
-                            } else {
-                                if (DEBUG)
-                                    Log.d(TAG, "Conditional triggers are active: " + schedule.getConditions().toString());
+                                dataObs.put(content_uri, observer);
                             }
 
-                            continue;
-                        }
+                            schedulerDataObservers.put(schedule.getScheduleID(), dataObs);
+
+                            if (DEBUG)
+                                Log.d(TAG, "Registered conditional triggers: " + conditions.toString());
 
-                        //Not contextual or conditional scheduler, it is time-based
-                        if (is_trigger(schedule)) {
-                            if (DEBUG) Log.d(TAG, "Triggering scheduled task: " + schedule.getScheduleID() + " in package: " + getPackageName());
-                            performAction(schedule);
+                        } else {
+                            if (DEBUG)
+                                Log.d(TAG, "Conditional triggers are active: " + schedule.getConditions().toString());
                         }
-                    } catch (JSONException e) {
-                        e.printStackTrace();
+
+                        continue;
                     }
-                } while (scheduled_tasks.moveToNext());
-            } else {
-                if (DEBUG) Log.d(TAG, "No scheduled tasks for " + getPackageName());
-            }
-            if (scheduled_tasks != null && !scheduled_tasks.isClosed()) scheduled_tasks.close();
+
+                    //Not contextual or conditional scheduler, it is time-based
+                    trigger.next_fire = nextFireTime(compiled, now, trigger.last_triggered, trigger.created);
+                    if (trigger.next_fire != -1) {
+                        scheduleQueue.add(trigger);
+                        if (DEBUG) Log.d(TAG, "Next trigger for " + schedule.getScheduleID() + ": " + new Date(trigger.next_fire).toString());
+                    } else {
+                        if (DEBUG) Log.d(TAG, "Schedule " + schedule.getScheduleID() + " will not trigger again");
+                    }
+
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                }
+            } while (scheduled_tasks.moveToNext());
+        } else {
+            if (DEBUG) Log.d(TAG, "No scheduled tasks for " + getPackageName());
         }
+        if (scheduled_tasks != null && !scheduled_tasks.isClosed()) scheduled_tasks.close();
 
-        return START_STICKY;
+        //Schedules no longer in the database: stop listening for them
+        for (String schedule_id : new ArrayList<>(schedulerListeners.keySet())) {
+            if (!loaded.containsKey(schedule_id)) clearReceivers(getApplicationContext(), schedule_id);
+        }
+        for (String schedule_id : new ArrayList<>(schedulerDataObservers.keySet())) {
+            if (!loaded.containsKey(schedule_id)) clearContentObservers(getApplicationContext(), schedule_id);
+        }
+
+        compiledSchedules.clear();
+        compiledSchedules.putAll(loaded);
     }
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
+    /**
+     * Arms a single exact alarm for the earliest time-based schedule, or cancels it if there is nothing left to fire
+     */
+    private void armNextAlarm() {
+        AlarmManager am = (AlarmManager) getSystemService(ALARM_SERVICE);
+        Intent scheduler = new Intent(this, Scheduler.class);
+        scheduler.setAction(ACTION_AWARE_SCHEDULER_CHECK);
+        PendingIntent next = PendingIntent.getService(getApplicationContext(), 0, scheduler, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        if (scheduleQueue.isEmpty()) {
+            am.cancel(next);
+            if (DEBUG) Log.d(TAG, "No time-based schedules pending for " + getPackageName());
+            return;
+        }
 
-        //Remove broadcast receivers
-        for (String schedule_id : schedulerListeners.keySet()) {
-            clearReceivers(getApplicationContext(), schedule_id);
+        long next_fire = scheduleQueue.peek().next_fire;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            am.setAlarmClock(new AlarmManager.AlarmClockInfo(next_fire, next), next);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            am.setExact(AlarmManager.RTC_WAKEUP, next_fire, next);
+        } else {
+            am.set(AlarmManager.RTC_WAKEUP, next_fire, next);
         }
 
-        //Remove contentobservers
-        for (String schedule_id : schedulerDataObservers.keySet()) {
-            clearContentObservers(getApplicationContext(), schedule_id);
+        if (DEBUG) Log.d(TAG, "Next scheduler check at " + new Date(next_fire).toString());
+    }
+
+    /**
+     * Trigger state of a loaded schedule. Time-based schedules wait in the queue for their next fire time.
+     */
+    private static class ScheduleTrigger implements Comparable<ScheduleTrigger> {
+        private final CompiledSchedule compiled;
+        private final long created;
+        private long last_triggered;
+        private long next_fire;
+
+        ScheduleTrigger(CompiledSchedule compiled, long last_triggered, long created) {
+            this.compiled = compiled;
+            this.last_triggered = last_triggered;
+            this.created = created;
+        }
+
+        @Override
+        public int compareTo(ScheduleTrigger other) {
+            return (next_fire < other.next_fire) ? -1 : ((next_fire == other.next_fire) ? 0 : 1);
         }
     }
 
     /**
-     * Checks for time con
+     * Computes when a time-based schedule should fire next, with the same rules as {@link #is_trigger(ScheduleTrigger, long)}:
+     * at most once per minute, after the interval has elapsed and within the allowed months, weekdays, hours and minutes.
      *
      * @param schedule
-     * @return
+     * @param from           earliest allowed time, usually now
+     * @param last_triggered when it was last triggered, 0 if never
+     * @param created        when the schedule was saved
+     * @return unix timestamp of the next trigger, or -1 if it will not trigger within the next two years
      */
-    private boolean is_trigger(Schedule schedule) {
+    public static long nextFireTime(CompiledSchedule schedule, long from, long last_triggered, long created) {
 
-        Calendar now = Calendar.getInstance();
-        now.setTimeInMillis(System.currentTimeMillis());
+        //A scheduled task on a specific timestamp
+        if (schedule.timer != -1 && last_triggered == 0) {
+            return Math.max(from, schedule.timer);
+        }
 
-        if (DEBUG) {
-            Log.i(TAG, "Time now is: " + now.getTime().toString());
+        long earliest = from;
 
-            try {
-                Log.i(TAG, "Scheduler info: " + schedule.build().toString(5));
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
+        //Never more than once within the same minute
+        if (last_triggered != 0) {
+            earliest = Math.max(earliest, last_triggered - (last_triggered % 60000) + 60000);
         }
 
-        try {
-            //No time constaints, trigger it!
-            if (schedule.getTimer() == -1
-                    && schedule.getHours().length() == 0
-                    && schedule.getMinutes().length() == 0
-                    && schedule.getInterval() == 0
-                    && schedule.getIntervalDelayed() == 0
-                    && schedule.getWeekdays().length() == 0
-                    && schedule.getMonths().length() == 0)
-                return true;
-
-            //Has this scheduler been triggered before?
-            long last_triggered = 0;
-            long sched_timestamp = 0;
-            Cursor schedule_data_cursor = getContentResolver().query(
-                    Scheduler_Provider.Scheduler_Data.CONTENT_URI,
-                    new String[]{Scheduler_Provider.Scheduler_Data.LAST_TRIGGERED, Scheduler_Provider.Scheduler_Data.TIMESTAMP},
-                    Scheduler_Provider.Scheduler_Data.SCHEDULE_ID + " LIKE '" + schedule.getScheduleID() + "'",
-                    null, null);
-
-            if (schedule_data_cursor != null && schedule_data_cursor.moveToFirst()) {
-                last_triggered = schedule_data_cursor.getLong(schedule_data_cursor.getColumnIndex(Scheduler_Provider.Scheduler_Data.LAST_TRIGGERED));
-                sched_timestamp = schedule_data_cursor.getLong(schedule_data_cursor.getColumnIndex(Scheduler_Provider.Scheduler_Data.TIMESTAMP));
-                schedule_data_cursor.close();
-            }
-            if (schedule_data_cursor != null && !schedule_data_cursor.isClosed()) schedule_data_cursor.close();
-
-            // This is a scheduled task on a specific timestamp.
-            // NOTE: Once triggered, it's deleted from the database automatically.
-            if (schedule.getTimer() != -1 && last_triggered == 0) { //not been triggered yet
-                Calendar schedulerTimer = Calendar.getInstance();
-                schedulerTimer.setTimeInMillis(schedule.getTimer());
+        if (schedule.interval > 0 && last_triggered != 0) {
+            earliest = Math.max(earliest, last_triggered + schedule.interval * 60000);
+        }
 
-                if (DEBUG)
-                    Log.d(Scheduler.TAG, "Checking trigger set for a specific timestamp: " + schedulerTimer.getTime().toString());
+        //Delayed intervals wait for the delay since the last trigger, or since the schedule was created
+        if (schedule.interval_delayed != 0) {
+            earliest = Math.max(earliest, ((last_triggered != 0) ? last_triggered : created) + schedule.interval_delayed * 60000);
+        }
 
-                if (now.getTimeInMillis() >= schedule.getTimer()) {
-                    return true;
-                } else {
-                    if (DEBUG) Log.d(Scheduler.TAG,
-                            "Not the right time to trigger...: \nNow: " + now.getTime().toString() + " vs trigger: " + new Date(schedule.getTimer()).toString()
-                                    + "\n Time to trigger: " + Converters.readable_elapsed(schedule.getTimer() - now.getTimeInMillis()));
-                    return false;
-                }
+        Calendar candidate = Calendar.getInstance();
+        candidate.setTimeInMillis(earliest);
+
+        Calendar limit = Calendar.getInstance();
+        limit.setTimeInMillis(earliest);
+        limit.add(Calendar.YEAR, 2);
+
+        while (candidate.before(limit)) {
+            if (!schedule.isMonth(candidate)) {
+                candidate.add(Calendar.MONTH, 1);
+                candidate.set(Calendar.DAY_OF_MONTH, 1);
+                candidate.set(Calendar.HOUR_OF_DAY, 0);
+                candidate.set(Calendar.MINUTE, 0);
+                candidate.set(Calendar.SECOND, 0);
+                candidate.set(Calendar.MILLISECOND, 0);
+                continue;
             }
-
-            Calendar previous = null;
-            if (last_triggered != 0) {
-                previous = Calendar.getInstance();
-                previous.setTimeInMillis(last_triggered);
-                if (DEBUG) Log.i(TAG, "Scheduler last triggered: " + previous.getTime().toString());
+            if (!schedule.isWeekday(candidate)) {
+                candidate.add(Calendar.DAY_OF_YEAR, 1);
+                candidate.set(Calendar.HOUR_OF_DAY, 0);
+                candidate.set(Calendar.MINUTE, 0);
+                candidate.set(Calendar.SECOND, 0);
+                candidate.set(Calendar.MILLISECOND, 0);
+                continue;
             }
-
-            Boolean execute_interval = null;
-            if (schedule.getInterval() > 0 && previous == null) {
-                execute_interval = true;
-            } else if (previous != null && schedule.getInterval() > 0) {
-                execute_interval = is_interval_elapsed(now, previous, schedule.getInterval());
-                if (DEBUG) Log.d(Scheduler.TAG, "Trigger interval: " + execute_interval);
+            if (!schedule.isHour(candidate)) {
+                candidate.add(Calendar.HOUR_OF_DAY, 1);
+                candidate.set(Calendar.MINUTE, 0);
+                candidate.set(Calendar.SECOND, 0);
+                candidate.set(Calendar.MILLISECOND, 0);
+                continue;
             }
-            // For some schedules, we don't want to execute until an initial delay has passed.
-            // For these, we have the separate interval_delayed key.  interval_delayed should
-            // never be set at the same time as interval.
-            if (schedule.getIntervalDelayed() != 0) {
-                Calendar creation_time = Calendar.getInstance();
-                creation_time.setTimeInMillis(sched_timestamp);
-                if (previous != null && is_interval_elapsed(now, previous, schedule.getIntervalDelayed())) {
-                    // Run schedule if interval is elapsed since last run time
-                    execute_interval = true;
-                } else { // Otherwise, only execute if interval elapsed since
-                    execute_interval = (is_interval_elapsed(now, creation_time, schedule.getIntervalDelayed()));
-                }
-                if (DEBUG) Log.d(Scheduler.TAG, "Trigger interval (delayed): " + execute_interval);
+            if (!schedule.isMinute(candidate)) {
+                candidate.add(Calendar.MINUTE, 1);
+                candidate.set(Calendar.SECOND, 0);
+                candidate.set(Calendar.MILLISECOND, 0);
+                continue;
             }
+            return candidate.getTimeInMillis();
+        }
+        return -1;
+    }
 
-            Boolean execute_month = null;
-            if (schedule.getMonths().length() > 0) {
-                execute_month = is_trigger_month(schedule);
-                if (DEBUG) Log.d(Scheduler.TAG, "Trigger month: " + execute_month);
-            }
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
 
-            Boolean execute_weekdays = null;
-            if (schedule.getWeekdays().length() > 0) {
-                execute_weekdays = is_trigger_weekday(schedule);
-                if (DEBUG) Log.d(Scheduler.TAG, "Trigger weekday: " + execute_weekdays);
-            }
+        getContentResolver().unregisterContentObserver(schedulesObserver);
 
-            Boolean execute_hours = null;
-            if (schedule.getHours().length() > 0) {
-                execute_hours = is_trigger_hour(schedule);
-                if (DEBUG) Log.d(Scheduler.TAG, "Trigger hour: " + execute_hours);
-            }
+        //Remove broadcast receivers
+        for (String schedule_id : new ArrayList<>(schedulerListeners.keySet())) {
+            clearReceivers(getApplicationContext(), schedule_id);
+        }
 
-            Boolean execute_minutes = null;
-            if (schedule.getMinutes().length() > 0) {
-                execute_minutes = is_trigger_minute(schedule);
-                if (DEBUG) Log.d(Scheduler.TAG, "Trigger minute: " + execute_minutes);
-            }
+        //Remove contentobservers
+        for (String schedule_id : new ArrayList<>(schedulerDataObservers.keySet())) {
+            clearContentObservers(getApplicationContext(), schedule_id);
+        }
 
-            ArrayList<Boolean> executers = new ArrayList<>();
-            if (execute_interval != null) executers.add(execute_interval);
-            if (execute_month != null) executers.add(execute_month);
-            if (execute_weekdays != null) executers.add(execute_weekdays);
-            if (execute_hours != null) executers.add(execute_hours);
-            if (execute_minutes != null) executers.add(execute_minutes);
+        schedulerThread.quit();
 
-            return !executers.contains(false);
+        //Listeners are gone, register them again when restarted
+        schedulesChanged = true;
+    }
 
-        } catch (JSONException e) {
-            e.printStackTrace();
+    /**
+     * Checks the time constraints of a contextual or conditional schedule. Uses the compiled schedule and its
+     * in-memory trigger state only: no database access, no JSON and no allocations.
+     *
+     * @param trigger
+     * @param now
+     * @return
+     */
+    private boolean is_trigger(ScheduleTrigger trigger, long now) {
+
+        CompiledSchedule schedule = trigger.compiled;
+
+        if (DEBUG) Log.i(TAG, "Checking trigger for " + schedule.schedule_id);
+
+        //No time constaints, trigger it!
+        if (schedule.isUnconstrained()) return true;
+
+        // This is a scheduled task on a specific timestamp.
+        // NOTE: Once triggered, it's deleted from the database automatically.
+        if (schedule.timer != -1 && trigger.last_triggered == 0) { //not been triggered yet
+            return now >= schedule.timer;
         }
-        return false;
+
+        if (schedule.interval > 0 && trigger.last_triggered != 0 && !is_interval_elapsed(now, trigger.last_triggered, schedule.interval))
+            return false;
+
+        // For some schedules, we don't want to execute until an initial delay has passed, since the last run or since it was created.
+        // interval_delayed should never be set at the same time as interval.
+        if (schedule.interval_delayed != 0 && !is_interval_elapsed(now, (trigger.last_triggered != 0) ? trigger.last_triggered : trigger.created, schedule.interval_delayed))
+            return false;
+
+        clock.setTimeInMillis(now);
+        return schedule.isMonth(clock) && schedule.isWeekday(clock) && schedule.isHour(clock) && schedule.isMinute(clock);
+    }
+
+    private static boolean is_interval_elapsed(long now, long since, long required_minutes) {
+        return Math.round((now - since) / 1000 / 60.0) >= required_minutes;
     }
 
     public boolean is_interval_elapsed(Calendar date_one, Calendar date_two, long required_minutes) {
@@ -1309,132 +1640,6 @@ public class Scheduler extends Aware_Sensor {
                 && date_one.get(Calendar.MONTH) == date_two.get(Calendar.MONTH);
     }
 
-    /**
-     * Check if this trigger should be triggered at this minute
-     *
-     * @param schedule
-     * @return
-     */
-    private boolean is_trigger_minute(Schedule schedule) {
-        if (DEBUG) Log.d(Scheduler.TAG, "Checking minute matching");
-
-        Calendar now = Calendar.getInstance();
-        now.setTimeInMillis(System.currentTimeMillis());
-
-        try {
-            JSONArray minutes = schedule.getMinutes();
-
-            for (int i = 0; i < minutes.length(); i++) {
-                int minute = minutes.getInt(i);
-
-                if (DEBUG)
-                    Log.d(Scheduler.TAG, "Minute " + minute + " vs now " + now.get(Calendar.MINUTE) + " in trigger minutes: " + minutes.toString());
-
-                if ((int) now.get(Calendar.MINUTE) == minute) return true;
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-
-        return false;
-    }
-
-    /**
-     * Check if this trigger should be triggered at this hour
-     *
-     * @param schedule
-     * @return
-     */
-    private boolean is_trigger_hour(Schedule schedule) {
-
-        if (DEBUG) Log.d(Scheduler.TAG, "Checking hour matching");
-
-        Calendar now = Calendar.getInstance();
-        now.setTimeInMillis(System.currentTimeMillis());
-
-        try {
-            JSONArray hours = schedule.getHours();
-
-            for (int i = 0; i < hours.length(); i++) {
-                int hour = hours.getInt(i);
-
-                if (DEBUG)
-                    Log.d(Scheduler.TAG, "Hour " + hour + " vs now " + now.get(Calendar.HOUR_OF_DAY) + " in trigger hours: " + hours.toString());
-
-                if (hour == (int) now.get(Calendar.HOUR_OF_DAY)) return true;
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-
-        return false;
-    }
-
-    /**
-     * Check if this schedule should be triggered this weekday
-     *
-     * @param schedule
-     * @return
-     */
-    private boolean is_trigger_weekday(Schedule schedule) {
-
-        if (DEBUG) Log.d(Scheduler.TAG, "Checking weekday matching");
-
-        Calendar now = Calendar.getInstance();
-        now.setTimeInMillis(System.currentTimeMillis());
-
-        try {
-            JSONArray weekdays = schedule.getWeekdays();
-
-            for (int i = 0; i < weekdays.length(); i++) {
-                String weekday = weekdays.getString(i);
-
-                if (DEBUG)
-                    Log.d(Scheduler.TAG, "Weekday " + weekday.toUpperCase() + " vs now " + now.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.LONG, Locale.getDefault()).toUpperCase() + " in trigger weekdays: " + weekdays.toString());
-
-                if (weekday.toUpperCase().equals(now.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.LONG, Locale.getDefault()).toUpperCase()))
-                    return true;
-            }
-
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-
-        return false;
-    }
-
-    /**
-     * Check if this schedule should be triggered this month
-     *
-     * @param schedule
-     * @return
-     */
-    private boolean is_trigger_month(Schedule schedule) {
-
-        if (DEBUG) Log.d(Scheduler.TAG, "Checking month matching");
-
-        Calendar now = Calendar.getInstance();
-        now.setTimeInMillis(System.currentTimeMillis());
-
-        try {
-            JSONArray months = schedule.getMonths();
-
-            for (int i = 0; i < months.length(); i++) {
-                String month = months.getString(i);
-
-                if (DEBUG)
-                    Log.d(Scheduler.TAG, "Month " + month.toUpperCase() + " vs now " + now.getDisplayName(Calendar.MONTH, Calendar.LONG, Locale.getDefault()).toUpperCase() + " in trigger months: " + months.toString());
-
-                if (month.toUpperCase().equals(now.getDisplayName(Calendar.MONTH, Calendar.LONG, Locale.getDefault()).toUpperCase()))
-                    return true;
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-
-        return false;
-    }
-
     private void performAction(Schedule schedule) {
         try {
 
@@ -1549,10 +1754,17 @@ public class Scheduler extends Aware_Sensor {
                 ContentValues data = new ContentValues();
                 data.put(Scheduler_Provider.Scheduler_Data.LAST_TRIGGERED, System.currentTimeMillis());
 
-                if (getResources().getBoolean(R.bool.standalone)) {
-                    getContentResolver().update(Scheduler_Provider.Scheduler_Data.CONTENT_URI, data, Scheduler_Provider.Scheduler_Data.SCHEDULE_ID + " LIKE '" + schedule.getScheduleID() + "' AND " + Scheduler_Provider.Scheduler_Data.PACKAGE_NAME + " LIKE '" + getPackageName() + "' OR " + Scheduler_Provider.Scheduler_Data.PACKAGE_NAME + " LIKE 'com.aware.phone'", null);
-                } else {
-                    getContentResolver().update(Scheduler_Provider.Scheduler_Data.CONTENT_URI, data, Scheduler_Provider.Scheduler_Data.SCHEDULE_ID + " LIKE '" + schedule.getScheduleID() + "' AND " + Scheduler_Provider.Scheduler_Data.PACKAGE_NAME + " LIKE '" + getPackageName() + "'", null);
+                //every update is notified once: tell schedulesObserver to skip it
+                ownUpdates.incrementAndGet();
+                try {
+                    if (getResources().getBoolean(R.bool.standalone)) {
+                        getContentResolver().update(Scheduler_Provider.Scheduler_Data.CONTENT_URI, data, Scheduler_Provider.Scheduler_Data.SCHEDULE_ID + " LIKE '" + schedule.getScheduleID() + "' AND " + Scheduler_Provider.Scheduler_Data.PACKAGE_NAME + " LIKE '" + getPackageName() + "' OR " + Scheduler_Provider.Scheduler_Data.PACKAGE_NAME + " LIKE 'com.aware.phone'", null);
+                    } else {
+                        getContentResolver().update(Scheduler_Provider.Scheduler_Data.CONTENT_URI, data, Scheduler_Provider.Scheduler_Data.SCHEDULE_ID + " LIKE '" + schedule.getScheduleID() + "' AND " + Scheduler_Provider.Scheduler_Data.PACKAGE_NAME + " LIKE '" + getPackageName() + "'", null);
+                    }
+                } catch (RuntimeException e) {
+                    ownUpdates.decrementAndGet(); //failed updates are not notified
+                    throw e;
                 }
             }
         } catch (JSONException e) {
@@ -1570,32 +1782,47 @@ public class Scheduler extends Aware_Sensor {
      * @return ArrayList<Long> of timestamps between interval
      */
     public static ArrayList<Long> random_times(Calendar start, Calendar end, int amount, int interval_minutes) {
-        ArrayList<Long> randomList = new ArrayList<>();
+        return random_times(start, end, amount, interval_minutes, new Random().nextLong());
+    }
 
-        int minDifferenceMillis = interval_minutes * 60 * 1000;
+    /**
+     * Given a timeframe, a number of randoms and a minimum time interval, return a sorted list of timestamps.
+     * The same seed always gives the same timestamps. The spare time of the timeframe (what is left once the minimum
+     * intervals are taken out) is split at sorted uniform offsets, so spacing and bounds hold by construction, in O(n).
+     * If the timeframe cannot fit the amount of times with the given interval, only as many as fit are returned.
+     *
+     * @param start
+     * @param end
+     * @param amount           number of times
+     * @param interval_minutes how much time is set between timestamps, in minutes
+     * @param seed
+     * @return ArrayList<Long> of timestamps between interval
+     */
+    public static ArrayList<Long> random_times(Calendar start, Calendar end, int amount, int interval_minutes, long seed) {
+        ArrayList<Long> randomList = new ArrayList<>();
 
-        long startedLoop = System.currentTimeMillis();
-        while (randomList.size() < amount) {
+        long window = end.getTimeInMillis() - start.getTimeInMillis();
+        long minDifferenceMillis = interval_minutes * 60000L;
 
-            if ((System.currentTimeMillis() - startedLoop) >= 3000) break;
+        if (amount <= 0 || window < 0) return randomList;
+        if (amount > 1 && minDifferenceMillis > 0)
+            amount = (int) Math.min(amount, window / minDifferenceMillis + 1);
 
-            boolean valid_random = true;
+        long spare = window - (amount - 1) * minDifferenceMillis;
 
-            long random = start.getTimeInMillis() + (long) (Math.random() * (end.getTimeInMillis() - start.getTimeInMillis()));
+        //sorted uniform offsets in [0, spare], from normalised exponential gaps
+        Random random = new Random(seed);
+        double[] gaps = new double[amount + 1];
+        double total = 0;
+        for (int i = 0; i <= amount; i++) {
+            gaps[i] = -Math.log(1.0 - random.nextDouble());
+            total += gaps[i];
+        }
 
-            if (randomList.size() == 0) {
-                randomList.add(random);
-            } else {
-                for (int i = 0; i < randomList.size(); i++) {
-                    Long timestamp = randomList.get(i);
-                    if (Math.abs(timestamp - random) < minDifferenceMillis) {
-                        valid_random = false;
-                    }
-                }
-                if (valid_random) {
-                    randomList.add(random);
-                }
-            }
+        double offset = 0;
+        for (int i = 0; i < amount; i++) {
+            offset += gaps[i];
+            randomList.add(start.getTimeInMillis() + (long) (spare * (offset / total)) + i * minDifferenceMillis);
         }
         return randomList;
     }
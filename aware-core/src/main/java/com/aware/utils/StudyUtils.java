@@ -10,12 +10,14 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.preference.PreferenceManager;
 import android.security.KeyChain;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
@@ -25,6 +27,7 @@ import com.aware.Aware;
 import com.aware.Aware_Preferences;
 import com.aware.R;
 import com.aware.providers.Aware_Provider;
+import com.aware.providers.Scheduler_Provider;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -37,8 +40,12 @@ import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Service that allows plugins/applications to send data to AWARE's dashboard study
@@ -202,6 +209,8 @@ public class StudyUtils extends IntentService {
      * Sets first all the settings to the client.
      * If there are plugins, apply the same settings to them.
      * This allows us to add plugins to studies from the dashboard.
+     * The result is the same as resetting the client and applying the configuration, but only the settings that differ
+     * are written, and only the plugins and sensors affected by them are restarted.
      *
      * @param context
      * @param configs
@@ -209,13 +218,9 @@ public class StudyUtils extends IntentService {
     public static void applySettings(Context context, JSONArray configs) {
 
         boolean is_developer = Aware.getSetting(context, Aware_Preferences.DEBUG_FLAG).equals("true");
+        String device_id = Aware.getSetting(context, Aware_Preferences.DEVICE_ID);
+        String device_label = Aware.getSetting(context, Aware_Preferences.DEVICE_LABEL);
 
-        //First reset the client to default settings...
-        Aware.reset(context);
-
-        if (is_developer) Aware.setSetting(context, Aware_Preferences.DEBUG_FLAG, true);
-
-        //Now apply the new settings
         JSONArray plugins = new JSONArray();
         JSONArray sensors = new JSONArray();
         JSONArray schedulers = new JSONArray();
@@ -237,11 +242,31 @@ public class StudyUtils extends IntentService {
             }
         }
 
+        //The settings we should end up with: the client defaults (as after a reset), then the study's sensors and plugins
+        LinkedHashMap<String, HashMap<String, Object>> settings = new LinkedHashMap<>();
+
+        SharedPreferences prefs = context.getApplicationContext().getSharedPreferences(context.getApplicationContext().getPackageName(), Context.MODE_PRIVATE);
+        PreferenceManager.setDefaultValues(context.getApplicationContext(), context.getApplicationContext().getPackageName(), Context.MODE_PRIVATE, R.xml.aware_preferences, true);
+        prefs.edit().commit();
+
+        Map<String, ?> defaults = prefs.getAll();
+        for (Map.Entry<String, ?> entry : defaults.entrySet()) {
+            putSetting(settings, "com.aware.phone", entry.getKey(), entry.getValue());
+        }
+
+        //Keep previous AWARE Device ID and label
+        putSetting(settings, "com.aware.phone", Aware_Preferences.DEVICE_ID, device_id);
+        putSetting(settings, "com.aware.phone", Aware_Preferences.DEVICE_LABEL, device_label);
+
+        if (is_developer)
+            putSetting(settings, Aware.getSettingPackage(context, Aware_Preferences.DEBUG_FLAG), Aware_Preferences.DEBUG_FLAG, true);
+
         //Set the sensors' settings first
         for (int i = 0; i < sensors.length(); i++) {
             try {
                 JSONObject sensor_config = sensors.getJSONObject(i);
-                Aware.setSetting(context, sensor_config.getString("setting"), sensor_config.get("value"));
+                String key = sensor_config.getString("setting");
+                putSetting(settings, Aware.getSettingPackage(context, key), key, sensor_config.get("value"));
             } catch (JSONException e) {
                 e.printStackTrace();
             }
@@ -259,31 +284,70 @@ public class StudyUtils extends IntentService {
                 JSONArray plugin_settings = plugin_config.getJSONArray("settings");
                 for (int j = 0; j < plugin_settings.length(); j++) {
                     JSONObject plugin_setting = plugin_settings.getJSONObject(j);
-                    Aware.setSetting(context, plugin_setting.getString("setting"), plugin_setting.get("value"), package_name);
+                    putSetting(settings, package_name, plugin_setting.getString("setting"), plugin_setting.get("value"));
                 }
             } catch (JSONException e) {
                 e.printStackTrace();
             }
         }
 
-        //Set schedulers
+        //The next study check compares against this configuration
+        Aware.clearStudyCheck(context);
+
+        //Only what differs is written, in one transaction. Anything else is removed, as a reset would.
+        HashMap<String, HashSet<String>> changes = Aware.setSettings(context, settings, true);
+        boolean standalone = context.getResources().getBoolean(R.bool.standalone);
+
+        //Replace schedulers
+        context.getContentResolver().delete(Scheduler_Provider.Scheduler_Data.CONTENT_URI, null, null);
         if (schedulers.length() > 0)
             Scheduler.setSchedules(context, schedulers);
 
+        //Turn off the plugins that are no longer part of the study
+        ArrayList<String> running_plugins = new ArrayList<>();
+        Cursor enabled_plugins = context.getContentResolver().query(Aware_Provider.Aware_Plugins.CONTENT_URI, null, Aware_Provider.Aware_Plugins.PLUGIN_STATUS + "=" + Aware_Plugin.STATUS_PLUGIN_ON, null, null);
+        if (enabled_plugins != null && enabled_plugins.moveToFirst()) {
+            do {
+                running_plugins.add(enabled_plugins.getString(enabled_plugins.getColumnIndex(Aware_Provider.Aware_Plugins.PLUGIN_PACKAGE_NAME)));
+            } while (enabled_plugins.moveToNext());
+        }
+        if (enabled_plugins != null && !enabled_plugins.isClosed()) enabled_plugins.close();
+
+        for (String package_name : running_plugins) {
+            if (!active_plugins.contains(package_name)) Aware.stopPlugin(context, package_name);
+        }
+
+        //(Re)start the plugins that are new or whose settings changed
         for (String package_name : active_plugins) {
             PackageInfo installed = PluginsManager.isInstalled(context, package_name);
             if (installed != null) {
-                Aware.startPlugin(context, package_name);
+                if (!running_plugins.contains(package_name) || changes.containsKey(package_name) || (standalone && !changes.isEmpty()))
+                    Aware.startPlugin(context, package_name);
             } else {
                 Aware.downloadPlugin(context, package_name, null, false);
             }
         }
 
-        Intent aware = new Intent(context, Aware.class);
-        context.startService(aware);
+        //Core sensors only need to be re-evaluated if their settings changed
+        if (changes.containsKey("com.aware.phone") || changes.containsKey(context.getPackageName())) {
+            Intent aware = new Intent(context, Aware.class);
+            context.startService(aware);
+        }
 
         //Send data to server
         Intent sync = new Intent(Aware.ACTION_AWARE_SYNC_DATA);
         context.sendBroadcast(sync);
     }
+
+    /**
+     * Adds a setting to a batch for {@link Aware#setSettings(Context, HashMap, boolean)}
+     */
+    private static void putSetting(HashMap<String, HashMap<String, Object>> settings, String package_name, String key, Object value) {
+        HashMap<String, Object> package_settings = settings.get(package_name);
+        if (package_settings == null) {
+            package_settings = new HashMap<>();
+            settings.put(package_name, package_settings);
+        }
+        package_settings.put(key, value);
+    }
 }
@@ -29,7 +29,7 @@ public class TestActivity extends Activity {
 
     int REQUEST_STORAGE = 1;
 
-    Button button_ESMNotification, scheduler_timer, button_delete_schedules;
+    Button button_ESMNotification, scheduler_timer, button_delete_schedules, button_benchmarks;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -65,6 +65,29 @@ public class TestActivity extends Activity {
             }
         });
 
+        button_benchmarks = (Button) findViewById(R.id.btn_benchmarks);
+        button_benchmarks.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                Toast.makeText(getApplicationContext(), "Running, see logcat", Toast.LENGTH_SHORT).show();
+
+                //benchmarks block, keep them off the main thread
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        AwareTest[] benchmarks = new AwareTest[]{
+                                new TestEncrypter(),
+                                new TestMqtt(),
+                                new TestStudyCheck(),
+                                new TestESMQueue()
+                        };
+                        for (AwareTest benchmark : benchmarks) {
+                            benchmark.test(getApplicationContext());
+                        }
+                    }
+                }).start();
+            }
+        });
+
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.WRITE_EXTERNAL_STORAGE}, REQUEST_STORAGE);
         }
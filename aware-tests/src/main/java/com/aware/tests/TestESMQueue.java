@@ -0,0 +1,114 @@
+package com.aware.tests;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import com.aware.Aware;
+import com.aware.Aware_Preferences;
+import com.aware.ESM;
+import com.aware.providers.ESM_Provider.ESM_Data;
+import com.aware.ui.esms.ESMFactory;
+import com.aware.ui.esms.ESMManager;
+import com.aware.ui.esms.ESM_Freetext;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+
+/**
+ * Time to save a queue of ESMs in the local ESM_Provider: one insert per ESM, against ESMManager.enqueue (one batch,
+ * one transaction). Results are in logcat.
+ * <p>
+ * The rows are saved as expired, so they never show up on the ESM queue, and are deleted afterwards.
+ */
+public class TestESMQueue implements AwareTest {
+
+    private static final String TAG = "AWARE::Test ESM queue";
+    private static final String TRIGGER = "BENCHMARK";
+
+    private static final int ESMS = 25;
+    private static final int ROUNDS = 20;
+
+    @Override
+    public void test(Context context) {
+        ArrayList<JSONObject> definitions = new ArrayList<>();
+        try {
+            ESMFactory factory = new ESMFactory();
+            for (int i = 0; i < ESMS; i++) {
+                ESM_Freetext freetext = new ESM_Freetext();
+                freetext.setTitle("Question " + (i + 1))
+                        .setInstructions("Benchmark")
+                        .setSubmitButton("OK");
+                factory.addESM(freetext);
+            }
+            JSONArray esms = new JSONArray(factory.build());
+            for (int i = 0; i < esms.length(); i++) {
+                definitions.add(esms.getJSONObject(i).getJSONObject(ESM.EXTRA_ESM));
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        //warm up
+        insertEach(context, rows(context, definitions));
+        ESMManager.enqueue(context, rows(context, definitions), definitions, false);
+        clear(context);
+
+        long each = 0;
+        long batch = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            ArrayList<ContentValues> rows = rows(context, definitions);
+            long start = System.nanoTime();
+            insertEach(context, rows);
+            each += System.nanoTime() - start;
+            clear(context);
+
+            rows = rows(context, definitions);
+            start = System.nanoTime();
+            ESMManager.enqueue(context, rows, definitions, false);
+            batch += System.nanoTime() - start;
+            clear(context);
+        }
+
+        Log.d(TAG, ESMS + " ESMs, average of " + ROUNDS + " rounds, ms:"
+                + " insert each=" + (each / ROUNDS / 1000000.0)
+                + " enqueue=" + (batch / ROUNDS / 1000000.0));
+    }
+
+    /**
+     * The rows ESM.queueESM saves, as expired
+     */
+    private static ArrayList<ContentValues> rows(Context context, ArrayList<JSONObject> definitions) {
+        long timestamp = System.currentTimeMillis();
+        String device_id = Aware.getSetting(context, Aware_Preferences.DEVICE_ID);
+
+        ArrayList<ContentValues> rows = new ArrayList<>();
+        for (int i = 0; i < definitions.size(); i++) {
+            JSONObject esm = definitions.get(i);
+            ContentValues rowData = new ContentValues();
+            rowData.put(ESM_Data.TIMESTAMP, timestamp + i);
+            rowData.put(ESM_Data.DEVICE_ID, device_id);
+            rowData.put(ESM_Data.JSON, esm.toString());
+            rowData.put(ESM_Data.EXPIRATION_THRESHOLD, esm.optInt(ESM_Data.EXPIRATION_THRESHOLD));
+            rowData.put(ESM_Data.NOTIFICATION_TIMEOUT, esm.optInt(ESM_Data.NOTIFICATION_TIMEOUT));
+            rowData.put(ESM_Data.STATUS, ESM.STATUS_EXPIRED);
+            rowData.put(ESM_Data.TRIGGER, TRIGGER);
+            rows.add(rowData);
+        }
+        return rows;
+    }
+
+    private static void insertEach(Context context, ArrayList<ContentValues> rows) {
+        for (ContentValues rowData : rows) {
+            context.getContentResolver().insert(ESM_Data.CONTENT_URI, rowData);
+        }
+    }
+
+    private static void clear(Context context) {
+        context.getContentResolver().delete(ESM_Data.CONTENT_URI, ESM_Data.TRIGGER + "='" + TRIGGER + "'", null);
+    }
+}
@@ -0,0 +1,89 @@
+package com.aware.tests;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.aware.utils.Encrypter;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashes/sec of Encrypter, against the hashing it had before hash programs were compiled and cached
+ * (a MessageDigest lookup and Integer.toHexString per call). Results are in logcat.
+ */
+public class TestEncrypter implements AwareTest {
+
+    private static final String TAG = "AWARE::Test Encrypter";
+
+    private static final int INPUTS = 100000;
+    private static final int ROUNDS = 3;
+
+    @Override
+    public void test(Context context) {
+        String[] inputs = new String[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            inputs[i] = String.format("+3585%08d", i); //phone number-like
+        }
+
+        //same output as before
+        for (int i = 0; i < 100; i++) {
+            if (!Encrypter.hashGeneric(inputs[i], "SHA-1").equals(legacyHash(inputs[i], "SHA-1"))) {
+                Log.e(TAG, "Different hash for " + inputs[i]);
+                return;
+            }
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (String input : inputs) legacyHash(input, "SHA-1");
+            long legacy = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String input : inputs) Encrypter.hashGeneric(input, "SHA-1");
+            long generic = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String input : inputs) Encrypter.hash(context, input);
+            long program = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String input : inputs) Encrypter.hashPhone(context, input);
+            long phone = System.nanoTime() - start;
+
+            Log.d(TAG, "Round " + (round + 1) + ", " + INPUTS + " inputs, hashes/sec:"
+                    + " before=" + rate(legacy)
+                    + " hashGeneric=" + rate(generic)
+                    + " hash=" + rate(program)
+                    + " hashPhone=" + rate(phone));
+        }
+    }
+
+    private static long rate(long nanos) {
+        return INPUTS * 1000000000L / Math.max(1, nanos);
+    }
+
+    /**
+     * Encrypter.hashGeneric as it was before
+     */
+    private static String legacyHash(String clear, String hash_function) {
+        try {
+            MessageDigest digest = java.security.MessageDigest.getInstance(hash_function);
+            digest.update(clear.getBytes());
+            byte messageDigest[] = digest.digest();
+
+            StringBuffer hexString = new StringBuffer();
+            for (int i = 0; i < messageDigest.length; i++) {
+                String h = Integer.toHexString(0xFF & messageDigest[i]);
+                while (h.length() < 2)
+                    h = "0" + h;
+                hexString.append(h);
+            }
+            return hexString.toString();
+
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return "";
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.aware.tests;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.aware.Aware;
+import com.aware.Aware_Preferences;
+import com.aware.Mqtt;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publish throughput and round-trip latency of Mqtt, against a small broker running in this process on 127.0.0.1:1883.
+ * The MQTT settings are changed while it runs and restored afterwards. Results are in logcat.
+ */
+public class TestMqtt implements AwareTest {
+
+    private static final String TAG = "AWARE::Test MQTT";
+
+    private static final int PORT = 1883;
+    private static final int MESSAGES = 1000;
+    private static final long TIMEOUT = 60000;
+
+    private final AtomicInteger received = new AtomicInteger();
+    private final long[] latencies = new long[MESSAGES];
+
+    @Override
+    public void test(Context context) {
+        String[] keys = new String[]{Aware_Preferences.STATUS_MQTT, Aware_Preferences.MQTT_SERVER, Aware_Preferences.MQTT_PORT,
+                Aware_Preferences.MQTT_QOS, Aware_Preferences.MQTT_USERNAME, Aware_Preferences.MQTT_PASSWORD};
+        String[] previous = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) previous[i] = Aware.getSetting(context, keys[i]);
+
+        Broker broker = null;
+        final String topic = Aware.getSetting(context, Aware_Preferences.DEVICE_ID) + "/benchmark";
+        Mqtt.RouteHandler route = new Mqtt.RouteHandler() {
+            @Override
+            public void onMessage(Context context, String topic, String message) {
+                long latency = System.nanoTime() - Long.parseLong(message);
+                int count = received.getAndIncrement();
+                if (count < MESSAGES) latencies[count] = latency;
+            }
+        };
+
+        try {
+            broker = new Broker(PORT);
+            broker.start();
+
+            Aware.stopMQTT(context);
+            Aware.setSetting(context, Aware_Preferences.MQTT_SERVER, "127.0.0.1");
+            Aware.setSetting(context, Aware_Preferences.MQTT_PORT, PORT);
+            Aware.setSetting(context, Aware_Preferences.MQTT_QOS, 1);
+            Aware.setSetting(context, Aware_Preferences.MQTT_USERNAME, "");
+            Aware.setSetting(context, Aware_Preferences.MQTT_PASSWORD, "");
+            Mqtt.addRoute(topic, route);
+            Aware.startMQTT(context);
+
+            //the device subscribes to its own topics once connected
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (!broker.isSubscribed(topic)) {
+                if (System.currentTimeMillis() > deadline) {
+                    Log.e(TAG, "MQTT did not connect and subscribe to the local broker");
+                    return;
+                }
+                Thread.sleep(100);
+            }
+
+            //warm up
+            publish(topic);
+            if (!waitFor(broker, 1, 1)) return;
+            received.set(0);
+            broker.published.set(0);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++) publish(topic);
+            if (!waitFor(broker, MESSAGES, 0)) return;
+            long elapsed = System.nanoTime() - start;
+            if (!waitFor(broker, MESSAGES, MESSAGES)) return;
+
+            long[] sorted = Arrays.copyOf(latencies, MESSAGES);
+            Arrays.sort(sorted);
+            Log.d(TAG, MESSAGES + " messages, QoS 1: " + (MESSAGES * 1000000000L / Math.max(1, elapsed)) + " messages/sec to the broker,"
+                    + " round-trip ms: median=" + (sorted[MESSAGES / 2] / 1000000.0)
+                    + " p90=" + (sorted[MESSAGES * 9 / 10] / 1000000.0)
+                    + " max=" + (sorted[MESSAGES - 1] / 1000000.0));
+
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            Mqtt.removeRoute(topic, route);
+            Aware.stopMQTT(context);
+            for (int i = 0; i < keys.length; i++) Aware.setSetting(context, keys[i], previous[i]);
+            if (previous[0].equals("true")) Aware.startMQTT(context);
+            if (broker != null) broker.close();
+        }
+    }
+
+    private static void publish(String topic) throws InterruptedException {
+        //the outbound queue is bounded: wait for room
+        while (!Mqtt.publish(topic, String.valueOf(System.nanoTime()))) Thread.sleep(1);
+    }
+
+    /**
+     * Waits until the broker has the published messages and the device got them back
+     */
+    private boolean waitFor(Broker broker, int published, int delivered) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (broker.published.get() < published || received.get() < delivered) {
+            if (System.currentTimeMillis() > deadline) {
+                Log.e(TAG, "Timed out: " + broker.published.get() + " published, " + received.get() + " delivered");
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    /**
+     * Just enough of an MQTT 3.1.1 broker for the benchmark: no sessions, no retained messages, and messages are
+     * forwarded to the subscribers with QoS 0.
+     */
+    private static class Broker extends Thread {
+
+        private final ServerSocket server;
+        private final CopyOnWriteArrayList<Client> clients = new CopyOnWriteArrayList<>();
+
+        /**
+         * PUBLISH packets received
+         */
+        final AtomicInteger published = new AtomicInteger();
+
+        Broker(int port) throws IOException {
+            super(TAG);
+            server = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+        }
+
+        @Override
+        public void run() {
+            while (!server.isClosed()) {
+                try {
+                    Client client = new Client(server.accept());
+                    clients.add(client);
+                    client.start();
+                } catch (IOException e) {
+                    //closed
+                }
+            }
+        }
+
+        boolean isSubscribed(String topic) {
+            for (Client client : clients) {
+                for (String filter : client.filters) {
+                    if (matches(filter, topic)) return true;
+                }
+            }
+            return false;
+        }
+
+        void close() {
+            try {
+                server.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            for (Client client : clients) client.close();
+        }
+
+        private void forward(String topic, byte[] payload) {
+            for (Client client : clients) {
+                for (String filter : client.filters) {
+                    if (matches(filter, topic)) {
+                        client.publish(topic, payload);
+                        break;
+                    }
+                }
+            }
+        }
+
+        private static boolean matches(String filter, String topic) {
+            String[] filters = filter.split("/", -1);
+            String[] levels = topic.split("/", -1);
+            for (int i = 0; i < filters.length; i++) {
+                if (filters[i].equals("#")) return true;
+                if (i >= levels.length) return false;
+                if (!filters[i].equals("+") && !filters[i].equals(levels[i])) return false;
+            }
+            return filters.length == levels.length;
+        }
+
+        private class Client extends Thread {
+            private final Socket socket;
+            private final OutputStream out;
+            final CopyOnWriteArrayList<String> filters = new CopyOnWriteArrayList<>();
+
+            Client(Socket socket) throws IOException {
+                super(TAG + " client");
+                this.socket = socket;
+                socket.setTcpNoDelay(true);
+                out = socket.getOutputStream();
+            }
+
+            @Override
+            public void run() {
+                try {
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    while (true) {
+                        int header = in.read();
+                        if (header < 0) break;
+                        byte[] body = new byte[readLength(in)];
+                        in.readFully(body);
+
+                        int type = header >> 4;
+                        if (type == 1) { //CONNECT
+                            write(new byte[]{0x20, 0x02, 0x00, 0x00});
+                        } else if (type == 3) { //PUBLISH
+                            int qos = (header >> 1) & 0x03;
+                            int topicLength = ((body[0] & 0xFF) << 8) | (body[1] & 0xFF);
+                            String topic = new String(body, 2, topicLength, "UTF-8");
+                            int position = 2 + topicLength;
+                            if (qos == 1) write(new byte[]{0x40, 0x02, body[position], body[position + 1]});
+                            if (qos == 2) write(new byte[]{0x50, 0x02, body[position], body[position + 1]});
+                            if (qos > 0) position += 2;
+                            published.incrementAndGet();
+                            forward(topic, Arrays.copyOfRange(body, position, body.length));
+                        } else if (type == 6) { //PUBREL
+                            write(new byte[]{0x70, 0x02, body[0], body[1]});
+                        } else if (type == 8) { //SUBSCRIBE
+                            int position = 2;
+                            int count = 0;
+                            while (position < body.length) {
+                                int filterLength = ((body[position] & 0xFF) << 8) | (body[position + 1] & 0xFF);
+                                filters.add(new String(body, position + 2, filterLength, "UTF-8"));
+                                position += 2 + filterLength + 1;
+                                count++;
+                            }
+                            byte[] suback = new byte[4 + count]; //granted QoS 0
+                            suback[0] = (byte) 0x90;
+                            suback[1] = (byte) (2 + count);
+                            suback[2] = body[0];
+                            suback[3] = body[1];
+                            write(suback);
+                        } else if (type == 10) { //UNSUBSCRIBE
+                            int position = 2;
+                            while (position < body.length) {
+                                int filterLength = ((body[position] & 0xFF) << 8) | (body[position + 1] & 0xFF);
+                                filters.remove(new String(body, position + 2, filterLength, "UTF-8"));
+                                position += 2 + filterLength;
+                            }
+                            write(new byte[]{(byte) 0xB0, 0x02, body[0], body[1]});
+                        } else if (type == 12) { //PINGREQ
+                            write(new byte[]{(byte) 0xD0, 0x00});
+                        } else if (type == 14) { //DISCONNECT
+                            break;
+                        }
+                    }
+                } catch (IOException e) {
+                    //client gone
+                } finally {
+                    clients.remove(this);
+                    close();
+                }
+            }
+
+            void publish(String topic, byte[] payload) {
+                try {
+                    byte[] name = topic.getBytes("UTF-8");
+                    int length = 2 + name.length + payload.length;
+                    byte[] packet = new byte[1 + lengthSize(length) + length];
+                    int position = 0;
+                    packet[position++] = 0x30;
+                    do {
+                        int digit = length % 128;
+                        length /= 128;
+                        packet[position++] = (byte) ((length > 0) ? digit | 0x80 : digit);
+                    } while (length > 0);
+                    packet[position++] = (byte) (name.length >> 8);
+                    packet[position++] = (byte) name.length;
+                    System.arraycopy(name, 0, packet, position, name.length);
+                    System.arraycopy(payload, 0, packet, position + name.length, payload.length);
+                    write(packet);
+                } catch (IOException e) {
+                    close();
+                }
+            }
+
+            private void write(byte[] packet) throws IOException {
+                synchronized (out) {
+                    out.write(packet);
+                    out.flush();
+                }
+            }
+
+            void close() {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    //already closed
+                }
+            }
+        }
+
+        private static int readLength(InputStream in) throws IOException {
+            int length = 0;
+            int multiplier = 1;
+            int digit;
+            do {
+                digit = in.read();
+                if (digit < 0) throw new IOException("Connection closed");
+                length += (digit & 0x7F) * multiplier;
+                multiplier *= 128;
+            } while ((digit & 0x80) != 0);
+            return length;
+        }
+
+        private static int lengthSize(int length) {
+            int size = 1;
+            while (length >= 128) {
+                length /= 128;
+                size++;
+            }
+            return size;
+        }
+    }
+}
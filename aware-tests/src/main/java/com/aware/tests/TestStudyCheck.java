@@ -0,0 +1,161 @@
+package com.aware.tests;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.aware.Aware;
+import com.aware.utils.Encrypter;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Study check against a stub server on 127.0.0.1: the first check applies the configuration, the next one sends
+ * If-None-Match and skips it, with and without ETag support on the server. Results are in logcat.
+ * <p>
+ * Run it on a device that is not enrolled in a study: the checks apply the stub's empty configuration.
+ */
+public class TestStudyCheck implements AwareTest {
+
+    private static final String TAG = "AWARE::Test Study check";
+
+    private static final String STUDY = "[{\"status\":true,\"config\":\"[]\"}]";
+    private static final String ETAG = "\"study-1\"";
+
+    @Override
+    public void test(Context context) {
+        Aware.clearStudyCheck(context);
+        try {
+            check(context, true);
+            Aware.clearStudyCheck(context);
+            check(context, false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            Aware.clearStudyCheck(context);
+        }
+    }
+
+    /**
+     * @param etags the stub answers with an ETag and 304, or like servers without conditional requests
+     */
+    private void check(Context context, boolean etags) throws IOException {
+        StubServer server = new StubServer(etags);
+        server.start();
+        try {
+            String study_url = "http://127.0.0.1:" + server.getPort() + "/index.php/webservice/index/1/test";
+            String expected = etags ? ETAG : "\"" + Encrypter.hashSHA1(STUDY) + "\"";
+
+            int first = Aware.checkStudy(context, study_url);
+            String first_header = server.if_none_match;
+            int second = Aware.checkStudy(context, study_url);
+            String second_header = server.if_none_match;
+
+            String mode = etags ? "ETag" : "no ETag";
+            if (first != Aware.STUDY_CHECK_APPLIED || first_header != null) {
+                Log.e(TAG, mode + ": first check returned " + first + ", If-None-Match=" + first_header);
+            } else if (second != Aware.STUDY_CHECK_NOT_MODIFIED || !expected.equals(second_header)) {
+                Log.e(TAG, mode + ": second check returned " + second + ", If-None-Match=" + second_header);
+            } else {
+                Log.d(TAG, mode + ": OK, configuration applied once");
+            }
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Replies to every request with the study, one request per connection
+     */
+    private static class StubServer extends Thread {
+
+        private final ServerSocket server;
+        private final boolean etags;
+
+        /**
+         * If-None-Match of the last request, null if it had none
+         */
+        volatile String if_none_match;
+
+        StubServer(boolean etags) throws IOException {
+            super(TAG);
+            this.etags = etags;
+            server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            while (!server.isClosed()) {
+                Socket socket = null;
+                try {
+                    socket = server.accept();
+                    reply(socket);
+                } catch (IOException e) {
+                    //closed
+                } finally {
+                    if (socket != null) {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        }
+
+        private void reply(Socket socket) throws IOException {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            String header = in.readLine(); //request line
+            String match = null;
+            int length = 0;
+            while ((header = in.readLine()) != null && header.length() > 0) {
+                int colon = header.indexOf(':');
+                if (colon < 0) continue;
+                String name = header.substring(0, colon).trim();
+                String value = header.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("If-None-Match")) match = value;
+                if (name.equalsIgnoreCase("Content-Length")) length = Integer.parseInt(value);
+            }
+            //the form data, ASCII
+            for (int i = 0; i < length; i++) in.read();
+            if_none_match = match;
+
+            String response;
+            if (etags && ETAG.equals(match)) {
+                response = "HTTP/1.1 304 Not Modified\r\nETag: " + ETAG + "\r\nConnection: close\r\n\r\n";
+            } else {
+                byte[] body = STUDY.getBytes("UTF-8");
+                response = "HTTP/1.1 200 OK\r\n"
+                        + (etags ? "ETag: " + ETAG + "\r\n" : "")
+                        + "Content-Type: application/json\r\n"
+                        + "Content-Length: " + body.length + "\r\n"
+                        + "Connection: close\r\n\r\n"
+                        + STUDY;
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(response.getBytes("UTF-8"));
+            out.flush();
+        }
+
+        void close() {
+            try {
+                server.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}